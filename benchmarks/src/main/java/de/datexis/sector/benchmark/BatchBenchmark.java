@@ -0,0 +1,97 @@
+package de.datexis.sector.benchmark;
+
+import de.datexis.common.Resource;
+import de.datexis.encoder.impl.BagOfWordsEncoder;
+import de.datexis.encoder.impl.StructureEncoder;
+import de.datexis.encoder.impl.Word2VecEncoder;
+import de.datexis.model.Document;
+import de.datexis.model.Sentence;
+import de.datexis.sector.encoder.HeadingEncoder;
+import de.datexis.sector.tagger.DocumentSentenceIterator;
+import de.datexis.sector.tagger.SectorTagger;
+import de.datexis.sector.tagger.SectorTaggerIterator;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of SECTOR training batch construction: input encodings, target encodings and masks.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4G"})
+public class BatchBenchmark {
+
+  /** number of Sentences per Document */
+  @Param({"10", "100", "1000"})
+  public int numSentences;
+
+  /** number of Documents per batch */
+  @Param({"16"})
+  public int batchSize;
+
+  protected SectorTaggerIterator iterator;
+  protected DocumentSentenceIterator.DocumentBatch batch;
+  protected Path vectorFile;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    SyntheticDocuments generator = new SyntheticDocuments(42, EncoderBenchmark.VOCABULARY_SIZE);
+    List<Document> docs = generator.createDocuments(batchSize, numSentences, 20, 10);
+    int maxDocLength = docs.stream().mapToInt(Document::countSentences).max().orElse(0);
+    BagOfWordsEncoder bagEncoder = new BagOfWordsEncoder();
+    bagEncoder.trainModel(docs);
+    vectorFile = EncoderBenchmark.writeWordVectors(generator, EncoderBenchmark.VOCABULARY_SIZE, EncoderBenchmark.EMBEDDING_SIZE);
+    Word2VecEncoder embEncoder = new Word2VecEncoder();
+    embEncoder.loadModel(Resource.fromFile(vectorFile.toString()));
+    HeadingEncoder headingEncoder = new HeadingEncoder();
+    headingEncoder.trainModel(docs);
+    SectorTagger tagger = new SectorTagger();
+    tagger.setInputEncoders(bagEncoder, embEncoder, new StructureEncoder());
+    tagger.setTargetEncoder(headingEncoder);
+    iterator = new SectorTaggerIterator(DocumentSentenceIterator.Stage.TRAIN, docs, tagger, batchSize, false, false);
+    batch = iterator.new DocumentBatch(docs.size(), docs, maxDocLength, null);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(vectorFile);
+  }
+
+  @Benchmark
+  public MultiDataSet generateDataSet() {
+    return iterator.generateDataSet(batch);
+  }
+
+  @Benchmark
+  public INDArray encodeTarget() {
+    return iterator.encodeTarget(batch.docs, batch.maxDocLength, Sentence.class);
+  }
+
+  @Benchmark
+  public INDArray createMask() {
+    return iterator.createMask(batch.docs, batch.maxDocLength, Sentence.class);
+  }
+
+}
@@ -0,0 +1,36 @@
+package de.datexis.sector.benchmark;
+
+import java.io.IOException;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs SECTOR benchmarks with the JMH command line, e.g. "java -jar benchmarks.jar EncoderBenchmark -p numSentences=100".
+ * Unless specified otherwise, allocation rates are measured with the GC profiler and results are written to
+ * jmh-result.json, so that they can be compared across versions.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class BenchmarkRunner {
+
+  public static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+  public static void main(String[] args) throws RunnerException, CommandLineOptionException, IOException {
+    CommandLineOptions cli = new CommandLineOptions(args);
+    if(cli.shouldHelp() || cli.shouldList() || cli.shouldListProfilers() || cli.shouldListResultFormats()) {
+      org.openjdk.jmh.Main.main(args);
+      return;
+    }
+    ChainedOptionsBuilder options = new OptionsBuilder().parent(cli);
+    if(!cli.getResultFormat().hasValue()) options.resultFormat(ResultFormatType.JSON);
+    if(!cli.getResult().hasValue()) options.result(DEFAULT_RESULT_FILE);
+    if(cli.getProfilers().isEmpty()) options.addProfiler(GCProfiler.class);
+    new Runner(options.build()).run();
+  }
+
+}
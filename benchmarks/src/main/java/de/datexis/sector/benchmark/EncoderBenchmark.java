@@ -0,0 +1,137 @@
+package de.datexis.sector.benchmark;
+
+import de.datexis.common.Resource;
+import de.datexis.encoder.impl.BagOfWordsEncoder;
+import de.datexis.encoder.impl.BloomEncoder;
+import de.datexis.encoder.impl.StructureEncoder;
+import de.datexis.encoder.impl.Word2VecEncoder;
+import de.datexis.model.Document;
+import de.datexis.model.Sentence;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of the SECTOR input encoders on a batch of synthetic Documents.
+ * Sentence-level benchmarks encode every Sentence of the batch, matrix benchmarks encode the whole batch at once.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4G"})
+public class EncoderBenchmark {
+
+  public static final int VOCABULARY_SIZE = 5000;
+  public static final int EMBEDDING_SIZE = 128;
+
+  /** number of Sentences per Document */
+  @Param({"10", "100", "1000"})
+  public int numSentences;
+
+  /** number of Documents per batch */
+  @Param({"4"})
+  public int batchSize;
+
+  protected List<Document> docs;
+  protected int maxDocLength;
+  protected BloomEncoder bloomEncoder;
+  protected BagOfWordsEncoder bagEncoder;
+  protected Word2VecEncoder embEncoder;
+  protected StructureEncoder flagEncoder;
+  protected Path vectorFile;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    SyntheticDocuments generator = new SyntheticDocuments(42, VOCABULARY_SIZE);
+    docs = generator.createDocuments(batchSize, numSentences, 20, 10);
+    maxDocLength = docs.stream().mapToInt(Document::countSentences).max().orElse(0);
+    bloomEncoder = new BloomEncoder(4096, 5);
+    bloomEncoder.trainModel(docs);
+    bagEncoder = new BagOfWordsEncoder();
+    bagEncoder.trainModel(docs);
+    vectorFile = writeWordVectors(generator, VOCABULARY_SIZE, EMBEDDING_SIZE);
+    embEncoder = new Word2VecEncoder();
+    embEncoder.loadModel(Resource.fromFile(vectorFile.toString()));
+    flagEncoder = new StructureEncoder();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(vectorFile);
+  }
+
+  /**
+   * Write random word vectors for the generator's vocabulary in word2vec text format.
+   */
+  protected static Path writeWordVectors(SyntheticDocuments generator, int vocabularySize, int size) throws IOException {
+    Path file = Files.createTempFile("sector-benchmark-", ".txt");
+    Random random = new Random(42);
+    try(BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+      for(int i = 0; i < vocabularySize; i++) {
+        out.write(generator.getWord(i));
+        for(int d = 0; d < size; d++) out.write(String.format(Locale.ROOT, " %.5f", random.nextGaussian() * 0.1));
+        out.newLine();
+      }
+    }
+    return file;
+  }
+
+  @Benchmark
+  public void bloomEncode(Blackhole bh) {
+    for(Document doc : docs) {
+      for(Sentence s : doc.getSentences()) bh.consume(bloomEncoder.encode(s));
+    }
+  }
+
+  @Benchmark
+  public void bagOfWordsEncode(Blackhole bh) {
+    for(Document doc : docs) {
+      for(Sentence s : doc.getSentences()) bh.consume(bagEncoder.encode(s));
+    }
+  }
+
+  @Benchmark
+  public INDArray bloomEncodeMatrix() {
+    return bloomEncoder.encodeMatrix(docs, maxDocLength, Sentence.class);
+  }
+
+  @Benchmark
+  public INDArray bagOfWordsEncodeMatrix() {
+    return bagEncoder.encodeMatrix(docs, maxDocLength, Sentence.class);
+  }
+
+  @Benchmark
+  public INDArray word2VecEncodeMatrix() {
+    return embEncoder.encodeMatrix(docs, maxDocLength, Sentence.class);
+  }
+
+  @Benchmark
+  public INDArray structureEncodeMatrix() {
+    return flagEncoder.encodeMatrix(docs, maxDocLength, Sentence.class);
+  }
+
+}
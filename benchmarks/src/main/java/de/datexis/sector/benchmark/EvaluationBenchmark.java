@@ -0,0 +1,92 @@
+package de.datexis.sector.benchmark;
+
+import de.datexis.model.Annotation;
+import de.datexis.model.Document;
+import de.datexis.sector.encoder.ClassEncoder;
+import de.datexis.sector.eval.ClassificationEvaluation;
+import de.datexis.sector.eval.SegmentationEvaluation;
+import de.datexis.sector.model.SectionAnnotation;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of segmentation (Pk, WindowDiff) and segment classification evaluation on synthetic Documents with
+ * GOLD sections and PRED sections that are shifted by one Sentence.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4G"})
+public class EvaluationBenchmark {
+
+  /** number of Sentences per Document */
+  @Param({"10", "100", "1000", "5000"})
+  public int numSentences;
+
+  /** number of Documents to evaluate */
+  @Param({"16"})
+  public int numDocuments;
+
+  protected List<Document> docs;
+  protected ClassEncoder encoder;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    SyntheticDocuments generator = new SyntheticDocuments(42, EncoderBenchmark.VOCABULARY_SIZE);
+    docs = generator.createDocuments(numDocuments, numSentences, 10, 10);
+    List<String> labels = new ArrayList<>();
+    for(String heading : SyntheticDocuments.HEADINGS) labels.add("synthetic." + heading);
+    encoder = new ClassEncoder();
+    encoder.trainModel(labels, 1);
+    Random random = new Random(42);
+    for(Document doc : docs) {
+      for(SectionAnnotation gold : doc.getAnnotations(Annotation.Source.GOLD, SectionAnnotation.class)) {
+        INDArray expected = encoder.encode(gold.getSectionLabel());
+        gold.putVector(ClassEncoder.class, expected);
+        int index = Math.min(doc.getSentenceIndexAtPosition(gold.getBegin()) + 1, doc.countSentences() - 1);
+        SectionAnnotation pred = new SectionAnnotation(Annotation.Source.PRED, gold.getType(), gold.getSectionHeading());
+        pred.setSectionLabel(gold.getSectionLabel());
+        pred.setBegin(doc.getSentence(index).getBegin());
+        pred.setEnd(gold.getEnd());
+        // noisy prediction that still ranks the expected class high most of the time
+        INDArray noise = Nd4j.rand(expected.rows(), expected.columns(), random.nextLong()).castTo(expected.dataType());
+        pred.putVector(ClassEncoder.class, expected.mul(0.5).addi(noise.muli(0.5)));
+        doc.addAnnotation(pred);
+      }
+    }
+  }
+
+  @Benchmark
+  public double segmentationEvaluation() {
+    SegmentationEvaluation eval = new SegmentationEvaluation("benchmark");
+    eval.calculateScoresFromAnnotations(docs, SectionAnnotation.class);
+    return eval.getPk();
+  }
+
+  @Benchmark
+  public double classificationEvaluation() {
+    ClassificationEvaluation eval = new ClassificationEvaluation("benchmark", Annotation.Source.GOLD, Annotation.Source.PRED, encoder, 3);
+    eval.calculateScoresFromAnnotations(docs, SectionAnnotation.class, true);
+    return eval.getMAP();
+  }
+
+}
@@ -0,0 +1,93 @@
+package de.datexis.sector.benchmark;
+
+import de.datexis.sector.SegmentationKernels;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of the segmentation kernels that run after the neural pass (PCA, Gaussian smoothing, deviation and edge
+ * detection) on random FW/BW embedding matrices of one Document.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4G"})
+public class SegmentationBenchmark {
+
+  protected static final int PCA_DIMS = 16;
+  protected static final double SMOOTH_FACTOR = 1.5;
+
+  /** number of Sentences per Document */
+  @Param({"10", "100", "1000", "5000"})
+  public int numSentences;
+
+  /** size of the FW/BW embedding layers */
+  @Param({"64", "128", "512"})
+  public int embeddingSize;
+
+  protected INDArray fw, bw, deviation;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    Random random = new Random(42);
+    fw = randomMatrix(random, numSentences, embeddingSize);
+    bw = randomMatrix(random, numSentences, embeddingSize);
+    deviation = SegmentationKernels.deviation(fw, bw);
+  }
+
+  @Benchmark
+  public INDArray pcaFactor() {
+    return SegmentationKernels.pcaFactor(fw, Math.min(PCA_DIMS, embeddingSize), false);
+  }
+
+  @Benchmark
+  public INDArray gaussianSmooth() {
+    return SegmentationKernels.gaussianSmooth(fw, SMOOTH_FACTOR);
+  }
+
+  @Benchmark
+  public INDArray deviation() {
+    return SegmentationKernels.deviation(fw, bw);
+  }
+
+  @Benchmark
+  public INDArray bidirectionalDeviation() {
+    return SegmentationKernels.bidirectionalDeviation(fw, bw);
+  }
+
+  @Benchmark
+  public INDArray detectEdges() {
+    return SegmentationKernels.detectEdges(deviation);
+  }
+
+  @Benchmark
+  public INDArray detectEdgesWithCount() {
+    return SegmentationKernels.detectEdges(deviation, Math.max(2, numSentences / 10));
+  }
+
+  protected static INDArray randomMatrix(Random random, int rows, int columns) {
+    float[][] data = new float[rows][columns];
+    for(int t = 0; t < rows; t++) {
+      for(int i = 0; i < columns; i++) data[t][i] = (float) random.nextGaussian();
+    }
+    return Nd4j.create(data);
+  }
+
+}
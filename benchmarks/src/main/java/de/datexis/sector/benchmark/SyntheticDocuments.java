@@ -0,0 +1,83 @@
+package de.datexis.sector.benchmark;
+
+import de.datexis.model.Annotation;
+import de.datexis.model.Document;
+import de.datexis.model.Sentence;
+import de.datexis.preprocess.DocumentFactory;
+import de.datexis.sector.model.SectionAnnotation;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Creates reproducible random Documents with GOLD SectionAnnotations for benchmarks.
+ * Words are drawn from a Zipf-like distribution over a fixed vocabulary, so that encoders see frequent and rare words.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class SyntheticDocuments {
+
+  public static final String[] HEADINGS = {
+    "abstract", "history", "symptoms", "diagnosis", "treatment", "epidemiology", "prognosis", "research"
+  };
+
+  protected final Random random;
+  protected final int vocabularySize;
+  protected final double[] cumulative;
+
+  public SyntheticDocuments(long seed, int vocabularySize) {
+    this.random = new Random(seed);
+    this.vocabularySize = vocabularySize;
+    this.cumulative = new double[vocabularySize];
+    double sum = 0;
+    for(int i = 0; i < vocabularySize; i++) {
+      sum += 1. / (i + 1);
+      cumulative[i] = sum;
+    }
+    for(int i = 0; i < vocabularySize; i++) cumulative[i] /= sum;
+  }
+
+  public String getWord(int rank) {
+    return "w" + rank;
+  }
+
+  public String nextWord() {
+    int rank = Arrays.binarySearch(cumulative, random.nextDouble());
+    if(rank < 0) rank = -rank - 1;
+    return getWord(Math.min(rank, vocabularySize - 1));
+  }
+
+  /**
+   * @return a Document with the given number of sentences, split into sections of sentencesPerSection sentences
+   */
+  public Document createDocument(String id, int numSentences, int sentenceLength, int sentencesPerSection) {
+    StringBuilder text = new StringBuilder();
+    for(int s = 0; s < numSentences; s++) {
+      for(int w = 0; w < sentenceLength; w++) {
+        if(w > 0) text.append(' ');
+        text.append(nextWord());
+      }
+      text.append(" .\n");
+    }
+    Document doc = DocumentFactory.fromText(text.toString(), DocumentFactory.Newlines.KEEP);
+    doc.setId(id);
+    List<Sentence> sentences = doc.getSentences();
+    for(int begin = 0; begin < sentences.size(); begin += sentencesPerSection) {
+      int end = Math.min(begin + sentencesPerSection, sentences.size()) - 1;
+      String heading = HEADINGS[random.nextInt(HEADINGS.length)];
+      SectionAnnotation ann = new SectionAnnotation(Annotation.Source.GOLD, "synthetic", heading);
+      ann.setSectionLabel("synthetic." + heading);
+      ann.setBegin(sentences.get(begin).getBegin());
+      ann.setEnd(sentences.get(end).getEnd());
+      doc.addAnnotation(ann);
+    }
+    return doc;
+  }
+
+  public List<Document> createDocuments(int numDocuments, int numSentences, int sentenceLength, int sentencesPerSection) {
+    List<Document> docs = new ArrayList<>(numDocuments);
+    for(int i = 0; i < numDocuments; i++) docs.add(createDocument("doc" + i, numSentences, sentenceLength, sentencesPerSection));
+    return docs;
+  }
+
+}
@@ -0,0 +1,112 @@
+import de.datexis.annotator.AnnotatorFactory;
+import de.datexis.common.CommandLineParser;
+import de.datexis.common.Resource;
+import de.datexis.sector.SectorAnnotationPipeline;
+import de.datexis.sector.SectorAnnotator;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Annotate a large corpus with a pre-trained SECTOR model in a streaming pipeline with constant memory
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class AnnotateSectorAnnotator {
+
+  protected final static Logger log = LoggerFactory.getLogger(AnnotateSectorAnnotator.class);
+
+  public static void main(String[] args) throws IOException {
+
+    final AnnotateSectorAnnotator.ExecParams params = new AnnotateSectorAnnotator.ExecParams();
+    final CommandLineParser parser = new CommandLineParser(params);
+
+    try {
+      parser.parse(args);
+      new AnnotateSectorAnnotator().annotate(params);
+      System.exit(0);
+    } catch(ParseException e) {
+      HelpFormatter formatter = new HelpFormatter();
+      formatter.printHelp("sector-annotate", "SECTOR: annotate JSON/JSONL files or text directories and write JSONL", params.setUpCliOptions(), "", true);
+      System.exit(1);
+    } catch(Exception e) {
+      e.printStackTrace();
+      System.exit(1);
+    }
+
+  }
+
+  protected static class ExecParams implements CommandLineParser.Options {
+
+    protected String modelPath = null;
+    protected String embeddingsPath = null;
+    protected String inputPath = null;
+    protected String outputPath = null;
+    protected String segmentation = "BEMD";
+    protected int batchSize = -1;
+    protected int queueSize = 64;
+    protected int[] threads = {2, 1, 1, 1};
+
+    @Override
+    public void setParams(CommandLine parse) {
+      modelPath = parse.getOptionValue("m");
+      embeddingsPath = parse.getOptionValue("e");
+      inputPath = parse.getOptionValue("i");
+      outputPath = parse.getOptionValue("o");
+      segmentation = parse.getOptionValue("s", "BEMD").toUpperCase();
+      batchSize = Integer.parseInt(parse.getOptionValue("b", "-1"));
+      queueSize = Integer.parseInt(parse.getOptionValue("q", "64"));
+      if(parse.hasOption("t")) {
+        String[] values = parse.getOptionValue("t").split(",");
+        if(values.length != 4) throw new IllegalArgumentException("threads must be given as tokenize,encode,blstm,segment");
+        for(int i = 0; i < 4; i++) threads[i] = Integer.parseInt(values[i].trim());
+      }
+    }
+
+    @Override
+    public Options setUpCliOptions() {
+      Options op = new Options();
+      op.addRequiredOption("m", "model", true, "path to the pre-trained model");
+      op.addRequiredOption("i", "input", true, "JSON (WikiSection) or JSONL file, or directory of .txt files");
+      op.addRequiredOption("o", "output", true, "JSONL file to write the annotated sections to");
+      op.addOption("e", "embedding", true, "search path to word embedding models (if not provided by the model itself)");
+      op.addOption("s", "segmentation", true, "segmentation method: NONE, NL, MAX, EMD, BEMD (default: BEMD)");
+      op.addOption("b", "batchsize", true, "number of documents per forward pass (default: model batch size)");
+      op.addOption("q", "queue", true, "capacity of the queues between stages in documents (default: 64)");
+      op.addOption("t", "threads", true, "threads per stage as tokenize,encode,blstm,segment (default: 2,1,1,1)");
+      return op;
+    }
+
+  }
+
+  public void annotate(AnnotateSectorAnnotator.ExecParams params) throws IOException {
+
+    // Load model
+    Resource modelPath = Resource.fromDirectory(params.modelPath);
+    SectorAnnotator sector = (SectorAnnotator) (params.embeddingsPath != null ?
+      AnnotatorFactory.loadAnnotator(modelPath, Resource.fromDirectory(params.embeddingsPath)) :
+      AnnotatorFactory.loadAnnotator(modelPath));
+
+    SectorAnnotationPipeline pipeline = new SectorAnnotationPipeline(sector)
+      .withSegmentation(SectorAnnotator.SegmentationMethod.valueOf(params.segmentation))
+      .withQueueSize(params.queueSize)
+      .withThreads(params.threads[0], params.threads[1], params.threads[2], params.threads[3]);
+    if(params.batchSize > 0) pipeline.withBatching(params.batchSize, 100);
+
+    // Stream documents through the pipeline
+    try(OutputStream out = new BufferedOutputStream(Files.newOutputStream(Paths.get(params.outputPath)))) {
+      SectorAnnotationPipeline.Statistics stats = pipeline.run(SectorAnnotationPipeline.readInput(Paths.get(params.inputPath)), out);
+      System.err.println(stats.toString());
+    }
+
+  }
+
+}
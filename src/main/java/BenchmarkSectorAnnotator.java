@@ -0,0 +1,151 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import de.datexis.annotator.AnnotatorFactory;
+import de.datexis.common.CommandLineParser;
+import de.datexis.common.Resource;
+import de.datexis.sector.SectorAnnotationPipeline;
+import de.datexis.sector.SectorAnnotator;
+import de.datexis.sector.SectorThroughputBenchmark;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measure throughput and latency of a pre-trained SECTOR model on a generated or given corpus
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class BenchmarkSectorAnnotator {
+
+  protected final static Logger log = LoggerFactory.getLogger(BenchmarkSectorAnnotator.class);
+
+  public static void main(String[] args) throws IOException {
+
+    final BenchmarkSectorAnnotator.ExecParams params = new BenchmarkSectorAnnotator.ExecParams();
+    final CommandLineParser parser = new CommandLineParser(params);
+
+    try {
+      parser.parse(args);
+      new BenchmarkSectorAnnotator().benchmark(params);
+      System.exit(0);
+    } catch(ParseException e) {
+      HelpFormatter formatter = new HelpFormatter();
+      formatter.printHelp("sector-bench", "SECTOR: measure annotation throughput and latency", params.setUpCliOptions(), "", true);
+      System.exit(1);
+    } catch(Exception e) {
+      e.printStackTrace();
+      System.exit(1);
+    }
+
+  }
+
+  protected static class ExecParams implements CommandLineParser.Options {
+
+    protected String modelPath = null;
+    protected String embeddingsPath = null;
+    protected String inputPath = null;
+    protected String outputPath = null;
+    protected int numDocuments = 100;
+    protected int numSentences = 50;
+    protected long seed = 42;
+    protected int[] batchSizes = {16};
+    protected int[] threads = {1};
+    protected List<SectorAnnotator.SegmentationMethod> segmentation = new ArrayList<>();
+    protected int warmup = 1;
+    protected int rounds = 3;
+
+    @Override
+    public void setParams(CommandLine parse) {
+      modelPath = parse.getOptionValue("m");
+      embeddingsPath = parse.getOptionValue("e");
+      inputPath = parse.getOptionValue("i");
+      outputPath = parse.getOptionValue("o");
+      numDocuments = Integer.parseInt(parse.getOptionValue("n", "100"));
+      numSentences = Integer.parseInt(parse.getOptionValue("l", "50"));
+      seed = Long.parseLong(parse.getOptionValue("seed", "42"));
+      batchSizes = parseList(parse.getOptionValue("b", "16"));
+      threads = parseList(parse.getOptionValue("t", "1"));
+      for(String method : parse.getOptionValue("s", "BEMD").split(",")) segmentation.add(SectorAnnotator.SegmentationMethod.valueOf(method.trim().toUpperCase()));
+      warmup = Integer.parseInt(parse.getOptionValue("w", "1"));
+      rounds = Integer.parseInt(parse.getOptionValue("r", "3"));
+    }
+
+    protected static int[] parseList(String values) {
+      String[] split = values.split(",");
+      int[] result = new int[split.length];
+      for(int i = 0; i < split.length; i++) result[i] = Integer.parseInt(split[i].trim());
+      return result;
+    }
+
+    @Override
+    public Options setUpCliOptions() {
+      Options op = new Options();
+      op.addRequiredOption("m", "model", true, "path to the pre-trained model");
+      op.addOption("e", "embedding", true, "search path to word embedding models (if not provided by the model itself)");
+      op.addOption("i", "input", true, "JSON (WikiSection) or JSONL file, or directory of .txt files (default: generated corpus)");
+      op.addOption("o", "output", true, "JSON file to write the results to (default: stdout)");
+      op.addOption("n", "documents", true, "number of generated documents (default: 100)");
+      op.addOption("l", "length", true, "number of sentences per generated document (default: 50)");
+      op.addOption(null, "seed", true, "random seed for the generated corpus (default: 42)");
+      op.addOption("b", "batchsize", true, "comma-separated list of batch sizes (default: 16)");
+      op.addOption("t", "threads", true, "comma-separated list of thread counts (default: 1)");
+      op.addOption("s", "segmentation", true, "comma-separated list of segmentation methods (default: BEMD)");
+      op.addOption("w", "warmup", true, "number of warmup rounds over the corpus (default: 1)");
+      op.addOption("r", "rounds", true, "number of measured rounds over the corpus (default: 3)");
+      return op;
+    }
+
+  }
+
+  public void benchmark(BenchmarkSectorAnnotator.ExecParams params) throws IOException {
+
+    // Load model
+    Resource modelPath = Resource.fromDirectory(params.modelPath);
+    SectorAnnotator sector = (SectorAnnotator) (params.embeddingsPath != null ?
+      AnnotatorFactory.loadAnnotator(modelPath, Resource.fromDirectory(params.embeddingsPath)) :
+      AnnotatorFactory.loadAnnotator(modelPath));
+
+    // Read or generate corpus
+    List<JsonNode> corpus = params.inputPath != null ?
+      SectorThroughputBenchmark.readCorpus(SectorAnnotationPipeline.readInput(Paths.get(params.inputPath))) :
+      SectorThroughputBenchmark.generateCorpus(params.numDocuments, params.numSentences, params.seed);
+    log.info("Benchmarking {} documents", corpus.size());
+
+    // Run all configurations
+    SectorThroughputBenchmark benchmark = new SectorThroughputBenchmark(sector).withRounds(params.warmup, params.rounds);
+    List<SectorThroughputBenchmark.Result> results = new ArrayList<>();
+    for(SectorAnnotator.SegmentationMethod method : params.segmentation) {
+      for(int batchSize : params.batchSizes) {
+        for(int threads : params.threads) {
+          results.add(benchmark.run(corpus, batchSize, threads, method));
+        }
+      }
+    }
+
+    Map<String,Object> config = new LinkedHashMap<>();
+    config.put("model", params.modelPath);
+    config.put("input", params.inputPath != null ? params.inputPath : "generated");
+    config.put("documents", corpus.size());
+    if(params.inputPath == null) {
+      config.put("sentencesPerDocument", params.numSentences);
+      config.put("seed", params.seed);
+    }
+    config.put("warmupRounds", params.warmup);
+    config.put("measureRounds", params.rounds);
+    String json = SectorThroughputBenchmark.toJSON(config, results);
+    if(params.outputPath != null) Files.write(Paths.get(params.outputPath), json.getBytes(StandardCharsets.UTF_8));
+    else System.out.println(json);
+
+  }
+
+}
@@ -12,6 +12,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Run experiments on a pre-trained SECTOR model
@@ -46,12 +48,18 @@ public class EvaluateSectorAnnotator {
     protected String modelPath = null;
     protected String testFile = null;
     protected String embeddingsPath = null;
+    protected int windowLength = -1;
+    protected int windowOverlap = 0;
+    protected String segmentation = null;
     
     @Override
     public void setParams(CommandLine parse) {
       modelPath = parse.getOptionValue("m");
       testFile = parse.getOptionValue("t");
       embeddingsPath = parse.getOptionValue("e");
+      windowLength = Integer.parseInt(parse.getOptionValue("w", "-1"));
+      windowOverlap = Integer.parseInt(parse.getOptionValue("x", "0"));
+      segmentation = parse.getOptionValue("s");
     }
     
     @Override
@@ -60,6 +68,9 @@ public class EvaluateSectorAnnotator {
       op.addRequiredOption("m", "model", true, "path to the pre-trained model");
       op.addRequiredOption("t", "test", true, "file name of WikiSection test dataset");
       op.addOption("e", "embedding", true, "search path to word embedding models (if not provided by the model itself)");
+      op.addOption("w", "window", true, "encode long documents in sliding windows of the given number of sentences");
+      op.addOption("x", "overlap", true, "number of overlapping sentences between sliding windows (default: 0)");
+      op.addOption("s", "segmentation", true, "compare a comma-separated list of segmentation methods, e.g. BEMD,EMD,MAX,NL");
       return op;
     }
     
@@ -82,6 +93,16 @@ public class EvaluateSectorAnnotator {
     
     // Annotate documents
     //sector.getTagger().setBatchSize(8); // if you need to save RAM on CUDA device
+    if(params.windowLength > 0) sector.getTagger().setInferenceWindowParams(params.windowLength, params.windowOverlap);
+    if(params.segmentation != null) {
+      // attach SectorEncoder vectors once and compare all segmentation methods on them
+      List<SectorAnnotator.SegmentationMethod> methods = new ArrayList<>();
+      for(String method : params.segmentation.split(",")) methods.add(SectorAnnotator.SegmentationMethod.valueOf(method.trim().toUpperCase()));
+      sector.annotate(test.getDocuments(), SectorAnnotator.SegmentationMethod.NONE);
+      sector.evaluateSegmentationMethods(test, methods);
+      return;
+    }
+    
     // will attach SectorEncoder vectors to Sentences and create SectionAnnotations
     sector.annotate(test.getDocuments(), SectorAnnotator.SegmentationMethod.BEMD);
     
@@ -0,0 +1,102 @@
+import de.datexis.common.CommandLineParser;
+import de.datexis.sector.reader.SyntheticCorpusGenerator;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Generate a synthetic WikiSection-like corpus of arbitrary size with constant memory
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class GenerateSyntheticCorpus {
+
+  protected final static Logger log = LoggerFactory.getLogger(GenerateSyntheticCorpus.class);
+
+  public static void main(String[] args) throws IOException {
+
+    final GenerateSyntheticCorpus.ExecParams params = new GenerateSyntheticCorpus.ExecParams();
+    final CommandLineParser parser = new CommandLineParser(params);
+
+    try {
+      parser.parse(args);
+      new GenerateSyntheticCorpus().generate(params);
+      System.exit(0);
+    } catch(ParseException e) {
+      HelpFormatter formatter = new HelpFormatter();
+      formatter.printHelp("sector-generate", "SECTOR: generate a synthetic WikiSection-like corpus", params.setUpCliOptions(), "", true);
+      System.exit(1);
+    } catch(Exception e) {
+      e.printStackTrace();
+      System.exit(1);
+    }
+
+  }
+
+  protected static class ExecParams implements CommandLineParser.Options {
+
+    protected String outputPath = null;
+    protected long numDocuments = 1000;
+    protected int[] sections = {3, 8};
+    protected int[] sentences = {2, 10};
+    protected int vocabularySize = 10000;
+    protected double zipfExponent = 1.0;
+    protected long seed = 42;
+
+    @Override
+    public void setParams(CommandLine parse) {
+      outputPath = parse.getOptionValue("o");
+      numDocuments = Long.parseLong(parse.getOptionValue("n", "1000"));
+      sections = parseRange(parse.getOptionValue("s", "3,8"));
+      sentences = parseRange(parse.getOptionValue("l", "2,10"));
+      vocabularySize = Integer.parseInt(parse.getOptionValue("v", "10000"));
+      zipfExponent = Double.parseDouble(parse.getOptionValue("z", "1.0"));
+      seed = Long.parseLong(parse.getOptionValue("seed", "42"));
+    }
+
+    protected static int[] parseRange(String value) {
+      String[] split = value.split(",");
+      int min = Integer.parseInt(split[0].trim());
+      return new int[] { min, split.length > 1 ? Integer.parseInt(split[1].trim()) : min };
+    }
+
+    @Override
+    public Options setUpCliOptions() {
+      Options op = new Options();
+      op.addRequiredOption("o", "output", true, "file to write, either WikiSection JSON (.json) or JSON lines (.jsonl)");
+      op.addOption("n", "documents", true, "number of documents (default: 1000)");
+      op.addOption("s", "sections", true, "number of sections per document as min,max (default: 3,8)");
+      op.addOption("l", "length", true, "number of sentences per section as min,max (default: 2,10)");
+      op.addOption("v", "vocabulary", true, "vocabulary size (default: 10000)");
+      op.addOption("z", "zipf", true, "exponent of the Zipf word distribution (default: 1.0)");
+      op.addOption(null, "seed", true, "random seed (default: 42)");
+      return op;
+    }
+
+  }
+
+  public void generate(GenerateSyntheticCorpus.ExecParams params) throws IOException {
+
+    SyntheticCorpusGenerator generator = new SyntheticCorpusGenerator()
+      .withSeed(params.seed)
+      .withDocuments(params.numDocuments)
+      .withSections(params.sections[0], params.sections[1])
+      .withSentencesPerSection(params.sentences[0], params.sentences[1])
+      .withVocabulary(params.vocabularySize, params.zipfExponent);
+
+    try(OutputStream out = new BufferedOutputStream(Files.newOutputStream(Paths.get(params.outputPath)))) {
+      long count = params.outputPath.endsWith(".jsonl") ? generator.writeJSONL(out) : generator.writeJSON(out);
+      log.info("Generated {} documents in {}", count, params.outputPath);
+    }
+
+  }
+
+}
@@ -0,0 +1,102 @@
+import de.datexis.annotator.AnnotatorFactory;
+import de.datexis.common.CommandLineParser;
+import de.datexis.common.Resource;
+import de.datexis.sector.SectorAnnotator;
+import de.datexis.sector.service.SectorAnnotationService;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Serve a pre-trained SECTOR model over HTTP on localhost
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class ServeSectorAnnotator {
+
+  protected final static Logger log = LoggerFactory.getLogger(ServeSectorAnnotator.class);
+
+  public static void main(String[] args) throws IOException {
+
+    final ServeSectorAnnotator.ExecParams params = new ServeSectorAnnotator.ExecParams();
+    final CommandLineParser parser = new CommandLineParser(params);
+
+    try {
+      parser.parse(args);
+      new ServeSectorAnnotator().serve(params);
+      System.exit(0);
+    } catch(ParseException e) {
+      HelpFormatter formatter = new HelpFormatter();
+      formatter.printHelp("sector-serve", "SECTOR: serve SectorAnnotator over HTTP/JSON on localhost", params.setUpCliOptions(), "", true);
+      System.exit(1);
+    } catch(Exception e) {
+      e.printStackTrace();
+      System.exit(1);
+    }
+
+  }
+
+  protected static class ExecParams implements CommandLineParser.Options {
+
+    protected String modelPath = null;
+    protected String embeddingsPath = null;
+    protected int port = 8080;
+    protected int batchSize = -1;
+    protected long maxWait = 10;
+    protected int queueSize = 1024;
+
+    @Override
+    public void setParams(CommandLine parse) {
+      modelPath = parse.getOptionValue("m");
+      embeddingsPath = parse.getOptionValue("e");
+      port = Integer.parseInt(parse.getOptionValue("p", "8080"));
+      batchSize = Integer.parseInt(parse.getOptionValue("b", "-1"));
+      maxWait = Long.parseLong(parse.getOptionValue("w", "10"));
+      queueSize = Integer.parseInt(parse.getOptionValue("q", "1024"));
+    }
+
+    @Override
+    public Options setUpCliOptions() {
+      Options op = new Options();
+      op.addRequiredOption("m", "model", true, "path to the pre-trained model");
+      op.addOption("e", "embedding", true, "search path to word embedding models (if not provided by the model itself)");
+      op.addOption("p", "port", true, "local port to listen on (default: 8080)");
+      op.addOption("b", "batchsize", true, "maximum number of documents per forward pass (default: model batch size)");
+      op.addOption("w", "wait", true, "maximum time in milliseconds to wait for a batch to fill (default: 10)");
+      op.addOption("q", "queue", true, "maximum number of queued documents (default: 1024)");
+      return op;
+    }
+
+  }
+
+  public void serve(ServeSectorAnnotator.ExecParams params) throws IOException, InterruptedException {
+
+    // Load model
+    Resource modelPath = Resource.fromDirectory(params.modelPath);
+    SectorAnnotator sector = (SectorAnnotator) (params.embeddingsPath != null ?
+      AnnotatorFactory.loadAnnotator(modelPath, Resource.fromDirectory(params.embeddingsPath)) :
+      AnnotatorFactory.loadAnnotator(modelPath));
+
+    SectorAnnotationService service = new SectorAnnotationService(sector)
+      .withPort(params.port)
+      .withQueueSize(params.queueSize);
+    if(params.batchSize > 0) service.withBatching(params.batchSize, params.maxWait);
+    else service.withBatching(sector.getTagger().getBatchSize(), params.maxWait);
+
+    // run until the process is terminated
+    CountDownLatch shutdown = new CountDownLatch(1);
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      service.close();
+      shutdown.countDown();
+    }));
+    service.start();
+    shutdown.await();
+
+  }
+
+}
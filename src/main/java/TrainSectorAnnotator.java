@@ -7,6 +7,7 @@ import de.datexis.sector.encoder.*;
 import de.datexis.sector.model.SectionAnnotation;
 import de.datexis.sector.reader.WikiSectionReader;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 
 import org.apache.commons.cli.*;
@@ -54,6 +55,9 @@ public class TrainSectorAnnotator {
     protected String language = null;
     protected boolean trainingUI = false;
     protected boolean isHeadingsModel = false;
+    protected String featureStorePath = null;
+    protected String replayPath = null;
+    protected long replayBudget = -1;
 
     @Override
     public void setParams(CommandLine parse) {
@@ -65,6 +69,9 @@ public class TrainSectorAnnotator {
       language = parse.getOptionValue("l", "en");
       trainingUI = parse.hasOption("u");
       isHeadingsModel = parse.hasOption("h");
+      featureStorePath = parse.getOptionValue("c");
+      replayPath = parse.getOptionValue("b");
+      replayBudget = parse.hasOption("d") ? Long.parseLong(parse.getOptionValue("d")) * 1024 * 1024 : -1;
     }
 
     @Override
@@ -79,6 +86,9 @@ public class TrainSectorAnnotator {
       op.addOption("e", "embedding", true, "path to word embedding model, will use bloom filters if not given");
       op.addOption("l", "language", true, "language to use for sentence splitting and stopwords (EN or DE)");
       op.addOption("u", "ui", false, "enable training UI (http://127.0.0.1:9000)");
+      op.addOption("c", "cache", true, "path to cache sentence encodings across epochs and training runs");
+      op.addOption("b", "replay", true, "path to store generated batches of the first epoch and replay them in later epochs (only if an epoch covers the whole training set)");
+      op.addOption("d", "replay-budget", true, "maximum disk space in MB for replayed batches (default: unlimited)");
       return op;
     }
 
@@ -93,36 +103,24 @@ public class TrainSectorAnnotator {
     Resource output = Resource.fromDirectory(params.outputPath);
     WordHelpers.Language lang = WordHelpers.getLanguage(params.language);
 
-    // Read datasets
+    // Read datasets (compact Tokens, because they are kept in memory for the whole training)
     Dataset train = trainingPath.getFileName().endsWith(".json") ?
-      WikiSectionReader.readDatasetFromJSON(trainingPath) :
-      WikiSectionReader.readDatasetFromJSON(trainingPath);
+      WikiSectionReader.readDatasetFromJSON(trainingPath, true) :
+      WikiSectionReader.readDatasetFromJSON(trainingPath, true);
     Dataset validation = validationPath == null ? null :
       validationPath.getFileName().endsWith(".json") ?
-      WikiSectionReader.readDatasetFromJSON(validationPath) :
-      WikiSectionReader.readDatasetFromJSON(validationPath);
+      WikiSectionReader.readDatasetFromJSON(validationPath, true) :
+      WikiSectionReader.readDatasetFromJSON(validationPath, true);
     Dataset test = testPath == null ? null :
       testPath.getFileName().endsWith(".json") ?
-        WikiSectionReader.readDatasetFromJSON(testPath) :
-        WikiSectionReader.readDatasetFromJSON(testPath);
-
-    SectorAnnotator.Builder builder = new SectorAnnotator.Builder();
-
-    // Configure input encoders (bloom filter or word embeddings)
-    if(params.embeddingsFile == null) initializeInputEncodings_bloom(builder, train, lang);
-    else initializeInputEncodings_wemb(builder, Resource.fromFile(params.embeddingsFile));
-
-    // Configure target encoders (class labels or heading labels)
-    if(params.isHeadingsModel) initializeHeadingsTarget(builder, train, lang);
-    else initializeClassLabelsTarget(builder, train);
+        WikiSectionReader.readDatasetFromJSON(testPath, true) :
+        WikiSectionReader.readDatasetFromJSON(testPath, true);
 
     // Build the Annotator
-    SectorAnnotator sector = builder
-      .withDataset(train.getName(), lang)
-      .withModelParams(0, 256, 128)                     // ffwLayerSize, lstmLayerSize, embeddingLayerSize is hardcoded here
-      .withTrainingParams(0.01, 0.5, 2048, 396, 16, 10) // learningrate, dropout, epochsize, maxlength, batchsize, epochs is hardcoded here
-      .enableTrainingUI(params.trainingUI)
-      .build();
+    SectorAnnotator sector = buildAnnotator(params, train, lang);
+    output = output.resolve(sector.getTagger().getName());
+    output.toFile().mkdirs();
+    sector.getTagger().setMetricsDirectory(output);
 
     boolean success = false;
     try {
@@ -132,8 +130,6 @@ public class TrainSectorAnnotator {
       else sector.trainModelEarlyStopping(train, validation, 10, 10, 100); // minepochs, tryepochs, maxepochs is hardcoded here
 
       // Save model
-      output = output.resolve(sector.getTagger().getName());
-      output.toFile().mkdirs();
       sector.writeModel(output);
       sector.writeTrainLog(output);
 
@@ -158,6 +154,34 @@ public class TrainSectorAnnotator {
 
   }
 
+  /**
+   * Initialize encoders and build an untrained SectorAnnotator for the given training dataset
+   */
+  protected SectorAnnotator buildAnnotator(ExecParams params, Dataset train, WordHelpers.Language lang) throws IOException {
+
+    SectorAnnotator.Builder builder = new SectorAnnotator.Builder();
+
+    // Configure input encoders (bloom filter or word embeddings)
+    if(params.embeddingsFile == null) initializeInputEncodings_bloom(builder, train, lang);
+    else initializeInputEncodings_wemb(builder, Resource.fromFile(params.embeddingsFile));
+
+    // Configure target encoders (class labels or heading labels)
+    if(params.isHeadingsModel) initializeHeadingsTarget(builder, train, lang);
+    else initializeClassLabelsTarget(builder, train);
+
+    // Configure persistent cache for sentence encodings
+    if(params.featureStorePath != null) builder.withFeatureStore(Paths.get(params.featureStorePath));
+    if(params.replayPath != null) builder.withReplayCache(Paths.get(params.replayPath), params.replayBudget);
+
+    return builder
+      .withDataset(train.getName(), lang)
+      .withModelParams(0, 256, 128)                     // ffwLayerSize, lstmLayerSize, embeddingLayerSize is hardcoded here
+      .withTrainingParams(0.01, 0.5, 2048, 396, 16, 10) // learningrate, dropout, epochsize, maxlength, batchsize, epochs is hardcoded here
+      .enableTrainingUI(params.trainingUI)
+      .build();
+
+  }
+
   protected SectorAnnotator.Builder initializeInputEncodings_bloom(SectorAnnotator.Builder builder, Dataset train, WordHelpers.Language lang) {
 
     BloomEncoder bloom = new BloomEncoder(4096, 5);
@@ -0,0 +1,150 @@
+import de.datexis.annotator.AnnotatorFactory;
+import de.datexis.common.*;
+import de.datexis.common.CommandLineParser;
+import de.datexis.model.*;
+import de.datexis.sector.SectorAnnotator;
+import de.datexis.sector.reader.WikiSectionReader;
+import de.datexis.sector.tagger.SectorTagger;
+import de.datexis.sector.tagger.distributed.ParameterServer;
+import de.datexis.sector.tagger.distributed.ParameterServerWorker;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.apache.commons.cli.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Main Controller for distributed training of SECTOR models with multiple processes on a single host.
+ * The coordinator builds the model, writes it to a working directory and starts a ParameterServer.
+ * Every worker loads the model from the working directory and trains on its shard of the dataset.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class TrainSectorAnnotatorDistributed extends TrainSectorAnnotator {
+
+  protected final static Logger log = LoggerFactory.getLogger(TrainSectorAnnotatorDistributed.class);
+
+  /** file in the working directory that contains the port of the ParameterServer */
+  protected final static String PORT_FILE = "parameterserver.port";
+
+  public static void main(String[] args) throws IOException {
+
+    final DistributedParams params = new DistributedParams();
+    final CommandLineParser parser = new CommandLineParser(params);
+
+    try {
+      parser.parse(args);
+      TrainSectorAnnotatorDistributed training = new TrainSectorAnnotatorDistributed();
+      if(params.workerId < 0) training.runCoordinator(params);
+      else training.runWorker(params);
+      System.exit(0);
+    } catch(ParseException e) {
+      HelpFormatter formatter = new HelpFormatter();
+      formatter.printHelp("sector-train-distributed", "SECTOR: distributed training of SectorAnnotator from WikiSection dataset", params.setUpCliOptions(), "", true);
+      System.exit(1);
+    } catch(Exception e) {
+      e.printStackTrace();
+      System.exit(1);
+    }
+
+  }
+
+  protected static class DistributedParams extends ExecParams {
+
+    protected int numWorkers;
+    protected int workerId = -1;
+    protected int stepsPerRound = 4;
+    protected long roundTimeout = 10 * 60 * 1000;
+
+    @Override
+    public void setParams(CommandLine parse) {
+      super.setParams(parse);
+      numWorkers = Integer.parseInt(parse.getOptionValue("w"));
+      workerId = Integer.parseInt(parse.getOptionValue("k", "-1"));
+      stepsPerRound = Integer.parseInt(parse.getOptionValue("s", "4"));
+      roundTimeout = Long.parseLong(parse.getOptionValue("r", "600")) * 1000;
+    }
+
+    @Override
+    public Options setUpCliOptions() {
+      Options op = super.setUpCliOptions();
+      op.addRequiredOption("w", "workers", true, "number of worker processes");
+      op.addOption("k", "worker", true, "ID of this worker (0..workers-1), starts the coordinator if not given");
+      op.addOption("s", "sync", true, "number of batches each worker trains between parameter averaging (default: 4)");
+      op.addOption("r", "timeout", true, "seconds to wait for a missing worker before a round is completed without it (default: 600)");
+      return op;
+    }
+
+  }
+
+  protected void runCoordinator(DistributedParams params) throws IOException, InterruptedException {
+
+    // Configure parameters
+    Resource trainingPath = Resource.fromDirectory(params.trainFile);
+    Resource output = Resource.fromDirectory(params.outputPath);
+    Resource workDir = getWorkDir(params);
+    WordHelpers.Language lang = WordHelpers.getLanguage(params.language);
+    workDir.toFile().mkdirs();
+    Files.deleteIfExists(workDir.resolve(PORT_FILE).getPath());
+
+    // Build the Annotator and write the untrained model for the workers
+    Dataset train = WikiSectionReader.readDatasetFromJSON(trainingPath);
+    SectorAnnotator sector = buildAnnotator(params, train, lang);
+    SectorTagger tagger = sector.getTagger();
+    sector.writeModel(workDir);
+
+    int numExamples = tagger.getNumExamples() > 0 ? Math.min(tagger.getNumExamples(), train.countDocuments()) : train.countDocuments();
+    int roundsPerEpoch = ParameterServer.getRoundsPerEpoch(numExamples, params.numWorkers, tagger.getBatchSize(), params.stepsPerRound);
+
+    // Train model
+    Path portFile = workDir.resolve(PORT_FILE).getPath();
+    try(ParameterServer server = new ParameterServer(tagger, params.numWorkers)
+        .withSchedule(roundsPerEpoch, params.stepsPerRound, tagger.getNumEpochs())
+        .withRoundTimeout(params.roundTimeout)) {
+      server.start();
+      server.writePortFile(portFile);
+      server.awaitCompletion();
+    } finally {
+      Files.deleteIfExists(portFile);
+    }
+
+    // Save model
+    output = output.resolve(tagger.getName());
+    output.toFile().mkdirs();
+    sector.writeModel(output);
+    sector.writeTrainLog(output);
+
+  }
+
+  protected void runWorker(DistributedParams params) throws IOException, InterruptedException {
+
+    Resource trainingPath = Resource.fromDirectory(params.trainFile);
+    Resource workDir = getWorkDir(params);
+    Resource portFile = workDir.resolve(PORT_FILE);
+
+    // wait for the coordinator to write the initial model and start the server
+    log.info("Worker {} waiting for coordinator in {}", params.workerId, workDir.toString());
+    while(!portFile.exists()) Thread.sleep(1000);
+
+    // load the untrained model, word embeddings are searched next to the given embedding file
+    Resource embeddingsPath = params.embeddingsFile != null ?
+      Resource.fromDirectory(Resource.fromFile(params.embeddingsFile).getPath().toAbsolutePath().getParent()) : null;
+    SectorAnnotator sector = (SectorAnnotator) (embeddingsPath != null ?
+      AnnotatorFactory.loadAnnotator(workDir, embeddingsPath) :
+      AnnotatorFactory.loadAnnotator(workDir));
+
+    Dataset train = WikiSectionReader.readDatasetFromJSON(trainingPath);
+    List<Document> shard = ParameterServerWorker.createShard(train.getDocuments(), params.workerId, params.numWorkers);
+
+    // the port file is read again on every connection attempt, it might be left over from a previous run
+    new ParameterServerWorker(sector.getTagger(), shard, params.workerId, portFile.getPath()).run();
+
+  }
+
+  protected Resource getWorkDir(DistributedParams params) {
+    return Resource.fromDirectory(params.outputPath).resolve("distributed");
+  }
+
+}
@@ -46,6 +46,11 @@ public class Annotator {
    */
   protected Provenance provenance;
   
+  /**
+   * JMX monitor, if it was registered
+   */
+  protected AnnotatorMonitor monitor;
+  
   /**
    * Used by AnnotatorFactory
    */
@@ -114,6 +119,31 @@ public class Annotator {
     return provenance;
   }
 
+  /**
+   * @return the JMX monitor of this Annotator, or null if it is not registered
+   */
+  public AnnotatorMonitor getMonitor() {
+    return monitor;
+  }
+
+  /**
+   * Expose telemetry of this Annotator via JMX. The MBeanServer keeps a reference to this Annotator, so call
+   * unregisterMonitor() before the Annotator is discarded or replaced.
+   * @return the JMX monitor, or null if registration failed
+   */
+  public synchronized AnnotatorMonitor registerMonitor() {
+    if(monitor == null) monitor = AnnotatorMonitor.register(this);
+    return monitor;
+  }
+
+  /**
+   * Remove the JMX monitor of this Annotator, if it was registered.
+   */
+  public synchronized void unregisterMonitor() {
+    if(monitor != null) monitor.unregister();
+    monitor = null;
+  }
+
   /**
    * Writes annotator.xml and binary model
    * @param path Directory to write to
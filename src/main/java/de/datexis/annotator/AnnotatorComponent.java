@@ -1,6 +1,7 @@
 package de.datexis.annotator;
 
 import de.datexis.tagger.Tagger;
+import de.datexis.common.MetricsRegistry;
 import de.datexis.common.Resource;
 import de.datexis.common.Timer;
 import de.datexis.encoder.Encoder;
@@ -34,6 +35,7 @@ public abstract class AnnotatorComponent {
   protected String id;
   
   protected Timer timer = new Timer();
+  protected MetricsRegistry metrics = new MetricsRegistry();
   private StringBuilder trainLog = new StringBuilder();
   private StringBuilder testLog = new StringBuilder();
   
@@ -198,6 +200,15 @@ public abstract class AnnotatorComponent {
     log.info(msg);
   }
   
+  /**
+   * @return training and inference metrics of this component, which can be queried at any time
+   */
+  @JsonIgnore
+  @com.fasterxml.jackson.annotation.JsonIgnore // also hidden from ObjectSerializer, e.g. Encoder config.json
+  public MetricsRegistry getMetrics() {
+    return metrics;
+  }
+  
   protected String getTrainLog() {
     return trainLog.toString();
   }
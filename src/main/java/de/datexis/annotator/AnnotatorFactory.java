@@ -239,6 +239,9 @@ public class AnnotatorFactory {
         if(!el.isNil()) ann.provenance = el.getValue();
       }
       
+      // expose telemetry via JMX if enabled globally
+      if(AnnotatorMonitor.isEnabled()) ann.registerMonitor();
+      
       return ann; 
       
     } catch (ParserConfigurationException | SAXException | JAXBException | InstantiationException | IllegalAccessException ex) {
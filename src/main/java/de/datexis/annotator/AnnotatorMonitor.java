@@ -0,0 +1,279 @@
+package de.datexis.annotator;
+
+import de.datexis.common.MetricsRegistry;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.bytedeco.javacpp.Pointer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Exposes model identity and the MetricsRegistry of a loaded Annotator as JMX MXBean "de.datexis:type=Annotator".
+ * All attributes are read from the registries when they are queried, so the monitor adds no overhead to annotation.
+ * Registration is opt-in: call Annotator.registerMonitor(), or set the system property "de.datexis.jmx" to true to
+ * register all Annotators that are loaded with AnnotatorFactory. The platform MBeanServer keeps a reference to the
+ * Annotator until Annotator.unregisterMonitor() is called.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class AnnotatorMonitor implements AnnotatorMonitorMXBean {
+
+  protected final static Logger log = LoggerFactory.getLogger(AnnotatorMonitor.class);
+
+  public static final String DOMAIN = "de.datexis";
+  public static final String ENABLED_PROPERTY = "de.datexis.jmx";
+
+  public static final String INFERENCE_DOCUMENTS = "inference.documents";
+  public static final String INFERENCE_SENTENCES = "inference.sentences";
+  public static final String INFERENCE_BATCHES = "inference.batches";
+  public static final String INFERENCE_BATCH_SIZE = "inference.batchSize";
+  public static final String INFERENCE_FORWARD_TIME = "inference.forwardTimeMs";
+  public static final String INFERENCE_SEGMENTATION_TIME = "inference.segmentationTimeMs";
+  /** prefix of gauges that are bound to queue sizes */
+  public static final String QUEUE_PREFIX = "queue.";
+  /** prefix of gauges that describe encoding caches */
+  public static final String CACHE_PREFIX = "cache.";
+
+  protected static final AtomicInteger instances = new AtomicInteger();
+
+  protected final Annotator annotator;
+  protected ObjectName name;
+  protected String fingerprint;
+
+  public AnnotatorMonitor(Annotator annotator) {
+    this.annotator = annotator;
+  }
+
+  /**
+   * @return true if AnnotatorFactory should register all loaded Annotators
+   */
+  public static boolean isEnabled() {
+    return Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "false"));
+  }
+
+  /**
+   * Register a monitor for the given Annotator with the platform MBeanServer.
+   * @return the monitor, or null if registration failed
+   */
+  public static AnnotatorMonitor register(Annotator annotator) {
+    AnnotatorMonitor monitor = new AnnotatorMonitor(annotator);
+    try {
+      String model = annotator.getProvenance() != null && annotator.getProvenance().getName() != null ?
+        annotator.getProvenance().getName() : annotator.getClass().getSimpleName();
+      monitor.name = new ObjectName(DOMAIN + ":type=Annotator,name=" + ObjectName.quote(model) + ",instance=" + instances.incrementAndGet());
+      ManagementFactory.getPlatformMBeanServer().registerMBean(monitor, monitor.name);
+      log.debug("Registered JMX monitor {}", monitor.name);
+      return monitor;
+    } catch(JMException | SecurityException ex) {
+      log.warn("Could not register JMX monitor: {}", ex.toString());
+      return null;
+    }
+  }
+
+  /**
+   * Remove this monitor from the platform MBeanServer.
+   */
+  public void unregister() {
+    if(name == null) return;
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      if(server.isRegistered(name)) server.unregisterMBean(name);
+    } catch(JMException ex) {
+      log.warn("Could not unregister JMX monitor: {}", ex.toString());
+    }
+    name = null;
+  }
+
+  public ObjectName getObjectName() {
+    return name;
+  }
+
+  protected MetricsRegistry getRootMetrics() {
+    return annotator.getTagger() != null ? annotator.getTagger().getMetrics() : new MetricsRegistry();
+  }
+
+  protected Provenance getProvenance() {
+    return annotator.getProvenance() != null ? annotator.getProvenance() : new Provenance();
+  }
+
+  @Override
+  public String getAnnotatorClass() {
+    return annotator.getClass().getName();
+  }
+
+  @Override
+  public String getModelName() {
+    return getProvenance().getName();
+  }
+
+  @Override
+  public String getLanguage() {
+    return getProvenance().getLanguage();
+  }
+
+  @Override
+  public String getTask() {
+    return getProvenance().getTask();
+  }
+
+  @Override
+  public String getDataset() {
+    return getProvenance().getDataset();
+  }
+
+  @Override
+  public String getArchitecture() {
+    return getProvenance().getArchitecture();
+  }
+
+  @Override
+  public String getVersion() {
+    return getProvenance().getVersion();
+  }
+
+  @Override
+  public String getCommit() {
+    return getProvenance().getCommit();
+  }
+
+  @Override
+  public String getModelDate() {
+    return getProvenance().getDate();
+  }
+
+  /**
+   * @return the ModelFingerprint, which is computed on first access
+   */
+  @Override
+  public synchronized String getFingerprint() {
+    if(fingerprint == null) fingerprint = ModelFingerprint.compute(annotator);
+    return fingerprint;
+  }
+
+  @Override
+  public long getDocumentsProcessed() {
+    return getRootMetrics().counter(INFERENCE_DOCUMENTS).get();
+  }
+
+  @Override
+  public long getSentencesProcessed() {
+    return getRootMetrics().counter(INFERENCE_SENTENCES).get();
+  }
+
+  @Override
+  public long getBatchesProcessed() {
+    return getRootMetrics().counter(INFERENCE_BATCHES).get();
+  }
+
+  @Override
+  public double getBatchSizeMean() {
+    return getRootMetrics().histogram(INFERENCE_BATCH_SIZE).getMean();
+  }
+
+  @Override
+  public double getBatchSizeMax() {
+    return getRootMetrics().histogram(INFERENCE_BATCH_SIZE).getMax();
+  }
+
+  @Override
+  public double getForwardLatencyMeanMs() {
+    return getRootMetrics().histogram(INFERENCE_FORWARD_TIME).getMean();
+  }
+
+  @Override
+  public double getForwardLatencyP50Ms() {
+    return getRootMetrics().histogram(INFERENCE_FORWARD_TIME).getPercentile(50);
+  }
+
+  @Override
+  public double getForwardLatencyP95Ms() {
+    return getRootMetrics().histogram(INFERENCE_FORWARD_TIME).getPercentile(95);
+  }
+
+  @Override
+  public double getForwardLatencyMaxMs() {
+    return getRootMetrics().histogram(INFERENCE_FORWARD_TIME).getMax();
+  }
+
+  @Override
+  public double getSegmentationLatencyMeanMs() {
+    return getRootMetrics().histogram(INFERENCE_SEGMENTATION_TIME).getMean();
+  }
+
+  @Override
+  public double getSegmentationLatencyP95Ms() {
+    return getRootMetrics().histogram(INFERENCE_SEGMENTATION_TIME).getPercentile(95);
+  }
+
+  @Override
+  public Map<String,Double> getQueueDepths() {
+    return getMetrics(getRootMetrics(), QUEUE_PREFIX);
+  }
+
+  @Override
+  public Map<String,Double> getCacheStatistics() {
+    return getMetrics(getRootMetrics(), CACHE_PREFIX);
+  }
+
+  // training metrics are recorded by the tagger, e.g. with SectorTagger's TrainingMetricsListener
+
+  @Override
+  public long getTrainIterations() {
+    return getRootMetrics().counter("train.iterations").get();
+  }
+
+  @Override
+  public long getTrainEpochs() {
+    return getRootMetrics().counter("train.epochs").get();
+  }
+
+  @Override
+  public double getTrainScore() {
+    return getRootMetrics().gauge("train.score").get();
+  }
+
+  @Override
+  public double getTrainExamplesPerSecond() {
+    return getRootMetrics().gauge("train.examplesPerSecond").get();
+  }
+
+  @Override
+  public long getOffHeapBytes() {
+    return Pointer.totalBytes();
+  }
+
+  @Override
+  public long getMaxOffHeapBytes() {
+    return Pointer.maxBytes();
+  }
+
+  @Override
+  public long getHeapBytes() {
+    Runtime runtime = Runtime.getRuntime();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  @Override
+  public Map<String,Double> getMetrics() {
+    Map<String,Double> result = new TreeMap<>();
+    for(Map.Entry<String,AnnotatorComponent> comp : annotator.components.entrySet()) {
+      for(Map.Entry<String,Double> metric : getMetrics(comp.getValue().getMetrics(), "").entrySet()) {
+        result.put(comp.getKey() + ":" + metric.getKey(), metric.getValue());
+      }
+    }
+    return result;
+  }
+
+  protected static Map<String,Double> getMetrics(MetricsRegistry metrics, String prefix) {
+    Map<String,Double> result = new TreeMap<>();
+    for(Map.Entry<String,Number> e : metrics.snapshot().entrySet()) {
+      if(e.getKey().startsWith(prefix)) result.put(e.getKey().substring(prefix.length()), e.getValue().doubleValue());
+    }
+    return result;
+  }
+
+}
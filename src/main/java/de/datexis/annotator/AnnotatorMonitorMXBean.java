@@ -0,0 +1,84 @@
+package de.datexis.annotator;
+
+import java.util.Map;
+
+/**
+ * JMX management interface of a loaded Annotator, see AnnotatorMonitor.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public interface AnnotatorMonitorMXBean {
+
+  // model identity (Provenance)
+
+  String getAnnotatorClass();
+
+  String getModelName();
+
+  String getLanguage();
+
+  String getTask();
+
+  String getDataset();
+
+  String getArchitecture();
+
+  String getVersion();
+
+  String getCommit();
+
+  String getModelDate();
+
+  String getFingerprint();
+
+  // inference
+
+  long getDocumentsProcessed();
+
+  long getSentencesProcessed();
+
+  long getBatchesProcessed();
+
+  double getBatchSizeMean();
+
+  double getBatchSizeMax();
+
+  double getForwardLatencyMeanMs();
+
+  double getForwardLatencyP50Ms();
+
+  double getForwardLatencyP95Ms();
+
+  double getForwardLatencyMaxMs();
+
+  double getSegmentationLatencyMeanMs();
+
+  double getSegmentationLatencyP95Ms();
+
+  Map<String,Double> getQueueDepths();
+
+  Map<String,Double> getCacheStatistics();
+
+  // training
+
+  long getTrainIterations();
+
+  long getTrainEpochs();
+
+  double getTrainScore();
+
+  double getTrainExamplesPerSecond();
+
+  // resources
+
+  long getOffHeapBytes();
+
+  long getMaxOffHeapBytes();
+
+  long getHeapBytes();
+
+  /**
+   * @return all metrics of all components, keyed by component id and metric name
+   */
+  Map<String,Double> getMetrics();
+
+}
@@ -0,0 +1,122 @@
+package de.datexis.annotator;
+
+import de.datexis.common.Resource;
+import de.datexis.encoder.Encoder;
+import de.datexis.encoder.LookupCacheEncoder;
+import de.datexis.tagger.Tagger;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A SHA-256 checksum that identifies a trained Annotator, e.g. to invalidate cached results when a different model
+ * is loaded. The fingerprint covers the Provenance, configuration and model file name of all components, the network
+ * parameters of the Tagger and, if a model directory is given, the content of all model files.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class ModelFingerprint {
+
+  protected final static Logger log = LoggerFactory.getLogger(ModelFingerprint.class);
+
+  /** text that is encoded to detect Encoders with different models */
+  protected static final String PROBE_TEXT = "The quick brown fox jumps over the lazy dog.";
+
+  private ModelFingerprint() {}
+
+  /**
+   * @return hex encoded fingerprint of the Annotator in memory
+   */
+  public static String compute(Annotator ann) {
+    return compute(ann, null);
+  }
+
+  /**
+   * @param modelPath directory the model was loaded from, or null to only use the model in memory
+   * @return hex encoded fingerprint of the Annotator and its model files
+   */
+  public static String compute(Annotator ann, Resource modelPath) {
+    MessageDigest digest = createDigest();
+    try(DataOutputStream out = new DataOutputStream(new DigestOutputStream(new NullOutputStream(), digest))) {
+      Provenance prov = ann.getProvenance();
+      out.writeUTF(ann.getClass().getCanonicalName());
+      out.writeUTF(String.valueOf(prov.toString()));
+      out.writeUTF(String.valueOf(prov.getVersion()));
+      out.writeUTF(String.valueOf(prov.getCommit()));
+      Tagger tagger = ann.getTagger();
+      if(tagger != null) {
+        updateComponent(out, tagger, modelPath);
+        if(tagger.getNN() != null) {
+          INDArray params = tagger.getNN().params();
+          if(params != null) Nd4j.write(params, out);
+        }
+      }
+      for(AnnotatorComponent comp : ann.components.values()) {
+        updateComponent(out, comp, modelPath);
+      }
+    } catch(IOException ex) {
+      throw new IllegalStateException("could not compute model fingerprint", ex);
+    }
+    return Hex.encodeHexString(digest.digest());
+  }
+
+  /**
+   * @return hex encoded fingerprint of an Encoder, including its vocabulary and the encoding of a probe text
+   */
+  public static String compute(Encoder enc) {
+    MessageDigest digest = createDigest();
+    try(DataOutputStream out = new DataOutputStream(new DigestOutputStream(new NullOutputStream(), digest))) {
+      updateComponent(out, enc, null);
+      out.writeLong(enc.getEmbeddingVectorSize());
+      if(enc instanceof LookupCacheEncoder) {
+        for(String word : ((LookupCacheEncoder) enc).getWords()) out.writeUTF(word);
+      }
+      INDArray probe = enc.encode(PROBE_TEXT);
+      if(probe != null) Nd4j.write(probe, out);
+    } catch(IOException ex) {
+      throw new IllegalStateException("could not compute encoder fingerprint", ex);
+    }
+    return Hex.encodeHexString(digest.digest());
+  }
+
+  protected static void updateComponent(DataOutputStream out, AnnotatorComponent comp, Resource modelPath) throws IOException {
+    out.writeUTF(comp.getClass().getCanonicalName());
+    out.writeUTF(String.valueOf(comp.getId()));
+    out.writeUTF(comp.getModel());
+    out.writeUTF(String.valueOf(comp.getConf()));
+    if(modelPath != null && !comp.getModel().isEmpty()) {
+      Resource file = modelPath.resolve(comp.getModel());
+      if(file.exists() && file.isFile()) {
+        try(InputStream in = file.getInputStream()) {
+          IOUtils.copy(in, out);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return hex encoded SHA-256 checksum of a String
+   */
+  public static String checksum(String text) {
+    return Hex.encodeHexString(createDigest().digest(text.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  protected static MessageDigest createDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch(NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+}
@@ -0,0 +1,198 @@
+package de.datexis.common;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleSupplier;
+import java.util.function.Function;
+
+/**
+ * Registry of named counters, gauges and histograms that can be queried in-process at any time.
+ * All metrics are thread-safe. Names are hierarchical by convention, e.g. "train.examples".
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class MetricsRegistry {
+
+  protected final Map<String,Object> metrics = new ConcurrentSkipListMap<>();
+
+  /**
+   * @return the Counter with the given name, which is created if it does not exist
+   */
+  public Counter counter(String name) {
+    return get(name, Counter.class, n -> new Counter());
+  }
+
+  /**
+   * @return the Gauge with the given name, which is created if it does not exist
+   */
+  public Gauge gauge(String name) {
+    return get(name, Gauge.class, n -> new Gauge());
+  }
+
+  /**
+   * @return the Histogram with the given name, which is created if it does not exist
+   */
+  public Histogram histogram(String name) {
+    return get(name, Histogram.class, n -> new Histogram());
+  }
+
+  public boolean contains(String name) {
+    return metrics.containsKey(name);
+  }
+
+  protected <T> T get(String name, Class<T> type, Function<String,Object> create) {
+    Object metric = metrics.computeIfAbsent(name, create);
+    if(!type.isInstance(metric)) throw new IllegalArgumentException("metric '" + name + "' is not a " + type.getSimpleName());
+    return type.cast(metric);
+  }
+
+  /**
+   * @return current values of all metrics, sorted by name. Histograms are expanded into count, mean, p50, p95 and max.
+   */
+  public Map<String,Number> snapshot() {
+    Map<String,Number> result = new LinkedHashMap<>();
+    for(Map.Entry<String,Object> e : metrics.entrySet()) {
+      Object metric = e.getValue();
+      if(metric instanceof Counter) {
+        result.put(e.getKey(), ((Counter) metric).get());
+      } else if(metric instanceof Gauge) {
+        result.put(e.getKey(), ((Gauge) metric).get());
+      } else if(metric instanceof Histogram) {
+        Histogram h = (Histogram) metric;
+        synchronized(h) {
+          result.put(e.getKey() + ".count", h.getCount());
+          result.put(e.getKey() + ".mean", h.getMean());
+          result.put(e.getKey() + ".p50", h.getPercentile(50));
+          result.put(e.getKey() + ".p95", h.getPercentile(95));
+          result.put(e.getKey() + ".max", h.getMax());
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Remove all metrics.
+   */
+  public void clear() {
+    metrics.clear();
+  }
+
+  /**
+   * A monotonically increasing count.
+   */
+  public static class Counter {
+
+    protected final AtomicLong value = new AtomicLong();
+
+    public void inc() {
+      value.incrementAndGet();
+    }
+
+    public void add(long n) {
+      value.addAndGet(n);
+    }
+
+    public long get() {
+      return value.get();
+    }
+
+  }
+
+  /**
+   * A value that is set to the latest measurement, or read from a bound supplier (e.g. a queue size).
+   */
+  public static class Gauge {
+
+    protected volatile double value = 0.;
+    protected volatile DoubleSupplier supplier = null;
+
+    public void set(double value) {
+      this.value = value;
+    }
+
+    /**
+     * Read the value from the given supplier on every call to get(), or keep the last value if supplier is null.
+     */
+    public synchronized void bind(DoubleSupplier supplier) {
+      DoubleSupplier previous = this.supplier;
+      if(supplier == null && previous != null) value = previous.getAsDouble();
+      this.supplier = supplier;
+    }
+
+    /**
+     * Keep the last value and remove the given supplier, but only if it is still bound. Owners of a shared gauge use
+     * this to avoid unbinding the supplier of another owner that was bound in the meantime.
+     * @return true if the supplier was unbound
+     */
+    public synchronized boolean unbind(DoubleSupplier supplier) {
+      if(supplier == null || this.supplier != supplier) return false;
+      bind(null);
+      return true;
+    }
+
+    public double get() {
+      DoubleSupplier s = supplier;
+      return s != null ? s.getAsDouble() : value;
+    }
+
+  }
+
+  /**
+   * Distribution of measurements. Count, mean, min and max cover all values, percentiles are calculated over
+   * the most recent values in a fixed-size window.
+   */
+  public static class Histogram {
+
+    protected static final int WINDOW = 1024;
+
+    protected final double[] window = new double[WINDOW];
+    protected long count = 0;
+    protected double sum = 0., min = Double.NaN, max = Double.NaN;
+
+    public synchronized void record(double value) {
+      window[(int) (count % WINDOW)] = value;
+      count++;
+      sum += value;
+      min = count == 1 ? value : Math.min(min, value);
+      max = count == 1 ? value : Math.max(max, value);
+    }
+
+    public synchronized long getCount() {
+      return count;
+    }
+
+    public synchronized double getSum() {
+      return sum;
+    }
+
+    public synchronized double getMean() {
+      return count > 0 ? sum / count : 0.;
+    }
+
+    public synchronized double getMin() {
+      return count > 0 ? min : 0.;
+    }
+
+    public synchronized double getMax() {
+      return count > 0 ? max : 0.;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return nearest-rank percentile of the most recent values
+     */
+    public synchronized double getPercentile(double percentile) {
+      int size = (int) Math.min(count, WINDOW);
+      if(size == 0) return 0.;
+      double[] sorted = Arrays.copyOf(window, size);
+      Arrays.sort(sorted);
+      int rank = (int) Math.ceil(percentile / 100. * size);
+      return sorted[Math.max(0, Math.min(rank, size) - 1)];
+    }
+
+  }
+
+}
@@ -0,0 +1,64 @@
+package de.datexis.common;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Appends rows of metrics to a CSV file and a JSON lines file with the same name. The CSV header is defined by
+ * the keys of the first row, values of keys that are not contained in the header are only written to JSONL.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class MetricsWriter implements Closeable {
+
+  protected final BufferedWriter csv;
+  protected final BufferedWriter jsonl;
+  protected List<String> header = null;
+
+  /**
+   * @param dir directory to create the files in
+   * @param name file name without extension, e.g. "metrics-epoch"
+   */
+  public MetricsWriter(Resource dir, String name) throws IOException {
+    csv = new BufferedWriter(new OutputStreamWriter(dir.resolve(name + ".csv").getOutputStream(), StandardCharsets.UTF_8));
+    jsonl = new BufferedWriter(new OutputStreamWriter(dir.resolve(name + ".jsonl").getOutputStream(), StandardCharsets.UTF_8));
+  }
+
+  public synchronized void write(Map<String,?> row) throws IOException {
+    if(header == null) {
+      header = new ArrayList<>(row.keySet());
+      csv.write(String.join(",", header));
+      csv.newLine();
+    }
+    StringBuilder line = new StringBuilder();
+    for(int i = 0; i < header.size(); i++) {
+      if(i > 0) line.append(',');
+      Object value = row.get(header.get(i));
+      if(value != null) line.append(value.toString());
+    }
+    csv.write(line.toString());
+    csv.newLine();
+    jsonl.write(ObjectSerializer.getJSONRaw(row));
+    jsonl.newLine();
+  }
+
+  public synchronized void flush() throws IOException {
+    csv.flush();
+    jsonl.flush();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      csv.close();
+    } finally {
+      jsonl.close();
+    }
+  }
+
+}
@@ -0,0 +1,221 @@
+package de.datexis.common;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Opt-in profiler that records wall time, CPU time and allocated bytes of nested pipeline stages per thread.
+ * Profiling is enabled with -Dde.datexis.profile=true. Otherwise enter() returns a shared no-op Scope and is
+ * removed by the JIT, so instrumented code runs without overhead. Usage:
+ * <pre>
+ * try(StageProfiler.Scope scope = StageProfiler.enter("encode")) { ... }
+ * </pre>
+ * Instrumented methods are annotated with @SuppressWarnings("try"), because the scope is not referenced in the body.
+ * Results are kept per stack of stage names and can be written in collapsed stack format ("a;b;c value"), which
+ * is read by flamegraph.pl and speedscope. If -Dde.datexis.profile.output=prefix is set, the files prefix.wall.collapsed
+ * (ns), prefix.cpu.collapsed (ns) and prefix.alloc.collapsed (bytes) are written at shutdown. A summary is always
+ * logged at shutdown.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public final class StageProfiler {
+
+  protected final static Logger log = LoggerFactory.getLogger(StageProfiler.class);
+
+  public static final String PROPERTY = "de.datexis.profile";
+  public static final String OUTPUT_PROPERTY = "de.datexis.profile.output";
+
+  public static final boolean ENABLED = Boolean.getBoolean(PROPERTY);
+
+  public enum Measure {
+    /** wall clock time in nanoseconds */
+    WALL,
+    /** CPU time of the current thread in nanoseconds */
+    CPU,
+    /** bytes allocated on the heap by the current thread */
+    ALLOC
+  }
+
+  /**
+   * A running stage that ends with close().
+   */
+  public interface Scope extends AutoCloseable {
+    @Override
+    void close();
+  }
+
+  private static final Scope NOOP = () -> {};
+
+  private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+  private static final boolean cpuSupported;
+  private static final boolean allocSupported;
+
+  private static final ThreadLocal<Frame> current = new ThreadLocal<>();
+  private static final Map<String,Stats> stacks = new ConcurrentHashMap<>();
+
+  static {
+    if(ENABLED && threads.isCurrentThreadCpuTimeSupported()) threads.setThreadCpuTimeEnabled(true);
+    cpuSupported = threads.isCurrentThreadCpuTimeSupported() && threads.isThreadCpuTimeEnabled();
+    allocSupported = isAllocationMeasurementSupported();
+    if(ENABLED) {
+      log.info("Stage profiling enabled [cpu={}, alloc={}]", cpuSupported, allocSupported);
+      Runtime.getRuntime().addShutdownHook(new Thread(StageProfiler::shutdown, "stage-profiler"));
+    }
+  }
+
+  private StageProfiler() {}
+
+  private static boolean isAllocationMeasurementSupported() {
+    if(!(threads instanceof com.sun.management.ThreadMXBean)) return false;
+    com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) threads;
+    if(!mx.isThreadAllocatedMemorySupported()) return false;
+    if(ENABLED) mx.setThreadAllocatedMemoryEnabled(true);
+    return mx.isThreadAllocatedMemoryEnabled();
+  }
+
+  /**
+   * Start a stage as child of the current stage in this thread.
+   * @return the Scope to close when the stage is done
+   */
+  public static Scope enter(String stage) {
+    if(!ENABLED) return NOOP;
+    return push(stage);
+  }
+
+  /**
+   * Start a stage regardless of the system property.
+   */
+  static Scope push(String stage) {
+    Frame frame = new Frame(current.get(), stage);
+    current.set(frame);
+    return frame;
+  }
+
+  /**
+   * @return true if stages have been recorded since the last reset
+   */
+  public static boolean hasResults() {
+    return !stacks.isEmpty();
+  }
+
+  /**
+   * Remove all recorded stages.
+   */
+  public static void reset() {
+    stacks.clear();
+  }
+
+  /**
+   * Write the exclusive (self) values of all stacks in collapsed stack format, one "stage;stage value" per line.
+   */
+  public static void writeCollapsed(Writer out, Measure measure) throws IOException {
+    for(Map.Entry<String,Stats> e : new TreeMap<>(stacks).entrySet()) {
+      long value = e.getValue().self[measure.ordinal()].sum();
+      if(value > 0) out.write(e.getKey() + " " + value + "\n");
+    }
+    out.flush();
+  }
+
+  /**
+   * @return a table of all stacks with number of calls, inclusive and exclusive wall time, CPU time and allocation
+   */
+  public static String getSummary() {
+    StringBuilder result = new StringBuilder();
+    result.append(String.format(Locale.ROOT, "%-60s %10s %12s %12s %12s %12s%n", "stage", "calls", "wall ms", "self ms", "cpu ms", "alloc MB"));
+    for(Map.Entry<String,Stats> e : new TreeMap<>(stacks).entrySet()) {
+      Stats s = e.getValue();
+      result.append(String.format(Locale.ROOT, "%-60s %10d %12.1f %12.1f %12.1f %12.1f%n", e.getKey(), s.calls.sum(),
+        s.total[Measure.WALL.ordinal()].sum() / 1e6, s.self[Measure.WALL.ordinal()].sum() / 1e6,
+        s.total[Measure.CPU.ordinal()].sum() / 1e6, s.total[Measure.ALLOC.ordinal()].sum() / 1048576.));
+    }
+    return result.toString();
+  }
+
+  /**
+   * @return inclusive value of a given stack, e.g. "annotate;feedForward"
+   */
+  public static long getTotal(String stack, Measure measure) {
+    Stats s = stacks.get(stack);
+    return s != null ? s.total[measure.ordinal()].sum() : 0;
+  }
+
+  /**
+   * @return number of calls of a given stack
+   */
+  public static long getCalls(String stack) {
+    Stats s = stacks.get(stack);
+    return s != null ? s.calls.sum() : 0;
+  }
+
+  private static void shutdown() {
+    if(!hasResults()) return;
+    log.info("Stage profile:\n{}", getSummary());
+    String prefix = System.getProperty(OUTPUT_PROPERTY);
+    if(prefix == null || prefix.isEmpty()) return;
+    for(Measure measure : Measure.values()) {
+      String file = prefix + "." + measure.name().toLowerCase(Locale.ROOT) + ".collapsed";
+      try(BufferedWriter out = Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8)) {
+        writeCollapsed(out, measure);
+      } catch(IOException ex) {
+        log.warn("Could not write stage profile {}: {}", file, ex.toString());
+      }
+    }
+  }
+
+  private static long[] measure() {
+    long threadId = Thread.currentThread().getId();
+    return new long[] {
+      System.nanoTime(),
+      cpuSupported ? threads.getCurrentThreadCpuTime() : 0,
+      allocSupported ? ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threadId) : 0
+    };
+  }
+
+  private static class Stats {
+    final LongAdder calls = new LongAdder();
+    final LongAdder[] total = { new LongAdder(), new LongAdder(), new LongAdder() };
+    final LongAdder[] self = { new LongAdder(), new LongAdder(), new LongAdder() };
+  }
+
+  private static class Frame implements Scope {
+
+    final Frame parent;
+    final String stack;
+    final long[] children = new long[3];
+    final long[] start;
+
+    Frame(Frame parent, String stage) {
+      this.parent = parent;
+      this.stack = parent != null ? parent.stack + ";" + stage : stage;
+      this.start = measure();
+    }
+
+    @Override
+    public void close() {
+      long[] end = measure();
+      Stats stats = stacks.computeIfAbsent(stack, s -> new Stats());
+      stats.calls.increment();
+      for(int i = 0; i < 3; i++) {
+        long total = Math.max(0, end[i] - start[i]);
+        stats.total[i].add(total);
+        stats.self[i].add(Math.max(0, total - children[i]));
+        if(parent != null) parent.children[i] += total;
+      }
+      current.set(parent);
+    }
+
+  }
+
+}
@@ -0,0 +1,63 @@
+package de.datexis.common;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Table of interned Strings that are addressed by int ids. Used by compact Documents to store each distinct Token
+ * text only once. Ids are assigned in order of first occurrence and are never removed, so a table is owned by the
+ * Documents of a Dataset or reader and released together with them. Lookups by id are lock-free, interning is
+ * synchronized.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class StringTable {
+
+  private final Map<String,Integer> ids = new HashMap<>();
+  private volatile String[] strings;
+  private int size = 0;
+
+  public StringTable() {
+    this(1024);
+  }
+
+  public StringTable(int capacity) {
+    strings = new String[Math.max(16, capacity)];
+  }
+
+  /**
+   * @return the id of the given String, which is added if it is not contained yet
+   */
+  public synchronized int intern(String str) {
+    Integer id = ids.get(str);
+    if(id != null) return id;
+    String[] table = strings;
+    if(size == table.length) table = Arrays.copyOf(table, table.length * 2);
+    table[size] = str;
+    strings = table; // publish the new entry
+    ids.put(str, size);
+    return size++;
+  }
+
+  /**
+   * @return the id of the given String or -1 if it is not contained
+   */
+  public synchronized int getId(String str) {
+    return ids.getOrDefault(str, -1);
+  }
+
+  /**
+   * @return the String with given id
+   */
+  public String get(int id) {
+    return strings[id];
+  }
+
+  /**
+   * @return the number of distinct Strings in this table
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+}
@@ -54,7 +54,7 @@ public class WordHelpers {
   private final Set<String> stopWords;
   
   public WordHelpers(Language lang) {
-    stopWords = new TreeSet<>(readStopWords(lang));
+    stopWords = new HashSet<>(readStopWords(lang));
   }
   
   public static Language getLanguage(String language) {
@@ -77,7 +77,7 @@ public class WordHelpers {
   }
   
   public List<String> getStopWords() {
-    return Lists.newArrayList(stopWords);
+    return Lists.newArrayList(new TreeSet<>(stopWords));
   }
   
   public boolean isStopWord(String word, TokenPreProcess pre) {
@@ -85,7 +85,8 @@ public class WordHelpers {
   }
   
   public boolean isStopWord(String word) {
-    return stopWords.contains(word.toLowerCase());
+    // stop words are lowercase, so normalized words are found without conversion
+    return stopWords.contains(word) || stopWords.contains(word.toLowerCase());
   }
   
   /**
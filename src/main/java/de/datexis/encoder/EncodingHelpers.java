@@ -1,5 +1,6 @@
 package de.datexis.encoder;
 
+import de.datexis.common.StageProfiler;
 import org.nd4j.linalg.api.buffer.DataType;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
@@ -31,11 +32,14 @@ public class EncodingHelpers {
    * @param t Index of the time step
    * @return The value as column vector [ vector size X 1 ]
    */
+  @SuppressWarnings("try")
   public static INDArray getTimeStep(INDArray matrix, long batchIndex, long t) {
-    //INDArray vec = matrix.get(point(batchIndex), all(), point(t)); // valid operation in beta4
-    INDArray vec = matrix.slice(batchIndex, 0).slice(t, 1); // 25% faster
-    //return vec.transpose(); // invalid operation since beta4
-    return vec.reshape(matrix.size(1), 1);
+    try(StageProfiler.Scope scope = StageProfiler.enter("getTimeStep")) {
+      //INDArray vec = matrix.get(point(batchIndex), all(), point(t)); // valid operation in beta4
+      INDArray vec = matrix.slice(batchIndex, 0).slice(t, 1); // 25% faster
+      //return vec.transpose(); // invalid operation since beta4
+      return vec.reshape(matrix.size(1), 1);
+    }
   }
   
 }
@@ -1,6 +1,8 @@
 package de.datexis.encoder;
 
 import de.datexis.common.Resource;
+import de.datexis.model.Span;
+import de.datexis.model.TokenStore;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
@@ -8,6 +10,8 @@ import java.io.ObjectOutputStream;
 import java.io.OutputStreamWriter;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import org.deeplearning4j.models.word2vec.wordstore.VocabularyHolder;
 import org.deeplearning4j.models.word2vec.wordstore.VocabularyWord;
@@ -27,6 +31,15 @@ public abstract class LookupCacheEncoder extends Encoder {
   
   protected int totalWords = 0;
   
+  /** incremented whenever the vocabulary changes, invalidates cached indexes */
+  protected volatile int revision = 0;
+  
+  /** maximum number of Strings in the index cache */
+  protected static final int INDEX_CACHE_SIZE = 100000;
+  
+  /** indexes of raw Strings that were looked up with getCachedIndex(), e.g. class labels */
+  private final Map<String,Integer> indexCache = new ConcurrentHashMap<>();
+  
   public LookupCacheEncoder() {
     this("");
   }
@@ -58,6 +71,46 @@ public abstract class LookupCacheEncoder extends Encoder {
     return vocab.indexOf(word);
   }
   
+  /**
+   * Return the index of a Span. The index of a Token of a compact Document is read from the cached indexes.
+   */
+  public int getIndex(Span span) {
+    if(span instanceof TokenStore.View) {
+      TokenStore.View token = (TokenStore.View) span;
+      return getIndexes(token.getStore())[token.getIndex()];
+    }
+    return getIndex(span.getText());
+  }
+  
+  /**
+   * Return the vocabulary indexes of all Tokens in a compact Document. The indexes are computed once and kept in
+   * the TokenStore until the vocabulary changes.
+   */
+  public int[] getIndexes(TokenStore store) {
+    return store.getFeatures(this, revision, i -> getIndex(store.getText(i)));
+  }
+  
+  /**
+   * Return the index of a raw String that is looked up repeatedly, e.g. a class label. The result of getIndex() is
+   * cached until the vocabulary changes.
+   */
+  public int getCachedIndex(String word) {
+    Integer index = indexCache.get(word);
+    if(index != null) return index;
+    int i = getIndex(word);
+    if(indexCache.size() < INDEX_CACHE_SIZE) indexCache.put(word, i);
+    return i;
+  }
+  
+  /**
+   * Update the huffman codes after the vocabulary was changed and invalidate all cached indexes.
+   */
+  protected void updateVocabulary() {
+    vocab.updateHuffmanCodes();
+    indexCache.clear();
+    revision++;
+  }
+  
   /**
    * @return target vector for Vocabulary word or null vector if word dies not exist
    */
@@ -151,7 +204,7 @@ public abstract class LookupCacheEncoder extends Encoder {
         w.setCount(i-huffmanIdx); // dirty fix to override resort of huffman tree for same counts
         vocab.addWord(w);
       }
-      vocab.updateHuffmanCodes();
+      updateVocabulary();
       setModel(modelFile);
       setModelAvailable(true);
       log.info("loaded " + vocab.numWords() + " words from " + modelFile.toString());
@@ -0,0 +1,272 @@
+package de.datexis.encoder;
+
+import de.datexis.annotator.ModelFingerprint;
+import de.datexis.model.Document;
+import de.datexis.model.Sentence;
+import de.datexis.model.Span;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.codec.binary.Hex;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A persistent, content-addressed store of Sentence encodings that is shared across epochs and training runs.
+ * Vectors are stored per Encoder in a memory-mapped file, in a directory named by the Encoder fingerprint
+ * (id, configuration, vocabulary and model checksum), and addressed by the hash of the Sentence text.
+ * Only Encoders that encode every Sentence independently (i.e. that do not override Encoder.encodeMatrix) are
+ * cached, all others (e.g. StructureEncoder, which depends on the position in the Document) are called directly.
+ * Sparse vectors (e.g. bag-of-words) are stored as index/value pairs.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class SentenceFeatureStore implements AutoCloseable {
+
+  protected final static Logger log = LoggerFactory.getLogger(SentenceFeatureStore.class);
+
+  /** size of a memory-mapped segment of the feature file */
+  protected static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+  protected final Path directory;
+  protected final Map<Encoder,Partition> partitions = new IdentityHashMap<>();
+
+  protected long hits = 0;
+  protected long misses = 0;
+
+  public SentenceFeatureStore(Path directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * @return true if the Encoder encodes each Sentence independently of its context
+   */
+  public static boolean isCacheable(Encoder encoder) {
+    try {
+      Method m = encoder.getClass().getMethod("encodeMatrix", List.class, int.class, Class.class);
+      return m.getDeclaringClass().equals(Encoder.class);
+    } catch(NoSuchMethodException ex) {
+      return false;
+    }
+  }
+
+  /**
+   * Encode all Sentences of the given Documents, equivalent to Encoder.encodeMatrix() on Sentence level.
+   * Cached vectors are copied from the store, missing vectors are encoded and added.
+   */
+  public INDArray encodeMatrix(Encoder encoder, List<Document> input, int maxTimeSteps) {
+    if(!isCacheable(encoder)) return encoder.encodeMatrix(input, maxTimeSteps, Sentence.class);
+    Partition partition = getPartition(encoder);
+    INDArray encoding = Nd4j.zeros(input.size(), partition.vectorSize, maxTimeSteps);
+    for(int batchIndex = 0; batchIndex < input.size(); batchIndex++) {
+      List<Sentence> sentences = input.get(batchIndex).getSentences();
+      for(int t = 0; t < sentences.size() && t < maxTimeSteps; t++) {
+        partition.copy(encoder, sentences.get(t), encoding, batchIndex, t);
+      }
+    }
+    return encoding;
+  }
+
+  protected synchronized Partition getPartition(Encoder encoder) {
+    return partitions.computeIfAbsent(encoder, enc -> {
+      String fingerprint = ModelFingerprint.compute(enc);
+      try {
+        return new Partition(directory.resolve(enc.getId() + "-" + fingerprint.substring(0, 32)), enc.getEmbeddingVectorSize());
+      } catch(IOException ex) {
+        throw new IllegalStateException("could not open feature store for encoder " + enc.getId(), ex);
+      }
+    });
+  }
+
+  /**
+   * @return content hash of a Sentence, which includes its Tokens and relative whitespace
+   */
+  public static byte[] getKey(Span s) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch(NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex);
+    }
+    digest.update(s.getText().getBytes(StandardCharsets.UTF_8));
+    if(s instanceof Sentence) {
+      digest.update((byte) 0);
+      digest.update(((Sentence) s).toTokenizedString().getBytes(StandardCharsets.UTF_8));
+    }
+    return digest.digest();
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  public synchronized double getHitRate() {
+    long requests = hits + misses;
+    return requests > 0 ? (double) hits / requests : 0.;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("hits=%d misses=%d hitRate=%.3f", hits, misses, getHitRate());
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    for(Partition partition : partitions.values()) partition.close();
+    partitions.clear();
+    log.debug("Closed sentence feature store [{}]", toString());
+  }
+
+  /**
+   * Vectors of a single Encoder. Feature file record: [int n][n x (int index, float value)] for sparse vectors
+   * or [int -1][size x float] for dense vectors. Index record: [key][long offset].
+   */
+  protected class Partition {
+
+    protected final long vectorSize;
+    protected final FileChannel data;
+    protected final FileChannel index;
+    protected final Map<String,Long> offsets = new HashMap<>();
+    protected final List<MappedByteBuffer> segments = new ArrayList<>();
+    protected final int segmentSize;
+    protected long end;
+
+    protected Partition(Path dir, long vectorSize) throws IOException {
+      Files.createDirectories(dir);
+      this.vectorSize = vectorSize;
+      this.segmentSize = (int) Math.max(SEGMENT_SIZE, 4 + vectorSize * 8);
+      this.data = FileChannel.open(dir.resolve("features.bin"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      this.index = FileChannel.open(dir.resolve("features.idx"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      readIndex();
+      log.info("Opened feature store {} with {} sentences", dir, offsets.size());
+    }
+
+    protected void readIndex() throws IOException {
+      int recordSize = 32 + 8;
+      long count = index.size() / recordSize;
+      ByteBuffer buf = ByteBuffer.allocate((int) Math.min(count, 1 << 14) * recordSize);
+      long pos = 0;
+      end = 0;
+      while(pos < count * recordSize) {
+        buf.clear();
+        buf.limit((int) Math.min(buf.capacity(), count * recordSize - pos));
+        while(buf.hasRemaining()) index.read(buf, pos + buf.position());
+        buf.flip();
+        while(buf.remaining() >= recordSize) {
+          byte[] key = new byte[32];
+          buf.get(key);
+          long offset = buf.getLong();
+          offsets.put(Hex.encodeHexString(key), offset);
+        }
+        pos += buf.limit();
+      }
+      index.truncate(pos);
+      // records are always indexed after they were written, so the data file ends after the last full segment in use
+      for(long offset : offsets.values()) end = Math.max(end, offset);
+      if(!offsets.isEmpty()) end += getRecordLength(end);
+    }
+
+    protected MappedByteBuffer getSegment(int segment) throws IOException {
+      while(segments.size() <= segment) {
+        long position = (long) segments.size() * segmentSize;
+        segments.add(data.map(FileChannel.MapMode.READ_WRITE, position, segmentSize));
+      }
+      return segments.get(segment);
+    }
+
+    protected int getRecordLength(long offset) throws IOException {
+      ByteBuffer seg = getSegment((int) (offset / segmentSize));
+      int n = seg.getInt((int) (offset % segmentSize));
+      return 4 + (n < 0 ? (int) vectorSize * 4 : n * 8);
+    }
+
+    protected synchronized void copy(Encoder encoder, Sentence s, INDArray encoding, int batchIndex, int t) {
+      try {
+        byte[] key = getKey(s);
+        Long offset = offsets.get(Hex.encodeHexString(key));
+        if(offset == null) {
+          INDArray vec = encoder.encode(s);
+          EncodingHelpers.putTimeStep(encoding, batchIndex, t, vec);
+          put(key, vec);
+          synchronized(SentenceFeatureStore.this) { misses++; }
+          return;
+        }
+        ByteBuffer seg = getSegment((int) (offset / segmentSize));
+        int pos = (int) (offset % segmentSize);
+        int n = seg.getInt(pos);
+        pos += 4;
+        if(n < 0) {
+          for(int i = 0; i < vectorSize; i++, pos += 4) encoding.putScalar(batchIndex, i, t, seg.getFloat(pos));
+        } else {
+          for(int i = 0; i < n; i++, pos += 8) encoding.putScalar(batchIndex, seg.getInt(pos), t, seg.getFloat(pos + 4));
+        }
+        synchronized(SentenceFeatureStore.this) { hits++; }
+      } catch(IOException ex) {
+        throw new IllegalStateException("could not access feature store", ex);
+      }
+    }
+
+    protected void put(byte[] key, INDArray vec) throws IOException {
+      float[] values = vec.toFloatVector();
+      int nnz = 0;
+      for(float v : values) if(v != 0f) nnz++;
+      boolean sparse = nnz * 2 < values.length;
+      int length = 4 + (sparse ? nnz * 8 : values.length * 4);
+      // records never cross segment borders
+      if(end / segmentSize != (end + length - 1) / segmentSize) end = ((end / segmentSize) + 1) * segmentSize;
+      long offset = end;
+      ByteBuffer seg = getSegment((int) (offset / segmentSize));
+      int pos = (int) (offset % segmentSize);
+      if(sparse) {
+        seg.putInt(pos, nnz);
+        pos += 4;
+        for(int i = 0; i < values.length; i++) {
+          if(values[i] == 0f) continue;
+          seg.putInt(pos, i);
+          seg.putFloat(pos + 4, values[i]);
+          pos += 8;
+        }
+      } else {
+        seg.putInt(pos, -1);
+        pos += 4;
+        for(float v : values) {
+          seg.putFloat(pos, v);
+          pos += 4;
+        }
+      }
+      end = offset + length;
+      ByteBuffer rec = ByteBuffer.allocate(32 + 8);
+      rec.put(key).putLong(offset).flip();
+      long indexPos = index.size();
+      while(rec.hasRemaining()) index.write(rec, indexPos + rec.position());
+      offsets.put(Hex.encodeHexString(key), offset);
+    }
+
+    protected synchronized void close() throws IOException {
+      for(MappedByteBuffer seg : segments) seg.force();
+      segments.clear();
+      data.close();
+      index.close();
+    }
+
+  }
+
+}
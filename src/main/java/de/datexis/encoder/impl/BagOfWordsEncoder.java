@@ -7,6 +7,7 @@ import de.datexis.model.Token;
 import de.datexis.encoder.LookupCacheEncoder;
 import de.datexis.model.Sentence;
 import de.datexis.model.Span;
+import de.datexis.model.TokenStore;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -61,7 +62,7 @@ public class BagOfWordsEncoder extends LookupCacheEncoder {
     setLanguage(language);
     for(Document doc : documents) {
       for(Token t : doc.getTokens()) {
-        String w = preprocessor.preProcess(t.getText());
+        String w = normalize(t);
         if(!w.isEmpty()) {
           totalWords++;
           if(!wordHelpers.isStopWord(w)) {
@@ -73,7 +74,7 @@ public class BagOfWordsEncoder extends LookupCacheEncoder {
     }
     int total = vocab.numWords();
     vocab.truncateVocabulary(minWordFrequency);
-    vocab.updateHuffmanCodes();
+    updateVocabulary();
     timer.stop();
     appendTrainLog("trained " + vocab.numWords() + " words (" +  total + " total)", timer.getLong());
     setModelAvailable(true);
@@ -99,12 +100,29 @@ public class BagOfWordsEncoder extends LookupCacheEncoder {
     }
     int total = vocab.numWords();
     vocab.truncateVocabulary(minWordFrequency);
-    vocab.updateHuffmanCodes();
+    updateVocabulary();
     timer.stop();
     appendTrainLog("trained " + vocab.numWords() + " words (" +  total + " total)", timer.getLong());
     setModelAvailable(true);
   }
   
+  /**
+   * @return the preprocessed text of a Span. For Tokens of a compact Document, it is computed once per Document.
+   */
+  protected static String normalize(Span span) {
+    if(span instanceof TokenStore.View) {
+      TokenStore.View token = (TokenStore.View) span;
+      return token.getStore().getNormalizedText(token.getIndex(), preprocessor);
+    }
+    return preprocessor.preProcess(span.getText());
+  }
+  
+  @Override
+  public int[] getIndexes(TokenStore store) {
+    int[] words = store.getNormalizedIds(preprocessor);
+    return store.getFeatures(this, revision, i -> super.getIndex(store.getStringTable().get(words[i])));
+  }
+  
   @Override
   public boolean isUnknown(String word) {
     return super.isUnknown(preprocessor.preProcess(word));
@@ -144,8 +162,18 @@ public class BagOfWordsEncoder extends LookupCacheEncoder {
     INDArray vector = Nd4j.zeros(getEmbeddingVectorSize(), 1);
     int i;
     // best results were seen with no normalization and 1.0 instead of word frequency
+    if(spans instanceof TokenStore.TokenList) {
+      // Tokens of a compact Document: read the cached indexes
+      TokenStore.TokenList tokens = (TokenStore.TokenList) spans;
+      int[] indexes = getIndexes(tokens.getStore());
+      for(int t = tokens.getFrom(); t < tokens.getTo(); t++) {
+        i = indexes[t];
+        if(i>=0) vector.put(i, 0, 1.0);
+      }
+      return vector;
+    }
     for(Span s : spans) {
-      i = getIndex(s.getText());
+      i = getIndex(s);
       if(i>=0) vector.put(i, 0, 1.0);
     }
     return vector;
@@ -161,7 +189,7 @@ public class BagOfWordsEncoder extends LookupCacheEncoder {
     int i;
     // best results were seen with no normalization and 1.0 instead of word frequency
     for(String w : words) {
-      i = getIndex(w);
+      i = getCachedIndex(w);
       if(i>=0) vector.put(i, 0, 1.0);
     }
     return vector;
@@ -227,7 +255,8 @@ public class BagOfWordsEncoder extends LookupCacheEncoder {
   public Set<String> asString(Iterable<Token> tokens) {
     Set<String> result = new HashSet<>();
     for(Token t : tokens) {
-      if(!isUnknown(t.getText())) result.add(preprocessor.preProcess(t.getText()));
+      String w = normalize(t);
+      if(!super.isUnknown(w)) result.add(w);
     }
     return result;
   }
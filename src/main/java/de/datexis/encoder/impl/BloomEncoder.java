@@ -72,7 +72,7 @@ public class BloomEncoder extends BagOfWordsEncoder {
   public INDArray encode(Iterable<? extends Span> spans) {
     INDArray vector = Nd4j.zeros(DataType.FLOAT, getEmbeddingVectorSize(), 1);
     for(Span s : spans) {
-      double[] bits = bloom.getBitArray(preprocessor.preProcess(s.getText()));
+      double[] bits = bloom.getBitArray(normalize(s));
       INDArray x = Nd4j.create(bits, new long[]{getEmbeddingVectorSize(), 1}).castTo(DataType.FLOAT);
       vector.addi(x);
     }
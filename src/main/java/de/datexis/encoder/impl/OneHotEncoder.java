@@ -84,7 +84,7 @@ public class OneHotEncoder extends LookupCacheEncoder {
     }
     int total = vocab.numWords();
     vocab.truncateVocabulary(minWordFrequency);
-    vocab.updateHuffmanCodes();
+    updateVocabulary();
     timer.stop();
     appendTrainLog("trained " + vocab.numWords() + " words (" +  total + " total)", timer.getLong());
     setModelAvailable(true);
@@ -85,7 +85,7 @@ public class SentenceEmbeddingEncoder extends LookupCacheEncoder {
       }
     }
     int total = vocab.numWords();
-    vocab.updateHuffmanCodes();
+    updateVocabulary();
     timer.stop();
     
     // phase 2: compute first principal component
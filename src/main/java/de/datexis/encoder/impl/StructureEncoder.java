@@ -3,6 +3,7 @@ package de.datexis.encoder.impl;
 import de.datexis.encoder.EncodingHelpers;
 import de.datexis.encoder.StaticEncoder;
 import de.datexis.model.Document;
+import de.datexis.model.DocumentWindow;
 import de.datexis.model.Sentence;
 import de.datexis.model.Span;
 import de.datexis.model.Token;
@@ -140,11 +141,15 @@ public class StructureEncoder extends StaticEncoder {
   
   private List<INDArray> encodeSentences(Document d) {
     List<INDArray> result = new ArrayList<>(d.countSentences());
-    boolean beginDoc = true, beginPar = true, endPar, endDoc, isList;
+    // windows only contain begin and end of document if they are located at the borders
+    boolean isWindow = d instanceof DocumentWindow;
+    boolean beginDoc = !isWindow || ((DocumentWindow) d).isBeginOfDocument();
+    boolean isLastWindow = !isWindow || ((DocumentWindow) d).isEndOfDocument();
+    boolean beginPar = true, endPar, endDoc, isList;
     Iterator<Sentence> sentences = d.getSentences().iterator();
     while(sentences.hasNext()) {
       Sentence s = sentences.next();
-      endDoc = !sentences.hasNext();
+      endDoc = !sentences.hasNext() && isLastWindow;
       endPar = s.streamTokens().anyMatch(t -> t.getText().equals("*NL*") || t.getText().equals("\n"));
       isList = s.getText().startsWith("- ");
       result.add(createVector(beginDoc, beginPar || beginDoc, false, false, endPar || endDoc, endDoc, isList));
@@ -9,6 +9,7 @@ import de.datexis.model.Document;
 import de.datexis.model.Sentence;
 import de.datexis.model.Span;
 import de.datexis.model.Token;
+import de.datexis.model.TokenStore;
 import de.datexis.preprocess.LowercasePreprocessor;
 import org.deeplearning4j.models.embeddings.inmemory.InMemoryLookupTable;
 import org.deeplearning4j.models.embeddings.loader.WordVectorSerializer;
@@ -255,7 +256,11 @@ public class Word2VecEncoder extends Encoder {
 
 	@Override
 	public INDArray encode(Span span) {
-    if(span instanceof Token) return encode(preprocessor.preProcess(span.getText()));
+    if(span instanceof TokenStore.View) {
+      // normalized text is computed once per Document
+      TokenStore.View token = (TokenStore.View) span;
+      return encode(token.getStore().getNormalizedText(token.getIndex(), preprocessor));
+    } else if(span instanceof Token) return encode(preprocessor.preProcess(span.getText()));
     else return encode(span.getText());
 	}
 
@@ -2,6 +2,7 @@ package de.datexis.model;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
+import de.datexis.common.StringTable;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Collections;
@@ -215,6 +216,21 @@ public class Dataset {
     return documents.get(index).getRandomSentence();
   }
   
+  /**
+   * Store the Tokens of all Documents in compact form, sharing a new StringTable that is released together with the
+   * Documents. Documents that are already compact keep their table.
+   * @see Document#compact(StringTable)
+   * @return this Dataset for function chaining
+   */
+  public Dataset compact() {
+    return compact(new StringTable());
+  }
+  
+  public Dataset compact(StringTable strings) {
+    for(Document doc : documents) doc.compact(strings);
+    return this;
+  }
+  
   /**
    * @return a deep copy of this Dataset
    */
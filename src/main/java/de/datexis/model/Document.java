@@ -6,6 +6,7 @@ import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import java.util.ArrayList;
 import java.util.List;
+import de.datexis.common.StringTable;
 import de.datexis.common.WordHelpers;
 import static de.datexis.model.Dataset.random;
 import de.datexis.model.tag.Tag;
@@ -41,6 +42,11 @@ public class Document extends Span {
    */
   protected List<Annotation> annotations;
   
+  /**
+   * Compact storage of the Tokens of all Sentences, if this Document was compacted.
+   */
+  protected TokenStore tokenStore = null;
+  
   /**
    * The ID of this document (e.g. URL)
    */
@@ -456,6 +462,48 @@ public class Document extends Span {
     else return (int) annotations.size();
   }
   
+  /**
+   * Move all Tokens into a TokenStore with its own StringTable. Use compact(StringTable) to share a table between
+   * the Documents of a Dataset.
+   * @see #compact(StringTable)
+   */
+  public Document compact() {
+    return compact(new StringTable(Math.max(16, countTokens() / 2)));
+  }
+  
+  /**
+   * Move all Tokens into a TokenStore, so that Token texts are interned in the given table and positions are kept
+   * in int arrays. Sentences keep their identity and reference their Tokens as lightweight views, so the API is
+   * unchanged. Sentences that are added later are not compacted.
+   * @return this Document for function chaining
+   */
+  public Document compact(StringTable strings) {
+    if(tokenStore != null) return this;
+    TokenStore store = new TokenStore(strings, countTokens());
+    for(Sentence s : sentences) {
+      if(!s.isCompact()) s.compact(store);
+    }
+    store.trim();
+    tokenStore = store;
+    return this;
+  }
+  
+  /**
+   * @return TRUE if this Document was compacted
+   */
+  @JsonIgnore
+  public boolean isCompact() {
+    return tokenStore != null;
+  }
+  
+  /**
+   * @return the TokenStore of a compacted Document or null
+   */
+  @JsonIgnore
+  public TokenStore getTokenStore() {
+    return tokenStore;
+  }
+  
   /**
    * @return TRUE if the document is empty
    */
@@ -516,6 +564,7 @@ public class Document extends Span {
    */
   public void setText(String text) {
     sentences.clear();
+    tokenStore = null;
     setBegin(0);
     setEnd(0);
     DocumentFactory.getInstance().addToDocumentFromText(text, this, Newlines.KEEP);
@@ -537,6 +586,7 @@ public class Document extends Span {
     result.setBegin(getBegin());
     result.setEnd(getEnd());
     result.setSource(getSource());
+    if(isCompact()) result.compact(tokenStore.getStringTable());
     return result;
   }
 
@@ -0,0 +1,71 @@
+package de.datexis.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import java.util.ArrayList;
+import java.util.stream.Stream;
+
+/**
+ * A read-only view on a contiguous range of Sentences of a Document, e.g. used to train on windows of long Documents.
+ * Sentences are shared with the source Document and not modified. Annotations are taken from the source Document
+ * if they intersect with the window.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class DocumentWindow extends Document {
+
+  protected final Document source;
+  protected final int offset;
+
+  /**
+   * @param source the Document to create a window of
+   * @param offset index of the first Sentence in the window
+   * @param length maximum number of Sentences in the window
+   */
+  public DocumentWindow(Document source, int offset, int length) {
+    this.source = source;
+    this.offset = offset;
+    int end = Math.min(offset + length, source.countSentences());
+    if(offset < 0 || offset >= end) throw new IllegalArgumentException("invalid window [" + offset + "," + end + ") for document with " + source.countSentences() + " sentences");
+    sentences = new ArrayList<>(source.getSentences().subList(offset, end));
+    begin = sentences.get(0).getBegin();
+    this.end = sentences.get(sentences.size() - 1).getEnd();
+    setId(source.getId());
+    setLanguage(source.getLanguage());
+    setType(source.getType());
+    setTitle(source.getTitle());
+  }
+
+  @JsonIgnore
+  public Document getSourceDocument() {
+    return source;
+  }
+
+  /**
+   * @return index of the first Sentence of this window in the source Document
+   */
+  @JsonIgnore
+  public int getOffset() {
+    return offset;
+  }
+
+  @JsonIgnore
+  public boolean isBeginOfDocument() {
+    return offset == 0;
+  }
+
+  @JsonIgnore
+  public boolean isEndOfDocument() {
+    return offset + countSentences() >= source.countSentences();
+  }
+
+  @Override
+  protected Stream<? extends Annotation> streamAnnotations() {
+    return source.streamAnnotations()
+      .filter(ann -> ann.getEnd() > getBegin() && ann.getBegin() < getEnd());
+  }
+
+  @Override
+  public <A extends Annotation> void addAnnotation(A ann) {
+    throw new UnsupportedOperationException("DocumentWindow is read-only");
+  }
+
+}
@@ -88,10 +88,28 @@ public class Sentence extends Span {
 	}
 
 	public void addToken(Token t) {
+    if(isCompact()) tokens = new ArrayList<>(tokens);
     if(tokens.isEmpty()) begin = t.getBegin();
     end = t.getEnd();
 		tokens.add(t);
 	}
+  
+  /**
+   * @return TRUE if the Tokens of this Sentence are views of a TokenStore
+   */
+  @JsonIgnore
+  public boolean isCompact() {
+    return tokens instanceof TokenStore.TokenList;
+  }
+  
+  /**
+   * Move all Tokens of this Sentence into the given store and reference them as views.
+   */
+  void compact(TokenStore store) {
+    int from = store.size();
+    for(Token t : tokens) store.add(t);
+    tokens = store.getTokens(from, store.size());
+  }
     
 	/**
 	 * Functional access to all Tokens in this Sentence
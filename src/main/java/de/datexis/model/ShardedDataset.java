@@ -0,0 +1,227 @@
+package de.datexis.model;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.datexis.common.ObjectSerializer;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A collection of Documents that is stored in compressed JSON shards on disk and never held in memory as a whole.
+ * Documents are read lazily from the shards, so that heap usage is bounded by the number of Documents that are
+ * currently in use (e.g. the shuffle buffer) instead of the size of the corpus.
+ * The directory contains a manifest (dataset.json) and shard files with one JSON Document per line.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class ShardedDataset {
+
+  protected final static Logger log = LoggerFactory.getLogger(ShardedDataset.class);
+
+  protected static final String MANIFEST = "dataset.json";
+
+  protected final Path directory;
+  protected final Manifest manifest;
+
+  /**
+   * Open an existing sharded Dataset.
+   */
+  public ShardedDataset(Path directory) throws IOException {
+    this.directory = directory;
+    this.manifest = ObjectSerializer.getObjectMapper().readValue(directory.resolve(MANIFEST).toFile(), Manifest.class);
+  }
+
+  /**
+   * Write Documents into shards of the given number of Documents. The input is consumed lazily, so that it may be
+   * read from a stream, e.g. ObjectSerializer.readJSONDocumentIterable().
+   */
+  public static ShardedDataset write(Iterator<Document> docs, Path directory, String name, int documentsPerShard) throws IOException {
+    Files.createDirectories(directory);
+    ObjectMapper mapper = ObjectSerializer.getObjectMapper();
+    Manifest manifest = new Manifest();
+    manifest.name = name;
+    while(docs.hasNext()) {
+      Shard shard = new Shard();
+      shard.file = String.format("shard-%05d.jsonl.gz", manifest.shards.size());
+      try(BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
+          new GZIPOutputStream(Files.newOutputStream(directory.resolve(shard.file))), StandardCharsets.UTF_8))) {
+        while(docs.hasNext() && shard.numDocuments < documentsPerShard) {
+          Document doc = docs.next();
+          if(manifest.language == null) manifest.language = doc.getLanguage();
+          out.write(mapper.writeValueAsString(doc));
+          out.newLine();
+          shard.numDocuments++;
+        }
+      }
+      manifest.shards.add(shard);
+      manifest.numDocuments += shard.numDocuments;
+    }
+    mapper.writeValue(directory.resolve(MANIFEST).toFile(), manifest);
+    log.info("Wrote {} documents in {} shards to {}", manifest.numDocuments, manifest.shards.size(), directory);
+    return new ShardedDataset(directory);
+  }
+
+  public Path getDirectory() {
+    return directory;
+  }
+
+  public String getName() {
+    return manifest.name;
+  }
+
+  public String getLanguage() {
+    return manifest.language;
+  }
+
+  public int countDocuments() {
+    return (int) Math.min(Integer.MAX_VALUE, manifest.numDocuments);
+  }
+
+  public int countShards() {
+    return manifest.shards.size();
+  }
+
+  /**
+   * @return paths of all shard files in order
+   */
+  public List<Path> getShardFiles() {
+    List<Path> files = new ArrayList<>(manifest.shards.size());
+    for(Shard shard : manifest.shards) files.add(directory.resolve(shard.file));
+    return files;
+  }
+
+  /**
+   * @return all Documents in order of the shards
+   */
+  public Stream<Document> streamDocuments() {
+    DocumentIterator it = iterator(false, 0, null);
+    return StreamSupport.stream(Spliterators.spliterator(it, manifest.numDocuments, Spliterator.ORDERED | Spliterator.NONNULL), false)
+      .onClose(it::close);
+  }
+
+  /**
+   * Iterate over all Documents. In shuffled mode, the order of shards is randomized and Documents are drawn at random
+   * from a buffer of the given size, which approximates a global shuffle.
+   * @param shuffle true to randomize the order of Documents
+   * @param bufferSize maximum number of Documents that are held in the shuffle buffer
+   * @param random the random generator to use, or null to use a new one
+   */
+  public DocumentIterator iterator(boolean shuffle, int bufferSize, Random random) {
+    List<Shard> shards = new ArrayList<>(manifest.shards);
+    if(random == null) random = new Random(System.nanoTime());
+    if(shuffle) Collections.shuffle(shards, random);
+    return new DocumentIterator(shards, shuffle ? Math.max(1, bufferSize) : 1, random);
+  }
+
+  /**
+   * Iterator over the Documents of a list of shards. Only one shard file is open at a time.
+   */
+  public class DocumentIterator implements Iterator<Document>, Closeable {
+
+    protected final Iterator<Shard> shards;
+    protected final int bufferSize;
+    protected final Random random;
+    protected final List<Document> buffer = new ArrayList<>();
+    protected BufferedReader reader;
+    protected String nextLine;
+
+    protected DocumentIterator(List<Shard> shards, int bufferSize, Random random) {
+      this.shards = shards.iterator();
+      this.bufferSize = bufferSize;
+      this.random = random;
+    }
+
+    protected boolean hasNextLine() throws IOException {
+      while(nextLine == null) {
+        if(reader != null) {
+          nextLine = reader.readLine();
+          if(nextLine != null) break;
+          reader.close();
+          reader = null;
+        }
+        if(!shards.hasNext()) return false;
+        Path file = directory.resolve(shards.next().file);
+        reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8));
+      }
+      return true;
+    }
+
+    protected void fillBuffer() {
+      try {
+        while(buffer.size() < bufferSize && hasNextLine()) {
+          buffer.add(ObjectSerializer.readFromJSON(nextLine, Document.class));
+          nextLine = null;
+        }
+      } catch(IOException ex) {
+        throw new UncheckedIOException("could not read shard from " + directory, ex);
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      fillBuffer();
+      return !buffer.isEmpty();
+    }
+
+    @Override
+    public Document next() {
+      if(!hasNext()) throw new NoSuchElementException();
+      int last = buffer.size() - 1;
+      int i = bufferSize > 1 ? random.nextInt(buffer.size()) : 0;
+      Document doc = buffer.get(i);
+      buffer.set(i, buffer.get(last));
+      buffer.remove(last);
+      return doc;
+    }
+
+    @Override
+    public void close() {
+      buffer.clear();
+      if(reader != null) {
+        try {
+          reader.close();
+        } catch(IOException ex) {
+          log.warn("Could not close shard: {}", ex.toString());
+        }
+        reader = null;
+      }
+    }
+
+  }
+
+  /**
+   * Content of the manifest file.
+   */
+  protected static class Manifest {
+    public String name;
+    public String language;
+    public long numDocuments = 0;
+    public List<Shard> shards = new ArrayList<>();
+  }
+
+  protected static class Shard {
+    public String file;
+    public int numDocuments = 0;
+  }
+
+}
@@ -2,6 +2,7 @@ package de.datexis.model;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
+import de.datexis.common.StageProfiler;
 import de.datexis.encoder.Encoder;
 import de.datexis.encoder.EncoderSet;
 import de.datexis.model.tag.Tag;
@@ -106,7 +107,7 @@ public abstract class Span implements Comparable<Span> {
   }
   
   public void setLength(int length) {
-    this.end = this.begin + length;
+    setEnd(getBegin() + length);
   }
   
   public void setUid(Long uid) {
@@ -139,9 +140,10 @@ public abstract class Span implements Comparable<Span> {
    * @param identifier An identifier for this vector.
    * @param vec  The column vector itself. Will be duplicated to heap.
    */
+  @SuppressWarnings("try")
   public void putVector(String identifier, INDArray vec) {
     if(vectors == null) vectors = new TreeMap<>();
-    try {
+    try(StageProfiler.Scope scope = StageProfiler.enter("putVector")) {
       vectors.put(identifier, Nd4j.toByteArray(vec));
     } catch(IOException ex) {
       log.error("IOError in putVector(): {}", ex.toString());
@@ -265,13 +267,30 @@ public abstract class Span implements Comparable<Span> {
     }
   }
 
+  /**
+   * @return true if this Span holds a uid, document reference, vectors or tags
+   */
+  boolean hasAttachments() {
+    return uid != null || documentRef != null || (vectors != null && !vectors.isEmpty()) || (tags != null && !tags.isEmpty());
+  }
+
+  /**
+   * Take over uid, document reference, vectors and tags of another Span (not a deep copy).
+   */
+  void copyAttachments(Span other) {
+    this.uid = other.uid;
+    this.documentRef = other.documentRef;
+    this.vectors = other.vectors;
+    this.tags = other.tags;
+  }
+
   /**
    * Span ordering based on begin and end positions.
    */
   @Override
   public int compareTo(Span other) {
-    int c = (this.begin - other.begin);
-    if(c == 0) c = (this.end - other.end);
+    int c = (this.getBegin() - other.getBegin());
+    if(c == 0) c = (this.getEnd() - other.getEnd());
     return c;
   }
   
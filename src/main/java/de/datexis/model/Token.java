@@ -87,7 +87,7 @@ public class Token extends Span {
   
   @JsonIgnore
   public boolean isEmpty() {
-    return text.isEmpty();
+    return getText().isEmpty();
   }
   
   /**
@@ -0,0 +1,332 @@
+package de.datexis.model;
+
+import de.datexis.common.StringTable;
+import de.datexis.model.tag.Tag;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntUnaryOperator;
+import org.deeplearning4j.text.tokenization.tokenizer.TokenPreProcess;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * Compact storage of all Tokens in a Document. Token texts are kept as ids into a shared StringTable, positions as
+ * int arrays. Sentences of a compact Document reference ranges of this store, and Tokens are created as lightweight
+ * views on access. Views write changes of text and positions through to the arrays. A view that is given tags,
+ * vectors, a uid or a document reference is kept by the store, so that all later accesses return the same instance.
+ * The store also caches int features of all Tokens, such as normalized texts and vocabulary indexes, so that they
+ * are computed only once for the lifetime of the Document.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class TokenStore {
+
+  protected final StringTable strings;
+
+  protected int[] texts;
+  protected int[] begins;
+  protected int[] ends;
+  protected int size = 0;
+
+  /**
+   * Views that hold tags, vectors, uids or document references. Only initialized when used.
+   */
+  protected volatile Map<Integer,View> attached = null;
+
+  /**
+   * Cached int features of all Tokens per key. Only initialized when used.
+   */
+  protected volatile Map<Object,Features> features = null;
+
+  public TokenStore(StringTable strings, int capacity) {
+    this.strings = strings;
+    capacity = Math.max(1, capacity);
+    texts = new int[capacity];
+    begins = new int[capacity];
+    ends = new int[capacity];
+  }
+
+  /**
+   * Append a copy of the given Token to this store. Tags, vectors, uid and document reference are moved to a view.
+   * @return the index of the new Token
+   */
+  public synchronized int add(Token token) {
+    if(size == texts.length) {
+      int capacity = Math.max(16, size * 2);
+      texts = Arrays.copyOf(texts, capacity);
+      begins = Arrays.copyOf(begins, capacity);
+      ends = Arrays.copyOf(ends, capacity);
+    }
+    int index = size++;
+    features = null;
+    texts[index] = strings.intern(token.getText());
+    begins[index] = token.getBegin();
+    ends[index] = token.getEnd();
+    if(token.hasAttachments()) {
+      View view = new View(this, index);
+      view.copyAttachments(token);
+      attach(view);
+    }
+    return index;
+  }
+
+  /**
+   * Release unused capacity.
+   */
+  public synchronized void trim() {
+    texts = Arrays.copyOf(texts, size);
+    begins = Arrays.copyOf(begins, size);
+    ends = Arrays.copyOf(ends, size);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public StringTable getStringTable() {
+    return strings;
+  }
+
+  /**
+   * @return a view of the Token at given index
+   */
+  public Token getToken(int index) {
+    if(attached != null) {
+      synchronized(this) {
+        View view = attached.get(index);
+        if(view != null) return view;
+      }
+    }
+    return new View(this, index);
+  }
+
+  public String getText(int index) {
+    return strings.get(texts[index]);
+  }
+
+  /**
+   * @return the id of the Token text in the StringTable
+   */
+  public int getTextId(int index) {
+    return texts[index];
+  }
+
+  public int getBegin(int index) {
+    return begins[index];
+  }
+
+  public int getEnd(int index) {
+    return ends[index];
+  }
+
+  /**
+   * Normalize all Token texts with the given preprocessor. The result is computed once per preprocessor class, so
+   * preprocessors must be stateless.
+   * @return ids of the normalized texts in the StringTable
+   */
+  public int[] getNormalizedIds(TokenPreProcess preprocessor) {
+    return getFeatures(preprocessor.getClass(), 0, i -> strings.intern(preprocessor.preProcess(getText(i))));
+  }
+
+  /**
+   * @return the text of the Token at given index, normalized by the given preprocessor
+   */
+  public String getNormalizedText(int index, TokenPreProcess preprocessor) {
+    return strings.get(getNormalizedIds(preprocessor)[index]);
+  }
+
+  /**
+   * Compute an int feature for all Tokens, e.g. a vocabulary index. Values are cached per key until the revision
+   * changes or a Token text is changed.
+   * @param key identifies the feature, e.g. an Encoder
+   * @param revision version of the feature function, e.g. a vocabulary revision
+   * @param feature function from Token index to feature value
+   */
+  public int[] getFeatures(Object key, int revision, IntUnaryOperator feature) {
+    Map<Object,Features> cache = features;
+    if(cache == null) {
+      synchronized(this) {
+        if(features == null) features = new ConcurrentHashMap<>();
+        cache = features;
+      }
+    }
+    Features cached = cache.get(key);
+    if(cached != null && cached.revision == revision) return cached.values;
+    int[] values = new int[size];
+    for(int i = 0; i < size; i++) values[i] = feature.applyAsInt(i);
+    cache.put(key, new Features(revision, values));
+    return values;
+  }
+
+  /**
+   * Remove all cached features.
+   */
+  public void clearFeatures() {
+    features = null;
+  }
+
+  /**
+   * @return an unmodifiable list of views of the Tokens in range [from, to)
+   */
+  public List<Token> getTokens(int from, int to) {
+    return new TokenList(this, from, to);
+  }
+
+  /**
+   * Keep a view in this store.
+   * @return the view that was kept for the same index before, or the given view
+   */
+  protected synchronized View attach(View view) {
+    if(attached == null) attached = new HashMap<>();
+    View existing = attached.putIfAbsent(view.index, view);
+    return existing != null ? existing : view;
+  }
+
+  /**
+   * Lightweight Token that reads and writes its text and position from the store.
+   */
+  public static final class View extends Token {
+
+    protected final TokenStore store;
+    protected final int index;
+
+    @SuppressWarnings("deprecation")
+    protected View(TokenStore store, int index) {
+      super();
+      this.store = store;
+      this.index = index;
+    }
+
+    public TokenStore getStore() {
+      return store;
+    }
+
+    /**
+     * @return the index of this Token in the store
+     */
+    public int getIndex() {
+      return index;
+    }
+
+    @Override
+    public String getText() {
+      return store.getText(index);
+    }
+
+    @Override
+    public void setText(String text) {
+      store.texts[index] = store.strings.intern(text);
+      store.clearFeatures();
+    }
+
+    @Override
+    public int getBegin() {
+      return store.begins[index];
+    }
+
+    @Override
+    public void setBegin(int begin) {
+      store.begins[index] = begin;
+    }
+
+    @Override
+    public int getEnd() {
+      return store.ends[index];
+    }
+
+    @Override
+    public void setEnd(int end) {
+      store.ends[index] = end;
+    }
+
+    @Override
+    public <T extends Tag> Token putTag(Annotation.Source source, T tag) {
+      View owner = store.attach(this);
+      if(owner != this) return owner.putTag(source, tag);
+      return super.putTag(source, tag);
+    }
+
+    @Override
+    public void putVector(String identifier, INDArray vec) {
+      View owner = store.attach(this);
+      if(owner != this) owner.putVector(identifier, vec);
+      else super.putVector(identifier, vec);
+    }
+
+    @Override
+    public void setUid(Long uid) {
+      View owner = store.attach(this);
+      if(owner != this) owner.setUid(uid);
+      else super.setUid(uid);
+    }
+
+    @Override
+    public void setDocumentRef(Document doc) {
+      View owner = store.attach(this);
+      if(owner != this) owner.setDocumentRef(doc);
+      else super.setDocumentRef(doc);
+    }
+
+  }
+
+  /**
+   * List of the Tokens of a Sentence, which allows Encoders to read cached features of the range directly.
+   */
+  public static final class TokenList extends AbstractList<Token> implements RandomAccess {
+
+    protected final TokenStore store;
+    protected final int from, to;
+
+    protected TokenList(TokenStore store, int from, int to) {
+      this.store = store;
+      this.from = from;
+      this.to = to;
+    }
+
+    public TokenStore getStore() {
+      return store;
+    }
+
+    /**
+     * @return index of the first Token in the store
+     */
+    public int getFrom() {
+      return from;
+    }
+
+    /**
+     * @return index after the last Token in the store
+     */
+    public int getTo() {
+      return to;
+    }
+
+    @Override
+    public Token get(int index) {
+      if(index < 0 || index >= to - from) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+      return store.getToken(from + index);
+    }
+
+    @Override
+    public int size() {
+      return to - from;
+    }
+
+  }
+
+  protected static final class Features {
+
+    protected final int revision;
+    protected final int[] values;
+
+    protected Features(int revision, int[] values) {
+      this.revision = revision;
+      this.values = values;
+    }
+
+  }
+
+}
@@ -11,6 +11,7 @@ import com.optimaize.langdetect.text.CommonTextObjectFactories;
 import com.optimaize.langdetect.text.TextObject;
 import com.optimaize.langdetect.text.TextObjectFactory;
 import de.datexis.common.Resource;
+import de.datexis.common.StageProfiler;
 import de.datexis.common.WordHelpers;
 import de.datexis.model.Document;
 import de.datexis.model.Sentence;
@@ -109,8 +110,11 @@ public class DocumentFactory {
    * Newlines in the text will lead to new sentences, but will not be contained in the document.
    * @param text The text to process
    */
+  @SuppressWarnings("try")
   public static Document fromText(String text) {
-    return instance.createFromText(text);
+    try(StageProfiler.Scope scope = StageProfiler.enter("tokenize")) {
+      return instance.createFromText(text);
+    }
   }
   
   /**
@@ -119,8 +123,11 @@ public class DocumentFactory {
    * @param text The text to process
    * @param newlines Keep or discard newlines
    */
+  @SuppressWarnings("try")
   public static Document fromText(String text, Newlines newlines) {
-    return instance.createFromText(text, newlines);
+    try(StageProfiler.Scope scope = StageProfiler.enter("tokenize")) {
+      return instance.createFromText(text, newlines);
+    }
   }
   
   /**
@@ -130,8 +137,11 @@ public class DocumentFactory {
    * @param newlines Keep or discard newlines
    * @param lang use a given language for tokenization and sentence splitting
    */
+  @SuppressWarnings("try")
   public static Document fromText(String text, Newlines newlines, WordHelpers.Language lang) {
-    return instance.createFromText(text, newlines, lang);
+    try(StageProfiler.Scope scope = StageProfiler.enter("tokenize")) {
+      return instance.createFromText(text, newlines, lang);
+    }
   }
   
   /**
@@ -243,7 +253,7 @@ public class DocumentFactory {
       if(sentence == null) continue;
       String sentenceText = text.substring(sentence.getStart(), sentence.getEnd());
       opennlp.tools.util.Span tokens[] = tokenizer.tokenizePos(sentenceText);
-      List<Token> tokenList = new LinkedList<>();
+      List<Token> tokenList = new ArrayList<>(tokens.length);
       for(opennlp.tools.util.Span token : tokens) {
         String tokenText = sentenceText.substring(token.getStart(), token.getEnd());
         if(tokenText.equals("\n")) { // newline
@@ -334,7 +344,7 @@ public class DocumentFactory {
   public List<Token> createTokensFromText(String text, int offset, String language) {
     TokenizerME tokenizer = newlineTokenizer.getOrDefault(language, newlineTokenizer.get(LANG_EN));
     opennlp.tools.util.Span tokens[] = tokenizer.tokenizePos(text);
-    List<Token> tokenList = new LinkedList<>();
+    List<Token> tokenList = new ArrayList<>(tokens.length);
     for(opennlp.tools.util.Span token : tokens) {
       String tokenText = text.substring(token.getStart(), token.getEnd());
       Token t = new Token(tokenText, offset + token.getStart(), offset + token.getEnd());
@@ -0,0 +1,271 @@
+package de.datexis.sector;
+
+import de.datexis.encoder.EncodingHelpers;
+import de.datexis.model.Annotation;
+import de.datexis.model.Document;
+import de.datexis.model.DocumentWindow;
+import de.datexis.model.Sentence;
+import de.datexis.sector.SectorAnnotator.SegmentationMethod;
+import de.datexis.sector.model.SectionAnnotation;
+import de.datexis.sector.tagger.DocumentSentenceIterator;
+import de.datexis.sector.tagger.SectorEncoder;
+import de.datexis.sector.tagger.SectorTagger;
+import de.datexis.sector.tagger.SectorTaggerIterator;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Re-annotates an edited Document by recomputing only the region that is affected by a Sentence-level edit.
+ * Vectors of unchanged Sentences are taken from the previously annotated Document. The changed Sentences are
+ * encoded in a window together with a lookbehind context (to rebuild the forward LSTM state) and a lookahead
+ * context (to rebuild the backward LSTM state). Outputs in the context are blended into the previous vectors.
+ * Sections are re-detected only between the nearest unchanged section boundaries around the edit.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class IncrementalSectorAnnotator {
+
+  protected final static Logger log = LoggerFactory.getLogger(IncrementalSectorAnnotator.class);
+
+  protected final SectorAnnotator annotator;
+
+  /** number of unchanged Sentences before an edit that are used to rebuild the forward state */
+  protected int lookbehind = 8;
+
+  /** number of unchanged Sentences after an edit that are used to rebuild the backward state */
+  protected int lookahead = 8;
+
+  /** minimum number of Sentences in the re-segmented range, extended by whole sections */
+  protected int minSegmentationLength = 32;
+
+  public IncrementalSectorAnnotator(SectorAnnotator annotator) {
+    this.annotator = annotator;
+  }
+
+  public IncrementalSectorAnnotator withContext(int lookbehind, int lookahead) {
+    if(lookbehind < 0 || lookahead < 0) throw new IllegalArgumentException("context size must not be negative");
+    this.lookbehind = lookbehind;
+    this.lookahead = lookahead;
+    return this;
+  }
+
+  public IncrementalSectorAnnotator withMinSegmentationLength(int minSegmentationLength) {
+    this.minSegmentationLength = minSegmentationLength;
+    return this;
+  }
+
+  /**
+   * A Sentence-level edit: starting at Sentence index begin, a number of Sentences was removed from the
+   * previous Document and a number of Sentences was inserted into the edited Document.
+   */
+  public static class SentenceDiff {
+
+    public final int begin;
+    public final int removed;
+    public final int inserted;
+
+    public SentenceDiff(int begin, int removed, int inserted) {
+      this.begin = begin;
+      this.removed = removed;
+      this.inserted = inserted;
+    }
+
+    /**
+     * Compute the diff between two Documents from their longest common prefix and suffix of Sentence Tokens.
+     */
+    public static SentenceDiff compute(Document previous, Document edited) {
+      int prevLength = previous.countSentences();
+      int editLength = edited.countSentences();
+      int prefix = 0;
+      while(prefix < prevLength && prefix < editLength &&
+            Objects.equals(previous.getSentence(prefix).toTokenizedString(), edited.getSentence(prefix).toTokenizedString())) prefix++;
+      int suffix = 0;
+      while(suffix < prevLength - prefix && suffix < editLength - prefix &&
+            Objects.equals(previous.getSentence(prevLength - suffix - 1).toTokenizedString(), edited.getSentence(editLength - suffix - 1).toTokenizedString())) suffix++;
+      return new SentenceDiff(prefix, prevLength - prefix - suffix, editLength - prefix - suffix);
+    }
+
+    public boolean isEmpty() {
+      return removed == 0 && inserted == 0;
+    }
+
+    @Override
+    public String toString() {
+      return "@" + begin + " -" + removed + " +" + inserted;
+    }
+
+  }
+
+  /**
+   * Annotate an edited Document incrementally using BEMD segmentation.
+   * @param previous the Document before the edit, already annotated with SectorAnnotator
+   */
+  public void annotate(Document previous, Document edited) {
+    annotate(previous, edited, SentenceDiff.compute(previous, edited), SegmentationMethod.BEMD);
+  }
+
+  /**
+   * Annotate an edited Document incrementally, i.e. attach SectorEncoder vectors to its Sentences and
+   * PRED SectionAnnotations with the given segmentation method. EMD and BEMD are recomputed locally,
+   * all other methods are recomputed for the whole Document, which does not require the network.
+   * @param previous the Document before the edit, already annotated with SectorAnnotator
+   * @param edited the Document after the edit
+   * @param diff Sentence-level changes from previous to edited
+   */
+  public void annotate(Document previous, Document edited, SentenceDiff diff, SegmentationMethod segmentation) {
+
+    long start = System.currentTimeMillis();
+    int length = edited.countSentences();
+    if(diff.begin + diff.inserted > length || diff.begin + diff.removed > previous.countSentences())
+      throw new IllegalArgumentException("diff " + diff.toString() + " does not match the documents");
+
+    int changedEnd = diff.begin + diff.inserted;
+    int from = Math.max(0, diff.begin - lookbehind);
+    int to = Math.min(length, changedEnd + lookahead);
+
+    copyUnchangedVectors(previous, edited, diff);
+    if(!diff.isEmpty() && to > from) encodeRegion(edited, from, diff.begin, changedEnd, to);
+
+    if(!segmentation.equals(SegmentationMethod.NONE)) {
+      edited.clearAnnotations(Annotation.Source.PRED, SectionAnnotation.class);
+      if(segmentation.equals(SegmentationMethod.EMD) || segmentation.equals(SegmentationMethod.BEMD)) {
+        segmentRegion(previous, edited, diff, from, to, segmentation);
+      } else {
+        annotator.detectSections(Collections.singletonList(edited), segmentation);
+      }
+      SectorAnnotator.attachVectorsToAnnotations(edited, annotator.getTargetEncoder());
+    }
+
+    log.debug("Re-annotated edit {} on {} sentences, encoded [{},{}) in {}ms", diff.toString(), length, from, to, System.currentTimeMillis() - start);
+
+  }
+
+  /**
+   * Copy all vectors from unchanged Sentences of the previous Document.
+   */
+  protected void copyUnchangedVectors(Document previous, Document edited, SentenceDiff diff) {
+    int shift = diff.inserted - diff.removed;
+    for(int t = 0; t < edited.countSentences(); t++) {
+      if(t >= diff.begin && t < diff.begin + diff.inserted) continue;
+      Sentence prev = previous.getSentence(t < diff.begin ? t : t - shift);
+      Sentence s = edited.getSentence(t);
+      if(prev == s) continue;
+      for(String layer : getLayers()) {
+        if(prev.hasVector(layer)) s.putVector(layer, prev.getVector(layer));
+      }
+    }
+  }
+
+  /**
+   * Encode the Sentences [from,to) and blend the outputs of the context Sentences [from,begin) and [end,to).
+   * Forward outputs are unaffected by later changes, so they are kept in the lookbehind context and faded out
+   * towards the end of the lookahead context. Backward outputs are handled vice versa.
+   */
+  protected void encodeRegion(Document doc, int from, int begin, int end, int to) {
+
+    SectorTagger tagger = annotator.getTagger();
+    Document window = new DocumentWindow(doc, from, to - from);
+    SectorTaggerIterator it = new SectorTaggerIterator(DocumentSentenceIterator.Stage.ENCODE, Collections.singletonList(window), tagger, 1, false, tagger.isRequireSubsampling());
+    Map<String,INDArray> weights = tagger.encodeMatrix(it.nextDocumentBatch());
+    String targetLayer = tagger.getTargetEncoder().getClass().getCanonicalName();
+
+    for(int t = from; t < to; t++) {
+      double fw = t < begin ? 0. : (t < end ? 1. : (double) (to - t) / (to - end + 1)); // forward context ends at window end
+      double bw = t >= end ? 0. : (t >= begin ? 1. : (double) (t - from + 1) / (begin - from + 1)); // backward context starts at window begin
+      Sentence s = doc.getSentence(t);
+      blend(s, targetLayer, EncodingHelpers.getTimeStep(weights.get("target"), 0, t - from), (fw + bw) / 2);
+      if(weights.containsKey("embeddingFW")) {
+        blend(s, "embeddingFW", EncodingHelpers.getTimeStep(weights.get("embeddingFW"), 0, t - from), fw);
+        blend(s, "embeddingBW", EncodingHelpers.getTimeStep(weights.get("embeddingBW"), 0, t - from), bw);
+        s.putVector(SectorEncoder.class, s.getVector("embeddingFW").add(s.getVector("embeddingBW")).divi(2)); // average
+      } else if(weights.containsKey("embedding")) {
+        blend(s, SectorEncoder.class.getCanonicalName(), EncodingHelpers.getTimeStep(weights.get("embedding"), 0, t - from), (fw + bw) / 2);
+      }
+    }
+
+  }
+
+  /**
+   * Attach the weighted average of the previous and the new vector to a Sentence.
+   * @param w weight of the new vector, Sentences without previous vector always use the new one
+   */
+  protected static void blend(Sentence s, String layer, INDArray vec, double w) {
+    if(w >= 1. || !s.hasVector(layer)) s.putVector(layer, vec.dup());
+    else if(w > 0.) s.putVector(layer, s.getVector(layer).mul(1. - w).addi(vec.mul(w)));
+  }
+
+  /**
+   * Detect sections between the nearest unchanged section boundaries around [from,to) and keep all other sections.
+   */
+  protected void segmentRegion(Document previous, Document edited, SentenceDiff diff, int from, int to, SegmentationMethod segmentation) {
+
+    int length = edited.countSentences();
+
+    // map previous section boundaries to edited Sentence indexes
+    int shift = diff.inserted - diff.removed;
+    TreeSet<Integer> bounds = new TreeSet<>();
+    bounds.add(0);
+    List<SectionAnnotation> sections = previous.streamAnnotations(Annotation.Source.PRED, SectionAnnotation.class)
+      .sorted(Comparator.comparingInt(SectionAnnotation::getBegin))
+      .collect(Collectors.toList());
+    int t = 0;
+    for(SectionAnnotation ann : sections) {
+      while(t < previous.countSentences() && previous.getSentence(t).getBegin() < ann.getBegin()) t++;
+      if(t < diff.begin) bounds.add(t);
+      else if(t >= diff.begin + diff.removed && t + shift < length) bounds.add(t + shift);
+    }
+
+    // find the range to re-segment
+    Integer segBegin = bounds.floor(from);
+    Integer segEnd = bounds.ceiling(Math.max(to, segBegin + 1));
+    if(segEnd == null) segEnd = length;
+    while(segEnd - segBegin < minSegmentationLength && (segBegin > 0 || segEnd < length)) {
+      Integer prev = bounds.lower(segBegin);
+      Integer next = bounds.higher(segEnd);
+      if(prev != null) segBegin = prev;
+      if(segEnd < length) segEnd = next != null ? next : length;
+    }
+
+    if(segBegin == 0 && segEnd == length) {
+      // document is too short for local segmentation
+      annotator.detectSections(Collections.singletonList(edited), segmentation);
+      return;
+    }
+
+    // detect edges in range
+    Document window = new DocumentWindow(edited, segBegin, segEnd - segBegin);
+    INDArray mag = segmentation.equals(SegmentationMethod.EMD) ?
+      SectorAnnotator.detectSectionsFromEmbeddingDeviation(window) :
+      SectorAnnotator.detectSectionsFromBidirectionalEmbeddingDeviation(window);
+    INDArray rangeEdges = SectorAnnotator.detectEdges(mag);
+
+    INDArray edges = Nd4j.zeros(length, 1);
+    for(int b : bounds) {
+      if(b < segBegin || b >= segEnd) edges.putScalar(b, 0, 1);
+    }
+    edges.putScalar(segBegin, 0, 1);
+    for(int r = 0; rangeEdges != null && r < rangeEdges.rows(); r++) {
+      if(rangeEdges.getDouble(r) > 0) edges.putScalar(segBegin + r, 0, 1);
+    }
+    SectorAnnotator.applySectionsFromEdges(edited, edges);
+
+  }
+
+  protected String[] getLayers() {
+    return new String[] {
+      annotator.getTargetEncoder().getClass().getCanonicalName(),
+      SectorEncoder.class.getCanonicalName(),
+      "embeddingFW",
+      "embeddingBW"
+    };
+  }
+
+}
@@ -0,0 +1,568 @@
+package de.datexis.sector;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.datexis.annotator.AnnotatorMonitor;
+import de.datexis.common.ObjectSerializer;
+import de.datexis.model.Annotation;
+import de.datexis.model.Document;
+import de.datexis.preprocess.DocumentFactory;
+import de.datexis.sector.SectorAnnotator.SegmentationMethod;
+import de.datexis.sector.service.SectorAnnotationService;
+import de.datexis.sector.tagger.DocumentSentenceIterator;
+import de.datexis.sector.tagger.SectorTagger;
+import de.datexis.sector.tagger.SectorTaggerIterator;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Annotates a stream of Documents of arbitrary size with constant memory. Documents flow through the stages
+ * read, tokenize, encode, BLSTM, segment and write, which are connected by bounded queues, so that a slow stage
+ * blocks all stages before it. Every stage runs in its own threads, BLSTM threads use separate inference replicas.
+ * Output is written as JSON lines in input order and contains the predicted SectionAnnotations of each Document.
+ * At most windowSize Documents are read but not yet written, which bounds the reorder buffer of the write stage.
+ * Vectors are removed from all Documents after they were written.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class SectorAnnotationPipeline {
+
+  protected final static Logger log = LoggerFactory.getLogger(SectorAnnotationPipeline.class);
+
+  /** marks the end of the input in a queue */
+  protected static final Object END = new Object();
+
+  protected final SectorAnnotator annotator;
+  protected SegmentationMethod segmentation = SegmentationMethod.BEMD;
+  protected int batchSize;
+  protected long maxWait = 100;
+  protected int queueSize = 64;
+  protected int windowSize = 256;
+  protected int tokenizeThreads = 2;
+  protected int encodeThreads = 1;
+  protected int inferenceThreads = 1;
+  protected int segmentThreads = 1;
+
+  protected volatile Throwable error;
+  protected final List<Thread> threads = new CopyOnWriteArrayList<>();
+  protected volatile List<BlockingQueue<Object>> queues = Collections.emptyList();
+
+  public SectorAnnotationPipeline(SectorAnnotator annotator) {
+    this.annotator = annotator;
+    this.batchSize = annotator.getTagger().getBatchSize();
+  }
+
+  public SectorAnnotationPipeline withSegmentation(SegmentationMethod segmentation) {
+    this.segmentation = segmentation;
+    return this;
+  }
+
+  /**
+   * @param batchSize maximum number of Documents per batch in the encode and BLSTM stages
+   * @param maxWait milliseconds to wait for a full batch before an incomplete batch is encoded
+   */
+  public SectorAnnotationPipeline withBatching(int batchSize, long maxWait) {
+    this.batchSize = batchSize;
+    this.maxWait = maxWait;
+    return this;
+  }
+
+  /**
+   * @param queueSize capacity of each queue between two stages (in Documents or batches)
+   */
+  public SectorAnnotationPipeline withQueueSize(int queueSize) {
+    this.queueSize = queueSize;
+    return this;
+  }
+
+  /**
+   * @param windowSize maximum number of Documents that were read but not yet written
+   */
+  public SectorAnnotationPipeline withWindowSize(int windowSize) {
+    this.windowSize = windowSize;
+    return this;
+  }
+
+  /**
+   * Set the number of threads for the tokenize, encode, BLSTM and segment stages.
+   * Read and write stages always use a single thread.
+   */
+  public SectorAnnotationPipeline withThreads(int tokenize, int encode, int inference, int segment) {
+    this.tokenizeThreads = tokenize;
+    this.encodeThreads = encode;
+    this.inferenceThreads = inference;
+    this.segmentThreads = segment;
+    return this;
+  }
+
+  /**
+   * Open a lazy input stream from a JSON array of Documents (e.g. WikiSection), a JSONL file with one Document or
+   * {"id","text"} object per line, or a directory of raw text files.
+   */
+  public static Iterator<JsonNode> readInput(Path path) throws IOException {
+    ObjectMapper mapper = ObjectSerializer.getObjectMapper();
+    if(Files.isDirectory(path)) {
+      DirectoryStream<Path> files = Files.newDirectoryStream(path, "*.txt");
+      Iterator<Path> it = files.iterator();
+      return new Iterator<JsonNode>() {
+        @Override
+        public boolean hasNext() {
+          return it.hasNext();
+        }
+        @Override
+        public JsonNode next() {
+          Path file = it.next();
+          try {
+            String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            return mapper.createObjectNode()
+              .put("id", file.getFileName().toString())
+              .put("text", text);
+          } catch(IOException ex) {
+            throw new UncheckedIOException(ex);
+          }
+        }
+      };
+    } else if(path.getFileName().toString().endsWith(".jsonl")) {
+      BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+      return new Iterator<JsonNode>() {
+        String line = null;
+        @Override
+        public boolean hasNext() {
+          try {
+            while(line == null || line.trim().isEmpty()) {
+              line = reader.readLine();
+              if(line == null) {
+                reader.close();
+                return false;
+              }
+            }
+            return true;
+          } catch(IOException ex) {
+            throw new UncheckedIOException(ex);
+          }
+        }
+        @Override
+        public JsonNode next() {
+          if(!hasNext()) throw new NoSuchElementException();
+          try {
+            return mapper.readTree(line);
+          } catch(IOException ex) {
+            throw new UncheckedIOException(ex);
+          } finally {
+            line = null;
+          }
+        }
+      };
+    } else {
+      return mapper.readerFor(JsonNode.class).readValues(Files.newInputStream(path));
+    }
+  }
+
+  /**
+   * Annotate all Documents from the input and write one JSON line per Document to the output.
+   * @return statistics about all stages
+   */
+  public Statistics run(Iterator<JsonNode> input, OutputStream output) throws IOException {
+
+    error = null;
+    threads.clear();
+    Statistics stats = new Statistics();
+    BlockingQueue<Object> tokenizeQueue = new ArrayBlockingQueue<>(queueSize);
+    BlockingQueue<Object> encodeQueue = new ArrayBlockingQueue<>(queueSize);
+    BlockingQueue<Object> inferenceQueue = new ArrayBlockingQueue<>(Math.max(1, queueSize / batchSize));
+    BlockingQueue<Object> segmentQueue = new ArrayBlockingQueue<>(Math.max(1, queueSize / batchSize));
+    BlockingQueue<Object> writeQueue = new ArrayBlockingQueue<>(queueSize);
+
+    SectorTagger tagger = annotator.getTagger();
+    Map<String,BlockingQueue<Object>> stageQueues = new LinkedHashMap<>();
+    stageQueues.put("tokenize", tokenizeQueue);
+    stageQueues.put("encode", encodeQueue);
+    stageQueues.put("blstm", inferenceQueue);
+    stageQueues.put("segment", segmentQueue);
+    stageQueues.put("write", writeQueue);
+    Map<String,DoubleSupplier> gauges = new LinkedHashMap<>();
+    for(Map.Entry<String,BlockingQueue<Object>> queue : stageQueues.entrySet()) {
+      DoubleSupplier size = queue.getValue()::size;
+      gauges.put(AnnotatorMonitor.QUEUE_PREFIX + "pipeline." + queue.getKey(), size);
+      tagger.getMetrics().gauge(AnnotatorMonitor.QUEUE_PREFIX + "pipeline." + queue.getKey()).bind(size);
+    }
+    this.queues = new ArrayList<>(stageQueues.values());
+    ThreadLocal<SectorTaggerIterator> encoders = ThreadLocal.withInitial(() ->
+      new SectorTaggerIterator(DocumentSentenceIterator.Stage.ENCODE, Collections.emptyList(), tagger, batchSize, false, tagger.isRequireSubsampling()));
+    ThreadLocal<SectorTagger> replicas = ThreadLocal.withInitial(tagger::createInferenceReplica);
+    BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+    Semaphore window = new Semaphore(Math.max(1, windowSize));
+
+    long start = System.nanoTime();
+
+    // read: parse JSON records
+    Stage read = stats.add("read", 1, null, tokenizeQueue);
+    startThread(read, () -> {
+      long index = 0;
+      while(input.hasNext()) {
+        window.acquire();
+        long t = System.nanoTime();
+        Item item = new Item(index++, input.next());
+        read.record(t, 1);
+        tokenizeQueue.put(item);
+      }
+    });
+
+    // tokenize: create Documents, empty Documents skip the network
+    startStage(stats.add("tokenize", tokenizeThreads, tokenizeQueue, encodeQueue), first -> {
+      Item item = (Item) first;
+      item.doc = createDocument(item.json);
+      item.json = null;
+      if(item.doc.countSentences() > 0) encodeQueue.put(item);
+      else writeQueue.put(item);
+      return 1;
+    });
+
+    // encode: collect batches and create input encodings
+    startStage(stats.add("encode", encodeThreads, encodeQueue, inferenceQueue), first -> {
+      List<Item> items = new ArrayList<>(batchSize);
+      items.add((Item) first);
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWait);
+      while(items.size() < batchSize) {
+        Object next = encodeQueue.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        if(next == null) break;
+        if(next == END) {
+          encodeQueue.put(END);
+          break;
+        }
+        items.add((Item) next);
+      }
+      List<Document> docs = new ArrayList<>(items.size());
+      int maxLength = 1;
+      for(Item item : items) {
+        docs.add(item.doc);
+        maxLength = Math.max(maxLength, item.doc.countSentences());
+      }
+      SectorTaggerIterator it = encoders.get();
+      DocumentSentenceIterator.DocumentBatch batch = it.new DocumentBatch(docs.size(), docs, maxLength, null);
+      batch.dataset = it.generateDataSet(batch);
+      inferenceQueue.put(new Batch(items, batch));
+      return items.size();
+    });
+
+    // BLSTM: forward pass and attach vectors
+    startStage(stats.add("blstm", inferenceThreads, inferenceQueue, segmentQueue), first -> {
+      Batch batch = (Batch) first;
+      replicas.get().attachVectors(batch.batch, annotator.getTargetEncoder().getClass());
+      batch.batch.dataset = null;
+      segmentQueue.put(batch);
+      return batch.items.size();
+    });
+
+    // segment: detect sections and render output
+    startStage(stats.add("segment", segmentThreads, segmentQueue, writeQueue), first -> {
+      Batch batch = (Batch) first;
+      if(segmentation != SegmentationMethod.NONE) {
+        annotator.detectSections(batch.batch.docs, segmentation);
+        for(Document doc : batch.batch.docs) SectorAnnotator.attachVectorsToAnnotations(doc, annotator.getTargetEncoder());
+      }
+      for(Item item : batch.items) writeQueue.put(item);
+      return batch.items.size();
+    });
+
+    // write: JSON lines in input order
+    Stage write = stats.add("write", 1, writeQueue, null);
+    startThread(write, () -> {
+      TreeMap<Long,Item> pending = new TreeMap<>();
+      long next = 0;
+      while(true) {
+        Object obj = writeQueue.take();
+        if(obj == END) break;
+        Item item = (Item) obj;
+        pending.put(item.index, item);
+        while(!pending.isEmpty() && pending.firstKey() == next) {
+          long t = System.nanoTime();
+          Item done = pending.pollFirstEntry().getValue();
+          writer.write(ObjectSerializer.getJSONRaw(SectorAnnotationService.getSections(done.doc)));
+          writer.newLine();
+          stats.documents.incrementAndGet();
+          stats.sentences.addAndGet(done.doc.countSentences());
+          stats.sections.addAndGet(done.doc.countAnnotations(Annotation.Source.PRED));
+          done.doc.getSentences().forEach(s -> s.clearVectors());
+          write.record(t, 1);
+          window.release();
+          next++;
+        }
+      }
+      writer.flush();
+    });
+
+    for(Thread t : threads) {
+      try {
+        t.join();
+      } catch(InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        fail(ex);
+      }
+    }
+    stats.wallTime = System.nanoTime() - start;
+    // a concurrent run on the same tagger may have bound the gauges in the meantime
+    for(Map.Entry<String,DoubleSupplier> gauge : gauges.entrySet()) tagger.getMetrics().gauge(gauge.getKey()).unbind(gauge.getValue());
+    if(error != null) {
+      if(error instanceof IOException) throw (IOException) error;
+      throw new IllegalStateException("annotation pipeline failed", error);
+    }
+    log.info("Annotated {}", stats.toString());
+    return stats;
+
+  }
+
+  protected static Document createDocument(JsonNode json) throws IOException {
+    Document doc;
+    if(json.has("annotations") || json.has("class")) {
+      doc = ObjectSerializer.getObjectMapper().treeToValue(json, Document.class);
+    } else {
+      if(!json.has("text")) throw new IllegalArgumentException("document without text");
+      doc = DocumentFactory.fromText(json.get("text").asText(), DocumentFactory.Newlines.KEEP);
+      if(json.has("id")) doc.setId(json.get("id").asText());
+    }
+    // input annotations are not part of the output
+    for(Annotation ann : doc.getAnnotations()) ann.setSource(Annotation.Source.GOLD);
+    return doc;
+  }
+
+  protected interface StageFunction {
+    /**
+     * @return number of Documents processed
+     */
+    int process(Object item) throws Exception;
+  }
+
+  protected interface StageRunnable {
+    void run() throws Exception;
+  }
+
+  protected void startThread(Stage stage, StageRunnable body) {
+    Thread thread = new Thread(() -> {
+      try {
+        body.run();
+      } catch(InterruptedException ex) {
+        // pipeline was cancelled
+      } catch(Throwable ex) {
+        fail(ex);
+      } finally {
+        stage.finish(error != null);
+      }
+    }, "sector-" + stage.name);
+    thread.setDaemon(true);
+    addThread(thread);
+  }
+
+  protected void startStage(Stage stage, StageFunction function) {
+    for(int i = 0; i < stage.numThreads; i++) {
+      Thread thread = new Thread(() -> {
+        try {
+          while(true) {
+            Object item = stage.in.take();
+            if(item == END) {
+              stage.in.put(END); // notify other threads of this stage
+              break;
+            }
+            long t = System.nanoTime();
+            int count = function.process(item);
+            stage.record(t, count);
+          }
+        } catch(InterruptedException ex) {
+          // pipeline was cancelled
+        } catch(Throwable ex) {
+          fail(ex);
+        } finally {
+          stage.finish(error != null);
+        }
+      }, "sector-" + stage.name + "-" + i);
+      thread.setDaemon(true);
+      addThread(thread);
+    }
+  }
+
+  protected void addThread(Thread thread) {
+    threads.add(thread);
+    thread.start();
+    if(error != null) thread.interrupt(); // started after the pipeline failed
+  }
+
+  /**
+   * Cancel the pipeline: interrupt all threads and drop all queued items, so that no thread stays blocked.
+   */
+  protected synchronized void fail(Throwable ex) {
+    if(error != null) return;
+    error = ex;
+    log.error("Annotation pipeline failed: {}", ex.toString());
+    for(Thread t : threads) t.interrupt();
+    for(BlockingQueue<Object> queue : queues) queue.clear();
+  }
+
+  protected static class Item {
+    final long index;
+    JsonNode json;
+    Document doc;
+    Item(long index, JsonNode json) {
+      this.index = index;
+      this.json = json;
+    }
+  }
+
+  protected static class Batch {
+    final List<Item> items;
+    final DocumentSentenceIterator.DocumentBatch batch;
+    Batch(List<Item> items, DocumentSentenceIterator.DocumentBatch batch) {
+      this.items = items;
+      this.batch = batch;
+    }
+  }
+
+  /**
+   * Counters of a single stage.
+   */
+  public static class Stage {
+
+    protected final String name;
+    protected final int numThreads;
+    protected final BlockingQueue<Object> in, out;
+    protected final AtomicInteger running;
+    protected final AtomicLong items = new AtomicLong();
+    protected final AtomicLong calls = new AtomicLong();
+    protected final AtomicLong busyTime = new AtomicLong();
+
+    protected Stage(String name, int numThreads, BlockingQueue<Object> in, BlockingQueue<Object> out) {
+      this.name = name;
+      this.numThreads = numThreads;
+      this.in = in;
+      this.out = out;
+      this.running = new AtomicInteger(numThreads);
+    }
+
+    protected void record(long startTime, int count) {
+      busyTime.addAndGet(System.nanoTime() - startTime);
+      items.addAndGet(count);
+      calls.incrementAndGet();
+    }
+
+    /**
+     * Called when a thread of this stage terminates. The last thread signals the end to the next stage.
+     * @param failed if the pipeline was cancelled, the end is only signalled if the next queue has space,
+     * because its consumers may already have terminated
+     */
+    protected void finish(boolean failed) {
+      if(running.decrementAndGet() == 0 && out != null) {
+        if(failed) {
+          out.offer(END);
+          return;
+        }
+        try {
+          out.put(END);
+        } catch(InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getItems() {
+      return items.get();
+    }
+
+    /** @return total time in milliseconds that all threads of this stage spent processing */
+    public long getBusyTime() {
+      return TimeUnit.NANOSECONDS.toMillis(busyTime.get());
+    }
+
+  }
+
+  /**
+   * Throughput statistics of a pipeline run.
+   */
+  public static class Statistics {
+
+    protected final Map<String,Stage> stages = new LinkedHashMap<>();
+    protected final AtomicLong documents = new AtomicLong();
+    protected final AtomicLong sentences = new AtomicLong();
+    protected final AtomicLong sections = new AtomicLong();
+    protected long wallTime;
+
+    protected Stage add(String name, int numThreads, BlockingQueue<Object> in, BlockingQueue<Object> out) {
+      Stage stage = new Stage(name, numThreads, in, out);
+      stages.put(name, stage);
+      return stage;
+    }
+
+    public Map<String,Stage> getStages() {
+      return stages;
+    }
+
+    public long getDocuments() {
+      return documents.get();
+    }
+
+    public long getSentences() {
+      return sentences.get();
+    }
+
+    public long getSections() {
+      return sections.get();
+    }
+
+    /** @return total run time in milliseconds */
+    public long getWallTime() {
+      return TimeUnit.NANOSECONDS.toMillis(wallTime);
+    }
+
+    public double getDocumentsPerSecond() {
+      return wallTime > 0 ? documents.get() * 1e9 / wallTime : 0.;
+    }
+
+    public double getSentencesPerSecond() {
+      return wallTime > 0 ? sentences.get() * 1e9 / wallTime : 0.;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder line = new StringBuilder();
+      line.append(String.format(Locale.ROOT, "%d documents, %d sentences, %d sections in %.1fs [%.1f docs/s, %.1f sentences/s]\n",
+        getDocuments(), getSentences(), getSections(), getWallTime() / 1000., getDocumentsPerSecond(), getSentencesPerSecond()));
+      line.append("stage\tthreads\tdocs\tbusy ms\tms/doc\n");
+      for(Stage stage : stages.values()) {
+        line.append(String.format(Locale.ROOT, "%s\t%d\t%d\t%d\t%.2f\n",
+          stage.name, stage.numThreads, stage.getItems(), stage.getBusyTime(),
+          stage.getItems() > 0 ? (double) stage.getBusyTime() / stage.getItems() : 0.));
+      }
+      return line.toString();
+    }
+
+  }
+
+}
@@ -3,26 +3,38 @@ package de.datexis.sector;
 import de.datexis.sector.model.SectionAnnotation;
 import de.datexis.annotator.Annotator;
 import de.datexis.annotator.AnnotatorComponent;
+import de.datexis.annotator.AnnotatorMonitor;
+import de.datexis.common.MetricsRegistry;
+import de.datexis.common.StageProfiler;
 import de.datexis.common.WordHelpers;
 import de.datexis.encoder.Encoder;
 import de.datexis.encoder.LookupCacheEncoder;
+import de.datexis.encoder.SentenceFeatureStore;
 import de.datexis.sector.encoder.ClassEncoder;
 import de.datexis.model.Annotation;
 import de.datexis.model.Annotation.Source;
 import de.datexis.tagger.Tagger;
 import de.datexis.model.Document;
 import de.datexis.model.Dataset;
+import de.datexis.model.ShardedDataset;
 import de.datexis.model.Sentence;
 import de.datexis.sector.encoder.ClassTag;
 import de.datexis.sector.encoder.HeadingEncoder;
 import de.datexis.sector.encoder.HeadingTag;
 import de.datexis.sector.eval.SectorEvaluation;
+import de.datexis.sector.flow.SectorAnnotationProcessor;
 import de.datexis.sector.tagger.DocumentSentenceIterator;
 import de.datexis.sector.tagger.ScoreImprovementMinEpochsTerminationCondition;
 import de.datexis.sector.tagger.SectorEncoder;
 import de.datexis.sector.tagger.SectorTagger;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import org.apache.commons.lang3.StringUtils;
 import org.deeplearning4j.earlystopping.EarlyStoppingConfiguration;
@@ -97,11 +109,22 @@ public class SectorAnnotator extends Annotator {
    * Annotate given Documents using SECTOR, i.e. attach SectorEncoder vectors to sentences.
    * If a segmentation method is given, also attach SectionAnnotations to each Document.
    */
+  @SuppressWarnings("try")
   public void annotate(Collection<Document> docs, SegmentationMethod segmentation) {
     // use tagger to generate and attach PRED vectors to Sentences
     log.info("Running SECTOR neural net encoding...");
-    getTagger().attachVectors(docs, DocumentSentenceIterator.Stage.ENCODE, getTargetEncoder().getClass());
-    if(!segmentation.equals(SegmentationMethod.NONE)) segment(docs, segmentation, true);
+    try(StageProfiler.Scope scope = StageProfiler.enter("annotate")) {
+      getTagger().attachVectors(docs, DocumentSentenceIterator.Stage.ENCODE, getTargetEncoder().getClass());
+      if(!segmentation.equals(SegmentationMethod.NONE)) segment(docs, segmentation, true);
+    }
+  }
+
+  /**
+   * Create a reactive Processor that annotates a stream of Documents in batches with backpressure.
+   * Subscribe the Processor to a Publisher of Documents and subscribe to it to receive AnnotatedDocuments.
+   */
+  public SectorAnnotationProcessor createProcessor() {
+    return new SectorAnnotationProcessor(this);
   }
 
   /**
@@ -121,15 +144,18 @@ public class SectorAnnotator extends Annotator {
     log.info("Segmentation done.");
   }
   
+  @SuppressWarnings("try")
   protected void detectSections(Collection<Document> docs, SegmentationMethod segmentation) {
-    WorkspaceMode cMode = getTagger().getNN().getConfiguration().getInferenceWorkspaceMode();
-    getTagger().getNN().getConfiguration().setTrainingWorkspaceMode(getTagger().getNN().getConfiguration().getInferenceWorkspaceMode());
+    // use inference workspace mode without modifying the shared network configuration
+    WorkspaceMode mode = getTagger().getNN().getConfiguration().getInferenceWorkspaceMode();
     MemoryWorkspace workspace =
-            getTagger().getNN().getConfiguration().getTrainingWorkspaceMode() == WorkspaceMode.NONE ? new DummyWorkspace()
+            mode == WorkspaceMode.NONE ? new DummyWorkspace()
                     : Nd4j.getWorkspaceManager().getWorkspaceForCurrentThread();
+    MetricsRegistry.Histogram latency = getTagger().getMetrics().histogram(AnnotatorMonitor.INFERENCE_SEGMENTATION_TIME);
 
     for(Document doc : docs) {
-      try (MemoryWorkspace wsE = workspace.notifyScopeEntered()) {
+      long start = System.nanoTime();
+      try (MemoryWorkspace wsE = workspace.notifyScopeEntered(); StageProfiler.Scope scope = StageProfiler.enter("segment")) {
         switch(segmentation) {
           case GOLD: {
             applySectionsFromGold(doc); 
@@ -156,10 +182,9 @@ public class SectorAnnotator extends Annotator {
           }
         }
       }
+      latency.record((System.nanoTime() - start) / 1e6);
     }
     
-    getTagger().getNN().getConfiguration().setTrainingWorkspaceMode(cMode);
-    
   }
 
   /**
@@ -213,6 +238,68 @@ public class SectorAnnotator extends Annotator {
     return eval.getScore();
   }
 
+  /**
+   * Compare several segmentation methods on a Dataset that was already encoded, e.g. with annotate() using
+   * SegmentationMethod.NONE, so that neural inference runs only once. Each method segments a separate view of the
+   * Documents that shares their Sentences and vectors but holds its own PRED Annotations, so that methods and
+   * Documents are processed in parallel and the Dataset itself is not modified. Sentence-level classification is not
+   * evaluated because it requires tags on the shared Sentences. This method will print a comparison table.
+   * @return the Evaluation of each method, in order of the given methods
+   */
+  public Map<SegmentationMethod,SectorEvaluation> evaluateSegmentationMethods(Dataset test, Collection<SegmentationMethod> methods) {
+    LookupCacheEncoder targetEncoder = getTargetEncoder();
+    if(targetEncoder.getClass() != HeadingEncoder.class && targetEncoder.getClass() != ClassEncoder.class) {
+      throw new IllegalArgumentException("Target encoder has no evaluation: " + targetEncoder.getClass().toString());
+    }
+    Map<SegmentationMethod,SectorEvaluation> evals = new ConcurrentHashMap<>();
+    methods.parallelStream().forEach(method -> {
+      log.info("Evaluating segmentation {}...", method.toString());
+      List<Document> views = test.getDocuments().stream()
+        .map(SectorAnnotator::createSegmentationView)
+        .collect(Collectors.toList());
+      views.parallelStream().forEach(doc -> {
+        detectSections(Collections.singletonList(doc), method);
+        attachVectorsToAnnotations(doc, targetEncoder);
+      });
+      SectorEvaluation eval = new SectorEvaluation(test.getName() + " " + method.toString(), Annotation.Source.GOLD, Annotation.Source.PRED, targetEncoder)
+        .withSentenceClassEvaluation(false)
+        .withSegmentationEvaluation(true)
+        .withSegmentClassEvaluation(true);
+      eval.calculateScores(views);
+      evals.put(method, eval);
+    });
+    Map<SegmentationMethod,SectorEvaluation> result = new LinkedHashMap<>();
+    Map<String,SectorEvaluation> table = new LinkedHashMap<>();
+    for(SegmentationMethod method : methods) {
+      result.put(method, evals.get(method));
+      table.put(method.toString(), evals.get(method));
+    }
+    getTagger().appendTestLog(SectorEvaluation.printDatasetStats(test));
+    getTagger().appendTestLog(SectorEvaluation.printComparisonStats(table));
+    return result;
+  }
+
+  /**
+   * @return a Document that shares all Sentences with the given one and holds a copy of its GOLD SectionAnnotations
+   */
+  @SuppressWarnings("deprecation")
+  protected static Document createSegmentationView(Document doc) {
+    Document view = new Document();
+    // addSentence() would move the Sentences to the view, setSentences() keeps their reference to the original
+    view.setSentences(new ArrayList<>(doc.getSentences()));
+    view.setId(doc.getId());
+    view.setLanguage(doc.getLanguage());
+    for(SectionAnnotation gold : doc.getAnnotations(Annotation.Source.GOLD, SectionAnnotation.class)) {
+      SectionAnnotation copy = new SectionAnnotation(Annotation.Source.GOLD, gold.getType(), gold.getSectionHeading());
+      copy.setSectionLabel(gold.getSectionLabel());
+      copy.setBegin(gold.getBegin());
+      copy.setEnd(gold.getEnd());
+      copy.setText(gold.getText());
+      view.addAnnotation(copy);
+    }
+    return view;
+  }
+
   /**
    * Train a SECTOR model with configured number of epochs.
    */
@@ -231,6 +318,16 @@ public class SectorAnnotator extends Annotator {
     getTagger().trainModel(train, numEpochs);
   }
 
+  /**
+   * Train a SECTOR model on a Dataset that is streamed from disk with given fixed number of epochs.
+   * @param shuffleBufferSize number of Documents that are held in memory for approximate shuffling
+   */
+  public void trainModel(ShardedDataset train, int numEpochs, int shuffleBufferSize) {
+    provenance.setDataset(train.getName());
+    provenance.setLanguage(train.getLanguage());
+    getTagger().trainModel(train, numEpochs, shuffleBufferSize);
+  }
+
   /**
    * Train a SECTOR model with early stopping based on MAP score. The best model will be used after this call.
    * @param train training Dataset with GOLD Annotations
@@ -402,7 +499,7 @@ public class SectorAnnotator extends Annotator {
   /**
    * Add PRED SectionAnnotations from given edge array.
    */
-  private static void applySectionsFromEdges(Document doc, INDArray docEdges) {
+  protected static void applySectionsFromEdges(Document doc, INDArray docEdges) {
     
     // no sentence
     if(doc.countSentences() < 1) {
@@ -447,7 +544,8 @@ public class SectorAnnotator extends Annotator {
   /**
    * Add PRED SectionAnnotations based on edge detection on embedding deviation.
    */
-  private static INDArray detectSectionsFromEmbeddingDeviation(Document doc) {
+  @SuppressWarnings("try")
+  protected static INDArray detectSectionsFromEmbeddingDeviation(Document doc) {
     
     int PCA_DIMS = 16;
     
@@ -456,9 +554,16 @@ public class SectorAnnotator extends Annotator {
     // initialize embedding matrix
     INDArray docEmbs = getEmbeddingMatrix(doc);
     
-    INDArray docPCA = pca(docEmbs, PCA_DIMS);
-    INDArray docSmooth = gaussianSmooth(docPCA);
-    INDArray docMag = deviation(docSmooth);
+    INDArray docPCA, docSmooth, docMag;
+    try(StageProfiler.Scope scope = StageProfiler.enter("pca")) {
+      docPCA = pca(docEmbs, PCA_DIMS);
+    }
+    try(StageProfiler.Scope scope = StageProfiler.enter("smooth")) {
+      docSmooth = gaussianSmooth(docPCA);
+    }
+    try(StageProfiler.Scope scope = StageProfiler.enter("deviation")) {
+      docMag = deviation(docSmooth);
+    }
     
     return docMag;
     
@@ -467,10 +572,7 @@ public class SectorAnnotator extends Annotator {
   /**
    * Add PRED SectionAnnotations based on edge detection on bidirectional (FW/BW) embedding deviation.
    */
-  private static INDArray detectSectionsFromBidirectionalEmbeddingDeviation(Document doc) {
-    
-    int PCA_DIMS = 16;
-    double SMOOTH_FACTOR = 1.5;
+  protected static INDArray detectSectionsFromBidirectionalEmbeddingDeviation(Document doc) {
     
     if(doc.countSentences() < 1) return null;
     Sentence sent = doc.getSentence(0);
@@ -488,17 +590,37 @@ public class SectorAnnotator extends Annotator {
       t++;
     }
     
-    INDArray docFwPCA = docFW.mmul(PCA.pca_factor(docFW.dup(), PCA_DIMS, false));
-    INDArray docBwPCA = docBW.mmul(PCA.pca_factor(docBW.dup(), PCA_DIMS, false));
-    // remove first principal components
-    INDArray zeros = Nd4j.zeros(docFW.rows(), 1);
-    docFwPCA.putColumn(0, zeros);
-    docBwPCA.putColumn(0, zeros);
-    docFwPCA.putColumn(1, zeros);
-    docBwPCA.putColumn(1, zeros);
-    INDArray docFwPCAs = gaussianSmooth(docFwPCA, SMOOTH_FACTOR);
-    INDArray docBwPCAs = gaussianSmooth(docBwPCA, SMOOTH_FACTOR);
-    INDArray docMag = deviation(docFwPCAs, docBwPCAs);
+    return bidirectionalDeviation(docFW, docBW);
+    
+  }
+  
+  /**
+   * Returns a matrix [Tx1] that contains the deviation of smoothed principal components of FW/BW matrices [TxH].
+   */
+  @SuppressWarnings("try")
+  protected static INDArray bidirectionalDeviation(INDArray docFW, INDArray docBW) {
+    
+    int PCA_DIMS = 16;
+    double SMOOTH_FACTOR = 1.5;
+    
+    INDArray docFwPCA, docBwPCA, docFwPCAs, docBwPCAs, docMag;
+    try(StageProfiler.Scope scope = StageProfiler.enter("pca")) {
+      docFwPCA = docFW.mmul(PCA.pca_factor(docFW.dup(), PCA_DIMS, false));
+      docBwPCA = docBW.mmul(PCA.pca_factor(docBW.dup(), PCA_DIMS, false));
+      // remove first principal components
+      INDArray zeros = Nd4j.zeros(docFW.rows(), 1);
+      docFwPCA.putColumn(0, zeros);
+      docBwPCA.putColumn(0, zeros);
+      docFwPCA.putColumn(1, zeros);
+      docBwPCA.putColumn(1, zeros);
+    }
+    try(StageProfiler.Scope scope = StageProfiler.enter("smooth")) {
+      docFwPCAs = gaussianSmooth(docFwPCA, SMOOTH_FACTOR);
+      docBwPCAs = gaussianSmooth(docBwPCA, SMOOTH_FACTOR);
+    }
+    try(StageProfiler.Scope scope = StageProfiler.enter("deviation")) {
+      docMag = deviation(docFwPCAs, docBwPCAs);
+    }
     
     return docMag;
     
@@ -685,6 +807,9 @@ public class SectorAnnotator extends Annotator {
     private int iterations = 1;
     private int batchSize = 16; // number of Examples until Sample/Test
     private int numEpochs = 1;
+    private int trainingWindowLength = -1;
+    private long timestepsPerEpoch = -1;
+    private long timestepBudget = -1;
     
     private boolean enabletrainingUI = false;
     
@@ -744,6 +869,41 @@ public class SectorAnnotator extends Annotator {
       return this;
     }
         
+    /**
+     * Train on random windows of at most windowLength Sentences instead of the first maxTimeSeriesLength Sentences.
+     * @param timestepsPerEpoch total number of Sentences per epoch, or -1 to sample every Document once
+     */
+    public Builder withTrainingWindows(int windowLength, long timestepsPerEpoch) {
+      this.trainingWindowLength = windowLength;
+      this.timestepsPerEpoch = timestepsPerEpoch;
+      return this;
+    }
+        
+    /**
+     * Use dynamic batches with at most timestepBudget padded timesteps (Documents * Sentences) instead of a fixed batch size.
+     */
+    public Builder withTimestepBudget(long timestepBudget) {
+      this.timestepBudget = timestepBudget;
+      return this;
+    }
+        
+    /**
+     * Cache Sentence input encodings in the given directory, so that they are shared across epochs and training runs.
+     */
+    public Builder withFeatureStore(Path directory) {
+      tagger.setFeatureStore(new SentenceFeatureStore(directory));
+      return this;
+    }
+        
+    /**
+     * Replay training and validation batches from shard files in the given directory after the first epoch.
+     * @param diskBudget maximum number of bytes of all shards in the directory, or -1 for no limit
+     */
+    public Builder withReplayCache(Path directory, long diskBudget) {
+      tagger.setReplayCache(directory, diskBudget);
+      return this;
+    }
+        
     public Builder withInputEncoders(String desc, Encoder bagEncoder, Encoder embEncoder, Encoder flagEncoder) {
       tagger.setInputEncoders(bagEncoder, embEncoder, flagEncoder);
       ann.getProvenance().setFeatures(desc);
@@ -785,6 +945,8 @@ public class SectorAnnotator extends Annotator {
       if(enabletrainingUI) tagger.enableTrainingUI();
       tagger.setRequireSubsampling(requireSubsampling);
       tagger.setTrainingParams(examplesPerEpoch, maxTimeSeriesLength, batchSize, numEpochs, true);
+      tagger.setTrainingWindowParams(trainingWindowLength, timestepsPerEpoch);
+      tagger.setTimestepBudget(timestepBudget);
       ann.getProvenance().setTask(tagger.getId());
       tagger.setName(ann.getProvenance().toString());
       tagger.appendTrainLog(printParams());
@@ -809,9 +971,14 @@ public class SectorAnnotator extends Annotator {
       line.append("\nTraining Params:\n");
       line.append("examples per epoch").append("\t").append(examplesPerEpoch).append("\n");
       line.append("max time series length").append("\t").append(maxTimeSeriesLength).append("\n");
+      if(trainingWindowLength > 0) {
+        line.append("training window length").append("\t").append(trainingWindowLength).append("\n");
+        line.append("timesteps per epoch").append("\t").append(timestepsPerEpoch).append("\n");
+      }
       line.append("epochs").append("\t").append(numEpochs).append("\n");
       line.append("iterations").append("\t").append(iterations).append("\n");
       line.append("batch size").append("\t").append(batchSize).append("\n");
+      if(timestepBudget > 0) line.append("timestep budget").append("\t").append(timestepBudget).append("\n");
       line.append("learning rate").append("\t").append(learningRate).append("\n");
       line.append("dropout").append("\t").append(dropOut).append("\n");
       line.append("loss").append("\t").append(lossFunc.toString()).append(requireSubsampling ? " (1-hot subsampled)" : " (1-hot/n-hot)").append("\n");
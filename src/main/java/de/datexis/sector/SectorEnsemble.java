@@ -0,0 +1,187 @@
+package de.datexis.sector;
+
+import de.datexis.annotator.ModelFingerprint;
+import de.datexis.encoder.Encoder;
+import de.datexis.encoder.EncodingHelpers;
+import de.datexis.model.Document;
+import de.datexis.model.Sentence;
+import de.datexis.sector.SectorAnnotator.SegmentationMethod;
+import de.datexis.sector.tagger.DocumentSentenceIterator;
+import de.datexis.sector.tagger.SectorEncoder;
+import de.datexis.sector.tagger.SectorTagger;
+import de.datexis.sector.tagger.SectorTaggerIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs several SECTOR models that share the same input encoders (e.g. SEC>T and SEC>H) over the same Documents.
+ * The bag, emb and flag inputs are computed only once per batch and fed into all networks. Outputs are attached to
+ * Sentences under model-specific keys (see getVectorKey()), target vectors are also attached under the model's
+ * target encoder class. Segmentation uses the embeddings of the first model, or the average of all models if
+ * embedding averaging is enabled.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class SectorEnsemble {
+
+  protected final static Logger log = LoggerFactory.getLogger(SectorEnsemble.class);
+
+  protected static final String[] EMBEDDING_LAYERS = { "embedding", "embeddingFW", "embeddingBW" };
+
+  protected final Map<String,SectorAnnotator> models = new LinkedHashMap<>();
+  protected SectorAnnotator primary;
+  protected String[] inputFingerprints;
+  protected boolean averageEmbeddings = false;
+
+  /**
+   * Add a model to the ensemble. The first model defines input encoders and batching, all further models are
+   * required to use identical input encoders.
+   * @param key unique key that is used to store the model's outputs
+   */
+  public SectorEnsemble withModel(String key, SectorAnnotator annotator) {
+    if(models.containsKey(key)) throw new IllegalArgumentException("duplicate model key '" + key + "'");
+    SectorTagger tagger = annotator.getTagger();
+    if(tagger.getInferenceWindowLength() > 0) throw new IllegalArgumentException("sliding window inference is not supported in ensembles");
+    String[] fingerprints = getInputFingerprints(tagger);
+    if(primary == null) {
+      primary = annotator;
+      inputFingerprints = fingerprints;
+    } else if(!Arrays.equals(inputFingerprints, fingerprints)) {
+      throw new IllegalArgumentException("model '" + key + "' uses different input encoders than the ensemble");
+    }
+    models.put(key, annotator);
+    return this;
+  }
+
+  /**
+   * @param average true to segment on the average of all models' FW/BW embeddings
+   */
+  public SectorEnsemble withEmbeddingAveraging(boolean average) {
+    this.averageEmbeddings = average;
+    return this;
+  }
+
+  public Set<String> getModelKeys() {
+    return models.keySet();
+  }
+
+  public SectorAnnotator getModel(String key) {
+    return models.get(key);
+  }
+
+  /**
+   * @param model the model key given in withModel()
+   * @param layer one of "target", "embedding", "embeddingFW" or "embeddingBW"
+   * @return the identifier that is used to attach the model's layer output to Sentences
+   */
+  public static String getVectorKey(String model, String layer) {
+    return model + "/" + layer;
+  }
+
+  /**
+   * Annotate given Documents with all models and attach SectionAnnotations using the given segmentation strategy.
+   * PRED SectionAnnotations are labeled by all models' target encoders.
+   */
+  public void annotate(Collection<Document> docs, SegmentationMethod segmentation) {
+    encode(docs);
+    if(segmentation.equals(SegmentationMethod.NONE)) return;
+    log.info("Predicting ensemble segmentation {}...", segmentation.toString());
+    primary.detectSections(docs, segmentation);
+    for(Document doc : docs) {
+      for(SectorAnnotator model : models.values()) SectorAnnotator.attachVectorsToAnnotations(doc, model.getTargetEncoder());
+    }
+  }
+
+  /**
+   * Attach output vectors of all models to the Sentences of given Documents.
+   */
+  public void encode(Collection<Document> docs) {
+    if(primary == null) throw new IllegalStateException("no models in ensemble");
+    SectorTagger tagger = primary.getTagger();
+    SectorTaggerIterator it = new SectorTaggerIterator(DocumentSentenceIterator.Stage.ENCODE, docs, tagger, tagger.getBatchSize(), false, tagger.isRequireSubsampling());
+    if(tagger.getTimestepBudget() > 0) it.withTimestepBudget(tagger.getTimestepBudget());
+    log.info("Running SECTOR ensemble encoding with {} models...", models.size());
+    while(it.hasNext()) {
+      DocumentSentenceIterator.DocumentBatch batch = it.nextDocumentBatch();
+      Map<String,INDArray> sum = new HashMap<>();
+      Map<String,Integer> count = new HashMap<>();
+      Map<String,INDArray> first = null;
+      for(Map.Entry<String,SectorAnnotator> model : models.entrySet()) {
+        // all models are fed with the same input features of this batch
+        Map<String,INDArray> weights = model.getValue().getTagger().encodeMatrix(batch);
+        attachVectors(batch, model.getKey(), model.getValue(), weights);
+        if(first == null) first = weights;
+        if(averageEmbeddings) addEmbeddings(sum, count, weights);
+      }
+      if(averageEmbeddings) {
+        for(Map.Entry<String,INDArray> layer : sum.entrySet()) layer.getValue().divi(count.get(layer.getKey()));
+        attachEmbeddings(batch, sum);
+      } else {
+        attachEmbeddings(batch, first);
+      }
+    }
+    log.debug("ENCODE: encoded {} batches [{}]", it.getBatchStatistics().getBatches(), it.getBatchStatistics().toString());
+  }
+
+  protected void attachVectors(DocumentSentenceIterator.DocumentBatch batch, String key, SectorAnnotator model, Map<String,INDArray> weights) {
+    INDArray target = weights.get("target");
+    int batchIndex = 0;
+    for(Document doc : batch.docs) {
+      int t = 0;
+      for(Sentence s : doc.getSentences()) {
+        INDArray targetVec = EncodingHelpers.getTimeStep(target, batchIndex, t);
+        s.putVector(model.getTargetEncoder().getClass(), targetVec);
+        s.putVector(getVectorKey(key, "target"), targetVec);
+        for(String layer : EMBEDDING_LAYERS) {
+          if(weights.containsKey(layer)) s.putVector(getVectorKey(key, layer), EncodingHelpers.getTimeStep(weights.get(layer), batchIndex, t));
+        }
+        t++;
+      }
+      batchIndex++;
+    }
+  }
+
+  /**
+   * Attach embeddings under the identifiers that are used for segmentation.
+   */
+  protected void attachEmbeddings(DocumentSentenceIterator.DocumentBatch batch, Map<String,INDArray> weights) {
+    int batchIndex = 0;
+    for(Document doc : batch.docs) {
+      int t = 0;
+      for(Sentence s : doc.getSentences()) {
+        if(weights.containsKey("embedding")) s.putVector(SectorEncoder.class, EncodingHelpers.getTimeStep(weights.get("embedding"), batchIndex, t));
+        if(weights.containsKey("embeddingFW")) s.putVector("embeddingFW", EncodingHelpers.getTimeStep(weights.get("embeddingFW"), batchIndex, t));
+        if(weights.containsKey("embeddingBW")) s.putVector("embeddingBW", EncodingHelpers.getTimeStep(weights.get("embeddingBW"), batchIndex, t));
+        t++;
+      }
+      batchIndex++;
+    }
+  }
+
+  protected void addEmbeddings(Map<String,INDArray> sum, Map<String,Integer> count, Map<String,INDArray> weights) {
+    for(String layer : EMBEDDING_LAYERS) {
+      INDArray value = weights.get(layer);
+      if(value == null) continue;
+      INDArray total = sum.get(layer);
+      if(total == null) sum.put(layer, value.dup());
+      else if(Arrays.equals(total.shape(), value.shape())) total.addi(value);
+      else throw new IllegalArgumentException("cannot average embeddings of different size in layer " + layer);
+      count.merge(layer, 1, Integer::sum);
+    }
+  }
+
+  protected static String[] getInputFingerprints(SectorTagger tagger) {
+    List<String> fingerprints = new ArrayList<>();
+    for(Encoder encoder : tagger.getEncoders()) fingerprints.add(ModelFingerprint.compute(encoder));
+    return fingerprints.toArray(new String[0]);
+  }
+
+}
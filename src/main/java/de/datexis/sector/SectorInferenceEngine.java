@@ -0,0 +1,131 @@
+package de.datexis.sector;
+
+import de.datexis.annotator.AnnotatorMonitor;
+import de.datexis.model.Document;
+import de.datexis.sector.SectorAnnotator.SegmentationMethod;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.DoubleSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Thread-safe inference for a trained SectorAnnotator. The engine holds a pool of replicas that share encoders and
+ * network parameters, but use their own ComputationGraph instances. Every call to annotate() borrows a replica
+ * exclusively, so it can be called from many threads concurrently. ND4J workspaces are allocated per thread.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class SectorInferenceEngine implements AutoCloseable {
+
+  protected final static Logger log = LoggerFactory.getLogger(SectorInferenceEngine.class);
+
+  protected final SectorAnnotator annotator;
+  protected final BlockingQueue<SectorAnnotator> replicas;
+  protected final int numReplicas;
+  protected final int batchSize;
+  protected final DoubleSupplier idleReplicas;
+  protected ExecutorService executor;
+
+  public SectorInferenceEngine(SectorAnnotator annotator) {
+    this(annotator, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param numReplicas number of ComputationGraph replicas, i.e. maximum number of concurrent forward passes
+   */
+  public SectorInferenceEngine(SectorAnnotator annotator, int numReplicas) {
+    if(numReplicas <= 0) throw new IllegalArgumentException("number of replicas must be positive");
+    this.annotator = annotator;
+    this.numReplicas = numReplicas;
+    this.batchSize = annotator.getTagger().getBatchSize();
+    this.replicas = new ArrayBlockingQueue<>(numReplicas);
+    for(int i = 0; i < numReplicas; i++) {
+      replicas.add(new SectorAnnotator(annotator.getTagger().createInferenceReplica()));
+    }
+    this.idleReplicas = replicas::size;
+    annotator.getTagger().getMetrics().gauge(AnnotatorMonitor.QUEUE_PREFIX + "engine.idleReplicas").bind(idleReplicas);
+    log.info("Initialized SECTOR inference engine with {} replicas", numReplicas);
+  }
+
+  /**
+   * Annotate given Documents using BEMD segmentation. This method is thread-safe and blocks until a replica is available.
+   */
+  public void annotate(Collection<Document> docs) {
+    annotate(docs, SegmentationMethod.BEMD);
+  }
+
+  /**
+   * Annotate given Documents with a replica, equivalent to SectorAnnotator.annotate().
+   * This method is thread-safe and blocks until a replica is available.
+   */
+  public void annotate(Collection<Document> docs, SegmentationMethod segmentation) {
+    SectorAnnotator replica;
+    try {
+      replica = replicas.take();
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted while waiting for a replica", e);
+    }
+    try {
+      replica.annotate(docs, segmentation);
+    } finally {
+      replicas.add(replica);
+    }
+  }
+
+  /**
+   * Annotate a large number of Documents by distributing batches over all replicas in parallel.
+   */
+  public void annotateParallel(Collection<Document> docs, SegmentationMethod segmentation) {
+    List<Future<?>> tasks = new ArrayList<>();
+    List<Document> batch = new ArrayList<>(batchSize);
+    for(Document doc : docs) {
+      batch.add(doc);
+      if(batch.size() >= batchSize) {
+        tasks.add(submit(batch, segmentation));
+        batch = new ArrayList<>(batchSize);
+      }
+    }
+    if(!batch.isEmpty()) tasks.add(submit(batch, segmentation));
+    try {
+      for(Future<?> task : tasks) task.get();
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted while annotating", e);
+    } catch(ExecutionException e) {
+      throw new IllegalStateException("error while annotating", e.getCause());
+    }
+  }
+
+  protected synchronized Future<?> submit(List<Document> batch, SegmentationMethod segmentation) {
+    if(executor == null) {
+      AtomicInteger count = new AtomicInteger();
+      executor = Executors.newFixedThreadPool(numReplicas, r -> {
+        Thread thread = new Thread(r, "sector-inference-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return executor.submit(() -> annotate(batch, segmentation));
+  }
+
+  public int getNumReplicas() {
+    return numReplicas;
+  }
+
+  @Override
+  public synchronized void close() {
+    annotator.getTagger().getMetrics().gauge(AnnotatorMonitor.QUEUE_PREFIX + "engine.idleReplicas").unbind(idleReplicas);
+    if(executor != null) executor.shutdownNow();
+    executor = null;
+  }
+
+}
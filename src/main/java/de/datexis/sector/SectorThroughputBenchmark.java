@@ -0,0 +1,333 @@
+package de.datexis.sector;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import de.datexis.common.ObjectSerializer;
+import de.datexis.model.Annotation;
+import de.datexis.model.Document;
+import de.datexis.sector.SectorAnnotator.SegmentationMethod;
+import de.datexis.sector.eval.SegmentationEvaluation;
+import de.datexis.sector.model.SectionAnnotation;
+import de.datexis.sector.reader.SyntheticCorpusGenerator;
+import de.datexis.sector.tagger.DocumentSentenceIterator;
+import de.datexis.sector.tagger.SectorTagger;
+import de.datexis.sector.tagger.SectorTaggerIterator;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures end-to-end throughput and latency of SectorAnnotator.annotate() on a corpus that is held in memory as
+ * JSON records. Documents are split into batches that are processed by a number of threads, each with its own
+ * inference replica. Every batch runs the stages tokenize, encode, forward, attach, segment and (if the corpus
+ * contains GOLD sections) evaluate, which are timed separately. The latency of a Document is the time from the start
+ * of tokenization until its batch is segmented. Warmup rounds are run before measurement and are not reported.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class SectorThroughputBenchmark {
+
+  protected final static Logger log = LoggerFactory.getLogger(SectorThroughputBenchmark.class);
+
+  public enum Stage { TOKENIZE, ENCODE, FORWARD, ATTACH, SEGMENT, EVALUATE }
+
+  protected final SectorAnnotator annotator;
+  protected int warmupRounds = 1;
+  protected int measureRounds = 3;
+
+  public SectorThroughputBenchmark(SectorAnnotator annotator) {
+    this.annotator = annotator;
+  }
+
+  /**
+   * @param warmup number of rounds over the corpus before measurement
+   * @param measure number of measured rounds over the corpus
+   */
+  public SectorThroughputBenchmark withRounds(int warmup, int measure) {
+    if(warmup < 0 || measure <= 0) throw new IllegalArgumentException("invalid number of rounds");
+    this.warmupRounds = warmup;
+    this.measureRounds = measure;
+    return this;
+  }
+
+  /**
+   * Generate a WikiSection-like corpus with GOLD sections of 5 sentences each.
+   */
+  public static List<JsonNode> generateCorpus(int numDocuments, int numSentences, long seed) {
+    int numSections = Math.max(1, numSentences / 5);
+    SyntheticCorpusGenerator generator = new SyntheticCorpusGenerator()
+      .withSeed(seed)
+      .withSections(numSections, numSections)
+      .withSentencesPerSection(5, 5);
+    List<JsonNode> corpus = new ArrayList<>(numDocuments);
+    for(int i = 0; i < numDocuments; i++) corpus.add(generator.createRecord(i));
+    return corpus;
+  }
+
+  /**
+   * Read a corpus into memory, see SectorAnnotationPipeline.readInput() for supported formats.
+   */
+  public static List<JsonNode> readCorpus(Iterator<JsonNode> input) {
+    List<JsonNode> corpus = new ArrayList<>();
+    while(input.hasNext()) corpus.add(input.next());
+    return corpus;
+  }
+
+  /**
+   * Run warmup and measurement rounds over the corpus with one configuration.
+   * @param batchSize number of Documents per batch
+   * @param numThreads number of batches that are processed concurrently
+   */
+  public Result run(List<JsonNode> corpus, int batchSize, int numThreads, SegmentationMethod segmentation) throws IOException {
+    if(batchSize <= 0 || numThreads <= 0) throw new IllegalArgumentException("batch size and threads must be positive");
+    BlockingQueue<SectorAnnotator> replicas = new ArrayBlockingQueue<>(numThreads);
+    for(int i = 0; i < numThreads; i++) replicas.add(new SectorAnnotator(annotator.getTagger().createInferenceReplica()));
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      for(int round = 0; round < warmupRounds; round++) {
+        log.info("Warmup round {}/{} [batch size {}, {} threads, {}]", round + 1, warmupRounds, batchSize, numThreads, segmentation);
+        runRound(corpus, batchSize, segmentation, executor, replicas, new Result(batchSize, numThreads, segmentation));
+      }
+      Result result = new Result(batchSize, numThreads, segmentation);
+      for(int round = 0; round < measureRounds; round++) {
+        log.info("Measure round {}/{} [batch size {}, {} threads, {}]", round + 1, measureRounds, batchSize, numThreads, segmentation);
+        runRound(corpus, batchSize, segmentation, executor, replicas, result);
+      }
+      log.info(result.toString());
+      return result;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  protected void runRound(List<JsonNode> corpus, int batchSize, SegmentationMethod segmentation,
+                          ExecutorService executor, BlockingQueue<SectorAnnotator> replicas, Result result) throws IOException {
+    List<Future<?>> tasks = new ArrayList<>();
+    long start = System.nanoTime();
+    for(int begin = 0; begin < corpus.size(); begin += batchSize) {
+      List<JsonNode> records = corpus.subList(begin, Math.min(begin + batchSize, corpus.size()));
+      tasks.add(executor.submit(() -> {
+        SectorAnnotator replica = replicas.take();
+        try {
+          runBatch(records, replica, segmentation, result);
+        } finally {
+          replicas.put(replica);
+        }
+        return null;
+      }));
+    }
+    try {
+      for(Future<?> task : tasks) task.get();
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted while running benchmark", e);
+    } catch(ExecutionException e) {
+      if(e.getCause() instanceof IOException) throw (IOException) e.getCause();
+      throw new IllegalStateException("error while running benchmark", e.getCause());
+    }
+    result.wallTime += System.nanoTime() - start;
+  }
+
+  protected void runBatch(List<JsonNode> records, SectorAnnotator replica, SegmentationMethod segmentation, Result result) throws IOException {
+    long start = System.nanoTime();
+
+    long t = System.nanoTime();
+    List<Document> docs = new ArrayList<>(records.size());
+    for(JsonNode json : records) {
+      Document doc = SectorAnnotationPipeline.createDocument(json);
+      if(doc.countSentences() > 0) docs.add(doc);
+    }
+    t = result.record(Stage.TOKENIZE, t);
+    if(docs.isEmpty()) return;
+
+    SectorTagger tagger = replica.getTagger();
+    SectorTaggerIterator it = new SectorTaggerIterator(DocumentSentenceIterator.Stage.ENCODE, Collections.emptyList(), tagger, docs.size(), false, tagger.isRequireSubsampling());
+    int maxLength = docs.stream().mapToInt(Document::countSentences).max().orElse(1);
+    DocumentSentenceIterator.DocumentBatch batch = it.new DocumentBatch(docs.size(), docs, maxLength, null);
+    batch.dataset = it.generateDataSet(batch);
+    t = result.record(Stage.ENCODE, t);
+
+    Map<String,INDArray> weights = tagger.encodeMatrix(batch);
+    t = result.record(Stage.FORWARD, t);
+
+    tagger.attachVectors(batch, weights);
+    t = result.record(Stage.ATTACH, t);
+
+    if(segmentation != SegmentationMethod.NONE) {
+      replica.detectSections(docs, segmentation);
+      for(Document doc : docs) SectorAnnotator.attachVectorsToAnnotations(doc, replica.getTargetEncoder());
+    }
+    t = result.record(Stage.SEGMENT, t);
+    long latency = t - start;
+
+    if(segmentation != SegmentationMethod.NONE && docs.stream().anyMatch(doc -> doc.countAnnotations(Annotation.Source.GOLD, SectionAnnotation.class) > 0)) {
+      SegmentationEvaluation eval = new SegmentationEvaluation("benchmark");
+      eval.calculateScoresFromAnnotations(docs, SectionAnnotation.class);
+      result.addScores(docs.size(), eval.getPk(), eval.getWD());
+      result.record(Stage.EVALUATE, t);
+    }
+
+    int sentences = 0;
+    for(Document doc : docs) sentences += doc.countSentences();
+    result.addBatch(docs.size(), sentences, latency);
+  }
+
+  /**
+   * @return JSON representation of the given results, including information about the environment
+   */
+  public static String toJSON(Map<String,Object> config, List<Result> results) throws IOException {
+    Map<String,Object> json = new LinkedHashMap<>();
+    Map<String,Object> env = new LinkedHashMap<>();
+    env.put("java", System.getProperty("java.version"));
+    env.put("os", System.getProperty("os.name") + " " + System.getProperty("os.arch"));
+    env.put("processors", Runtime.getRuntime().availableProcessors());
+    env.put("maxMemory", Runtime.getRuntime().maxMemory());
+    env.put("backend", Nd4j.getBackend().getClass().getSimpleName());
+    json.put("environment", env);
+    json.put("config", config);
+    List<Object> list = new ArrayList<>();
+    for(Result result : results) list.add(result.toMap());
+    json.put("results", list);
+    return ObjectSerializer.getObjectMapper().writerWithDefaultPrettyPrinter().writeValueAsString(json);
+  }
+
+  /**
+   * Measurements of one configuration, accumulated over all measured rounds.
+   */
+  public static class Result {
+
+    protected final int batchSize;
+    protected final int numThreads;
+    protected final SegmentationMethod segmentation;
+    protected final AtomicLongArray stageTimes = new AtomicLongArray(Stage.values().length);
+    protected final List<Long> latencies = new ArrayList<>();
+    protected long documents = 0;
+    protected long sentences = 0;
+    protected long wallTime = 0;
+    protected long evaluated = 0;
+    protected double pkSum = 0, wdSum = 0;
+
+    protected Result(int batchSize, int numThreads, SegmentationMethod segmentation) {
+      this.batchSize = batchSize;
+      this.numThreads = numThreads;
+      this.segmentation = segmentation;
+    }
+
+    /**
+     * Add the time since the given timestamp to a stage.
+     * @return the current timestamp
+     */
+    protected long record(Stage stage, long since) {
+      long now = System.nanoTime();
+      stageTimes.addAndGet(stage.ordinal(), now - since);
+      return now;
+    }
+
+    protected synchronized void addBatch(int docs, int sents, long latency) {
+      documents += docs;
+      sentences += sents;
+      for(int i = 0; i < docs; i++) latencies.add(latency);
+    }
+
+    protected synchronized void addScores(int docs, double pk, double wd) {
+      evaluated += docs;
+      pkSum += pk * docs;
+      wdSum += wd * docs;
+    }
+
+    public synchronized long getDocuments() {
+      return documents;
+    }
+
+    public synchronized long getSentences() {
+      return sentences;
+    }
+
+    /** @return total wall time of all measured rounds in milliseconds */
+    public double getWallTime() {
+      return wallTime / 1e6;
+    }
+
+    public synchronized double getDocumentsPerSecond() {
+      return wallTime > 0 ? documents * 1e9 / wallTime : 0.;
+    }
+
+    public synchronized double getSentencesPerSecond() {
+      return wallTime > 0 ? sentences * 1e9 / wallTime : 0.;
+    }
+
+    /** @return total time in milliseconds that all threads spent in the given stage */
+    public double getStageTime(Stage stage) {
+      return stageTimes.get(stage.ordinal()) / 1e6;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return per-Document latency in milliseconds (nearest rank)
+     */
+    public synchronized double getLatency(double percentile) {
+      if(latencies.isEmpty()) return 0.;
+      List<Long> sorted = new ArrayList<>(latencies);
+      Collections.sort(sorted);
+      int rank = (int) Math.ceil(percentile / 100. * sorted.size());
+      return sorted.get(Math.max(0, Math.min(rank, sorted.size()) - 1)) / 1e6;
+    }
+
+    public synchronized Map<String,Object> toMap() {
+      Map<String,Object> map = new LinkedHashMap<>();
+      map.put("batchSize", batchSize);
+      map.put("threads", numThreads);
+      map.put("segmentation", segmentation.toString());
+      map.put("documents", documents);
+      map.put("sentences", sentences);
+      map.put("wallTimeMs", getWallTime());
+      map.put("docsPerSecond", getDocumentsPerSecond());
+      map.put("sentencesPerSecond", getSentencesPerSecond());
+      Map<String,Object> latency = new LinkedHashMap<>();
+      latency.put("p50", getLatency(50));
+      latency.put("p95", getLatency(95));
+      latency.put("p99", getLatency(99));
+      latency.put("max", getLatency(100));
+      map.put("latencyMs", latency);
+      Map<String,Object> stages = new LinkedHashMap<>();
+      for(Stage stage : Stage.values()) stages.put(stage.toString().toLowerCase(Locale.ROOT), getStageTime(stage));
+      map.put("stageTimeMs", stages);
+      if(evaluated > 0) {
+        map.put("Pk", pkSum / evaluated);
+        map.put("WD", wdSum / evaluated);
+      }
+      return map;
+    }
+
+    @Override
+    public synchronized String toString() {
+      StringBuilder line = new StringBuilder();
+      line.append(String.format(Locale.ROOT, "batch size %d, %d threads, %s: %d documents, %d sentences in %.1fs [%.1f docs/s, %.1f sentences/s]\n",
+        batchSize, numThreads, segmentation, documents, sentences, getWallTime() / 1000., getDocumentsPerSecond(), getSentencesPerSecond()));
+      line.append(String.format(Locale.ROOT, "latency p50 %.1fms, p95 %.1fms, p99 %.1fms\n", getLatency(50), getLatency(95), getLatency(99)));
+      line.append("stage\tbusy ms\tms/doc\n");
+      for(Stage stage : Stage.values()) {
+        line.append(String.format(Locale.ROOT, "%s\t%.1f\t%.2f\n", stage.toString().toLowerCase(Locale.ROOT),
+          getStageTime(stage), documents > 0 ? getStageTime(stage) / documents : 0.));
+      }
+      return line.toString();
+    }
+
+  }
+
+}
@@ -0,0 +1,72 @@
+package de.datexis.sector;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dimensionalityreduction.PCA;
+
+/**
+ * Public access to the numerical kernels that SectorAnnotator uses for segmentation after the neural pass.
+ * All methods operate on matrices [T x H] with one row per Sentence and return new arrays without modifying the input.
+ * These are used by benchmarks and to check optimized implementations against reference outputs.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public final class SegmentationKernels {
+
+  private SegmentationKernels() {}
+
+  /**
+   * @return PCA projection [T x dimensions] of the given matrix, as used in EMD segmentation
+   */
+  public static INDArray pca(INDArray matrix, int dimensions) {
+    return SectorAnnotator.pca(matrix, dimensions);
+  }
+
+  /**
+   * @return PCA factor [H x dimensions] of the given matrix, as used in BEMD segmentation
+   */
+  public static INDArray pcaFactor(INDArray matrix, int dimensions, boolean normalize) {
+    return PCA.pca_factor(matrix.dup(), dimensions, normalize);
+  }
+
+  /**
+   * @return matrix [T x H] smoothed with a Gaussian kernel of given standard deviation over time
+   */
+  public static INDArray gaussianSmooth(INDArray matrix, double sd) {
+    return SectorAnnotator.gaussianSmooth(matrix, sd);
+  }
+
+  /**
+   * @return matrix [T x 1] of cosine distances between time steps t-1 and t
+   */
+  public static INDArray deviation(INDArray matrix) {
+    return SectorAnnotator.deviation(matrix);
+  }
+
+  /**
+   * @return matrix [T x 1] of geometric means of FW and BW cosine distances
+   */
+  public static INDArray deviation(INDArray fw, INDArray bw) {
+    return SectorAnnotator.deviation(fw, bw);
+  }
+
+  /**
+   * @return matrix [T x 1] of BEMD deviations (PCA, smoothing and deviation) of FW/BW embedding matrices
+   */
+  public static INDArray bidirectionalDeviation(INDArray fw, INDArray bw) {
+    return SectorAnnotator.bidirectionalDeviation(fw, bw);
+  }
+
+  /**
+   * @return matrix [T x 1] with 1 at local maxima of the deviation
+   */
+  public static INDArray detectEdges(INDArray deviation) {
+    return SectorAnnotator.detectEdges(deviation);
+  }
+
+  /**
+   * @return matrix [T x 1] with 1 at the given number of edges with the highest deviation
+   */
+  public static INDArray detectEdges(INDArray deviation, int count) {
+    return SectorAnnotator.detectEdges(deviation, count);
+  }
+
+}
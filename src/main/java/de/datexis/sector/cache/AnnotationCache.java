@@ -0,0 +1,365 @@
+package de.datexis.sector.cache;
+
+import de.datexis.annotator.ModelFingerprint;
+import de.datexis.model.Annotation;
+import de.datexis.model.Document;
+import de.datexis.model.Sentence;
+import de.datexis.sector.SectorAnnotator;
+import de.datexis.sector.model.SectionAnnotation;
+import de.datexis.sector.tagger.SectorEncoder;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.apache.commons.codec.binary.Hex;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches SECTOR results for Documents that were already annotated with the same model. Entries are keyed by the
+ * SHA-256 hash of the model fingerprint, the segmentation method and the normalized Document text (NFC normalized
+ * Tokens of all Sentences). The cache stores PRED SectionAnnotations and, optionally, Sentence vectors.
+ * It consists of an in-memory LRU tier bounded by the number of bytes and an optional persistent tier on disk.
+ * Disk entries are stored per model in a subdirectory named by the model fingerprint, so that loading a different
+ * model never returns stale results. Call bind() again after a model was modified in place, e.g. by training.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class AnnotationCache implements AutoCloseable {
+
+  protected final static Logger log = LoggerFactory.getLogger(AnnotationCache.class);
+
+  protected final Path directory;
+  protected long memoryLimit = 64L * 1024 * 1024;
+  protected boolean storeVectors = false;
+
+  protected final LinkedHashMap<String,byte[]> memory = new LinkedHashMap<>(1024, 0.75f, true);
+  protected long memorySize = 0;
+  protected AppendOnlyStore disk;
+
+  protected SectorAnnotator boundAnnotator;
+  protected String fingerprint;
+
+  protected long memoryHits = 0;
+  protected long diskHits = 0;
+  protected long misses = 0;
+  protected long puts = 0;
+  protected long evictions = 0;
+
+  /**
+   * Create a cache with memory tier only.
+   */
+  public AnnotationCache() {
+    this(null);
+  }
+
+  /**
+   * @param directory root directory of the persistent tier, or null to disable it
+   */
+  public AnnotationCache(Path directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * @param bytes maximum size of all payloads in the memory tier
+   */
+  public AnnotationCache withMemoryLimit(long bytes) {
+    this.memoryLimit = bytes;
+    return this;
+  }
+
+  /**
+   * @param storeVectors also cache target and embedding vectors of all Sentences
+   */
+  public AnnotationCache withVectors(boolean storeVectors) {
+    this.storeVectors = storeVectors;
+    return this;
+  }
+
+  /**
+   * Use the given Annotator for all following requests. Invalidates the memory tier and switches the disk tier
+   * if the model fingerprint changed.
+   */
+  public synchronized void bind(SectorAnnotator annotator) throws IOException {
+    String current = ModelFingerprint.compute(annotator);
+    boundAnnotator = annotator;
+    if(current.equals(fingerprint)) return;
+    log.info("Binding annotation cache to model {}", current.substring(0, 16));
+    fingerprint = current;
+    clearMemory();
+    if(disk != null) disk.close();
+    disk = directory != null ? new AppendOnlyStore(directory.resolve(fingerprint.substring(0, 32))) : null;
+  }
+
+  /**
+   * Annotate Documents using cached results where possible. Missing Documents are annotated together in a single
+   * call to the Annotator and added to the cache.
+   */
+  public void annotate(SectorAnnotator annotator, Collection<Document> docs, SectorAnnotator.SegmentationMethod segmentation) throws IOException {
+    synchronized(this) {
+      if(annotator != boundAnnotator) bind(annotator);
+    }
+    List<Document> missing = new ArrayList<>();
+    List<byte[]> keys = new ArrayList<>();
+    for(Document doc : docs) {
+      byte[] key = getKey(doc, segmentation);
+      byte[] payload = get(key);
+      if(payload != null) {
+        decode(payload, doc);
+      } else {
+        missing.add(doc);
+        keys.add(key);
+      }
+    }
+    if(missing.isEmpty()) return;
+    annotator.annotate(missing, segmentation);
+    for(int i = 0; i < missing.size(); i++) {
+      put(keys.get(i), encode(missing.get(i)));
+    }
+  }
+
+  /**
+   * @return cache key for a Document under the currently bound model
+   */
+  public byte[] getKey(Document doc, SectorAnnotator.SegmentationMethod segmentation) {
+    if(fingerprint == null) throw new IllegalStateException("no model bound to cache");
+    MessageDigest digest = createDigest();
+    digest.update(fingerprint.getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) 0);
+    digest.update(segmentation.toString().getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) 0);
+    digest.update(normalize(doc).getBytes(StandardCharsets.UTF_8));
+    return digest.digest();
+  }
+
+  /**
+   * @return the Document text that is used for hashing: NFC normalized Tokens, one line per Sentence
+   */
+  public static String normalize(Document doc) {
+    String text = doc.streamSentences().map(s -> s.toTokenizedString()).collect(Collectors.joining("\n"));
+    return Normalizer.normalize(text, Normalizer.Form.NFC);
+  }
+
+  protected synchronized byte[] get(byte[] key) throws IOException {
+    String hex = Hex.encodeHexString(key);
+    byte[] payload = memory.get(hex);
+    if(payload != null) {
+      memoryHits++;
+      return payload;
+    }
+    if(disk != null) {
+      payload = disk.get(key);
+      if(payload != null) {
+        diskHits++;
+        putMemory(hex, payload);
+        return payload;
+      }
+    }
+    misses++;
+    return null;
+  }
+
+  protected synchronized void put(byte[] key, byte[] payload) throws IOException {
+    puts++;
+    putMemory(Hex.encodeHexString(key), payload);
+    if(disk != null) disk.put(key, payload);
+  }
+
+  protected void putMemory(String key, byte[] payload) {
+    if(payload.length > memoryLimit) return;
+    byte[] previous = memory.put(key, payload);
+    if(previous != null) memorySize -= previous.length;
+    memorySize += payload.length;
+    Iterator<Map.Entry<String,byte[]>> it = memory.entrySet().iterator();
+    while(memorySize > memoryLimit && it.hasNext()) {
+      memorySize -= it.next().getValue().length;
+      it.remove();
+      evictions++;
+    }
+  }
+
+  protected byte[] encode(Document doc) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try(DataOutputStream out = new DataOutputStream(bytes)) {
+      List<Sentence> sentences = doc.getSentences();
+      List<SectionAnnotation> sections = doc.streamAnnotations(Annotation.Source.PRED, SectionAnnotation.class)
+        .sorted(Comparator.comparingInt(SectionAnnotation::getBegin))
+        .collect(Collectors.toList());
+      out.writeInt(sentences.size());
+      out.writeInt(sections.size());
+      int t = 0;
+      for(SectionAnnotation ann : sections) {
+        while(t < sentences.size() && sentences.get(t).getBegin() < ann.getBegin()) t++;
+        int begin = t;
+        int end = begin;
+        while(end < sentences.size() && sentences.get(end).getBegin() < ann.getEnd()) end++;
+        out.writeInt(begin);
+        out.writeInt(end);
+        writeString(out, ann.getSectionLabel());
+        writeString(out, ann.getSectionHeading());
+        out.writeDouble(ann.getConfidence());
+        String layer = getTargetLayer();
+        writeVector(out, layer != null && ann.hasVector(layer) ? ann.getVector(layer) : null);
+      }
+      out.writeBoolean(storeVectors);
+      if(storeVectors) {
+        String[] layers = getSentenceLayers();
+        out.writeInt(layers.length);
+        for(String layer : layers) {
+          out.writeUTF(layer);
+          for(Sentence s : sentences) writeVector(out, s.hasVector(layer) ? s.getVector(layer) : null);
+        }
+      }
+    }
+    return bytes.toByteArray();
+  }
+
+  protected void decode(byte[] payload, Document doc) throws IOException {
+    try(DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+      List<Sentence> sentences = doc.getSentences();
+      int numSentences = in.readInt();
+      if(numSentences != sentences.size()) throw new IOException("cached document has different number of sentences");
+      int numSections = in.readInt();
+      doc.clearAnnotations(Annotation.Source.PRED, SectionAnnotation.class);
+      String targetLayer = getTargetLayer();
+      for(int i = 0; i < numSections; i++) {
+        int begin = in.readInt();
+        int end = in.readInt();
+        SectionAnnotation ann = new SectionAnnotation(Annotation.Source.PRED);
+        ann.setSectionLabel(readString(in));
+        ann.setSectionHeading(readString(in));
+        ann.setConfidence(in.readDouble());
+        INDArray vec = readVector(in);
+        if(vec != null && targetLayer != null) ann.putVector(targetLayer, vec);
+        if(begin >= end) continue;
+        ann.setBegin(sentences.get(begin).getBegin());
+        ann.setEnd(sentences.get(end - 1).getEnd());
+        doc.addAnnotation(ann);
+      }
+      if(in.readBoolean()) {
+        int numLayers = in.readInt();
+        for(int l = 0; l < numLayers; l++) {
+          String layer = in.readUTF();
+          for(Sentence s : sentences) {
+            INDArray vec = readVector(in);
+            if(vec != null) s.putVector(layer, vec);
+          }
+        }
+      }
+    }
+  }
+
+  protected String getTargetLayer() {
+    return boundAnnotator != null ? boundAnnotator.getTargetEncoder().getClass().getCanonicalName() : null;
+  }
+
+  protected String[] getSentenceLayers() {
+    return new String[] { getTargetLayer(), SectorEncoder.class.getCanonicalName(), "embeddingFW", "embeddingBW" };
+  }
+
+  protected static void writeString(DataOutputStream out, String str) throws IOException {
+    out.writeBoolean(str != null);
+    if(str != null) out.writeUTF(str);
+  }
+
+  protected static String readString(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  protected static void writeVector(DataOutputStream out, INDArray vec) throws IOException {
+    if(vec == null) {
+      out.writeInt(-1);
+      return;
+    }
+    float[] data = vec.toFloatVector();
+    out.writeInt(data.length);
+    for(float f : data) out.writeFloat(f);
+  }
+
+  protected static INDArray readVector(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if(length < 0) return null;
+    float[] data = new float[length];
+    for(int i = 0; i < length; i++) data[i] = in.readFloat();
+    return Nd4j.create(data, new long[] {length, 1});
+  }
+
+  protected static MessageDigest createDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch(NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  protected void clearMemory() {
+    memory.clear();
+    memorySize = 0;
+  }
+
+  /**
+   * Remove all entries of the currently bound model from memory and disk.
+   */
+  public synchronized void invalidate() throws IOException {
+    clearMemory();
+    if(disk != null) disk.clear();
+  }
+
+  public synchronized long getMemoryHits() {
+    return memoryHits;
+  }
+
+  public synchronized long getDiskHits() {
+    return diskHits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  public synchronized long getPuts() {
+    return puts;
+  }
+
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  public synchronized double getHitRate() {
+    long requests = memoryHits + diskHits + misses;
+    return requests > 0 ? (double) (memoryHits + diskHits) / requests : 0.;
+  }
+
+  public synchronized long getMemorySize() {
+    return memorySize;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("memoryHits=%d diskHits=%d misses=%d hitRate=%.3f puts=%d evictions=%d memory=%dkB",
+      memoryHits, diskHits, misses, getHitRate(), puts, evictions, memorySize / 1024);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if(disk != null) disk.close();
+    disk = null;
+    log.debug("Closed annotation cache [{}]", toString());
+  }
+
+}
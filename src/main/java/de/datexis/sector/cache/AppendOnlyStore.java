@@ -0,0 +1,171 @@
+package de.datexis.sector.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A persistent key-value store on local disk that consists of an append-only data log and an append-only index.
+ * Records are never modified. The index is held in memory and rebuilt from the log tail after an unclean shutdown.
+ * Log record: [key][int length][payload], index record: [key][long offset].
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class AppendOnlyStore implements AutoCloseable {
+
+  protected final static Logger log = LoggerFactory.getLogger(AppendOnlyStore.class);
+
+  public static final int KEY_LENGTH = 32;
+
+  protected final Path logFile;
+  protected final Path indexFile;
+  protected final FileChannel logChannel;
+  protected final FileChannel indexChannel;
+  protected final Map<String,Long> index = new HashMap<>();
+
+  /**
+   * Open or create a store with files data.log and data.idx in the given directory.
+   */
+  public AppendOnlyStore(Path dir) throws IOException {
+    Files.createDirectories(dir);
+    logFile = dir.resolve("data.log");
+    indexFile = dir.resolve("data.idx");
+    logChannel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    indexChannel = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    readIndex();
+  }
+
+  protected void readIndex() throws IOException {
+    long end = 0;
+    ByteBuffer rec = ByteBuffer.allocate(KEY_LENGTH + 8);
+    long pos = 0;
+    long indexSize = indexChannel.size();
+    while(pos + rec.capacity() <= indexSize) {
+      rec.clear();
+      readFully(indexChannel, rec, pos);
+      rec.flip();
+      byte[] key = new byte[KEY_LENGTH];
+      rec.get(key);
+      long offset = rec.getLong();
+      int length = readLength(offset);
+      if(length < 0) break; // index points beyond log
+      index.put(Hex.encodeHexString(key), offset);
+      end = Math.max(end, offset + KEY_LENGTH + 4 + length);
+      pos += rec.capacity();
+    }
+    indexChannel.truncate(pos);
+    indexChannel.position(pos);
+    // recover records that were written to the log but not to the index
+    int recovered = 0;
+    long logSize = logChannel.size();
+    while(end + KEY_LENGTH + 4 <= logSize) {
+      int length = readLength(end);
+      if(length < 0) break;
+      ByteBuffer key = ByteBuffer.allocate(KEY_LENGTH);
+      readFully(logChannel, key, end);
+      appendIndex(key.array(), end);
+      end += KEY_LENGTH + 4 + length;
+      recovered++;
+    }
+    logChannel.truncate(end);
+    logChannel.position(end);
+    if(recovered > 0) log.info("Recovered {} records from {}", recovered, logFile);
+  }
+
+  /**
+   * @return length of the record payload at the given offset, or -1 if the record is incomplete
+   */
+  protected int readLength(long offset) throws IOException {
+    long size = logChannel.size();
+    if(offset + KEY_LENGTH + 4 > size) return -1;
+    ByteBuffer buf = ByteBuffer.allocate(4);
+    readFully(logChannel, buf, offset + KEY_LENGTH);
+    buf.flip();
+    int length = buf.getInt();
+    if(length < 0 || offset + KEY_LENGTH + 4 + length > size) return -1;
+    return length;
+  }
+
+  public synchronized boolean contains(byte[] key) {
+    return index.containsKey(Hex.encodeHexString(key));
+  }
+
+  /**
+   * @return the payload for the given key or null
+   */
+  public synchronized byte[] get(byte[] key) throws IOException {
+    Long offset = index.get(Hex.encodeHexString(key));
+    if(offset == null) return null;
+    int length = readLength(offset);
+    if(length < 0) return null;
+    ByteBuffer payload = ByteBuffer.allocate(length);
+    readFully(logChannel, payload, offset + KEY_LENGTH + 4);
+    return payload.array();
+  }
+
+  /**
+   * Append a payload. A later record for the same key replaces the earlier one.
+   */
+  public synchronized void put(byte[] key, byte[] payload) throws IOException {
+    if(key.length != KEY_LENGTH) throw new IllegalArgumentException("key must have " + KEY_LENGTH + " bytes");
+    long offset = logChannel.size();
+    ByteBuffer rec = ByteBuffer.allocate(KEY_LENGTH + 4 + payload.length);
+    rec.put(key).putInt(payload.length).put(payload).flip();
+    writeFully(logChannel, rec, offset);
+    appendIndex(key, offset);
+  }
+
+  protected void appendIndex(byte[] key, long offset) throws IOException {
+    ByteBuffer rec = ByteBuffer.allocate(KEY_LENGTH + 8);
+    rec.put(key).putLong(offset).flip();
+    writeFully(indexChannel, rec, indexChannel.size());
+    index.put(Hex.encodeHexString(key), offset);
+  }
+
+  public synchronized int size() {
+    return index.size();
+  }
+
+  /**
+   * @return size of the data log in bytes
+   */
+  public synchronized long getLogSize() throws IOException {
+    return logChannel.size();
+  }
+
+  /**
+   * Remove all records.
+   */
+  public synchronized void clear() throws IOException {
+    logChannel.truncate(0);
+    indexChannel.truncate(0);
+    index.clear();
+  }
+
+  protected static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+    while(buf.hasRemaining()) {
+      int read = channel.read(buf, position + buf.position());
+      if(read < 0) throw new IOException("unexpected end of file");
+    }
+  }
+
+  protected static void writeFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+    while(buf.hasRemaining()) {
+      channel.write(buf, position + buf.position());
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    logChannel.close();
+    indexChannel.close();
+  }
+
+}
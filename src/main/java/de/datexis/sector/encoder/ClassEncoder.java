@@ -68,7 +68,7 @@ public class ClassEncoder extends LookupCacheEncoder {
   
   public INDArray oneHot(String word) {
     INDArray vector = Nd4j.zeros(getEmbeddingVectorSize(), 1);
-    int i = getIndex(word);
+    int i = getCachedIndex(word);
     if(i>=0) vector.put(i, 0, 1.0);
     else log.warn("could not encode class '{}'. is it contained in training set?", word);
     return vector;
@@ -92,7 +92,7 @@ public class ClassEncoder extends LookupCacheEncoder {
       val += word.getCount();
     }
     vocab.truncateVocabulary((int)(val / vocab.numWords()));
-    vocab.updateHuffmanCodes();
+    updateVocabulary();
     appendTrainLog("truncated to " + vocab.numWords() + " classes");
   }
   
@@ -114,7 +114,7 @@ public class ClassEncoder extends LookupCacheEncoder {
     }
     int total = vocab.numWords();
     vocab.truncateVocabulary(minClassFrequency);
-    vocab.updateHuffmanCodes();
+    updateVocabulary();
     timer.stop();
     appendTrainLog("trained " + vocab.numWords() + " classes (" +  total + " total)", timer.getLong());
     setModelAvailable(true);
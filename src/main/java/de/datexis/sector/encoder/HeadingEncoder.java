@@ -47,7 +47,7 @@ public class HeadingEncoder extends BagOfWordsEncoder {
     int total = vocab.numWords();
     vocab.truncateVocabulary(minWordFrequency);
     vocab.addWord(preprocessor.preProcess(OTHER_CLASS));
-    vocab.updateHuffmanCodes();
+    updateVocabulary();
     timer.stop();
     appendTrainLog("trained " + vocab.numWords() + " words (" +  total + " total)", timer.getLong());
     setModelAvailable(true);
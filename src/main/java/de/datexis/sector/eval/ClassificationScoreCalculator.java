@@ -2,6 +2,7 @@ package de.datexis.sector.eval;
 
 import de.datexis.encoder.LookupCacheEncoder;
 import de.datexis.sector.tagger.SectorTagger;
+import de.datexis.sector.tagger.TrainingMetricsListener;
 import de.datexis.tagger.Tagger;
 import org.deeplearning4j.datasets.iterator.AsyncMultiDataSetIterator;
 import org.deeplearning4j.datasets.iterator.MultiDataSetWrapperIterator;
@@ -49,6 +50,7 @@ public class ClassificationScoreCalculator extends BaseIEvaluationScoreCalculato
 
   @Override
     public double calculateScore(Model network) {
+    long start = System.nanoTime();
     ClassificationEvaluation eval = newEval();
 
     if(network instanceof MultiLayerNetwork) {
@@ -61,6 +63,7 @@ public class ClassificationScoreCalculator extends BaseIEvaluationScoreCalculato
     } else {
       throw new RuntimeException("Unknown model type: " + network.getClass());
     }
+    tagger.getMetrics().histogram(TrainingMetricsListener.VALIDATION_TIME).record((System.nanoTime() - start) / 1e6);
     return finalScore(eval);
   }
   
@@ -12,6 +12,7 @@ import de.datexis.sector.encoder.HeadingTag;
 import de.datexis.sector.model.SectionAnnotation;
 import java.util.Collection;
 import java.util.Locale;
+import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -235,6 +236,43 @@ public class SectorEvaluation extends AnnotatorEvaluation {
     return line.toString();
   }
 
+  /**
+   * Print out one table that compares the segmentation and segment classification results of several Evaluations,
+   * e.g. of different segmentation methods on the same Dataset.
+   */
+  public static String printComparisonStats(Map<String,SectorEvaluation> evals) {
+
+    StringBuilder line = new StringBuilder();
+    line.append("SECTOR SEGMENTATION COMPARISON [micro-avg]\n")
+        .append("|method\t||docs|\t|sents|\t")
+        .append("| |exp|\t |pred|\t Pk\t WD\t")
+        .append("| A@1\t P@1\t R@1\t MAP\n");
+    for(Map.Entry<String,SectorEvaluation> entry : evals.entrySet()) {
+      SectorEvaluation eval = entry.getValue();
+      line.append(entry.getKey()).append("\t");
+      line.append(fInt(eval.countDocuments())).append("\t");
+      line.append(fInt(eval.countExamples())).append("\t");
+      line.append(fInt(eval.countSections())).append("\t");
+      line.append(fInt(eval.countPredictions())).append("\t");
+      if(eval.segmentationEval != null && eval.enableSegmentationEval) {
+        line.append(fDbl(eval.segmentationEval.getPk())).append("\t");
+        line.append(fDbl(eval.segmentationEval.getWD())).append("\t");
+      } else {
+        line.append("-\t-\t");
+      }
+      if(eval.segmentClassEval != null && eval.enableSegmentEval) {
+        line.append(fDbl(eval.segmentClassEval.getAccuracy())).append("\t");
+        line.append(fDbl(eval.segmentClassEval.getPrecision1())).append("\t");
+        line.append(fDbl(eval.segmentClassEval.getRecall1())).append("\t");
+        line.append(fDbl(eval.segmentClassEval.getMAP())).append("\n");
+      } else {
+        line.append("-\t-\t-\t-\n");
+      }
+    }
+    System.out.println(line.toString());
+    return line.toString();
+  }
+
   /**
    * Print out Evaluation results table for single classes.
    */
@@ -278,11 +316,11 @@ public class SectorEvaluation extends AnnotatorEvaluation {
     return line.toString();
   }
 
-  private double countSections() {
+  public double countSections() {
     return countSections;
   }
 
-  private double countPredictions() {
+  public double countPredictions() {
     return countPredictions;
   }
 
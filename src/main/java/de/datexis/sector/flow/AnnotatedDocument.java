@@ -0,0 +1,44 @@
+package de.datexis.sector.flow;
+
+import de.datexis.model.Annotation;
+import de.datexis.model.Document;
+import de.datexis.sector.model.SectionAnnotation;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * A Document that was annotated by SECTOR, together with its position in the input stream.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class AnnotatedDocument {
+
+  protected final Document document;
+  protected final long sequence;
+
+  public AnnotatedDocument(Document document, long sequence) {
+    this.document = document;
+    this.sequence = sequence;
+  }
+
+  public Document getDocument() {
+    return document;
+  }
+
+  /**
+   * @return position of the Document in the input stream, starting at 0
+   */
+  public long getSequence() {
+    return sequence;
+  }
+
+  /**
+   * @return predicted sections in order of their position
+   */
+  public List<SectionAnnotation> getSections() {
+    return document.streamAnnotations(Annotation.Source.PRED, SectionAnnotation.class)
+      .sorted(Comparator.comparingInt(SectionAnnotation::getBegin))
+      .collect(Collectors.toList());
+  }
+
+}
@@ -0,0 +1,35 @@
+package de.datexis.sector.flow;
+
+/**
+ * Interfaces for reactive streams with demand-driven backpressure, equivalent to java.util.concurrent.Flow
+ * (which is not available in Java 8). Signals to a Subscriber are never sent concurrently, and no more items are
+ * sent than were requested via Subscription.request().
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public final class Flow {
+
+  private Flow() {}
+
+  public interface Publisher<T> {
+    void subscribe(Subscriber<? super T> subscriber);
+  }
+
+  public interface Subscriber<T> {
+    void onSubscribe(Subscription subscription);
+    void onNext(T item);
+    void onError(Throwable throwable);
+    void onComplete();
+  }
+
+  public interface Subscription {
+    /**
+     * Request up to n additional items.
+     */
+    void request(long n);
+    void cancel();
+  }
+
+  public interface Processor<T,R> extends Subscriber<T>, Publisher<R> {
+  }
+
+}
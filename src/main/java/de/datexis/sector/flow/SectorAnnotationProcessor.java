@@ -0,0 +1,318 @@
+package de.datexis.sector.flow;
+
+import de.datexis.model.Document;
+import de.datexis.sector.SectorAnnotator;
+import de.datexis.sector.SectorAnnotator.SegmentationMethod;
+import de.datexis.sector.SectorInferenceEngine;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A reactive Processor that annotates a stream of Documents with SECTOR. Documents are collected into batches of up
+ * to batchSize, incomplete batches are annotated after maxWait milliseconds. At most bufferSize Documents are
+ * requested from upstream that have not been delivered downstream yet, so that a slow Subscriber slows down the
+ * Publisher. Batches are annotated in parallel on inference replicas, results are delivered in input order if
+ * ordering is enabled, otherwise as soon as they are ready. Only a single Subscriber is supported.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class SectorAnnotationProcessor implements Flow.Processor<Document,AnnotatedDocument>, AutoCloseable {
+
+  protected final static Logger log = LoggerFactory.getLogger(SectorAnnotationProcessor.class);
+
+  protected final SectorAnnotator annotator;
+  protected SegmentationMethod segmentation = SegmentationMethod.BEMD;
+  protected int batchSize;
+  protected long maxWait = 10;
+  protected int bufferSize = 256;
+  protected int parallelism = 1;
+  protected boolean ordered = true;
+
+  protected final Object lock = new Object();
+  protected final AtomicInteger wip = new AtomicInteger();
+  protected Flow.Subscription upstream;
+  protected Flow.Subscriber<? super AnnotatedDocument> downstream;
+  protected SectorInferenceEngine engine;
+  protected ExecutorService executor;
+  protected ScheduledExecutorService timer;
+  protected ScheduledFuture<?> flushTask;
+
+  // state guarded by lock
+  protected List<AnnotatedDocument> batch = new ArrayList<>();
+  protected final TreeMap<Long,AnnotatedDocument> orderedResults = new TreeMap<>();
+  protected final Queue<AnnotatedDocument> results = new ArrayDeque<>();
+  protected long received = 0;
+  protected long nextSequence = 0;
+  protected long inFlight = 0;
+  protected long demand = 0;
+  protected boolean upstreamDone = false;
+  protected boolean cancelled = false;
+  protected boolean terminated = false;
+  protected Throwable error;
+
+  public SectorAnnotationProcessor(SectorAnnotator annotator) {
+    this.annotator = annotator;
+    this.batchSize = annotator.getTagger().getBatchSize();
+  }
+
+  public SectorAnnotationProcessor withSegmentation(SegmentationMethod segmentation) {
+    this.segmentation = segmentation;
+    return this;
+  }
+
+  /**
+   * @param batchSize maximum number of Documents per forward pass
+   * @param maxWait milliseconds after which an incomplete batch is annotated
+   */
+  public SectorAnnotationProcessor withBatching(int batchSize, long maxWait) {
+    this.batchSize = batchSize;
+    this.maxWait = maxWait;
+    return this;
+  }
+
+  /**
+   * @param bufferSize maximum number of Documents that were received but not yet delivered
+   */
+  public SectorAnnotationProcessor withBufferSize(int bufferSize) {
+    this.bufferSize = bufferSize;
+    return this;
+  }
+
+  /**
+   * @param parallelism number of batches that are annotated concurrently on separate replicas
+   */
+  public SectorAnnotationProcessor withParallelism(int parallelism) {
+    this.parallelism = parallelism;
+    return this;
+  }
+
+  /**
+   * @param ordered true to deliver Documents in input order, false to deliver them as soon as they are annotated
+   */
+  public SectorAnnotationProcessor withOrdering(boolean ordered) {
+    this.ordered = ordered;
+    return this;
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super AnnotatedDocument> subscriber) {
+    synchronized(lock) {
+      if(downstream != null) {
+        subscriber.onSubscribe(new Flow.Subscription() {
+          @Override public void request(long n) {}
+          @Override public void cancel() {}
+        });
+        subscriber.onError(new IllegalStateException("SectorAnnotationProcessor supports only a single subscriber"));
+        return;
+      }
+      downstream = subscriber;
+    }
+    subscriber.onSubscribe(new Flow.Subscription() {
+      @Override
+      public void request(long n) {
+        if(n <= 0) {
+          onError(new IllegalArgumentException("non-positive request " + n));
+          return;
+        }
+        synchronized(lock) {
+          demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+        }
+        drain();
+      }
+      @Override
+      public void cancel() {
+        synchronized(lock) {
+          cancelled = true;
+        }
+        if(upstream != null) upstream.cancel();
+        close();
+      }
+    });
+    drain();
+  }
+
+  @Override
+  public void onSubscribe(Flow.Subscription subscription) {
+    synchronized(lock) {
+      if(upstream != null) {
+        subscription.cancel();
+        return;
+      }
+      upstream = subscription;
+      engine = new SectorInferenceEngine(annotator, parallelism);
+      AtomicInteger count = new AtomicInteger();
+      executor = Executors.newFixedThreadPool(parallelism, r -> {
+        Thread thread = new Thread(r, "sector-flow-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+      timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "sector-flow-timer");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    subscription.request(bufferSize);
+  }
+
+  @Override
+  public void onNext(Document doc) {
+    List<AnnotatedDocument> full = null;
+    synchronized(lock) {
+      if(cancelled || terminated) return;
+      batch.add(new AnnotatedDocument(doc, received++));
+      inFlight++;
+      if(batch.size() >= batchSize) {
+        full = takeBatch();
+      } else if(batch.size() == 1) {
+        flushTask = timer.schedule(this::flush, maxWait, TimeUnit.MILLISECONDS);
+      }
+    }
+    if(full != null) submit(full);
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    synchronized(lock) {
+      if(error == null) error = throwable;
+      upstreamDone = true;
+    }
+    drain();
+  }
+
+  @Override
+  public void onComplete() {
+    flush();
+    synchronized(lock) {
+      upstreamDone = true;
+    }
+    drain();
+  }
+
+  /**
+   * Annotate the current incomplete batch.
+   */
+  protected void flush() {
+    List<AnnotatedDocument> docs;
+    synchronized(lock) {
+      if(batch.isEmpty()) return;
+      docs = takeBatch();
+    }
+    submit(docs);
+  }
+
+  protected List<AnnotatedDocument> takeBatch() {
+    List<AnnotatedDocument> docs = batch;
+    batch = new ArrayList<>(batchSize);
+    if(flushTask != null) flushTask.cancel(false);
+    flushTask = null;
+    return docs;
+  }
+
+  protected void submit(List<AnnotatedDocument> docs) {
+    ExecutorService exec;
+    synchronized(lock) {
+      exec = executor;
+    }
+    if(exec == null) return; // already closed
+    exec.execute(() -> {
+      try {
+        List<Document> input = new ArrayList<>(docs.size());
+        for(AnnotatedDocument doc : docs) input.add(doc.getDocument());
+        engine.annotate(input, segmentation);
+        synchronized(lock) {
+          for(AnnotatedDocument doc : docs) {
+            if(ordered) orderedResults.put(doc.getSequence(), doc);
+            else results.add(doc);
+          }
+        }
+      } catch(Throwable ex) {
+        synchronized(lock) {
+          if(error == null) error = ex;
+        }
+        if(upstream != null) upstream.cancel();
+      }
+      drain();
+    });
+  }
+
+  /**
+   * @return the next Document that can be delivered, or null
+   */
+  protected AnnotatedDocument pollResult() {
+    if(!ordered) return results.poll();
+    if(orderedResults.isEmpty() || orderedResults.firstKey() != nextSequence) return null;
+    nextSequence++;
+    return orderedResults.pollFirstEntry().getValue();
+  }
+
+  /**
+   * Deliver results downstream. Signals are serialized: only one thread delivers at a time, concurrent calls are
+   * picked up by the delivering thread.
+   */
+  protected void drain() {
+    if(wip.getAndIncrement() != 0) return;
+    int missed = 1;
+    do {
+      long delivered = 0;
+      while(true) {
+        AnnotatedDocument next;
+        synchronized(lock) {
+          if(downstream == null || cancelled || terminated || error != null || demand == 0) break;
+          next = pollResult();
+          if(next == null) break;
+          demand--;
+          inFlight--;
+        }
+        downstream.onNext(next);
+        delivered++;
+      }
+      if(delivered > 0 && upstream != null) upstream.request(delivered);
+      Throwable failure = null;
+      boolean complete = false;
+      synchronized(lock) {
+        if(downstream != null && !terminated && !cancelled) {
+          if(error != null) {
+            failure = error;
+            terminated = true;
+          } else if(upstreamDone && inFlight == 0) {
+            complete = true;
+            terminated = true;
+          }
+        }
+      }
+      if(failure != null) {
+        downstream.onError(failure);
+        close();
+      } else if(complete) {
+        downstream.onComplete();
+        close();
+      }
+      missed = wip.addAndGet(-missed);
+    } while(missed != 0);
+  }
+
+  @Override
+  public void close() {
+    ExecutorService exec;
+    synchronized(lock) {
+      exec = executor;
+      executor = null;
+    }
+    if(exec == null) return;
+    exec.shutdown();
+    timer.shutdownNow();
+    engine.close();
+  }
+
+}
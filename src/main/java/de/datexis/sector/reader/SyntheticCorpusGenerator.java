@@ -0,0 +1,333 @@
+package de.datexis.sector.reader;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import de.datexis.common.ObjectSerializer;
+import de.datexis.model.Annotation;
+import de.datexis.model.Dataset;
+import de.datexis.model.Document;
+import de.datexis.sector.model.SectionAnnotation;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generates WikiSection-like Documents with GOLD SectionAnnotations for scale testing. Words are pronounceable
+ * pseudo-words drawn from a Zipf distribution over a fixed vocabulary, a fraction of the words in each section is
+ * drawn from a label-specific part of the vocabulary, so that sections are distinguishable by topic. Every sentence
+ * is written on its own line, so the number of sentences per section is exact.
+ * Every Document is generated from its own seed, so Documents can be created in any order or in parallel and
+ * the corpus can be streamed with constant memory.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class SyntheticCorpusGenerator {
+
+  protected final static Logger log = LoggerFactory.getLogger(SyntheticCorpusGenerator.class);
+
+  protected static final String CONSONANTS = "bcdfghjklmnprstvz";
+  protected static final String VOWELS = "aeiou";
+  protected static final int SYLLABLES = CONSONANTS.length() * VOWELS.length();
+
+  protected long seed = 42;
+  protected long numDocuments = 1000;
+  protected int minSections = 3, maxSections = 8;
+  protected int minSentences = 2, maxSentences = 10;
+  protected int minWords = 5, maxWords = 25;
+  protected int vocabularySize = 10000;
+  protected double zipfExponent = 1.0;
+  protected double topicality = 0.3;
+  protected String type = "disease";
+  protected List<String> labels = new ArrayList<>();
+  protected List<List<String>> headings = new ArrayList<>();
+
+  protected volatile double[] cumulative;
+
+  public SyntheticCorpusGenerator() {
+    Map<String,List<String>> defaults = new LinkedHashMap<>();
+    defaults.put("disease.symptom", Arrays.asList("Signs and symptoms", "Symptoms", "Presentation"));
+    defaults.put("disease.cause", Arrays.asList("Causes", "Cause", "Risk factors"));
+    defaults.put("disease.mechanism", Arrays.asList("Pathophysiology", "Mechanism"));
+    defaults.put("disease.diagnosis", Arrays.asList("Diagnosis", "Classification"));
+    defaults.put("disease.prevention", Arrays.asList("Prevention", "Screening"));
+    defaults.put("disease.treatment", Arrays.asList("Treatment", "Management", "Therapy"));
+    defaults.put("disease.prognosis", Arrays.asList("Prognosis", "Outcomes"));
+    defaults.put("disease.epidemiology", Arrays.asList("Epidemiology"));
+    defaults.put("disease.history", Arrays.asList("History"));
+    defaults.put("disease.research", Arrays.asList("Research", "Research directions"));
+    withLabels("disease", defaults);
+  }
+
+  public SyntheticCorpusGenerator withSeed(long seed) {
+    this.seed = seed;
+    return this;
+  }
+
+  public SyntheticCorpusGenerator withDocuments(long numDocuments) {
+    if(numDocuments < 0) throw new IllegalArgumentException("number of documents must not be negative");
+    this.numDocuments = numDocuments;
+    return this;
+  }
+
+  /**
+   * @param min minimum number of sections per Document
+   * @param max maximum number of sections per Document, at most the number of labels
+   */
+  public SyntheticCorpusGenerator withSections(int min, int max) {
+    checkRange(min, max, "sections");
+    this.minSections = min;
+    this.maxSections = max;
+    return this;
+  }
+
+  public SyntheticCorpusGenerator withSentencesPerSection(int min, int max) {
+    checkRange(min, max, "sentences");
+    this.minSentences = min;
+    this.maxSentences = max;
+    return this;
+  }
+
+  public SyntheticCorpusGenerator withWordsPerSentence(int min, int max) {
+    checkRange(min, max, "words");
+    this.minWords = min;
+    this.maxWords = max;
+    return this;
+  }
+
+  /**
+   * @param size number of distinct words
+   * @param exponent exponent s of the Zipf distribution, where the probability of rank r is proportional to 1/r^s
+   */
+  public SyntheticCorpusGenerator withVocabulary(int size, double exponent) {
+    if(size <= 0) throw new IllegalArgumentException("vocabulary size must be positive");
+    this.vocabularySize = size;
+    this.zipfExponent = exponent;
+    this.cumulative = null;
+    return this;
+  }
+
+  /**
+   * @param topicality fraction of words in a section that are drawn from the label-specific vocabulary
+   */
+  public SyntheticCorpusGenerator withTopicality(double topicality) {
+    if(topicality < 0 || topicality > 1) throw new IllegalArgumentException("topicality must be in [0,1]");
+    this.topicality = topicality;
+    return this;
+  }
+
+  /**
+   * Set the label vocabulary. Sections of a Document are sampled without repetition and appear in the order of the
+   * given map, every section gets one of the headings of its label.
+   * @param type the Document type, e.g. "disease" or "city"
+   * @param labelHeadings map of section labels to their possible headings
+   */
+  public SyntheticCorpusGenerator withLabels(String type, Map<String,List<String>> labelHeadings) {
+    if(labelHeadings.isEmpty()) throw new IllegalArgumentException("no labels given");
+    this.type = type;
+    this.labels = new ArrayList<>(labelHeadings.keySet());
+    this.headings = new ArrayList<>();
+    for(String label : labels) {
+      List<String> list = labelHeadings.get(label);
+      headings.add(list == null || list.isEmpty() ? Collections.singletonList(label) : new ArrayList<>(list));
+    }
+    return this;
+  }
+
+  public long getNumDocuments() {
+    return numDocuments;
+  }
+
+  public List<String> getLabels() {
+    return Collections.unmodifiableList(labels);
+  }
+
+  /**
+   * @return the Document at the given index, which is the same for every call with the same configuration
+   */
+  public Document createDocument(long index) {
+    ObjectNode record = createRecord(index);
+    Document doc = new Document();
+    doc.setId(record.get("id").asText());
+    doc.setType(record.get("type").asText());
+    doc.setTitle(record.get("title").asText());
+    doc.setText(record.get("text").asText());
+    for(JsonNode section : record.get("annotations")) {
+      SectionAnnotation ann = new SectionAnnotation(Annotation.Source.GOLD, type, section.get("sectionHeading").asText());
+      ann.setSectionLabel(section.get("sectionLabel").asText());
+      ann.setBegin(section.get("begin").asInt());
+      ann.setLength(section.get("length").asInt());
+      ann.setConfidence(1.0);
+      doc.addAnnotation(ann);
+    }
+    return doc;
+  }
+
+  /**
+   * @return the Document at the given index as WikiSection JSON object
+   */
+  public ObjectNode createRecord(long index) {
+    Random random = new Random(seed ^ (index * 0x9E3779B97F4A7C15L));
+    ObjectMapper mapper = ObjectSerializer.getObjectMapper();
+    ObjectNode record = mapper.createObjectNode();
+    String title = capitalize(nextWord(random, -1)) + " " + nextWord(random, -1);
+    record.put("id", "synthetic:" + index);
+    record.put("type", type);
+    record.put("title", title);
+    record.put("abstract", nextSentences(random, 1 + random.nextInt(3), -1));
+
+    // choose labels without repetition and keep their canonical order
+    int numSections = Math.min(labels.size(), minSections + random.nextInt(maxSections - minSections + 1));
+    List<Integer> order = new ArrayList<>();
+    for(int i = 0; i < labels.size(); i++) order.add(i);
+    Collections.shuffle(order, random);
+    List<Integer> chosen = new ArrayList<>(order.subList(0, numSections));
+    Collections.sort(chosen);
+
+    StringBuilder text = new StringBuilder();
+    ArrayNode annotations = mapper.createArrayNode();
+    for(int label : chosen) {
+      int begin = text.length();
+      int numSentences = minSentences + random.nextInt(maxSentences - minSentences + 1);
+      text.append(nextSentences(random, numSentences, label));
+      List<String> options = headings.get(label);
+      annotations.addObject()
+        .put("class", SectionAnnotation.class.getSimpleName())
+        .put("begin", begin)
+        .put("length", text.length() - begin)
+        .put("sectionHeading", options.get(random.nextInt(options.size())))
+        .put("sectionLabel", labels.get(label));
+    }
+    record.put("text", text.toString());
+    record.set("annotations", annotations);
+    return record;
+  }
+
+  /**
+   * @return a lazy sequential Stream of all Documents, which can be turned parallel
+   */
+  public Stream<Document> stream() {
+    return LongStream.range(0, numDocuments).mapToObj(this::createDocument);
+  }
+
+  public Iterator<Document> iterator() {
+    return stream().iterator();
+  }
+
+  /**
+   * @return a Dataset that holds all Documents in memory
+   */
+  public Dataset createDataset(String name) {
+    Dataset dataset = new Dataset(name);
+    Iterator<Document> it = iterator();
+    while(it.hasNext()) dataset.addDocument(it.next());
+    return dataset;
+  }
+
+  /**
+   * Write all Documents as WikiSection JSON array with constant memory.
+   * @return number of Documents written
+   */
+  public long writeJSON(OutputStream out) throws IOException {
+    JsonGenerator json = ObjectSerializer.getObjectMapper().getFactory().createGenerator(out, JsonEncoding.UTF8);
+    json.writeStartArray();
+    for(long i = 0; i < numDocuments; i++) {
+      json.writeTree(createRecord(i));
+      if(i % 100000 == 99999) log.info("Generated {} documents", i + 1);
+    }
+    json.writeEndArray();
+    json.flush();
+    return numDocuments;
+  }
+
+  /**
+   * Write all Documents as JSON lines (one WikiSection object per line) with constant memory.
+   * @return number of Documents written
+   */
+  public long writeJSONL(OutputStream out) throws IOException {
+    ObjectMapper mapper = ObjectSerializer.getObjectMapper();
+    byte[] newline = "\n".getBytes(StandardCharsets.UTF_8);
+    for(long i = 0; i < numDocuments; i++) {
+      out.write(mapper.writeValueAsBytes(createRecord(i)));
+      out.write(newline);
+      if(i % 100000 == 99999) log.info("Generated {} documents", i + 1);
+    }
+    out.flush();
+    return numDocuments;
+  }
+
+  /**
+   * @return the pseudo-word of given frequency rank, words of higher rank are longer
+   */
+  public static String getWord(int rank) {
+    // skip single syllables, which are likely to be stop words
+    int n = rank + SYLLABLES;
+    StringBuilder word = new StringBuilder();
+    while(n > 0) {
+      int syllable = n % SYLLABLES;
+      word.append(CONSONANTS.charAt(syllable / VOWELS.length())).append(VOWELS.charAt(syllable % VOWELS.length()));
+      n /= SYLLABLES;
+    }
+    return word.toString();
+  }
+
+  /**
+   * @param label index of the section label, or -1 for words without topic
+   */
+  protected String nextWord(Random random, int label) {
+    if(cumulative == null) initDistribution();
+    int rank = Arrays.binarySearch(cumulative, random.nextDouble());
+    if(rank < 0) rank = -rank - 1;
+    rank = Math.min(rank, vocabularySize - 1);
+    if(label >= 0 && random.nextDouble() < topicality) {
+      rank = (int) ((rank + (label + 1L) * vocabularySize / (labels.size() + 1)) % vocabularySize);
+    }
+    return getWord(rank);
+  }
+
+  protected String nextSentences(Random random, int numSentences, int label) {
+    StringBuilder text = new StringBuilder();
+    for(int s = 0; s < numSentences; s++) {
+      int length = minWords + random.nextInt(maxWords - minWords + 1);
+      for(int w = 0; w < length; w++) {
+        String word = nextWord(random, label);
+        text.append(w == 0 ? capitalize(word) : " " + word);
+      }
+      // one sentence per line, so that the sentence splitter does not merge pseudo-words
+      text.append(".\n");
+    }
+    return text.toString();
+  }
+
+  protected synchronized void initDistribution() {
+    if(cumulative != null) return;
+    double[] dist = new double[vocabularySize];
+    double sum = 0;
+    for(int i = 0; i < vocabularySize; i++) dist[i] = (sum += 1. / Math.pow(i + 1, zipfExponent));
+    for(int i = 0; i < vocabularySize; i++) dist[i] /= sum;
+    cumulative = dist;
+  }
+
+  protected static String capitalize(String word) {
+    return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+  }
+
+  protected static void checkRange(int min, int max, String name) {
+    if(min <= 0 || max < min) throw new IllegalArgumentException("invalid number of " + name + ": " + min + "-" + max);
+  }
+
+}
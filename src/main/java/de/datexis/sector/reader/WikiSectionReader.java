@@ -3,6 +3,7 @@ package de.datexis.sector.reader;
 import de.datexis.sector.model.WikiDocument;
 import de.datexis.common.ObjectSerializer;
 import de.datexis.common.Resource;
+import de.datexis.common.StringTable;
 import de.datexis.model.Annotation;
 import de.datexis.model.Dataset;
 import de.datexis.model.Document;
@@ -29,9 +30,18 @@ public class WikiSectionReader implements DatasetReader {
   }
   
   public static Dataset readDatasetFromJSON(Resource path) throws IOException {
+    return readDatasetFromJSON(path, false);
+  }
+  
+  /**
+   * @param compact store the Tokens of all Documents in compact form while reading, sharing one StringTable
+   * @see Document#compact(StringTable)
+   */
+  public static Dataset readDatasetFromJSON(Resource path, boolean compact) throws IOException {
     log.info("Reading Wiki Articles from {}", path.toString());
     ObjectSerializer.getObjectMapper().registerSubtypes(SectionAnnotation.class);
     Dataset result = new Dataset(path.getFileName().replace(".json", ""));
+    StringTable strings = compact ? new StringTable() : null;
     Iterator<Document> it = ObjectSerializer.readJSONDocumentIterable(path);
     while(it.hasNext()) {
       Document doc = it.next();
@@ -39,7 +49,7 @@ public class WikiSectionReader implements DatasetReader {
         ann.setSource(Annotation.Source.GOLD);
         ann.setConfidence(1.0);
       }
-      if(!doc.isEmpty()) result.addDocument(doc);
+      if(!doc.isEmpty()) result.addDocument(compact ? doc.compact(strings) : doc);
       else log.warn("read empty document {}", doc.getId());
     }
     return result;
@@ -0,0 +1,147 @@
+package de.datexis.sector.service;
+
+import de.datexis.model.Document;
+import de.datexis.sector.SectorAnnotator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces Documents from concurrent requests into a single forward pass. Documents are put into a bounded queue
+ * and a single worker thread collects up to maxBatchSize Documents, waiting at most maxWait milliseconds after the
+ * first Document arrived, before annotating them together. The Annotator is only accessed from the worker thread.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class MicroBatcher implements AutoCloseable {
+
+  protected final static Logger log = LoggerFactory.getLogger(MicroBatcher.class);
+
+  protected final SectorAnnotator annotator;
+  protected final SectorAnnotator.SegmentationMethod segmentation;
+  protected final BlockingQueue<Request> queue;
+  protected final ServiceMetrics metrics;
+  protected final int maxBatchSize;
+  protected final long maxWait;
+  protected final Thread worker;
+  protected volatile boolean running = true;
+
+  protected static class Request {
+    protected final Document doc;
+    protected final CompletableFuture<Document> result = new CompletableFuture<>();
+    protected Request(Document doc) {
+      this.doc = doc;
+    }
+  }
+
+  /**
+   * @param maxBatchSize maximum number of Documents per batch, should not exceed the Tagger's batch size
+   * @param maxWait maximum time in milliseconds to wait for a batch to fill up
+   * @param queueSize maximum number of waiting Documents, further requests are rejected
+   */
+  public MicroBatcher(SectorAnnotator annotator, SectorAnnotator.SegmentationMethod segmentation, int maxBatchSize, long maxWait, int queueSize, ServiceMetrics metrics) {
+    if(maxBatchSize <= 0) throw new IllegalArgumentException("batch size must be positive");
+    this.annotator = annotator;
+    this.segmentation = segmentation;
+    this.maxBatchSize = maxBatchSize;
+    this.maxWait = maxWait;
+    this.queue = new ArrayBlockingQueue<>(queueSize);
+    this.metrics = metrics;
+    this.worker = new Thread(this::run, "sector-batcher");
+    this.worker.setDaemon(true);
+    this.worker.start();
+  }
+
+  /**
+   * Enqueue Documents for annotation. Either all or none of the Documents are enqueued. Cancelled futures are
+   * skipped by the worker, so callers should cancel the remaining futures if they stop waiting.
+   * @return futures that complete with the annotated Documents
+   * @throws RejectedExecutionException if the queue is full or the batcher was closed
+   */
+  public synchronized List<CompletableFuture<Document>> submit(List<Document> docs) {
+    if(!running) throw new RejectedExecutionException("batcher is closed");
+    if(queue.remainingCapacity() < docs.size()) {
+      metrics.recordRejected();
+      throw new RejectedExecutionException("request queue is full");
+    }
+    List<Request> requests = new ArrayList<>(docs.size());
+    for(Document doc : docs) {
+      Request req = new Request(doc);
+      if(!queue.offer(req)) {
+        // the worker only takes from the queue, but remove what was enqueued if capacity was used otherwise
+        queue.removeAll(requests);
+        metrics.recordRejected();
+        throw new RejectedExecutionException("request queue is full");
+      }
+      requests.add(req);
+    }
+    List<CompletableFuture<Document>> results = new ArrayList<>(requests.size());
+    for(Request req : requests) results.add(req.result);
+    return results;
+  }
+
+  protected void run() {
+    List<Request> batch = new ArrayList<>(maxBatchSize);
+    while(running) {
+      try {
+        Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+        if(first == null) continue;
+        batch.add(first);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWait);
+        while(batch.size() < maxBatchSize) {
+          long remaining = deadline - System.nanoTime();
+          Request next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+          if(next == null) break;
+          batch.add(next);
+        }
+        annotateBatch(batch);
+      } catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      } finally {
+        batch.clear();
+      }
+    }
+    // fail all requests that are still waiting
+    Request req;
+    while((req = queue.poll()) != null) req.result.completeExceptionally(new RejectedExecutionException("batcher is closed"));
+  }
+
+  protected void annotateBatch(List<Request> batch) {
+    batch.removeIf(req -> req.result.isDone()); // cancelled by the caller
+    if(batch.isEmpty()) return;
+    List<Document> docs = new ArrayList<>(batch.size());
+    for(Request req : batch) docs.add(req.doc);
+    try {
+      annotator.annotate(docs, segmentation);
+      metrics.recordBatch(docs.size(), maxBatchSize);
+      for(Request req : batch) req.result.complete(req.doc);
+    } catch(Exception e) {
+      log.error("Error annotating batch: {}", e.toString());
+      for(Request req : batch) {
+        metrics.recordFailed();
+        req.result.completeExceptionally(e);
+      }
+    }
+  }
+
+  public int getQueueLength() {
+    return queue.size();
+  }
+
+  @Override
+  public void close() {
+    running = false;
+    try {
+      worker.join(TimeUnit.SECONDS.toMillis(10));
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
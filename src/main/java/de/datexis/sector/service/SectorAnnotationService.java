@@ -0,0 +1,234 @@
+package de.datexis.sector.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import de.datexis.common.ObjectSerializer;
+import de.datexis.model.Annotation;
+import de.datexis.model.Document;
+import de.datexis.preprocess.DocumentFactory;
+import de.datexis.sector.SectorAnnotator;
+import de.datexis.sector.model.SectionAnnotation;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A lightweight HTTP/JSON annotation service bound to localhost. Concurrent requests are coalesced into
+ * shared forward passes by a MicroBatcher. Endpoints:
+ * <ul>
+ * <li>POST /annotate with {"text":"..."} or {"documents":[{"id":"...","text":"..."}]} returns the
+ * predicted sections per document</li>
+ * <li>GET /metrics returns request latency percentiles and batch fill</li>
+ * </ul>
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class SectorAnnotationService implements AutoCloseable {
+
+  protected final static Logger log = LoggerFactory.getLogger(SectorAnnotationService.class);
+
+  protected final SectorAnnotator annotator;
+  protected final ServiceMetrics metrics = new ServiceMetrics();
+
+  protected SectorAnnotator.SegmentationMethod segmentation = SectorAnnotator.SegmentationMethod.BEMD;
+  protected int port = 0;
+  protected int maxBatchSize;
+  protected long maxWait = 10;
+  protected int queueSize = 1024;
+  protected int numThreads = 16;
+  protected long requestTimeout = 60000;
+
+  protected HttpServer server;
+  protected ExecutorService executor;
+  protected MicroBatcher batcher;
+
+  public SectorAnnotationService(SectorAnnotator annotator) {
+    this.annotator = annotator;
+    this.maxBatchSize = annotator.getTagger().getBatchSize();
+  }
+
+  /**
+   * @param port local port, or 0 to choose a free port
+   */
+  public SectorAnnotationService withPort(int port) {
+    this.port = port;
+    return this;
+  }
+
+  /**
+   * @param maxBatchSize maximum number of Documents per forward pass
+   * @param maxWait maximum time in milliseconds to wait for further Documents
+   */
+  public SectorAnnotationService withBatching(int maxBatchSize, long maxWait) {
+    this.maxBatchSize = maxBatchSize;
+    this.maxWait = maxWait;
+    return this;
+  }
+
+  public SectorAnnotationService withQueueSize(int queueSize) {
+    this.queueSize = queueSize;
+    return this;
+  }
+
+  /**
+   * @param numThreads number of HTTP handler threads, i.e. maximum number of concurrently waiting requests
+   */
+  public SectorAnnotationService withThreads(int numThreads) {
+    this.numThreads = numThreads;
+    return this;
+  }
+
+  public SectorAnnotationService withSegmentation(SectorAnnotator.SegmentationMethod segmentation) {
+    this.segmentation = segmentation;
+    return this;
+  }
+
+  /**
+   * Start the service on the loopback interface.
+   * @return the bound port
+   */
+  public int start() throws IOException {
+    batcher = new MicroBatcher(annotator, segmentation, maxBatchSize, maxWait, queueSize, metrics);
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    executor = Executors.newFixedThreadPool(numThreads);
+    server.setExecutor(executor);
+    server.createContext("/annotate", this::handleAnnotate);
+    server.createContext("/metrics", this::handleMetrics);
+    server.start();
+    log.info("SECTOR service listening on http://localhost:{}/annotate", getPort());
+    return getPort();
+  }
+
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  public ServiceMetrics getMetrics() {
+    return metrics;
+  }
+
+  protected void handleAnnotate(HttpExchange exchange) throws IOException {
+    long start = System.nanoTime();
+    List<CompletableFuture<Document>> results = Collections.emptyList();
+    try {
+      if(!exchange.getRequestMethod().equals("POST")) {
+        sendJSON(exchange, 405, Collections.singletonMap("error", "POST required"));
+        return;
+      }
+      List<Document> docs = readDocuments(exchange.getRequestBody());
+      results = batcher.submit(docs);
+      List<Object> response = new ArrayList<>(docs.size());
+      for(CompletableFuture<Document> result : results) {
+        response.add(getSections(result.get(requestTimeout, TimeUnit.MILLISECONDS)));
+      }
+      metrics.recordLatency(System.nanoTime() - start);
+      sendJSON(exchange, 200, Collections.singletonMap("documents", response));
+    } catch(RejectedExecutionException e) {
+      sendJSON(exchange, 503, Collections.singletonMap("error", e.getMessage()));
+    } catch(IllegalArgumentException e) {
+      sendJSON(exchange, 400, Collections.singletonMap("error", e.getMessage()));
+    } catch(ExecutionException | TimeoutException e) {
+      sendJSON(exchange, 500, Collections.singletonMap("error", e.toString()));
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      sendJSON(exchange, 500, Collections.singletonMap("error", e.toString()));
+    } catch(RuntimeException e) {
+      log.error("Error handling annotation request: {}", e.toString());
+      sendJSON(exchange, 500, Collections.singletonMap("error", e.toString()));
+    } finally {
+      // Documents that are still queued after a failure or timeout are skipped by the batcher
+      for(CompletableFuture<Document> result : results) result.cancel(false);
+    }
+  }
+
+  protected void handleMetrics(HttpExchange exchange) throws IOException {
+    Map<String,Object> result = metrics.toMap();
+    result.put("queue", batcher.getQueueLength());
+    sendJSON(exchange, 200, result);
+  }
+
+  /**
+   * Parse a request body into Documents.
+   */
+  protected static List<Document> readDocuments(InputStream body) throws IOException {
+    JsonNode root;
+    try {
+      root = ObjectSerializer.getObjectMapper().readTree(body);
+    } catch(IOException e) {
+      throw new IllegalArgumentException("invalid JSON: " + e.getMessage());
+    }
+    List<Document> docs = new ArrayList<>();
+    if(root == null) throw new IllegalArgumentException("empty request");
+    if(root.has("documents")) {
+      for(JsonNode node : root.get("documents")) docs.add(readDocument(node));
+    } else {
+      docs.add(readDocument(root));
+    }
+    return docs;
+  }
+
+  protected static Document readDocument(JsonNode node) {
+    if(!node.has("text")) throw new IllegalArgumentException("document without text");
+    Document doc = DocumentFactory.fromText(node.get("text").asText(), DocumentFactory.Newlines.KEEP);
+    if(node.has("id")) doc.setId(node.get("id").asText());
+    return doc;
+  }
+
+  /**
+   * @return id, number of sentences and predicted sections of a Document
+   */
+  public static Map<String,Object> getSections(Document doc) {
+    List<Map<String,Object>> sections = new ArrayList<>();
+    doc.streamAnnotations(Annotation.Source.PRED, SectionAnnotation.class)
+      .sorted(Comparator.comparingInt(SectionAnnotation::getBegin))
+      .forEach(ann -> {
+        Map<String,Object> section = new LinkedHashMap<>();
+        section.put("begin", ann.getBegin());
+        section.put("end", ann.getEnd());
+        section.put("label", ann.getSectionLabelOrHeading());
+        section.put("confidence", ann.getConfidence());
+        sections.add(section);
+      });
+    Map<String,Object> result = new LinkedHashMap<>();
+    if(doc.getId() != null) result.put("id", doc.getId());
+    result.put("sentences", doc.countSentences());
+    result.put("sections", sections);
+    return result;
+  }
+
+  protected static void sendJSON(HttpExchange exchange, int status, Object response) throws IOException {
+    byte[] bytes = ObjectSerializer.getJSONRaw(response).getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try(OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  @Override
+  public void close() {
+    if(server != null) server.stop(0);
+    if(batcher != null) batcher.close();
+    if(executor != null) executor.shutdownNow();
+    log.info("SECTOR service stopped [{}]", metrics.toString());
+  }
+
+}
@@ -0,0 +1,115 @@
+package de.datexis.sector.service;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Request latency and batch fill statistics of an annotation service.
+ * Latency percentiles are calculated over a sliding window of the most recent requests.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class ServiceMetrics {
+
+  protected final long[] latencies;
+  protected int latencyCount = 0;
+  protected int latencyIndex = 0;
+
+  protected long requests = 0;
+  protected long rejected = 0;
+  protected long failed = 0;
+  protected long batches = 0;
+  protected long batchedDocuments = 0;
+  protected long batchCapacity = 0;
+
+  public ServiceMetrics() {
+    this(10000);
+  }
+
+  /**
+   * @param window number of recent requests used for latency percentiles
+   */
+  public ServiceMetrics(int window) {
+    this.latencies = new long[window];
+  }
+
+  public synchronized void recordLatency(long nanos) {
+    requests++;
+    latencies[latencyIndex] = nanos;
+    latencyIndex = (latencyIndex + 1) % latencies.length;
+    if(latencyCount < latencies.length) latencyCount++;
+  }
+
+  public synchronized void recordBatch(int size, int capacity) {
+    batches++;
+    batchedDocuments += size;
+    batchCapacity += capacity;
+  }
+
+  public synchronized void recordRejected() {
+    rejected++;
+  }
+
+  public synchronized void recordFailed() {
+    failed++;
+  }
+
+  /**
+   * @param p percentile in [0,100]
+   * @return latency in milliseconds
+   */
+  public synchronized double getLatencyPercentile(double p) {
+    if(latencyCount == 0) return 0.;
+    long[] sorted = Arrays.copyOf(latencies, latencyCount);
+    Arrays.sort(sorted);
+    int idx = (int) Math.ceil(p / 100. * latencyCount) - 1;
+    return sorted[Math.max(0, Math.min(latencyCount - 1, idx))] / 1e6;
+  }
+
+  public synchronized long getRequests() {
+    return requests;
+  }
+
+  public synchronized long getRejected() {
+    return rejected;
+  }
+
+  public synchronized long getFailed() {
+    return failed;
+  }
+
+  public synchronized long getBatches() {
+    return batches;
+  }
+
+  public synchronized double getAverageBatchSize() {
+    return batches > 0 ? (double) batchedDocuments / batches : 0.;
+  }
+
+  /**
+   * @return fraction of batch capacity that was filled with documents
+   */
+  public synchronized double getBatchFillRatio() {
+    return batchCapacity > 0 ? (double) batchedDocuments / batchCapacity : 0.;
+  }
+
+  public synchronized Map<String,Object> toMap() {
+    Map<String,Object> result = new LinkedHashMap<>();
+    result.put("requests", requests);
+    result.put("rejected", rejected);
+    result.put("failed", failed);
+    result.put("batches", batches);
+    result.put("avgBatchSize", getAverageBatchSize());
+    result.put("batchFill", getBatchFillRatio());
+    result.put("latencyP50", getLatencyPercentile(50));
+    result.put("latencyP99", getLatencyPercentile(99));
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("requests=%d rejected=%d batches=%d avgBatchSize=%.2f fill=%.2f p50=%.1fms p99=%.1fms",
+      getRequests(), getRejected(), getBatches(), getAverageBatchSize(), getBatchFillRatio(), getLatencyPercentile(50), getLatencyPercentile(99));
+  }
+
+}
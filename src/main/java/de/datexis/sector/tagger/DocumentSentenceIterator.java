@@ -1,14 +1,21 @@
 package de.datexis.sector.tagger;
 
+import de.datexis.common.MetricsRegistry;
 import de.datexis.model.Dataset;
 import de.datexis.model.Document;
+import de.datexis.model.ShardedDataset;
+import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.IOUtils;
 import org.nd4j.linalg.dataset.api.MultiDataSet;
 import org.nd4j.linalg.dataset.api.MultiDataSetPreProcessor;
 import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
@@ -27,6 +34,9 @@ public abstract class DocumentSentenceIterator implements MultiDataSetIterator {
   
   protected List<Document> documents;
   protected Iterator<Document> docIt;
+  // stream Documents from disk instead of the in-memory list, disabled if null
+  protected ShardedDataset shards = null;
+  protected int shuffleBufferSize = 4096;
   
   protected int numExamples;
   protected int batchSize = -1;
@@ -37,6 +47,14 @@ public abstract class DocumentSentenceIterator implements MultiDataSetIterator {
   
   protected Stage stage;
   
+  // dynamic batching bounded by number of padded timesteps per batch, disabled if <= 0
+  protected long timestepBudget = -1;
+  // number of Documents that are sorted by length before batching in randomized mode
+  protected int sortPoolSize = 1024;
+  protected Iterator<List<Document>> batchIt;
+  protected final BatchStatistics stats = new BatchStatistics();
+  protected MetricsRegistry metrics = null;
+  
   public DocumentSentenceIterator(Stage stage, Dataset dataset, int batchSize, boolean randomize) {
     this(stage, dataset.getDocuments(), batchSize, randomize);
   }
@@ -54,6 +72,17 @@ public abstract class DocumentSentenceIterator implements MultiDataSetIterator {
     this.stage = stage;
   }
   
+  /**
+   * Stream Documents lazily from disk. In randomized mode, Documents are shuffled approximately using a buffer of
+   * shuffleBufferSize Documents, so that only the buffer (and the sort pool) is held in memory.
+   */
+  public DocumentSentenceIterator(Stage stage, ShardedDataset shards, int numExamples, int maxTimeSeriesLength, int batchSize, boolean randomize, int shuffleBufferSize) {
+    this(stage, Collections.emptyList(), -1, maxTimeSeriesLength, batchSize, randomize);
+    this.shards = shards;
+    this.shuffleBufferSize = shuffleBufferSize;
+    this.numExamples = numExamples > 0 && numExamples <= shards.countDocuments() ? numExamples : shards.countDocuments();
+  }
+  
   @Override
   public boolean asyncSupported() {
     return true;
@@ -67,11 +96,131 @@ public abstract class DocumentSentenceIterator implements MultiDataSetIterator {
   @Override
   public final void reset() {
     cursor = 0;
-    if(randomize) Collections.shuffle(documents, new Random(System.nanoTime()));
-    docIt = documents.iterator();
+    if(docIt instanceof Closeable) IOUtils.closeQuietly((Closeable) docIt);
+    if(randomize && shards == null) Collections.shuffle(documents, new Random(System.nanoTime()));
+    docIt = createDocumentIterator();
+    if(timestepBudget <= 0) batchIt = null;
+    else if(shards != null) batchIt = new PooledBudgetBatchIterator();
+    else batchIt = createBudgetBatches().iterator();
+    stats.reset();
     startTime = System.currentTimeMillis();
   }
   
+  /**
+   * Enable dynamic batching: every batch contains as many Documents as fit into the given number of
+   * timesteps (batch size * longest Document in the batch). Documents are sorted by length to reduce padding.
+   * In randomized mode, Documents are sorted in pools of sortPoolSize and the order of batches is shuffled.
+   * @param timestepBudget maximum number of padded timesteps per batch, or -1 to use fixed batch size
+   */
+  public DocumentSentenceIterator withTimestepBudget(long timestepBudget) {
+    this.timestepBudget = timestepBudget;
+    reset();
+    return this;
+  }
+  
+  public DocumentSentenceIterator withSortPoolSize(int sortPoolSize) {
+    this.sortPoolSize = sortPoolSize;
+    reset();
+    return this;
+  }
+  
+  /**
+   * Record the time to generate each batch in the given registry.
+   */
+  public DocumentSentenceIterator withMetrics(MetricsRegistry metrics) {
+    this.metrics = metrics;
+    return this;
+  }
+  
+  public long getTimestepBudget() {
+    return timestepBudget;
+  }
+  
+  /**
+   * @return number of timesteps that are used to encode the given Document
+   */
+  protected int getTimestepLength(Document doc) {
+    int length = Math.max(1, doc.countSentences());
+    return maxTimeSeriesLength > 0 ? Math.min(length, maxTimeSeriesLength) : length;
+  }
+  
+  /**
+   * Split all remaining examples of this epoch into batches that fit into the timestep budget.
+   */
+  protected List<List<Document>> createBudgetBatches() {
+    List<Document> examples = new ArrayList<>();
+    while(docIt.hasNext() && examples.size() < numExamples) examples.add(docIt.next());
+    List<List<Document>> batches = new ArrayList<>();
+    int poolSize = randomize && sortPoolSize > 0 ? sortPoolSize : Math.max(1, examples.size());
+    for(int from = 0; from < examples.size(); from += poolSize) {
+      List<Document> pool = new ArrayList<>(examples.subList(from, Math.min(from + poolSize, examples.size())));
+      addBudgetBatches(pool, batches);
+    }
+    if(randomize) Collections.shuffle(batches, new Random(System.nanoTime()));
+    return batches;
+  }
+  
+  /**
+   * Sort a pool of Documents by length and split it into batches that fit into the timestep budget.
+   */
+  protected void addBudgetBatches(List<Document> pool, List<List<Document>> batches) {
+    pool.sort(Comparator.comparingInt(this::getTimestepLength));
+    List<Document> batch = new ArrayList<>();
+    int batchLength = 0;
+    for(Document doc : pool) {
+      int length = Math.max(batchLength, getTimestepLength(doc));
+      if(!batch.isEmpty() && (long) (batch.size() + 1) * length > timestepBudget) {
+        batches.add(batch);
+        batch = new ArrayList<>();
+        length = getTimestepLength(doc);
+      }
+      batch.add(doc);
+      batchLength = length;
+    }
+    if(!batch.isEmpty()) batches.add(batch);
+  }
+  
+  /**
+   * Creates budget batches lazily from pools of sortPoolSize streamed Documents, so that the epoch is never
+   * held in memory. The order of batches is only shuffled within each pool.
+   */
+  protected class PooledBudgetBatchIterator implements Iterator<List<Document>> {
+    
+    protected final List<List<Document>> batches = new ArrayList<>();
+    protected int pulled = 0;
+    
+    @Override
+    public boolean hasNext() {
+      if(batches.isEmpty()) {
+        List<Document> pool = new ArrayList<>();
+        int poolSize = sortPoolSize > 0 ? sortPoolSize : 1024;
+        while(docIt.hasNext() && pulled < numExamples && pool.size() < poolSize) {
+          pool.add(docIt.next());
+          pulled++;
+        }
+        addBudgetBatches(pool, batches);
+        if(randomize) Collections.shuffle(batches, new Random(System.nanoTime()));
+      }
+      return !batches.isEmpty();
+    }
+    
+    @Override
+    public List<Document> next() {
+      if(!hasNext()) throw new NoSuchElementException();
+      return batches.remove(batches.size() - 1);
+    }
+    
+  }
+  
+  /**
+   * Called on every reset() to create the iterator over all examples of the next epoch.
+   * Override this to return other examples than the (shuffled) list of Documents.
+   */
+  protected Iterator<Document> createDocumentIterator() {
+    if(shards != null) return shards.iterator(randomize, shuffleBufferSize, null);
+    return documents.iterator();
+  }
+  
   protected boolean hasNextDocument() {
     return docIt != null && docIt.hasNext();
   }
@@ -86,6 +235,7 @@ public abstract class DocumentSentenceIterator implements MultiDataSetIterator {
   
   @Override
   public boolean hasNext() {
+    if(batchIt != null) return batchIt.hasNext();
     return hasNextDocument() && !reachedEnd();
   }
   
@@ -100,6 +250,7 @@ public abstract class DocumentSentenceIterator implements MultiDataSetIterator {
    * @return List of Documents and the size of the longest document (in Sentences)
    */
   protected DocumentBatch nextBatch(int num) {
+    if(batchIt != null) return nextBudgetBatch();
     Document example;
     ArrayList<Document> examples = new ArrayList<>(num);
     int exampleSize = 1; // guarantee to to not return a zero-size dataset
@@ -113,6 +264,19 @@ public abstract class DocumentSentenceIterator implements MultiDataSetIterator {
     return new DocumentBatch(num, examples, exampleSize, null);
   }
   
+  /**
+   * Returns the next batch of documents that fits into the timestep budget. The size of the batch may vary.
+   */
+  protected DocumentBatch nextBudgetBatch() {
+    List<Document> examples = batchIt.next();
+    int exampleSize = 1;
+    for(Document example : examples) {
+      cursor++;
+      exampleSize = Math.max(exampleSize, getTimestepLength(example));
+    }
+    return new DocumentBatch(examples.size(), examples, exampleSize, null);
+  }
+  
   public class DocumentBatch {
     public List<Document> docs;
     public MultiDataSet dataset;
@@ -142,9 +306,11 @@ public abstract class DocumentSentenceIterator implements MultiDataSetIterator {
   }
   
   public DocumentBatch nextDocumentBatch(int num) {
+    long start = System.nanoTime();
     DocumentBatch batch = nextBatch(num);
     batch.dataset = generateDataSet(batch);
-    reportProgress(batch.maxDocLength);
+    if(metrics != null) metrics.histogram(TrainingMetricsListener.BATCH_TIME).record((System.nanoTime() - start) / 1e6);
+    reportProgress(batch);
     return batch;
   }
   
@@ -161,6 +327,20 @@ public abstract class DocumentSentenceIterator implements MultiDataSetIterator {
     return numExamples;
   }
 
+  /**
+   * @return statistics about the batches returned in the current epoch
+   */
+  public BatchStatistics getBatchStatistics() {
+    return stats;
+  }
+  
+  protected void reportProgress(DocumentBatch batch) {
+    int timesteps = 0;
+    for(Document doc : batch.docs) timesteps += doc.countSentences() > 0 ? getTimestepLength(doc) : 0;
+    stats.add(batch.docs.size(), timesteps, (long) batch.size * batch.maxDocLength);
+    reportProgress(batch.maxDocLength);
+  }
+  
   protected void reportProgress(int maxLength) {
     //if(stage.equals(Stage.TEST)) Nd4j.getWorkspaceManager().printAllocationStatisticsForCurrentThread();
     String timeStr = "??";
@@ -178,9 +358,60 @@ public abstract class DocumentSentenceIterator implements MultiDataSetIterator {
     }
 		int progress = (int) ((float) cursor * 100 / numExamples);
     // TODO: add a warning if batch length was truncated!
-    log.debug("{}: returning {}/{} examples in [{}%, {} remaining] [batch length {}]", stage.toString(), cursor, numExamples, progress, timeStr, maxLength);
+    log.debug("{}: returning {}/{} examples in [{}%, {} remaining] [batch length {}, {}]", stage.toString(), cursor, numExamples, progress, timeStr, maxLength, stats.toString());
 	}
   
+  /**
+   * Statistics about the size and padding of returned batches.
+   */
+  public static class BatchStatistics {
+    
+    protected long batches, examples, timesteps, paddedTimesteps, maxPaddedTimesteps;
+    
+    protected synchronized void reset() {
+      batches = examples = timesteps = paddedTimesteps = maxPaddedTimesteps = 0;
+    }
+    
+    protected synchronized void add(int numExamples, long numTimesteps, long numPaddedTimesteps) {
+      batches++;
+      examples += numExamples;
+      timesteps += numTimesteps;
+      paddedTimesteps += numPaddedTimesteps;
+      maxPaddedTimesteps = Math.max(maxPaddedTimesteps, numPaddedTimesteps);
+    }
+    
+    public synchronized long getBatches() {
+      return batches;
+    }
+    
+    /** @return average number of examples per batch */
+    public synchronized double getAverageBatchSize() {
+      return batches > 0 ? (double) examples / batches : 0.;
+    }
+    
+    /** @return average number of padded timesteps per batch */
+    public synchronized double getAverageBatchTimesteps() {
+      return batches > 0 ? (double) paddedTimesteps / batches : 0.;
+    }
+    
+    /** @return largest number of padded timesteps in a batch */
+    public synchronized long getMaxBatchTimesteps() {
+      return maxPaddedTimesteps;
+    }
+    
+    /** @return ratio of used timesteps to padded timesteps (1.0 means no padding) */
+    public synchronized double getFillRatio() {
+      return paddedTimesteps > 0 ? (double) timesteps / paddedTimesteps : 0.;
+    }
+    
+    @Override
+    public synchronized String toString() {
+      return String.format(Locale.ROOT, "avg %.1f examples, avg %.0f/max %d timesteps, %.1f%% filled",
+        getAverageBatchSize(), getAverageBatchTimesteps(), getMaxBatchTimesteps(), getFillRatio() * 100);
+    }
+    
+  }
+  
   public abstract MultiDataSet generateDataSet(DocumentBatch batch);
   
 }
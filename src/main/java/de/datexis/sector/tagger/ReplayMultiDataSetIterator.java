@@ -0,0 +1,376 @@
+package de.datexis.sector.tagger;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.MultiDataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records all MultiDataSets (features, labels and masks) of the first epoch of a source iterator into a binary
+ * shard file and replays them from disk using memory-mapped I/O in all subsequent epochs. Batches are prefetched
+ * by a background thread in both modes.
+ * The shard is named by a key that identifies the source data and encoders (see SectorTaggerIterator.getReplayKey()),
+ * so that shards of changed encoders are invalidated and removed. Only sources that generate the same examples in every
+ * epoch should be replayed (see SectorTaggerIterator.isReplayable()). If the shards in the replay directory would exceed
+ * the disk budget, recording is cancelled and all epochs are generated by the source iterator.
+ * Shard file record: [int length][MultiDataSet]. Index file: [UTF key][int count][count x long offset].
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class ReplayMultiDataSetIterator implements MultiDataSetIterator, AutoCloseable {
+
+  protected final static Logger log = LoggerFactory.getLogger(ReplayMultiDataSetIterator.class);
+
+  protected static enum Mode { RECORD, REPLAY, PASSTHROUGH };
+
+  /** marks the end of an epoch in the prefetch queue */
+  protected static final Object END = new Object();
+
+  protected final MultiDataSetIterator source;
+  protected final Path directory;
+  protected final String name;
+  protected final String key;
+  protected final Path dataFile;
+  protected final Path indexFile;
+
+  protected long diskBudget = Long.MAX_VALUE;
+  protected int prefetchSize = 4;
+  protected boolean shuffle = false;
+  protected MultiDataSetPreProcessor preProcessor;
+
+  protected Mode mode;
+  protected List<Long> offsets;
+  protected BlockingQueue<Object> queue;
+  protected Thread worker;
+  protected MultiDataSet nextDataSet;
+  protected boolean started, finished;
+
+  /**
+   * @param source the iterator that generates the DataSets of the first epoch
+   * @param directory replay directory that contains all shards
+   * @param name name of the shard, e.g. "train" or "validation"
+   * @param key content key of the source data and encoders
+   */
+  public ReplayMultiDataSetIterator(MultiDataSetIterator source, Path directory, String name, String key) {
+    this.source = source;
+    this.directory = directory;
+    this.name = name;
+    this.key = key;
+    String fileName = name + "-" + key.substring(0, Math.min(16, key.length()));
+    this.dataFile = directory.resolve(fileName + ".bin");
+    this.indexFile = directory.resolve(fileName + ".idx");
+    this.offsets = readIndex();
+    this.mode = offsets != null ? Mode.REPLAY : Mode.RECORD;
+    if(mode == Mode.REPLAY) log.info("Replaying {} batches from {}", offsets.size(), dataFile);
+  }
+
+  /**
+   * Cancel recording if all shards in the replay directory would exceed the given number of bytes.
+   */
+  public ReplayMultiDataSetIterator withDiskBudget(long bytes) {
+    this.diskBudget = bytes > 0 ? bytes : Long.MAX_VALUE;
+    return this;
+  }
+
+  /**
+   * @param batches number of batches that are prefetched by the background thread
+   */
+  public ReplayMultiDataSetIterator withPrefetch(int batches) {
+    this.prefetchSize = Math.max(1, batches);
+    return this;
+  }
+
+  /**
+   * Shuffle the order of replayed batches in every epoch. The contents of the batches stay fixed.
+   */
+  public ReplayMultiDataSetIterator withShuffle(boolean shuffle) {
+    this.shuffle = shuffle;
+    return this;
+  }
+
+  /**
+   * @return true if batches are read from the shard file
+   */
+  public boolean isReplaying() {
+    return mode == Mode.REPLAY;
+  }
+
+  /**
+   * @return the existing offsets of a complete shard with matching key, or null
+   */
+  protected List<Long> readIndex() {
+    if(!Files.exists(indexFile) || !Files.exists(dataFile)) return null;
+    try(DataInputStream in = new DataInputStream(Files.newInputStream(indexFile))) {
+      if(!in.readUTF().equals(key)) return null;
+      int count = in.readInt();
+      List<Long> result = new ArrayList<>(count);
+      for(int i = 0; i < count; i++) result.add(in.readLong());
+      return result;
+    } catch(IOException ex) {
+      log.warn("Could not read replay index {}: {}", indexFile, ex.toString());
+      return null;
+    }
+  }
+
+  protected void writeIndex(List<Long> offsets) throws IOException {
+    try(DataOutputStream out = new DataOutputStream(Files.newOutputStream(indexFile))) {
+      out.writeUTF(key);
+      out.writeInt(offsets.size());
+      for(long offset : offsets) out.writeLong(offset);
+    }
+  }
+
+  /**
+   * Remove shards with the same name but a different key, e.g. after the encoders changed.
+   * @return size of all other shards in the replay directory
+   */
+  protected long removeStaleShards() throws IOException {
+    long size = 0;
+    try(DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.{bin,idx}")) {
+      for(Path file : files) {
+        if(file.equals(dataFile) || file.equals(indexFile)) continue;
+        if(file.getFileName().toString().startsWith(name + "-")) {
+          log.info("Removing stale replay shard {}", file);
+          Files.delete(file);
+        } else {
+          size += Files.size(file);
+        }
+      }
+    }
+    return size;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if(!started) start();
+    if(nextDataSet == null && !finished) {
+      Object item;
+      try {
+        item = queue.take();
+      } catch(InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("interrupted while waiting for next batch", ex);
+      }
+      if(item == END) finished = true;
+      else if(item instanceof RuntimeException) throw (RuntimeException) item;
+      else nextDataSet = (MultiDataSet) item;
+    }
+    return nextDataSet != null;
+  }
+
+  @Override
+  public MultiDataSet next() {
+    if(!hasNext()) throw new NoSuchElementException();
+    MultiDataSet result = nextDataSet;
+    nextDataSet = null;
+    if(preProcessor != null) preProcessor.preProcess(result);
+    return result;
+  }
+
+  @Override
+  public MultiDataSet next(int num) {
+    return next();
+  }
+
+  protected void start() {
+    stop();
+    queue = new ArrayBlockingQueue<>(prefetchSize + 1);
+    nextDataSet = null;
+    finished = false;
+    started = true;
+    if(mode == Mode.REPLAY) worker = new Thread(this::replay, "replay-" + name);
+    else if(mode == Mode.RECORD) worker = new Thread(this::record, "record-" + name);
+    else worker = new Thread(this::passThrough, "prefetch-" + name);
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+  protected void stop() {
+    if(worker != null) {
+      worker.interrupt();
+      try {
+        worker.join();
+      } catch(InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      worker = null;
+    }
+  }
+
+  protected void replay() {
+    List<Long> order = new ArrayList<>(offsets);
+    if(shuffle) Collections.shuffle(order, new Random(System.nanoTime()));
+    try(FileChannel channel = FileChannel.open(dataFile, StandardOpenOption.READ)) {
+      for(long offset : order) {
+        ByteBuffer length = channel.map(FileChannel.MapMode.READ_ONLY, offset, 4);
+        ByteBuffer record = channel.map(FileChannel.MapMode.READ_ONLY, offset + 4, length.getInt(0));
+        org.nd4j.linalg.dataset.MultiDataSet data = new org.nd4j.linalg.dataset.MultiDataSet();
+        data.load(new ByteBufferInputStream(record));
+        queue.put(data);
+      }
+      queue.put(END);
+    } catch(InterruptedException ex) {
+      // epoch was cancelled
+    } catch(IOException | RuntimeException ex) {
+      offer(new IllegalStateException("could not replay batches from " + dataFile, ex));
+    }
+  }
+
+  protected void record() {
+    List<Long> recorded = new ArrayList<>();
+    boolean complete = false;
+    try {
+      Files.createDirectories(directory);
+      long others = removeStaleShards();
+      long available = diskBudget == Long.MAX_VALUE ? Long.MAX_VALUE : diskBudget - others;
+      Files.deleteIfExists(indexFile);
+      try(FileChannel channel = FileChannel.open(dataFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        boolean recording = true;
+        while(source.hasNext()) {
+          MultiDataSet data = source.next();
+          if(recording) {
+            bytes.reset();
+            data.save(bytes);
+            long offset = channel.position();
+            if(offset + 4 + bytes.size() > available) {
+              log.warn("Replay shard {} exceeds disk budget of {} bytes, batches will be generated in every epoch", dataFile, diskBudget);
+              recording = false;
+            } else {
+              ByteBuffer length = ByteBuffer.allocate(4).putInt(0, bytes.size());
+              while(length.hasRemaining()) channel.write(length);
+              bytes.writeTo(Channels.newOutputStream(channel));
+              recorded.add(offset);
+            }
+          }
+          queue.put(data);
+        }
+        complete = recording;
+      }
+      if(complete) {
+        writeIndex(recorded);
+        offsets = recorded;
+        mode = Mode.REPLAY;
+        log.info("Recorded {} batches ({} bytes) to {}", recorded.size(), Files.size(dataFile), dataFile);
+      } else {
+        Files.deleteIfExists(dataFile);
+        mode = Mode.PASSTHROUGH;
+      }
+      queue.put(END);
+    } catch(InterruptedException ex) {
+      // epoch was cancelled before the shard was complete, record again in the next epoch
+    } catch(IOException | RuntimeException ex) {
+      offer(new IllegalStateException("could not record batches to " + dataFile, ex));
+    } finally {
+      if(!complete) {
+        try {
+          Files.deleteIfExists(dataFile);
+        } catch(IOException ex) {
+          log.warn("Could not delete incomplete replay shard {}", dataFile);
+        }
+      }
+    }
+  }
+
+  protected void passThrough() {
+    try {
+      while(source.hasNext()) queue.put(source.next());
+      queue.put(END);
+    } catch(InterruptedException ex) {
+      // epoch was cancelled
+    } catch(RuntimeException ex) {
+      offer(ex);
+    }
+  }
+
+  private void offer(RuntimeException ex) {
+    queue.clear();
+    queue.offer(ex);
+  }
+
+  @Override
+  public void reset() {
+    stop();
+    started = false;
+    nextDataSet = null;
+    finished = false;
+    if(mode != Mode.REPLAY) source.reset();
+  }
+
+  @Override
+  public boolean resetSupported() {
+    return true;
+  }
+
+  @Override
+  public boolean asyncSupported() {
+    // batches are already prefetched in the background
+    return false;
+  }
+
+  @Override
+  public void setPreProcessor(MultiDataSetPreProcessor preProcessor) {
+    this.preProcessor = preProcessor;
+  }
+
+  @Override
+  public MultiDataSetPreProcessor getPreProcessor() {
+    return preProcessor;
+  }
+
+  @Override
+  public void close() {
+    stop();
+  }
+
+  /**
+   * Reads a memory-mapped record without copying it to the heap first.
+   */
+  protected static class ByteBufferInputStream extends InputStream {
+
+    protected final ByteBuffer buf;
+
+    public ByteBufferInputStream(ByteBuffer buf) {
+      this.buf = buf;
+    }
+
+    @Override
+    public int read() {
+      return buf.hasRemaining() ? buf.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int off, int len) {
+      if(!buf.hasRemaining()) return -1;
+      len = Math.min(len, buf.remaining());
+      buf.get(bytes, off, len);
+      return len;
+    }
+
+    @Override
+    public int available() {
+      return buf.remaining();
+    }
+
+  }
+
+}
@@ -1,11 +1,15 @@
 package de.datexis.sector.tagger;
 
+import de.datexis.annotator.AnnotatorMonitor;
 import de.datexis.common.Resource;
+import de.datexis.common.StageProfiler;
 import de.datexis.encoder.Encoder;
 import de.datexis.encoder.EncoderSet;
 import de.datexis.encoder.EncodingHelpers;
 import de.datexis.encoder.LookupCacheEncoder;
+import de.datexis.encoder.SentenceFeatureStore;
 import de.datexis.model.Dataset;
+import de.datexis.model.ShardedDataset;
 import de.datexis.model.Document;
 import de.datexis.model.Sentence;
 import de.datexis.sector.eval.ClassificationScoreCalculator;
@@ -40,6 +44,7 @@ import org.deeplearning4j.util.ModelSerializer;
 import org.nd4j.linalg.activations.Activation;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.learning.config.Adam;
 import org.nd4j.linalg.lossfunctions.ILossFunction;
@@ -53,7 +58,10 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -82,6 +90,21 @@ public class SectorTagger extends Tagger {
   protected int numEpochs = 1;
   protected boolean randomize = true;
   protected int workers = 4;
+  // random window sampling for long documents, disabled if <= 0
+  protected int trainingWindowLength = -1;
+  protected long timestepsPerEpoch = -1;
+  // dynamic batch size bounded by number of padded timesteps per batch, disabled if <= 0
+  protected long timestepBudget = -1;
+  // sliding window inference for long documents, disabled if <= 0
+  protected int inferenceWindowLength = -1;
+  protected int inferenceWindowOverlap = 0;
+  // persistent cache for Sentence input encodings, disabled if null
+  protected SentenceFeatureStore featureStore = null;
+  // replay generated training and validation batches from disk after the first epoch, disabled if null
+  protected Path replayDirectory = null;
+  protected long replayDiskBudget = -1;
+  // directory to write training metrics to, disabled if null
+  protected Resource metricsDirectory = null;
   
   protected boolean requireSubsampling;
   
@@ -108,6 +131,32 @@ public class SectorTagger extends Tagger {
     return (ComputationGraph) net;
   }
 
+  /**
+   * Create a copy of this Tagger for concurrent inference. The replica shares all encoders and the read-only
+   * network parameters with this Tagger, but has its own ComputationGraph instance with separate layer state.
+   * The replica must not be trained.
+   */
+  public SectorTagger createInferenceReplica() {
+    SectorTagger replica = new SectorTagger(getId());
+    replica.setInputEncoders(bagEncoder, embEncoder, flagEncoder);
+    replica.setTargetEncoder(targetEncoder);
+    replica.batchSize = batchSize;
+    replica.maxTimeSeriesLength = maxTimeSeriesLength;
+    replica.timestepBudget = timestepBudget;
+    replica.inferenceWindowLength = inferenceWindowLength;
+    replica.inferenceWindowOverlap = inferenceWindowOverlap;
+    replica.requireSubsampling = requireSubsampling;
+    replica.embeddingLayerSize = embeddingLayerSize;
+    replica.inputVectorSize = inputVectorSize;
+    replica.outputVectorSize = outputVectorSize;
+    ComputationGraph graph = new ComputationGraph(getNN().getConfiguration().clone());
+    graph.init(getNN().params(), false); // share parameters without copying
+    replica.net = graph;
+    replica.metrics = metrics; // report inference metrics of all replicas together
+    replica.setModelAvailable(true);
+    return replica;
+  }
+
   public boolean isRequireSubsampling() {
     return requireSubsampling;
   }
@@ -135,6 +184,17 @@ public class SectorTagger extends Tagger {
     return this;
   }
   
+  /**
+   * Train on random windows of at most windowLength Sentences instead of truncating Documents.
+   * @param windowLength maximum number of Sentences per window, or -1 to disable
+   * @param timestepsPerEpoch total number of Sentences per epoch, or -1 to sample every Document once
+   */
+  public SectorTagger setTrainingWindowParams(int windowLength, long timestepsPerEpoch) {
+    this.trainingWindowLength = windowLength;
+    this.timestepsPerEpoch = timestepsPerEpoch;
+    return this;
+  }
+  
   public SectorTagger setWorkspaceParams(int workers) {
     this.workers = workers;
     return this;
@@ -202,6 +262,161 @@ public class SectorTagger extends Tagger {
     this.numEpochs = numEpochs;
   }
 
+  public long getTimestepBudget() {
+    return timestepBudget;
+  }
+
+  /**
+   * Use dynamic batches of length-sorted Documents with at most timestepBudget padded timesteps
+   * instead of a fixed number of Documents per batch.
+   * @param timestepBudget maximum number of timesteps per batch, or -1 to use fixed batch size
+   */
+  public void setTimestepBudget(long timestepBudget) {
+    this.timestepBudget = timestepBudget;
+  }
+
+  /**
+   * Encode Documents in overlapping windows of windowLength Sentences during inference.
+   * @param windowLength maximum number of Sentences per window, or -1 to encode full Documents
+   * @param overlap number of Sentences shared by consecutive windows
+   */
+  public SectorTagger setInferenceWindowParams(int windowLength, int overlap) {
+    this.inferenceWindowLength = windowLength;
+    this.inferenceWindowOverlap = overlap;
+    return this;
+  }
+
+  @JsonIgnore
+  public SentenceFeatureStore getFeatureStore() {
+    return featureStore;
+  }
+
+  /**
+   * Read Sentence input encodings from a persistent store that is shared across epochs and training runs.
+   * @param featureStore the store to use, or null to encode all Sentences on the fly
+   */
+  public SectorTagger setFeatureStore(SentenceFeatureStore featureStore) {
+    this.featureStore = featureStore;
+    metrics.gauge(AnnotatorMonitor.CACHE_PREFIX + "featureStore.hits").bind(featureStore != null ? featureStore::getHits : null);
+    metrics.gauge(AnnotatorMonitor.CACHE_PREFIX + "featureStore.misses").bind(featureStore != null ? featureStore::getMisses : null);
+    metrics.gauge(AnnotatorMonitor.CACHE_PREFIX + "featureStore.hitRate").bind(featureStore != null ? featureStore::getHitRate : null);
+    return this;
+  }
+
+  @JsonIgnore
+  public Path getReplayDirectory() {
+    return replayDirectory;
+  }
+
+  /**
+   * Record all generated training and validation batches in the first epoch and replay them from disk in all
+   * subsequent epochs. The Documents in each batch stay fixed, only the order of training batches is shuffled.
+   * Training iterators that sample different examples in every epoch (a subset of the Documents or random windows)
+   * are not replayed.
+   * @param directory the directory for shard files, or null to generate batches in every epoch
+   * @param diskBudget maximum number of bytes of all shards in the directory, or -1 for no limit
+   */
+  public SectorTagger setReplayCache(Path directory, long diskBudget) {
+    this.replayDirectory = directory;
+    this.replayDiskBudget = diskBudget;
+    return this;
+  }
+
+  @JsonIgnore
+  public Resource getMetricsDirectory() {
+    return metricsDirectory;
+  }
+
+  /**
+   * Write training metrics per iteration and per epoch as CSV and JSONL files into the given directory.
+   * Metrics are always available in-process via getMetrics().
+   * @param directory the directory for metrics files, e.g. the model directory, or null to disable file output
+   */
+  public SectorTagger setMetricsDirectory(Resource directory) {
+    this.metricsDirectory = directory;
+    return this;
+  }
+
+  /**
+   * @return a listener that records training metrics and has been added to the network
+   */
+  protected TrainingMetricsListener addMetricsListener() {
+    TrainingMetricsListener listener;
+    try {
+      listener = new TrainingMetricsListener(getMetrics(), metricsDirectory);
+    } catch(IOException e) {
+      log.warn("Could not open training metrics files in {}: {}", metricsDirectory, e.toString());
+      try {
+        listener = new TrainingMetricsListener(getMetrics(), null);
+      } catch(IOException ex) {
+        throw new IllegalStateException(ex);
+      }
+    }
+    getNN().addListeners(listener);
+    return listener;
+  }
+
+  protected void removeMetricsListener(TrainingMetricsListener listener) {
+    List<TrainingListener> listeners = new ArrayList<>(getNN().getListeners());
+    listeners.remove(listener);
+    getNN().setListeners(listeners);
+    try {
+      listener.close();
+    } catch(IOException e) {
+      log.warn("Could not close training metrics files: {}", e.toString());
+    }
+  }
+
+  /**
+   * @return the given iterator, wrapped into a ReplayMultiDataSetIterator if a replay directory is set
+   */
+  protected MultiDataSetIterator createReplayIterator(SectorTaggerIterator it, String name, boolean shuffle) {
+    if(replayDirectory == null) return it;
+    if(!it.isReplayable()) {
+      log.warn("Not replaying {} batches, because the iterator samples different examples in every epoch", name);
+      return it;
+    }
+    return new ReplayMultiDataSetIterator(it, replayDirectory, name, it.getReplayKey())
+      .withDiskBudget(replayDiskBudget)
+      .withShuffle(shuffle);
+  }
+
+  @JsonIgnore
+  public int getInferenceWindowLength() {
+    return inferenceWindowLength;
+  }
+
+  @JsonIgnore
+  public int getInferenceWindowOverlap() {
+    return inferenceWindowOverlap;
+  }
+
+  public int getTrainingWindowLength() {
+    return trainingWindowLength;
+  }
+
+  public void setTrainingWindowLength(int trainingWindowLength) {
+    this.trainingWindowLength = trainingWindowLength;
+  }
+
+  public long getTimestepsPerEpoch() {
+    return timestepsPerEpoch;
+  }
+
+  public void setTimestepsPerEpoch(long timestepsPerEpoch) {
+    this.timestepsPerEpoch = timestepsPerEpoch;
+  }
+
+  @JsonIgnore
+  public int getMaxTimeSeriesLength() {
+    return maxTimeSeriesLength;
+  }
+
+  @JsonIgnore
+  public int getNumExamples() {
+    return numExamples;
+  }
+
   public boolean isRandomize() {
     return randomize;
   }
@@ -323,10 +538,22 @@ public class SectorTagger extends Tagger {
   }
   
   public void trainModel(Dataset dataset, int numEpochs) {
-    SectorTaggerIterator it = new SectorTaggerIterator(Stage.TRAIN, dataset.getDocuments(), this, numExamples, maxTimeSeriesLength, batchSize, true, requireSubsampling);
-    int batches = numExamples / batchSize;
+    trainModel(createTrainingIterator(dataset), numEpochs);
+  }
+  
+  /**
+   * Train on Documents that are streamed from disk, so that the training corpus does not need to fit into memory.
+   * @param shuffleBufferSize number of Documents that are held in memory for approximate shuffling
+   */
+  public void trainModel(ShardedDataset dataset, int numEpochs, int shuffleBufferSize) {
+    SectorTaggerIterator it = new SectorTaggerIterator(Stage.TRAIN, dataset, this, numExamples, maxTimeSeriesLength, batchSize, true, requireSubsampling, shuffleBufferSize);
+    if(timestepBudget > 0) it.withTimestepBudget(timestepBudget);
+    trainModel(it, numEpochs);
+  }
+  
+  protected void trainModel(SectorTaggerIterator it, int numEpochs) {
     timer.start();
-    appendTrainLog("Training " + getName() + " with " + numExamples + " examples in " + batches + " batches for " + numEpochs + " epochs.");
+    appendTrainLog("Training " + getName() + " with " + it.numExamples() + " examples in " + describeBatches(it.numExamples()) + " for " + numEpochs + " epochs.");
     // ParallelWrapper will take care of load balancing between GPUs.
     /*ParallelWrapper wrapper = new ParallelWrapper.Builder(net)
         .prefetchBuffer(24)  // DataSets prefetching options. Set this value with respect to number of actual devices
@@ -335,32 +562,67 @@ public class SectorTagger extends Tagger {
         .reportScoreAfterAveraging(true) // if set to TRUE, on every averaging model score will be reported
         .build();*/
     int n = 0;
+    it.withMetrics(getMetrics());
+    MultiDataSetIterator data = createReplayIterator(it, "train", true);
+    TrainingMetricsListener metricsListener = addMetricsListener();
     Nd4j.getMemoryManager().togglePeriodicGc(false);
     for(int i = 1; i <= numEpochs; i++) {
       appendTrainLog("Starting epoch " + i + " of " + numEpochs);
       triggerEpochListeners(true, i - 1);
-      getNN().fit(it);
+      metricsListener.startEpoch();
+      getNN().fit(data);
       //wrapper.fit(it);
+      if(i == 1 && timestepBudget > 0) appendTrainLog("Epoch 1 used " + it.getBatchStatistics().getBatches() + " batches [" + it.getBatchStatistics().toString() + "]");
       n += numExamples;
       timer.setSplit("epoch");
+      metricsListener.epochDone(i - 1);
       appendTrainLog("Completed epoch " + i + " of " + numEpochs, timer.getLong("epoch"));
+      appendTrainLog("Epoch " + i + " metrics: " + metricsListener.printEpochStats());
       triggerEpochListeners(false, i - 1);
-      if(i < numEpochs) it.reset(); // shuffling may take some time
+      if(i < numEpochs) data.reset(); // shuffling may take some time
       Nd4j.getMemoryManager().invokeGc();
     }
+    removeMetricsListener(metricsListener);
+    if(data instanceof ReplayMultiDataSetIterator) ((ReplayMultiDataSetIterator) data).close();
     timer.stop();
     appendTrainLog("Training complete", timer.getLong());
     Nd4j.getMemoryManager().togglePeriodicGc(true);
     setModelAvailable(true);
   }
   
+  /**
+   * @return the number of batches per epoch for the training log, which is only known after the first epoch if a
+   * timestep budget is set
+   */
+  protected String describeBatches(int numExamples) {
+    if(timestepBudget > 0) return "dynamic batches of at most " + timestepBudget + " timesteps";
+    else return (numExamples / batchSize) + " batches";
+  }
+  
+  /**
+   * @return an iterator over the training Dataset, using random windows if training window length is set
+   */
+  protected SectorTaggerIterator createTrainingIterator(Dataset train) {
+    SectorTaggerIterator it;
+    if(trainingWindowLength > 0) {
+      it = new SectorTaggerWindowIterator(Stage.TRAIN, train.getDocuments(), this, trainingWindowLength, timestepsPerEpoch, batchSize, true, requireSubsampling);
+    } else {
+      it = new SectorTaggerIterator(Stage.TRAIN, train.getDocuments(), this, numExamples, maxTimeSeriesLength, batchSize, true, requireSubsampling);
+    }
+    if(timestepBudget > 0) it.withTimestepBudget(timestepBudget);
+    return it;
+  }
+  
   public EarlyStoppingResult<ComputationGraph> trainModel(Dataset train, Dataset validation, EarlyStoppingConfiguration conf) {
-    SectorTaggerIterator trainIt = new SectorTaggerIterator(Stage.TRAIN, train.getDocuments(), this, numExamples, maxTimeSeriesLength, batchSize, true, requireSubsampling);
+    SectorTaggerIterator trainIt = createTrainingIterator(train);
     SectorTaggerIterator validationIt = new SectorTaggerIterator(Stage.TEST, validation.getDocuments(), this, -1, maxTimeSeriesLength, batchSize, false, requireSubsampling);
-    int batches = trainIt.numExamples / batchSize;
     timer.start();
-    appendTrainLog("Training " + getName() + " with " + trainIt.numExamples + " examples in " + batches + " batches using early stopping.");
-    conf.setScoreCalculator(new ClassificationScoreCalculator(this, (LookupCacheEncoder) targetEncoder, validationIt));
+    appendTrainLog("Training " + getName() + " with " + trainIt.numExamples + " examples in " + describeBatches(trainIt.numExamples) + " using early stopping.");
+    trainIt.withMetrics(getMetrics());
+    MultiDataSetIterator trainData = createReplayIterator(trainIt, "train", true);
+    MultiDataSetIterator validationData = createReplayIterator(validationIt, "validation", false);
+    conf.setScoreCalculator(new ClassificationScoreCalculator(this, (LookupCacheEncoder) targetEncoder, validationData));
+    TrainingMetricsListener metricsListener = addMetricsListener();
     EarlyStoppingListener<ComputationGraph> listener = new EarlyStoppingListener<ComputationGraph>() {
       @Override
       public void onStart(EarlyStoppingConfiguration<ComputationGraph> conf, ComputationGraph net) {
@@ -369,6 +631,8 @@ public class SectorTagger extends Tagger {
       }
       @Override
       public void onEpoch(int epochNum, double score, EarlyStoppingConfiguration<ComputationGraph> conf, ComputationGraph net) {
+        metricsListener.epochDone(epochNum);
+        appendTrainLog("Epoch " + (epochNum + 1) + " metrics: " + metricsListener.printEpochStats());
         //log.info("Finished epoch {} with score {}", epochNum, score);
         //Nd4j.getWorkspaceManager().printAllocationStatisticsForCurrentThread();
         //Nd4j.getWorkspaceManager().getWorkspaceForCurrentThread().destroyWorkspace();
@@ -384,10 +648,13 @@ public class SectorTagger extends Tagger {
     };
 
     //EarlyStoppingParallelTrainer trainer = new EarlyStoppingParallelTrainer(conf, getNN(), null, trainIt, listener, 4, 4, 1, false, false);
-    EarlyStoppingGraphTrainer trainer = new EarlyStoppingGraphTrainer(conf, getNN(), trainIt, listener);
+    EarlyStoppingGraphTrainer trainer = new EarlyStoppingGraphTrainer(conf, getNN(), trainData, listener);
     Nd4j.getMemoryManager().togglePeriodicGc(false);
     EarlyStoppingResult<ComputationGraph> result = trainer.fit();
     Nd4j.getMemoryManager().togglePeriodicGc(true);
+    removeMetricsListener(metricsListener);
+    if(trainData instanceof ReplayMultiDataSetIterator) ((ReplayMultiDataSetIterator) trainData).close();
+    if(validationData instanceof ReplayMultiDataSetIterator) ((ReplayMultiDataSetIterator) validationData).close();
     timer.stop();
     appendTrainLog("Training complete", timer.getLong());
     net = result.getBestModel();
@@ -409,11 +676,15 @@ public class SectorTagger extends Tagger {
     throw new UnsupportedOperationException("not implemented");
   }
   
+  @SuppressWarnings("try")
   public Map<String,INDArray> encodeMatrix(DocumentSentenceIterator.DocumentBatch batch) {
     
     MultiDataSet next = batch.dataset;
 
-    Map<String,INDArray> weights = feedForward(getNN(), next);
+    Map<String,INDArray> weights;
+    try(StageProfiler.Scope scope = StageProfiler.enter("feedForward")) {
+      weights = feedForward(getNN(), next);
+    }
     
     if(weights.containsKey("embedding")) {
       // old model without FW/BW
@@ -490,7 +761,13 @@ public class SectorTagger extends Tagger {
   
   public void attachVectors(Collection<Document> docs, Stage stage, Class<? extends Encoder> targetClass) {
     
+    if(inferenceWindowLength > 0) {
+      new SlidingWindowInference(this, inferenceWindowLength, inferenceWindowOverlap).attachVectors(docs, stage, targetClass);
+      return;
+    }
+    
     SectorTaggerIterator it = new SectorTaggerIterator(stage, docs, this, batchSize, false, requireSubsampling);
+    if(timestepBudget > 0) it.withTimestepBudget(timestepBudget);
     
     /*WorkspaceMode cMode = getNN().getConfiguration().getTrainingWorkspaceMode();
     getNN().getConfiguration().setTrainingWorkspaceMode(getNN().getConfiguration().getInferenceWorkspaceMode());
@@ -506,15 +783,31 @@ public class SectorTagger extends Tagger {
        // clearLayerStates(getNN());
       //}
     }
+    log.debug("{}: encoded {} batches [{}]", stage.toString(), it.getBatchStatistics().getBatches(), it.getBatchStatistics().toString());
     
     //getNN().getConfiguration().setTrainingWorkspaceMode(cMode);
     
   }
   
-  protected void attachVectors(DocumentSentenceIterator.DocumentBatch batch, Class<? extends Encoder> targetClass) {
+  public void attachVectors(DocumentSentenceIterator.DocumentBatch batch, Class<? extends Encoder> targetClass) {
+    long start = System.nanoTime();
+    Map<String,INDArray> weights = encodeMatrix(batch);
+    metrics.histogram(AnnotatorMonitor.INFERENCE_FORWARD_TIME).record((System.nanoTime() - start) / 1e6);
+    attachVectors(batch, weights);
+    long sentences = 0;
+    for(Document doc : batch.docs) sentences += doc.countSentences();
+    metrics.counter(AnnotatorMonitor.INFERENCE_BATCHES).inc();
+    metrics.counter(AnnotatorMonitor.INFERENCE_DOCUMENTS).add(batch.docs.size());
+    metrics.counter(AnnotatorMonitor.INFERENCE_SENTENCES).add(sentences);
+    metrics.histogram(AnnotatorMonitor.INFERENCE_BATCH_SIZE).record(batch.docs.size());
+  }
+  
+  /**
+   * Attach the layer outputs of a forward pass (see encodeMatrix()) to the Sentences of a batch.
+   */
+  @SuppressWarnings("try")
+  public void attachVectors(DocumentSentenceIterator.DocumentBatch batch, Map<String,INDArray> weights) {
     
-      Map<String,INDArray> weights = encodeMatrix(batch);
-      
       INDArray target = weights.get("target"); // attach target class vectors
       INDArray embeddingFW = null, embeddingBW = null, embedding = null;
       if(weights.containsKey("embedding")) {
@@ -525,24 +818,26 @@ public class SectorTagger extends Tagger {
         embeddingBW = weights.get("embeddingBW"); // attach target class vectors
       }
       // append vectors to sentences
-      int batchIndex = 0; for(Document doc : batch.docs) {
-        int t = 0;
-        for(Sentence s : doc.getSentences()) {
-          INDArray targetVec = EncodingHelpers.getTimeStep(target, batchIndex, t);
-          s.putVector(targetEncoder.getClass(), targetVec);
-          if(embedding != null) {
-            INDArray embeddingVec = EncodingHelpers.getTimeStep(embedding, batchIndex, t);
-            s.putVector(SectorEncoder.class, embeddingVec);
-          }
-          if(embeddingFW != null) {
-            INDArray fw = EncodingHelpers.getTimeStep(embeddingFW, batchIndex, t);
-            INDArray bw = EncodingHelpers.getTimeStep(embeddingBW, batchIndex, t);
-            s.putVector("embeddingFW", fw);
-            s.putVector("embeddingBW", bw);
+      try(StageProfiler.Scope scope = StageProfiler.enter("attach")) {
+        int batchIndex = 0; for(Document doc : batch.docs) {
+          int t = 0;
+          for(Sentence s : doc.getSentences()) {
+            INDArray targetVec = EncodingHelpers.getTimeStep(target, batchIndex, t);
+            s.putVector(targetEncoder.getClass(), targetVec);
+            if(embedding != null) {
+              INDArray embeddingVec = EncodingHelpers.getTimeStep(embedding, batchIndex, t);
+              s.putVector(SectorEncoder.class, embeddingVec);
+            }
+            if(embeddingFW != null) {
+              INDArray fw = EncodingHelpers.getTimeStep(embeddingFW, batchIndex, t);
+              INDArray bw = EncodingHelpers.getTimeStep(embeddingBW, batchIndex, t);
+              s.putVector("embeddingFW", fw);
+              s.putVector("embeddingBW", bw);
+            }
+            t++;
           }
-          t++;
+          batchIndex++;
         }
-        batchIndex++;
       }
   }
   
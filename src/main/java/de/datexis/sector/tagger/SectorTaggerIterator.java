@@ -1,18 +1,32 @@
 package de.datexis.sector.tagger;
 
 import com.google.common.collect.Lists;
+import de.datexis.annotator.ModelFingerprint;
+import de.datexis.common.StageProfiler;
 import de.datexis.encoder.Encoder;
 import de.datexis.encoder.EncoderSet;
 import de.datexis.encoder.EncodingHelpers;
+import de.datexis.encoder.SentenceFeatureStore;
 import de.datexis.model.*;
 import de.datexis.sector.encoder.ClassEncoder;
 import de.datexis.sector.encoder.HeadingEncoder;
 import de.datexis.sector.model.SectionAnnotation;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.output.NullOutputStream;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.api.MultiDataSet;
 import org.nd4j.linalg.factory.Nd4j;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
@@ -51,21 +65,125 @@ public class SectorTaggerIterator extends DocumentSentenceIterator {
     reset();
   }
   
+  public SectorTaggerIterator(Stage stage, ShardedDataset shards, SectorTagger tagger, int numExamples, int maxTimeSeriesLength, int batchSize, boolean randomize, boolean requireSubsampling, int shuffleBufferSize) {
+    super(stage, shards, numExamples, maxTimeSeriesLength, batchSize, randomize, shuffleBufferSize);
+    log = LoggerFactory.getLogger(SectorTaggerIterator.class);
+    this.tagger = tagger;
+    this.inputEncoders = new EncoderSet(tagger.bagEncoder, tagger.embEncoder, tagger.flagEncoder);
+    this.targetEncoders = new EncoderSet(tagger.targetEncoder);
+    this.requireSubsampling = requireSubsampling;
+    reset();
+  }
+  
   @Override
   public boolean asyncSupported() {
     return true;
   }
   
+  /**
+   * @return true if every epoch generates the same examples, so that the batches of the first epoch can be replayed.
+   * Randomized iterators over a subset of the Documents and subsampled heading targets differ in every epoch.
+   */
+  public boolean isReplayable() {
+    int total = shards != null ? shards.countDocuments() : documents.size();
+    if(randomize && numExamples < total) return false;
+    if(requireSubsampling && tagger.targetEncoder instanceof HeadingEncoder) return false;
+    return true;
+  }
+  
+  /**
+   * @return a checksum that identifies the DataSets generated by this iterator, which covers the Documents, the
+   * batching parameters and the fingerprints of all encoders. In randomized mode, the checksum does not depend on
+   * the current order of Documents, so that it is stable across runs.
+   */
+  public String getReplayKey() {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch(NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex);
+    }
+    try(DataOutputStream out = new DataOutputStream(new DigestOutputStream(new NullOutputStream(), digest))) {
+      out.writeUTF(getClass().getCanonicalName());
+      out.writeUTF(stage.toString());
+      out.writeInt(numExamples);
+      out.writeInt(maxTimeSeriesLength);
+      out.writeInt(batchSize);
+      out.writeLong(timestepBudget);
+      out.writeBoolean(requireSubsampling);
+      for(Encoder enc : new Encoder[] {tagger.bagEncoder, tagger.embEncoder, tagger.flagEncoder, tagger.targetEncoder}) {
+        out.writeUTF(ModelFingerprint.compute(enc));
+      }
+      if(shards != null) {
+        // shard contents are not hashed, rewritten shards are detected by size and modification time
+        out.writeUTF(shards.getDirectory().toAbsolutePath().toString());
+        out.writeInt(shards.countDocuments());
+        for(Path file : shards.getShardFiles()) {
+          out.writeUTF(file.getFileName().toString());
+          out.writeLong(Files.size(file));
+          out.writeLong(Files.getLastModifiedTime(file).toMillis());
+        }
+      }
+      List<String> docKeys = new ArrayList<>(documents.size());
+      for(Document doc : documents) docKeys.add(getReplayKey(doc));
+      if(randomize) Collections.sort(docKeys);
+      for(String docKey : docKeys) out.writeUTF(docKey);
+    } catch(IOException ex) {
+      throw new IllegalStateException("could not compute replay key", ex);
+    }
+    return Hex.encodeHexString(digest.digest());
+  }
+  
+  /**
+   * @return a checksum of the id, text and gold sections of the given Document
+   */
+  protected static String getReplayKey(Document doc) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch(NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex);
+    }
+    try(DataOutputStream out = new DataOutputStream(new DigestOutputStream(new NullOutputStream(), digest))) {
+      out.writeUTF(String.valueOf(doc.getId()));
+      out.write(doc.getText().getBytes(StandardCharsets.UTF_8));
+      List<SectionAnnotation> anns = doc.streamAnnotations(Annotation.Source.GOLD, SectionAnnotation.class).sorted().collect(Collectors.toList());
+      for(SectionAnnotation ann : anns) {
+        out.writeUTF(ann.getBegin() + ":" + ann.getEnd() + ":" + ann.getSectionLabel() + ":" + ann.getSectionHeading());
+      }
+    }
+    return Hex.encodeHexString(digest.digest());
+  }
+  
+  /**
+   * @return Sentence-level input encodings, read from the Tagger's feature store if configured
+   */
+  @SuppressWarnings("try")
+  protected INDArray encodeInput(Encoder encoder, DocumentBatch batch) {
+    try(StageProfiler.Scope scope = StageProfiler.enter(encoder.getClass().getSimpleName())) {
+      SentenceFeatureStore store = tagger.getFeatureStore();
+      if(store != null) return store.encodeMatrix(encoder, batch.docs, batch.maxDocLength);
+      else return encoder.encodeMatrix(batch.docs, batch.maxDocLength, Sentence.class);
+    }
+  }
+  
+  @SuppressWarnings("try")
   @Override
   public MultiDataSet generateDataSet(DocumentBatch batch) {
+    try(StageProfiler.Scope scope = StageProfiler.enter("encode")) {
+      return generateEncodings(batch);
+    }
+  }
+
+  protected MultiDataSet generateEncodings(DocumentBatch batch) {
 
     // input encodings
     INDArray inputMask = createMask(batch.docs, batch.maxDocLength, Sentence.class);
     //INDArray labelMask = createMask(batch.docs, batch.maxDocLength, Sentence.class); // same as input mask
     // return all encodings on Sentence level
-    INDArray bag = tagger.bagEncoder.encodeMatrix(batch.docs, batch.maxDocLength, Sentence.class); 
-    INDArray emb = tagger.embEncoder.encodeMatrix(batch.docs, batch.maxDocLength, Sentence.class);
-    INDArray flag = tagger.flagEncoder.encodeMatrix(batch.docs, batch.maxDocLength, Sentence.class);
+    INDArray bag = encodeInput(tagger.bagEncoder, batch);
+    INDArray emb = encodeInput(tagger.embEncoder, batch);
+    INDArray flag = encodeInput(tagger.flagEncoder, batch);
 
     // target encodings
     INDArray targets;
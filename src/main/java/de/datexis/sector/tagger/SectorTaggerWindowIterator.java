@@ -0,0 +1,94 @@
+package de.datexis.sector.tagger;
+
+import de.datexis.model.Document;
+import de.datexis.model.DocumentWindow;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Iterates through a Dataset with random windows of Sentences instead of truncating long Documents.
+ * In every epoch, each Document contributes ceil(length / windowLength) windows at random positions,
+ * so that over the epochs all parts of long Documents are used for training. Section targets are aligned
+ * to the windows. The size of an epoch is given as the total number of timesteps (Sentences).
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class SectorTaggerWindowIterator extends SectorTaggerIterator {
+
+  protected int windowLength;
+  protected long timestepsPerEpoch;
+  protected Random random;
+  protected long epochTimesteps;
+
+  /**
+   * @param windowLength maximum number of Sentences per window
+   * @param timestepsPerEpoch number of Sentences per epoch, or -1 to use all windows once
+   */
+  public SectorTaggerWindowIterator(Stage stage, Collection<Document> docs, SectorTagger tagger, int windowLength, long timestepsPerEpoch, int batchSize, boolean randomize, boolean requireSubsampling) {
+    super(stage, docs, tagger, -1, windowLength, batchSize, randomize, requireSubsampling);
+    log = LoggerFactory.getLogger(SectorTaggerWindowIterator.class);
+    if(windowLength <= 0) throw new IllegalArgumentException("window length must be positive");
+    this.windowLength = windowLength;
+    this.timestepsPerEpoch = timestepsPerEpoch;
+    this.random = randomize ? new Random(System.nanoTime()) : new Random(42);
+    reset();
+  }
+
+  @Override
+  protected Iterator<Document> createDocumentIterator() {
+    // called from the super constructor before this class is initialized
+    if(windowLength <= 0) return documents.iterator();
+    List<Document> windows = sampleWindows();
+    numExamples = windows.size();
+    return windows.iterator();
+  }
+
+  /**
+   * Draw random windows from all Documents until the timestep budget is reached.
+   */
+  protected List<Document> sampleWindows() {
+    List<Document> windows = new ArrayList<>();
+    epochTimesteps = 0;
+    if(documents.stream().allMatch(doc -> doc.countSentences() == 0)) return windows;
+    do {
+      for(Document doc : documents) {
+        int length = doc.countSentences();
+        if(length == 0) continue;
+        int count = (int) Math.ceil((double) length / windowLength);
+        for(int i = 0; i < count; i++) {
+          Document window = sampleWindow(doc);
+          windows.add(window);
+          epochTimesteps += window.countSentences();
+          if(timestepsPerEpoch > 0 && epochTimesteps >= timestepsPerEpoch) return windows;
+        }
+      }
+    } while(timestepsPerEpoch > 0);
+    return windows;
+  }
+
+  protected Document sampleWindow(Document doc) {
+    int length = doc.countSentences();
+    if(length <= windowLength) return doc;
+    int offset = random.nextInt(length - windowLength + 1);
+    return new DocumentWindow(doc, offset, windowLength);
+  }
+
+  /**
+   * @return number of timesteps (Sentences) in the current epoch
+   */
+  public long getEpochTimesteps() {
+    return epochTimesteps;
+  }
+
+  /**
+   * Windows are drawn at random positions in every epoch, so they must not be replayed.
+   */
+  @Override
+  public boolean isReplayable() {
+    return false;
+  }
+
+}
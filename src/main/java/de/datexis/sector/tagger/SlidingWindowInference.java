@@ -0,0 +1,228 @@
+package de.datexis.sector.tagger;
+
+import de.datexis.annotator.AnnotatorMonitor;
+import de.datexis.common.MetricsRegistry;
+import de.datexis.encoder.Encoder;
+import de.datexis.encoder.EncodingHelpers;
+import de.datexis.model.Document;
+import de.datexis.model.DocumentWindow;
+import de.datexis.model.Sentence;
+import de.datexis.sector.tagger.DocumentSentenceIterator.Stage;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Inference over overlapping windows of Sentences for Documents that are longer than the training length.
+ * Documents are split into windows of W Sentences with an overlap of O Sentences. Windows from many Documents
+ * are batched together and the outputs are stitched back per Sentence. In overlap regions, forward outputs are
+ * weighted with a rising ramp from the window start (where forward context is missing) and backward outputs
+ * with a falling ramp towards the window end (where backward context is missing).
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class SlidingWindowInference {
+
+  protected final static Logger log = LoggerFactory.getLogger(SlidingWindowInference.class);
+
+  protected enum Direction { FW, BW, BOTH };
+
+  protected final SectorTagger tagger;
+  protected final int windowLength;
+  protected final int overlap;
+
+  /**
+   * @param windowLength maximum number of Sentences per window (W)
+   * @param overlap number of Sentences shared by two consecutive windows (O), must be smaller than W
+   */
+  public SlidingWindowInference(SectorTagger tagger, int windowLength, int overlap) {
+    if(windowLength <= 0) throw new IllegalArgumentException("window length must be positive");
+    if(overlap < 0 || overlap >= windowLength) throw new IllegalArgumentException("overlap must be in [0, window length)");
+    this.tagger = tagger;
+    this.windowLength = windowLength;
+    this.overlap = overlap;
+  }
+
+  /**
+   * @return all windows for the given Document, or the Document itself if it fits into a single window
+   */
+  public List<Document> createWindows(Document doc) {
+    List<Document> windows = new ArrayList<>();
+    int length = doc.countSentences();
+    if(length <= windowLength) {
+      windows.add(doc);
+      return windows;
+    }
+    int step = windowLength - overlap;
+    int offset = 0;
+    for(; offset + windowLength < length; offset += step) {
+      windows.add(new DocumentWindow(doc, offset, windowLength));
+    }
+    windows.add(new DocumentWindow(doc, length - windowLength, windowLength));
+    return windows;
+  }
+
+  /**
+   * Encode all Documents window by window and attach the stitched vectors to their Sentences,
+   * equivalent to SectorTagger.attachVectors().
+   */
+  public void attachVectors(Collection<Document> docs, Stage stage, Class<? extends Encoder> targetClass) {
+
+    List<Document> windows = new ArrayList<>();
+    Map<Document,Stitch> stitches = new IdentityHashMap<>();
+    for(Document doc : docs) {
+      List<Document> docWindows = createWindows(doc);
+      Stitch stitch = new Stitch(doc, docWindows.size());
+      for(Document window : docWindows) stitches.put(window, stitch);
+      windows.addAll(docWindows);
+    }
+
+    SectorTaggerIterator it = new SectorTaggerIterator(stage, windows, tagger, tagger.getBatchSize(), false, tagger.isRequireSubsampling());
+    if(tagger.getTimestepBudget() > 0) it.withTimestepBudget(tagger.getTimestepBudget());
+
+    MetricsRegistry metrics = tagger.getMetrics();
+    while(it.hasNext()) {
+      DocumentSentenceIterator.DocumentBatch batch = it.nextDocumentBatch();
+      long start = System.nanoTime();
+      Map<String,INDArray> weights = tagger.encodeMatrix(batch);
+      metrics.histogram(AnnotatorMonitor.INFERENCE_FORWARD_TIME).record((System.nanoTime() - start) / 1e6);
+      metrics.histogram(AnnotatorMonitor.INFERENCE_BATCH_SIZE).record(batch.docs.size());
+      metrics.counter(AnnotatorMonitor.INFERENCE_BATCHES).inc();
+      Map<String,Direction> outputs = getOutputs(weights);
+      int batchIndex = 0;
+      for(Document window : batch.docs) {
+        Stitch stitch = stitches.get(window);
+        if(stitch != null) {
+          stitch.add(window, weights, outputs, batchIndex);
+          if(stitch.isComplete()) stitch.attachVectors(targetClass);
+        }
+        batchIndex++;
+      }
+    }
+
+    long sentences = 0;
+    for(Document doc : docs) sentences += doc.countSentences();
+    metrics.counter(AnnotatorMonitor.INFERENCE_DOCUMENTS).add(docs.size());
+    metrics.counter(AnnotatorMonitor.INFERENCE_SENTENCES).add(sentences);
+
+    log.debug("{}: encoded {} documents in {} windows [{}]", stage.toString(), docs.size(), windows.size(), it.getBatchStatistics().toString());
+
+  }
+
+  /**
+   * @return the outputs that are stitched together and their direction
+   */
+  protected Map<String,Direction> getOutputs(Map<String,INDArray> weights) {
+    Map<String,Direction> outputs = new LinkedHashMap<>();
+    if(weights.containsKey("targetFW")) {
+      outputs.put("targetFW", Direction.FW);
+      outputs.put("targetBW", Direction.BW);
+    } else {
+      outputs.put("target", Direction.BOTH);
+    }
+    if(weights.containsKey("embeddingFW")) {
+      outputs.put("embeddingFW", Direction.FW);
+      outputs.put("embeddingBW", Direction.BW);
+    } else if(weights.containsKey("embedding")) {
+      outputs.put("embedding", Direction.BOTH);
+    }
+    return outputs;
+  }
+
+  /**
+   * Weight of a forward output at position t of a window. Forward context is missing at the window start.
+   */
+  protected double getForwardWeight(int offset, int t) {
+    if(offset == 0) return 1.;
+    return Math.min(1., (double) (t + 1) / (overlap + 1));
+  }
+
+  /**
+   * Weight of a backward output at position t of a window. Backward context is missing at the window end.
+   */
+  protected double getBackwardWeight(int offset, int length, int docLength, int t) {
+    if(offset + length >= docLength) return 1.;
+    return Math.min(1., (double) (length - t) / (overlap + 1));
+  }
+
+  /**
+   * Accumulates weighted outputs of all windows of a single Document.
+   */
+  protected class Stitch {
+
+    protected final Document doc;
+    protected final int length;
+    protected int remaining;
+    protected final Map<String,float[][]> sums = new LinkedHashMap<>();
+    protected final Map<String,double[]> norms = new LinkedHashMap<>();
+
+    protected Stitch(Document doc, int numWindows) {
+      this.doc = doc;
+      this.length = doc.countSentences();
+      this.remaining = numWindows;
+    }
+
+    protected boolean isComplete() {
+      return remaining <= 0;
+    }
+
+    protected void add(Document window, Map<String,INDArray> weights, Map<String,Direction> outputs, int batchIndex) {
+      int offset = window instanceof DocumentWindow ? ((DocumentWindow) window).getOffset() : 0;
+      int windowSize = window.countSentences();
+      for(Map.Entry<String,Direction> output : outputs.entrySet()) {
+        INDArray matrix = weights.get(output.getKey());
+        float[][] sum = sums.computeIfAbsent(output.getKey(), k -> new float[length][(int) matrix.size(1)]);
+        double[] norm = norms.computeIfAbsent(output.getKey(), k -> new double[length]);
+        for(int t = 0; t < windowSize; t++) {
+          double w;
+          if(output.getValue() == Direction.FW) w = getForwardWeight(offset, t);
+          else if(output.getValue() == Direction.BW) w = getBackwardWeight(offset, windowSize, length, t);
+          else w = Math.min(getForwardWeight(offset, t), getBackwardWeight(offset, windowSize, length, t));
+          float[] vec = EncodingHelpers.getTimeStep(matrix, batchIndex, t).toFloatVector();
+          float[] acc = sum[offset + t];
+          for(int i = 0; i < vec.length; i++) acc[i] += w * vec[i];
+          norm[offset + t] += w;
+        }
+      }
+      remaining--;
+    }
+
+    protected INDArray get(String output, int t) {
+      float[] acc = sums.get(output)[t];
+      double norm = norms.get(output)[t];
+      float[] vec = new float[acc.length];
+      for(int i = 0; i < acc.length; i++) vec[i] = (float) (acc[i] / norm);
+      return Nd4j.create(vec, new long[] {acc.length, 1});
+    }
+
+    protected void attachVectors(Class<? extends Encoder> targetClass) {
+      int t = 0;
+      for(Sentence s : doc.getSentences()) {
+        INDArray target = sums.containsKey("targetFW") ?
+          get("targetFW", t).addi(get("targetBW", t)).divi(2) : // average
+          get("target", t);
+        s.putVector(tagger.getTargetEncoder().getClass(), target);
+        if(sums.containsKey("embeddingFW")) {
+          INDArray fw = get("embeddingFW", t);
+          INDArray bw = get("embeddingBW", t);
+          s.putVector(SectorEncoder.class, fw.add(bw).divi(2)); // average
+          s.putVector("embeddingFW", fw);
+          s.putVector("embeddingBW", bw);
+        } else if(sums.containsKey("embedding")) {
+          s.putVector(SectorEncoder.class, get("embedding", t));
+        }
+        t++;
+      }
+      sums.clear();
+      norms.clear();
+    }
+
+  }
+
+}
@@ -0,0 +1,190 @@
+package de.datexis.sector.tagger;
+
+import de.datexis.common.MetricsRegistry;
+import de.datexis.common.MetricsWriter;
+import de.datexis.common.Resource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import org.bytedeco.javacpp.Pointer;
+import org.deeplearning4j.nn.api.Model;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.optimize.api.BaseTrainingListener;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records training throughput and resource usage into a MetricsRegistry after every iteration and epoch, and
+ * optionally writes them to metrics-iteration.csv/.jsonl and metrics-epoch.csv/.jsonl in a given directory.
+ * Examples and timesteps are counted from the input mask of the current batch.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class TrainingMetricsListener extends BaseTrainingListener implements Closeable {
+
+  protected final static Logger log = LoggerFactory.getLogger(TrainingMetricsListener.class);
+
+  public static final String ITERATIONS = "train.iterations";
+  public static final String EPOCHS = "train.epochs";
+  public static final String EXAMPLES = "train.examples";
+  public static final String TIMESTEPS = "train.timesteps";
+  public static final String PADDED_TIMESTEPS = "train.paddedTimesteps";
+  public static final String SCORE = "train.score";
+  public static final String EXAMPLES_PER_SECOND = "train.examplesPerSecond";
+  public static final String TIMESTEPS_PER_SECOND = "train.timestepsPerSecond";
+  public static final String PADDING_RATIO = "train.paddingRatio";
+  public static final String ITERATION_TIME = "train.iterationTimeMs";
+  public static final String EPOCH_TIME = "train.epochTimeMs";
+  public static final String BATCH_TIME = "train.batchTimeMs";
+  public static final String VALIDATION_TIME = "validation.timeMs";
+  public static final String WORKSPACE_BYTES = "memory.workspaceBytes";
+  public static final String OFFHEAP_BYTES = "memory.offHeapBytes";
+  public static final String HEAP_BYTES = "memory.heapBytes";
+  public static final String GC_TIME = "gc.timeMs";
+
+  protected final MetricsRegistry metrics;
+  protected MetricsWriter iterationWriter, epochWriter;
+
+  protected long lastIteration = -1;
+  protected long epochStart, epochExamples, epochTimesteps, epochPadded;
+  protected final long gcStart;
+
+  /**
+   * @param output directory to write CSV/JSONL files to, or null to record metrics in-process only
+   */
+  public TrainingMetricsListener(MetricsRegistry metrics, Resource output) throws IOException {
+    this.metrics = metrics;
+    if(output != null) {
+      iterationWriter = new MetricsWriter(output, "metrics-iteration");
+      epochWriter = new MetricsWriter(output, "metrics-epoch");
+    }
+    // register all metrics, so that the CSV header is complete
+    for(String counter : new String[] { ITERATIONS, EPOCHS, EXAMPLES, TIMESTEPS, PADDED_TIMESTEPS }) metrics.counter(counter);
+    for(String gauge : new String[] { SCORE, EXAMPLES_PER_SECOND, TIMESTEPS_PER_SECOND, PADDING_RATIO, WORKSPACE_BYTES, OFFHEAP_BYTES, HEAP_BYTES, GC_TIME }) metrics.gauge(gauge);
+    for(String histogram : new String[] { ITERATION_TIME, EPOCH_TIME, BATCH_TIME, VALIDATION_TIME }) metrics.histogram(histogram);
+    gcStart = getGarbageCollectionTime();
+    startEpoch();
+  }
+
+  public MetricsRegistry getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Reset the epoch counters. Called automatically after epochDone().
+   */
+  public void startEpoch() {
+    epochStart = System.nanoTime();
+    epochExamples = epochTimesteps = epochPadded = 0;
+    lastIteration = epochStart;
+  }
+
+  @Override
+  public void iterationDone(Model model, int iteration, int epoch) {
+    long now = System.nanoTime();
+    double seconds = (now - lastIteration) / 1e9;
+    lastIteration = now;
+
+    long examples = 0, timesteps = 0, padded = 0;
+    if(model instanceof ComputationGraph) {
+      ComputationGraph net = (ComputationGraph) model;
+      INDArray[] masks = net.getInputMaskArrays();
+      if(masks != null && masks.length > 0 && masks[0] != null) {
+        // batches are padded to full size, so only count examples with at least one timestep
+        INDArray lengths = masks[0].sum(1);
+        for(int i = 0; i < lengths.length(); i++) if(lengths.getDouble(i) > 0) examples++;
+        timesteps = lengths.sumNumber().longValue();
+        padded = masks[0].length();
+      } else if(net.getInputs() != null && net.getInputs().length > 0 && net.getInputs()[0] != null) {
+        INDArray input = net.getInputs()[0];
+        examples = input.size(0);
+        timesteps = padded = input.rank() == 3 ? input.size(0) * input.size(2) : input.size(0);
+      }
+    }
+    epochExamples += examples;
+    epochTimesteps += timesteps;
+    epochPadded += padded;
+
+    metrics.counter(ITERATIONS).inc();
+    metrics.counter(EXAMPLES).add(examples);
+    metrics.counter(TIMESTEPS).add(timesteps);
+    metrics.counter(PADDED_TIMESTEPS).add(padded);
+    metrics.gauge(SCORE).set(model.score());
+    metrics.gauge(EXAMPLES_PER_SECOND).set(seconds > 0 ? examples / seconds : 0.);
+    metrics.gauge(TIMESTEPS_PER_SECOND).set(seconds > 0 ? timesteps / seconds : 0.);
+    metrics.gauge(PADDING_RATIO).set(padded > 0 ? 1. - (double) timesteps / padded : 0.);
+    metrics.histogram(ITERATION_TIME).record(seconds * 1000.);
+    updateMemory();
+
+    if(iterationWriter != null) write(iterationWriter, iteration, epoch);
+  }
+
+  /**
+   * Record the end of an epoch. Rates are calculated over the whole epoch.
+   */
+  public void epochDone(int epoch) {
+    double seconds = (System.nanoTime() - epochStart) / 1e9;
+    metrics.counter(EPOCHS).inc();
+    metrics.histogram(EPOCH_TIME).record(seconds * 1000.);
+    metrics.gauge(EXAMPLES_PER_SECOND).set(seconds > 0 ? epochExamples / seconds : 0.);
+    metrics.gauge(TIMESTEPS_PER_SECOND).set(seconds > 0 ? epochTimesteps / seconds : 0.);
+    metrics.gauge(PADDING_RATIO).set(epochPadded > 0 ? 1. - (double) epochTimesteps / epochPadded : 0.);
+    updateMemory();
+    if(epochWriter != null) write(epochWriter, metrics.counter(ITERATIONS).get(), epoch);
+    startEpoch();
+  }
+
+  /**
+   * @return a summary of the last epoch for the train log
+   */
+  public String printEpochStats() {
+    return String.format(Locale.ROOT, "%.1f examples/s, %.0f timesteps/s, %.1f%% padding, batch generation %.1fms, iteration %.1fms (mean)",
+      metrics.gauge(EXAMPLES_PER_SECOND).get(), metrics.gauge(TIMESTEPS_PER_SECOND).get(), metrics.gauge(PADDING_RATIO).get() * 100,
+      metrics.histogram(BATCH_TIME).getMean(), metrics.histogram(ITERATION_TIME).getMean());
+  }
+
+  protected void updateMemory() {
+    long workspaceBytes = 0;
+    for(MemoryWorkspace ws : Nd4j.getWorkspaceManager().getAllWorkspacesForCurrentThread()) workspaceBytes += ws.getCurrentSize();
+    metrics.gauge(WORKSPACE_BYTES).set(workspaceBytes);
+    metrics.gauge(OFFHEAP_BYTES).set(Pointer.totalBytes());
+    Runtime runtime = Runtime.getRuntime();
+    metrics.gauge(HEAP_BYTES).set(runtime.totalMemory() - runtime.freeMemory());
+    metrics.gauge(GC_TIME).set(getGarbageCollectionTime() - gcStart);
+  }
+
+  protected void write(MetricsWriter writer, long iteration, int epoch) {
+    Map<String,Object> row = new LinkedHashMap<>();
+    row.put("timestamp", System.currentTimeMillis());
+    row.put("epoch", epoch);
+    row.put("iteration", iteration);
+    row.putAll(metrics.snapshot());
+    try {
+      writer.write(row);
+    } catch(IOException e) {
+      log.warn("Could not write training metrics: {}", e.toString());
+    }
+  }
+
+  protected static long getGarbageCollectionTime() {
+    long time = 0;
+    for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) time += Math.max(0, gc.getCollectionTime());
+    return time;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      if(iterationWriter != null) iterationWriter.close();
+    } finally {
+      if(epochWriter != null) epochWriter.close();
+    }
+  }
+
+}
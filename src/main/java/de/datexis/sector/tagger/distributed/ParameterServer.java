@@ -0,0 +1,311 @@
+package de.datexis.sector.tagger.distributed;
+
+import de.datexis.sector.tagger.SectorTagger;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.updater.graph.ComputationGraphUpdater;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coordinator for distributed training of a SectorTagger across multiple JVMs on a single host.
+ * Workers connect over local sockets, train a number of minibatches on their shard of the Dataset and push
+ * their parameters. The ParameterServer averages parameters and updater state of all workers after each round
+ * and sends the result back. A worker that is restarted mid-epoch re-registers with its ID and continues
+ * with the current round. If a worker does not respond within the round timeout, the round is completed
+ * with the remaining workers.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class ParameterServer implements AutoCloseable {
+
+  protected final static Logger log = LoggerFactory.getLogger(ParameterServer.class);
+
+  protected final SectorTagger tagger;
+  protected final int numWorkers;
+  protected int port = 0;
+  protected long roundTimeout = 10 * 60 * 1000;
+
+  protected final TrainingState state = new TrainingState();
+  protected final Map<Integer,Contribution> contributions = new TreeMap<>();
+  protected double lastScore = Double.NaN;
+
+  protected ServerSocket server;
+  protected Thread acceptThread;
+  protected volatile boolean closed = false;
+
+  protected static class Contribution {
+    double score;
+    INDArray params;
+    INDArray updaterState;
+  }
+
+  /**
+   * Create a ParameterServer that uses the seed of the tagger's network configuration to shuffle examples.
+   * @param tagger the initialized (untrained) SectorTagger, will receive the final parameters
+   * @param numWorkers number of workers that contribute to each round
+   */
+  public ParameterServer(SectorTagger tagger, int numWorkers) {
+    this(tagger, numWorkers, tagger.getNN().getConfiguration().getDefaultConfiguration().getSeed());
+  }
+
+  /**
+   * @param tagger the initialized (untrained) SectorTagger, will receive the final parameters
+   * @param numWorkers number of workers that contribute to each round
+   * @param seed seed that all workers use to shuffle their examples
+   */
+  public ParameterServer(SectorTagger tagger, int numWorkers, long seed) {
+    this.tagger = tagger;
+    this.numWorkers = numWorkers;
+    this.state.batchSize = tagger.getBatchSize();
+    this.state.maxTimeSeriesLength = tagger.getMaxTimeSeriesLength();
+    this.state.seed = seed;
+    withSchedule(1, 1, tagger.getNumEpochs());
+  }
+
+  /**
+   * Set the local port to listen on. Default: 0 (choose a free port)
+   */
+  public ParameterServer withPort(int port) {
+    this.port = port;
+    return this;
+  }
+
+  /**
+   * Set the time to wait for missing workers before a round is completed without them.
+   */
+  public ParameterServer withRoundTimeout(long millis) {
+    this.roundTimeout = millis;
+    return this;
+  }
+
+  public ParameterServer withSeed(long seed) {
+    this.state.seed = seed;
+    return this;
+  }
+
+  /**
+   * @param roundsPerEpoch number of synchronizations per epoch
+   * @param stepsPerRound number of minibatches every worker trains between two synchronizations
+   * @param numEpochs number of epochs to train
+   */
+  public ParameterServer withSchedule(int roundsPerEpoch, int stepsPerRound, int numEpochs) {
+    state.roundsPerEpoch = Math.max(1, roundsPerEpoch);
+    state.stepsPerRound = Math.max(1, stepsPerRound);
+    state.numRounds = state.roundsPerEpoch * numEpochs;
+    return this;
+  }
+
+  /**
+   * @return number of rounds required so that every worker sees its share of the examples once per epoch
+   */
+  public static int getRoundsPerEpoch(int numExamples, int numWorkers, int batchSize, int stepsPerRound) {
+    int examplesPerWorker = (int) Math.ceil((double) numExamples / numWorkers);
+    int batchesPerWorker = (int) Math.ceil((double) examplesPerWorker / batchSize);
+    return Math.max(1, (int) Math.ceil((double) batchesPerWorker / stepsPerRound));
+  }
+
+  /**
+   * Start listening for workers on the loopback interface.
+   * @return the port the server is listening on
+   */
+  public int start() throws IOException {
+    ComputationGraph net = tagger.getNN();
+    state.round = 0;
+    state.params = net.params().dup();
+    INDArray updaterState = net.getUpdater(true).getStateViewArray();
+    state.updaterState = updaterState != null ? updaterState.dup() : null;
+    server = new ServerSocket(port, numWorkers * 2, InetAddress.getLoopbackAddress());
+    acceptThread = new Thread(this::acceptWorkers, "ParameterServer");
+    acceptThread.setDaemon(true);
+    acceptThread.start();
+    tagger.appendTrainLog("Distributed training " + tagger.getName() + " with " + numWorkers + " workers in " + state.numRounds + " rounds (" + state.roundsPerEpoch + " rounds per epoch, " + state.stepsPerRound + " batches per round).");
+    log.info("ParameterServer listening on {}", server.getLocalSocketAddress());
+    return server.getLocalPort();
+  }
+
+  public int getPort() {
+    return server != null ? server.getLocalPort() : port;
+  }
+
+  /**
+   * Atomically write the port of the started server to the given file, which is read by workers that were created
+   * with a port file. The file should be deleted after training.
+   */
+  public void writePortFile(Path file) throws IOException {
+    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    Files.write(tmp, String.valueOf(getPort()).getBytes(StandardCharsets.UTF_8));
+    Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * @return the port that was written with writePortFile()
+   */
+  public static int readPortFile(Path file) throws IOException {
+    String port = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+    try {
+      return Integer.parseInt(port);
+    } catch(NumberFormatException ex) {
+      throw new IOException("invalid port file " + file + ": " + port);
+    }
+  }
+
+  protected void acceptWorkers() {
+    while(!closed) {
+      try {
+        Socket socket = server.accept();
+        Thread handler = new Thread(() -> handleWorker(socket), "ParameterServer-" + socket.getPort());
+        handler.setDaemon(true);
+        handler.start();
+      } catch(SocketException ex) {
+        if(!closed) log.error("ParameterServer socket closed: {}", ex.toString());
+        return;
+      } catch(IOException ex) {
+        log.error("Could not accept worker connection: {}", ex.toString());
+      }
+    }
+  }
+
+  protected void handleWorker(Socket socket) {
+    int workerId = -1;
+    try(Socket s = socket;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+      while(true) {
+        int msg;
+        try {
+          msg = in.readInt();
+        } catch(EOFException ex) {
+          break;
+        }
+        if(msg == TrainingState.MSG_HELLO) {
+          workerId = in.readInt();
+          TrainingState current = snapshot();
+          log.info("Worker {} registered at round {}/{}", workerId, current.round, current.numRounds);
+          current.write(out);
+        } else if(msg == TrainingState.MSG_PUSH) {
+          Contribution c = new Contribution();
+          int round = in.readInt();
+          c.score = in.readDouble();
+          c.params = TrainingState.readArray(in);
+          c.updaterState = TrainingState.readArray(in);
+          push(workerId, round, c).write(out);
+        } else {
+          throw new IOException("unknown message type " + msg);
+        }
+      }
+    } catch(IOException | InterruptedException ex) {
+      log.warn("Worker {} disconnected: {}", workerId, ex.toString());
+    }
+  }
+
+  protected synchronized TrainingState snapshot() {
+    TrainingState s = new TrainingState();
+    s.round = state.round;
+    s.numRounds = state.numRounds;
+    s.roundsPerEpoch = state.roundsPerEpoch;
+    s.stepsPerRound = state.stepsPerRound;
+    s.batchSize = state.batchSize;
+    s.maxTimeSeriesLength = state.maxTimeSeriesLength;
+    s.seed = state.seed;
+    s.params = state.params;
+    s.updaterState = state.updaterState;
+    return s;
+  }
+
+  /**
+   * Receives the parameters of a worker for the given round and blocks until the round is completed.
+   * @return the state for the next round
+   */
+  protected synchronized TrainingState push(int workerId, int round, Contribution c) throws InterruptedException {
+    if(round == state.round && !state.isFinished()) {
+      // a restarted worker overwrites its previous contribution
+      contributions.put(workerId, c);
+      if(contributions.size() >= numWorkers) completeRound();
+    } else {
+      log.debug("Ignoring stale parameters from worker {} for round {}", workerId, round);
+    }
+    long deadline = System.currentTimeMillis() + roundTimeout;
+    while(state.round <= round && !state.isFinished() && !closed) {
+      long remaining = deadline - System.currentTimeMillis();
+      if(remaining <= 0) {
+        log.warn("Round {} timed out, continuing with {}/{} workers", state.round, contributions.size(), numWorkers);
+        completeRound();
+        break;
+      }
+      wait(remaining);
+    }
+    return snapshot();
+  }
+
+  /**
+   * Average all contributions of the current round and advance to the next one.
+   */
+  protected void completeRound() {
+    if(!contributions.isEmpty()) {
+      INDArray params = null, updaterState = null;
+      boolean averageUpdater = true;
+      double score = 0.;
+      for(Contribution c : contributions.values()) {
+        if(params == null) params = c.params.dup();
+        else params.addi(c.params);
+        if(c.updaterState == null) averageUpdater = false;
+        else if(updaterState == null) updaterState = c.updaterState.dup();
+        else updaterState.addi(c.updaterState);
+        score += c.score;
+      }
+      int n = contributions.size();
+      state.params = params.divi(n);
+      if(averageUpdater && updaterState != null) state.updaterState = updaterState.divi(n);
+      lastScore = score / n;
+    }
+    contributions.clear();
+    state.round++;
+    log.info("Completed round {}/{} with average score {}", state.round, state.numRounds, lastScore);
+    if(state.round % state.roundsPerEpoch == 0) {
+      int epoch = state.round / state.roundsPerEpoch;
+      tagger.appendTrainLog("Completed epoch " + epoch + " of " + (state.numRounds / state.roundsPerEpoch) + " with score " + lastScore);
+    }
+    notifyAll();
+  }
+
+  /**
+   * Block until all rounds are completed and apply the final parameters to the SectorTagger.
+   */
+  public void awaitCompletion() throws InterruptedException {
+    synchronized(this) {
+      while(!state.isFinished() && !closed) wait();
+    }
+    ComputationGraph net = tagger.getNN();
+    net.setParams(state.params);
+    ComputationGraphUpdater updater = net.getUpdater(true);
+    if(state.updaterState != null && updater.getStateViewArray() != null) updater.getStateViewArray().assign(state.updaterState);
+    tagger.appendTrainLog("Distributed training complete after " + state.numRounds + " rounds");
+    tagger.setModelAvailable(true);
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized(this) {
+      closed = true;
+      notifyAll();
+    }
+    if(server != null) server.close();
+  }
+
+}
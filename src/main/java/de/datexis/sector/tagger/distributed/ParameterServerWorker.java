@@ -0,0 +1,168 @@
+package de.datexis.sector.tagger.distributed;
+
+import de.datexis.model.Document;
+import de.datexis.sector.tagger.DocumentSentenceIterator.Stage;
+import de.datexis.sector.tagger.SectorTagger;
+import de.datexis.sector.tagger.SectorTaggerIterator;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Worker for distributed training of a SectorTagger. Trains on a fixed shard of the Dataset and synchronizes
+ * parameters with a ParameterServer after every round. The order of examples is derived from the seed, epoch
+ * and worker ID, so that a restarted worker can resume in the middle of an epoch.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class ParameterServerWorker {
+
+  protected final static Logger log = LoggerFactory.getLogger(ParameterServerWorker.class);
+
+  protected final SectorTagger tagger;
+  protected final List<Document> shard;
+  protected final int workerId;
+  protected final Path portFile;
+  protected int port;
+  protected int connectRetries = 60;
+  protected long retryDelay = 1000;
+
+  /**
+   * @param tagger SectorTagger with the same architecture and encoders as on the ParameterServer
+   * @param shard the Documents this worker is training on, see createShard()
+   * @param workerId unique ID of this worker
+   * @param port local port of the ParameterServer
+   */
+  public ParameterServerWorker(SectorTagger tagger, List<Document> shard, int workerId, int port) {
+    this.tagger = tagger;
+    this.shard = shard;
+    this.workerId = workerId;
+    this.port = port;
+    this.portFile = null;
+  }
+
+  /**
+   * @param portFile file that is written by ParameterServer.writePortFile(). It is read again before every
+   * connection attempt, so that a stale file of a previous run is replaced by the current port.
+   */
+  public ParameterServerWorker(SectorTagger tagger, List<Document> shard, int workerId, Path portFile) {
+    this.tagger = tagger;
+    this.shard = shard;
+    this.workerId = workerId;
+    this.port = -1;
+    this.portFile = portFile;
+  }
+
+  public ParameterServerWorker withConnectRetries(int retries, long delayMillis) {
+    this.connectRetries = retries;
+    this.retryDelay = delayMillis;
+    return this;
+  }
+
+  /**
+   * @return every numWorkers'th Document, starting at workerId
+   */
+  public static List<Document> createShard(List<Document> docs, int workerId, int numWorkers) {
+    List<Document> shard = new ArrayList<>(docs.size() / numWorkers + 1);
+    for(int i = workerId; i < docs.size(); i += numWorkers) {
+      shard.add(docs.get(i));
+    }
+    return shard;
+  }
+
+  /**
+   * Connect to the ParameterServer and train until all rounds are completed.
+   */
+  public void run() throws IOException, InterruptedException {
+    if(shard.isEmpty()) throw new IllegalArgumentException("worker " + workerId + " received an empty shard");
+    try(Socket socket = connect();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+      out.writeInt(TrainingState.MSG_HELLO);
+      out.writeInt(workerId);
+      out.flush();
+      TrainingState state = TrainingState.read(in);
+      log.info("Worker {} starting at round {}/{} with {} documents", workerId, state.round, state.numRounds, shard.size());
+      Nd4j.getMemoryManager().togglePeriodicGc(false);
+      while(!state.isFinished()) {
+        applyState(state);
+        double score = trainRound(state);
+        ComputationGraph net = tagger.getNN();
+        out.writeInt(TrainingState.MSG_PUSH);
+        out.writeInt(state.round);
+        out.writeDouble(score);
+        TrainingState.writeArray(net.params(), out);
+        TrainingState.writeArray(net.getUpdater(true).getStateViewArray(), out);
+        out.flush();
+        state = TrainingState.read(in);
+      }
+      applyState(state);
+      Nd4j.getMemoryManager().togglePeriodicGc(true);
+      log.info("Worker {} finished after {} rounds", workerId, state.numRounds);
+    }
+  }
+
+  protected Socket connect() throws IOException, InterruptedException {
+    for(int i = 0; ; i++) {
+      try {
+        if(portFile != null) port = ParameterServer.readPortFile(portFile);
+        return new Socket(InetAddress.getLoopbackAddress(), port);
+      } catch(ConnectException | NoSuchFileException ex) {
+        if(i >= connectRetries) throw ex;
+        log.debug("Waiting for ParameterServer on port {}", port);
+        Thread.sleep(retryDelay);
+      }
+    }
+  }
+
+  protected void applyState(TrainingState state) {
+    ComputationGraph net = tagger.getNN();
+    net.setParams(state.params);
+    INDArray updaterState = net.getUpdater(true).getStateViewArray();
+    if(state.updaterState != null && updaterState != null) updaterState.assign(state.updaterState);
+  }
+
+  /**
+   * Train all minibatches of the current round.
+   * @return the score after the last minibatch
+   */
+  protected double trainRound(TrainingState state) {
+    List<Document> docs = getRoundDocuments(state);
+    SectorTaggerIterator it = new SectorTaggerIterator(Stage.TRAIN, docs, tagger, -1, state.maxTimeSeriesLength, state.batchSize, false, tagger.isRequireSubsampling());
+    ComputationGraph net = tagger.getNN();
+    net.fit(it);
+    Nd4j.getMemoryManager().invokeGc();
+    return net.score();
+  }
+
+  /**
+   * @return the Documents of this worker's shard for the current round. Shuffling is deterministic per epoch.
+   */
+  protected List<Document> getRoundDocuments(TrainingState state) {
+    List<Document> order = new ArrayList<>(shard);
+    Collections.shuffle(order, new Random(state.seed + 31L * state.getEpoch() + 7919L * workerId));
+    int num = state.stepsPerRound * state.batchSize;
+    int offset = state.getRoundInEpoch() * num;
+    List<Document> result = new ArrayList<>(num);
+    for(int i = 0; i < num; i++) {
+      result.add(order.get((offset + i) % order.size()));
+    }
+    return result;
+  }
+
+}
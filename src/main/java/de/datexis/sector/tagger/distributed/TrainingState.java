@@ -0,0 +1,86 @@
+package de.datexis.sector.tagger.distributed;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * Synchronized training state that is exchanged between ParameterServer and workers over the wire.
+ * Contains the schedule (rounds, epochs, batch size) and the averaged parameters and updater state.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class TrainingState {
+
+  /** message type sent by a worker to register (or re-register after a restart) */
+  static final int MSG_HELLO = 1;
+  /** message type sent by a worker after completing a round */
+  static final int MSG_PUSH = 2;
+
+  /** the next round that should be computed by the workers */
+  public int round;
+  /** total number of rounds for all epochs */
+  public int numRounds;
+  /** number of rounds per epoch */
+  public int roundsPerEpoch;
+  /** number of minibatches each worker trains before synchronization */
+  public int stepsPerRound;
+  public int batchSize;
+  public int maxTimeSeriesLength;
+  public long seed;
+  /** averaged network parameters */
+  public INDArray params;
+  /** averaged updater state, might be null */
+  public INDArray updaterState;
+
+  public boolean isFinished() {
+    return round >= numRounds;
+  }
+
+  public int getEpoch() {
+    return round / roundsPerEpoch;
+  }
+
+  public int getRoundInEpoch() {
+    return round % roundsPerEpoch;
+  }
+
+  void write(DataOutputStream out) throws IOException {
+    out.writeInt(round);
+    out.writeInt(numRounds);
+    out.writeInt(roundsPerEpoch);
+    out.writeInt(stepsPerRound);
+    out.writeInt(batchSize);
+    out.writeInt(maxTimeSeriesLength);
+    out.writeLong(seed);
+    writeArray(params, out);
+    writeArray(updaterState, out);
+    out.flush();
+  }
+
+  static TrainingState read(DataInputStream in) throws IOException {
+    TrainingState state = new TrainingState();
+    state.round = in.readInt();
+    state.numRounds = in.readInt();
+    state.roundsPerEpoch = in.readInt();
+    state.stepsPerRound = in.readInt();
+    state.batchSize = in.readInt();
+    state.maxTimeSeriesLength = in.readInt();
+    state.seed = in.readLong();
+    state.params = readArray(in);
+    state.updaterState = readArray(in);
+    return state;
+  }
+
+  static void writeArray(INDArray arr, DataOutputStream out) throws IOException {
+    out.writeBoolean(arr != null);
+    if(arr != null) Nd4j.write(arr, out);
+  }
+
+  static INDArray readArray(DataInputStream in) throws IOException {
+    if(!in.readBoolean()) return null;
+    return Nd4j.read(in);
+  }
+
+}
@@ -0,0 +1,83 @@
+package de.datexis.annotator;
+
+import de.datexis.common.MetricsRegistry;
+import de.datexis.model.Dataset;
+import de.datexis.model.Document;
+import de.datexis.sector.SectorAnnotator;
+import de.datexis.sector.SectorInferenceEngine;
+import de.datexis.sector.SectorTestFixtures;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.DoubleSupplier;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasEntry;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class AnnotatorMonitorTest {
+
+  @Test
+  public void testInferenceTelemetry() throws Exception {
+    Dataset train = SectorTestFixtures.readTestDataset();
+    Document doc = train.getDocument(0).get();
+    SectorAnnotator annotator = SectorTestFixtures.createTinyAnnotator(train, 16, 16, 2);
+
+    assertThat(annotator.getMonitor(), is(nullValue()));
+    AnnotatorMonitor monitor = annotator.registerMonitor();
+    ObjectName name = monitor.getObjectName();
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    assertTrue(server.isRegistered(name));
+    assertThat(server.getAttribute(name, "ModelName"), is(equalTo("SectorAnnotator")));
+    assertThat(server.getAttribute(name, "DocumentsProcessed"), is(equalTo(0L)));
+
+    // replicas report into the metrics of the original tagger
+    List<Document> docs = new ArrayList<>();
+    for(int i = 0; i < 8; i++) docs.add(doc.clone());
+    try(SectorInferenceEngine engine = new SectorInferenceEngine(annotator, 2)) {
+      assertThat(monitor.getQueueDepths(), hasEntry("engine.idleReplicas", 2.));
+      engine.annotateParallel(docs, SectorAnnotator.SegmentationMethod.BEMD);
+    }
+
+    assertThat(server.getAttribute(name, "DocumentsProcessed"), is(equalTo(8L)));
+    assertThat(server.getAttribute(name, "SentencesProcessed"), is(equalTo(8L * doc.countSentences())));
+    assertThat(server.getAttribute(name, "BatchesProcessed"), is(equalTo(4L)));
+    assertThat(monitor.getBatchSizeMean(), is(equalTo(2.)));
+    assertThat(monitor.getForwardLatencyMeanMs(), is(greaterThan(0.)));
+    assertThat(monitor.getSegmentationLatencyMeanMs(), is(greaterThan(0.)));
+    assertThat(monitor.getOffHeapBytes(), is(greaterThan(0L)));
+
+    annotator.unregisterMonitor();
+    assertFalse(server.isRegistered(name));
+    assertThat(annotator.getMonitor(), is(nullValue()));
+  }
+
+  @Test
+  public void testSharedGauge() {
+    // two engines or pipelines on the same tagger bind the same queue gauge
+    MetricsRegistry.Gauge gauge = new MetricsRegistry().gauge(AnnotatorMonitor.QUEUE_PREFIX + "engine.idleReplicas");
+    AtomicInteger first = new AtomicInteger(1), second = new AtomicInteger(2);
+    DoubleSupplier firstSize = first::get, secondSize = second::get;
+    gauge.bind(firstSize);
+    gauge.bind(secondSize);
+    assertFalse(gauge.unbind(firstSize));
+    second.set(3);
+    assertThat(gauge.get(), is(equalTo(3.)));
+    assertTrue(gauge.unbind(secondSize));
+    second.set(4);
+    assertThat(gauge.get(), is(equalTo(3.)));
+  }
+
+}
@@ -0,0 +1,66 @@
+package de.datexis.common;
+
+import java.io.StringWriter;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class StageProfilerTest {
+
+  @After
+  public void reset() {
+    StageProfiler.reset();
+  }
+
+  @Test
+  public void testDisabledProfiler() {
+    Assume.assumeFalse(StageProfiler.ENABLED);
+    StageProfiler.Scope a = StageProfiler.enter("a");
+    StageProfiler.Scope b = StageProfiler.enter("b");
+    assertThat(a, is(sameInstance(b)));
+    b.close();
+    a.close();
+    assertFalse(StageProfiler.hasResults());
+  }
+
+  @Test
+  @SuppressWarnings("try")
+  public void testNestedStages() throws Exception {
+    long[] data = null;
+    try(StageProfiler.Scope outer = StageProfiler.push("annotate")) {
+      for(int i = 0; i < 3; i++) {
+        try(StageProfiler.Scope inner = StageProfiler.push("encode")) {
+          data = new long[1 << 20];
+          Thread.sleep(5);
+        }
+      }
+    }
+    assertThat(data.length, is(equalTo(1 << 20)));
+    assertThat(StageProfiler.getCalls("annotate"), is(equalTo(1L)));
+    assertThat(StageProfiler.getCalls("annotate;encode"), is(equalTo(3L)));
+    assertThat(StageProfiler.getCalls("encode"), is(equalTo(0L)));
+    long outer = StageProfiler.getTotal("annotate", StageProfiler.Measure.WALL);
+    long inner = StageProfiler.getTotal("annotate;encode", StageProfiler.Measure.WALL);
+    assertThat(inner, is(greaterThanOrEqualTo(15_000_000L)));
+    assertThat(inner, is(lessThanOrEqualTo(outer)));
+    assertThat(StageProfiler.getTotal("annotate;encode", StageProfiler.Measure.ALLOC), is(greaterThanOrEqualTo(3L * 8 * (1 << 20))));
+
+    StringWriter collapsed = new StringWriter();
+    StageProfiler.writeCollapsed(collapsed, StageProfiler.Measure.WALL);
+    assertThat(collapsed.toString(), containsString("annotate;encode "));
+    assertThat(StageProfiler.getSummary(), containsString("annotate;encode"));
+  }
+
+}
@@ -4,8 +4,12 @@ package de.datexis.encoder;
 import de.datexis.common.Resource;
 import de.datexis.common.WordHelpers;
 import de.datexis.encoder.impl.BagOfWordsEncoder;
+import de.datexis.common.StringTable;
 import de.datexis.model.Document;
+import de.datexis.model.Sentence;
+import de.datexis.model.TokenStore;
 import de.datexis.preprocess.DocumentFactory;
+import de.datexis.preprocess.MinimalLowercaseNewlinePreprocessor;
 import java.io.IOException;
 import java.util.Arrays;
 import org.junit.Test;
@@ -113,4 +117,30 @@ public class BagOfWordsEncoderTest {
     assertArrayEquals(new String[] { "laden","torture" }, enc.getNearestNeighbours(c, 2).toArray());
   }
   
+  @Test
+  public void testCompactDocumentEncodings() {
+    Document plain = DocumentFactory.fromText(text);
+    Document compact = plain.clone().compact(new StringTable());
+    BagOfWordsEncoder enc = new BagOfWordsEncoder();
+    enc.trainModel(Arrays.asList(compact), 3, WordHelpers.Language.EN);
+    assertEquals(6, enc.getFrequency("torture"));
+    assertEquals(0, enc.getFrequency("the"));
+    for(int i = 0; i < plain.countSentences(); i++) {
+      Sentence s = plain.getSentence(i);
+      assertEquals(enc.encode(s), enc.encode(compact.getSentence(i)));
+      assertEquals(enc.encode(s.getTokens()), enc.encode(compact.getSentence(i).getTokens()));
+      assertEquals(enc.getIndex(s.getToken(0)), enc.getIndex(compact.getSentence(i).getToken(0)));
+    }
+    
+    // indexes are cached until the vocabulary or a Token changes
+    TokenStore store = compact.getTokenStore();
+    int[] indexes = enc.getIndexes(store);
+    assertSame(indexes, enc.getIndexes(store));
+    assertSame(store.getNormalizedIds(new MinimalLowercaseNewlinePreprocessor()), store.getNormalizedIds(new MinimalLowercaseNewlinePreprocessor()));
+    compact.getSentence(0).getToken(0).setText("Torture");
+    assertEquals(enc.getIndex("torture"), enc.getIndex(compact.getSentence(0).getToken(0)));
+    enc.trainModel(Arrays.asList(plain), 1, WordHelpers.Language.EN);
+    assertNotSame(indexes, enc.getIndexes(store));
+  }
+  
 }
@@ -0,0 +1,69 @@
+package de.datexis.encoder;
+
+import de.datexis.common.Resource;
+import de.datexis.encoder.impl.BagOfWordsEncoder;
+import de.datexis.encoder.impl.StructureEncoder;
+import de.datexis.model.Dataset;
+import de.datexis.model.Document;
+import de.datexis.model.Sentence;
+import de.datexis.sector.reader.WikiSectionReader;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class SentenceFeatureStoreTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private List<Document> docs;
+  private BagOfWordsEncoder bagEncoder;
+
+  @Before
+  public void setup() throws IOException {
+    Dataset train = WikiSectionReader.readDatasetFromJSON(Resource.fromJAR("testdata").resolve("en_disease_dementia.json"));
+    docs = train.getDocuments();
+    bagEncoder = new BagOfWordsEncoder();
+    bagEncoder.trainModel(docs);
+  }
+
+  @Test
+  public void cachedEncodingsShouldEqualEncoder() throws IOException {
+    Path dir = folder.getRoot().toPath();
+    int maxLength = docs.stream().mapToInt(Document::countSentences).max().getAsInt();
+    INDArray expected = bagEncoder.encodeMatrix(docs, maxLength, Sentence.class);
+    try(SentenceFeatureStore store = new SentenceFeatureStore(dir)) {
+      assertTrue(expected.equalsWithEps(store.encodeMatrix(bagEncoder, docs, maxLength), 1e-6));
+      assertThat(store.getHits(), is(equalTo(0L)));
+      assertTrue(expected.equalsWithEps(store.encodeMatrix(bagEncoder, docs, maxLength), 1e-6));
+      assertThat(store.getHits(), is(greaterThan(0L)));
+    }
+    // reopen persistent store
+    try(SentenceFeatureStore store = new SentenceFeatureStore(dir)) {
+      assertTrue(expected.equalsWithEps(store.encodeMatrix(bagEncoder, docs, maxLength), 1e-6));
+      assertThat(store.getMisses(), is(equalTo(0L)));
+    }
+  }
+
+  @Test
+  public void contextDependentEncodersShouldNotBeCached() {
+    assertTrue(SentenceFeatureStore.isCacheable(bagEncoder));
+    assertFalse(SentenceFeatureStore.isCacheable(new StructureEncoder()));
+  }
+
+}
@@ -1,8 +1,11 @@
 package de.datexis.encoder;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import de.datexis.common.ObjectSerializer;
 import de.datexis.common.Resource;
 import de.datexis.encoder.impl.Word2VecEncoder;
 import de.datexis.preprocess.MinimalLowercasePreprocessor;
+import java.io.IOException;
 import org.junit.Test;
 import static org.junit.Assert.*;
 import org.nd4j.linalg.api.ndarray.INDArray;
@@ -36,6 +39,17 @@ public class Word2VecEncoderTest {
     assertTrue(vec.isUnknown("Berlin Küstenstraße"));
   }
   
+  @Test
+  public void testSaveConfig() throws IOException {
+    Word2VecEncoder vec = Word2VecEncoder.load(txt);
+    Resource temp = Resource.createTempDirectory();
+    vec.saveModel(temp, "word2vec", Word2VecEncoder.ModelType.BINARY);
+    JsonNode config = ObjectSerializer.getObjectMapper().readTree(temp.resolve("config.json").getInputStream());
+    assertEquals(vec.getId(), config.get("id").asText());
+    assertEquals(vec.getEmbeddingVectorSize(), config.get("embeddingVectorSize").asLong());
+    assertFalse(config.has("metrics"));
+  }
+  
   @Test
   public void testSaveBinaryModel() {
     Word2VecEncoder vec = Word2VecEncoder.load(txt);
@@ -340,4 +340,48 @@ public class DocumentModelTest {
     
   }
   
+  @Test
+  public void testCompactDocument() {
+    Document doc = DocumentFactory.fromText(medText);
+    Document expected = doc.clone();
+    assertFalse(doc.isCompact());
+    doc.compact(new de.datexis.common.StringTable());
+    assertTrue(doc.isCompact());
+    assertTrue(doc.getSentence(0).isCompact());
+    assertEquals(expected.getSentences(), doc.getSentences());
+    assertEquals(expected.getText(), doc.getText());
+    assertEquals(expected.countTokens(), doc.getTokenStore().size());
+    assertEquals(expected.getTokens(), doc.getTokens());
+    
+    // texts are interned
+    Token first = doc.getSentence(0).getToken(0);
+    Token second = doc.getSentence(1).getToken(0);
+    assertEquals("Aspirin", first.getText());
+    assertSame(first.getText(), second.getText());
+    
+    // changes are written through, vectors are kept
+    first.putVector("test", Nd4j.create(new float[] {1, 2}));
+    assertSame(first, doc.getSentence(0).getToken(0));
+    assertTrue(doc.getSentence(0).getToken(0).hasVector("test"));
+    doc.getSentence(0).getToken(1).setText("had");
+    assertEquals("had", doc.getTokens().get(1).getText());
+    assertEquals(expected.getSentence(0).getToken(1).getBegin(), doc.getSentence(0).getToken(1).getBegin());
+    
+    // clones stay compact, appending Tokens falls back to a list
+    assertTrue(doc.clone().isCompact());
+    Sentence s = doc.getSentence(1);
+    s.addToken(new Token("!", s.getEnd(), s.getEnd() + 1));
+    assertFalse(s.isCompact());
+    assertEquals(expected.getSentence(1).countTokens() + 1, s.countTokens());
+    assertEquals("!", s.getToken(s.countTokens() - 1).getText());
+    
+    // Documents of a Dataset share a table that is not shared with other Datasets
+    Dataset data = new Dataset("test");
+    data.addDocument(DocumentFactory.fromText(medText));
+    data.addDocument(DocumentFactory.fromText(medText));
+    data.compact();
+    assertSame(data.getDocument(0).get().getTokenStore().getStringTable(), data.getDocument(1).get().getTokenStore().getStringTable());
+    assertNotSame(data.getDocument(0).get().getTokenStore().getStringTable(), DocumentFactory.fromText(medText).compact().getTokenStore().getStringTable());
+  }
+  
 }
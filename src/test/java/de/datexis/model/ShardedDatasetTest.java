@@ -0,0 +1,114 @@
+package de.datexis.model;
+
+import de.datexis.common.Resource;
+import de.datexis.encoder.impl.BagOfWordsEncoder;
+import de.datexis.encoder.impl.DummyEncoder;
+import de.datexis.encoder.impl.StructureEncoder;
+import de.datexis.sector.encoder.HeadingEncoder;
+import de.datexis.sector.model.SectionAnnotation;
+import de.datexis.sector.reader.WikiSectionReader;
+import de.datexis.sector.tagger.DocumentSentenceIterator;
+import de.datexis.sector.tagger.SectorTagger;
+import de.datexis.sector.tagger.SectorTaggerIterator;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class ShardedDatasetTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Dataset train;
+  private List<Document> docs;
+
+  @Before
+  public void setup() throws IOException {
+    train = WikiSectionReader.readDatasetFromJSON(Resource.fromJAR("testdata").resolve("en_disease_dementia.json"));
+    docs = new ArrayList<>();
+    for(int i = 0; i < 10; i++) {
+      Document doc = train.getDocument(0).get().clone();
+      doc.setId("doc" + i);
+      docs.add(doc);
+    }
+  }
+
+  @Test
+  public void shuffledIteratorShouldReturnAllDocuments() throws IOException {
+    ShardedDataset shards = ShardedDataset.write(docs.iterator(), folder.getRoot().toPath(), "test", 3);
+    assertThat(shards.countShards(), is(equalTo(4)));
+    assertThat(shards.countDocuments(), is(equalTo(10)));
+    Document expected = docs.get(0);
+    Set<String> ids = new HashSet<>();
+    ShardedDataset.DocumentIterator it = shards.iterator(true, 4, new Random(42));
+    while(it.hasNext()) {
+      Document doc = it.next();
+      ids.add(doc.getId());
+      assertThat(doc.getText(), is(equalTo(expected.getText())));
+      assertThat(doc.countSentences(), is(equalTo(expected.countSentences())));
+      assertThat(doc.countAnnotations(Annotation.Source.GOLD), is(equalTo(expected.countAnnotations(Annotation.Source.GOLD))));
+    }
+    assertThat(ids.size(), is(equalTo(10)));
+  }
+
+  @Test
+  public void streamingIteratorShouldHonorNumExamples() throws IOException {
+    ShardedDataset shards = ShardedDataset.write(docs.iterator(), folder.getRoot().toPath(), "test", 3);
+    BagOfWordsEncoder bagEncoder = new BagOfWordsEncoder();
+    bagEncoder.trainModel(shards.streamDocuments());
+    HeadingEncoder headingEncoder = new HeadingEncoder();
+    headingEncoder.trainModel(train.getDocuments());
+    SectorTagger tagger = new SectorTagger();
+    tagger.setInputEncoders(bagEncoder, new DummyEncoder(), new StructureEncoder());
+    tagger.setTargetEncoder(headingEncoder);
+    SectorTaggerIterator it = new SectorTaggerIterator(DocumentSentenceIterator.Stage.TRAIN, shards, tagger, 7, -1, 2, true, false, 4);
+    for(int epoch = 0; epoch < 2; epoch++) {
+      int count = 0;
+      while(it.hasNext()) count += it.nextDocumentBatch().docs.stream().filter(d -> !d.isEmpty()).count();
+      assertThat(count, is(equalTo(7)));
+      it.reset();
+    }
+    it.withTimestepBudget(400);
+    int count = 0;
+    while(it.hasNext()) count += it.nextDocumentBatch().docs.size();
+    assertThat(count, is(equalTo(7)));
+  }
+
+  @Test
+  public void replayKeyShouldChangeWithShards() throws IOException {
+    ShardedDataset shards = ShardedDataset.write(docs.iterator(), folder.getRoot().toPath(), "test", 3);
+    BagOfWordsEncoder bagEncoder = new BagOfWordsEncoder();
+    bagEncoder.trainModel(train.getDocuments());
+    HeadingEncoder headingEncoder = new HeadingEncoder();
+    headingEncoder.trainModel(train.getDocuments());
+    SectorTagger tagger = new SectorTagger();
+    tagger.setInputEncoders(bagEncoder, new DummyEncoder(), new StructureEncoder());
+    tagger.setTargetEncoder(headingEncoder);
+    String key = new SectorTaggerIterator(DocumentSentenceIterator.Stage.TRAIN, shards, tagger, -1, -1, 2, true, false, 4).getReplayKey();
+    assertThat(new SectorTaggerIterator(DocumentSentenceIterator.Stage.TRAIN, shards, tagger, -1, -1, 2, true, false, 4).getReplayKey(), is(equalTo(key)));
+
+    // rewriting a shard with the same number of Documents invalidates the key
+    Path shard = shards.getShardFiles().get(1);
+    Files.setLastModifiedTime(shard, FileTime.fromMillis(Files.getLastModifiedTime(shard).toMillis() - 60000));
+    assertThat(new SectorTaggerIterator(DocumentSentenceIterator.Stage.TRAIN, shards, tagger, -1, -1, 2, true, false, 4).getReplayKey(), is(not(equalTo(key))));
+  }
+
+}
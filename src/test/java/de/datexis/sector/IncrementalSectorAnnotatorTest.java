@@ -0,0 +1,77 @@
+package de.datexis.sector;
+
+import de.datexis.model.Annotation;
+import de.datexis.model.Dataset;
+import de.datexis.model.Document;
+import de.datexis.model.Sentence;
+import de.datexis.sector.IncrementalSectorAnnotator.SentenceDiff;
+import de.datexis.sector.model.SectionAnnotation;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class IncrementalSectorAnnotatorTest {
+
+  private SectorAnnotator annotator;
+  private Document previous;
+
+  @Before
+  public void setup() throws IOException {
+    Dataset train = SectorTestFixtures.readTestDataset();
+    previous = train.getDocument(0).get();
+    annotator = SectorTestFixtures.createTinyAnnotator(train, 16, 16, 4);
+    annotator.annotate(Collections.singletonList(previous));
+  }
+
+  @Test
+  public void incrementalAnnotationShouldOnlyUpdateEditedRegion() {
+    // remove a single sentence
+    int removed = previous.countSentences() / 2;
+    Document edited = new Document();
+    for(int t = 0; t < previous.countSentences(); t++) {
+      if(t != removed) edited.addSentence(previous.getSentence(t).clone());
+    }
+
+    SentenceDiff diff = SentenceDiff.compute(previous, edited);
+    assertThat(diff.begin, is(equalTo(removed)));
+    assertThat(diff.removed, is(equalTo(1)));
+    assertThat(diff.inserted, is(equalTo(0)));
+
+    new IncrementalSectorAnnotator(annotator).withContext(4, 4).withMinSegmentationLength(8)
+      .annotate(previous, edited, diff, SectorAnnotator.SegmentationMethod.BEMD);
+
+    // vectors outside of the context are taken from the previous annotation
+    for(int t = 0; t < edited.countSentences(); t++) {
+      Sentence s = edited.getSentence(t);
+      assertTrue(s.hasVector("embeddingFW") && s.hasVector("embeddingBW"));
+      if(t < removed - 4) {
+        assertTrue(s.getVector("embeddingBW").equalsWithEps(previous.getSentence(t).getVector("embeddingBW"), 1e-6));
+      } else if(t >= removed + 4) {
+        assertTrue(s.getVector("embeddingFW").equalsWithEps(previous.getSentence(t + 1).getVector("embeddingFW"), 1e-6));
+      }
+    }
+
+    // sections are contiguous and cover the whole document
+    List<SectionAnnotation> sections = edited.streamAnnotations(Annotation.Source.PRED, SectionAnnotation.class)
+      .sorted(Comparator.comparingInt(SectionAnnotation::getBegin))
+      .collect(Collectors.toList());
+    assertThat(sections.get(0).getBegin(), is(equalTo(edited.getBegin())));
+    assertThat(sections.get(sections.size() - 1).getEnd(), is(equalTo(edited.getEnd())));
+    for(int i = 1; i < sections.size(); i++) {
+      assertTrue(sections.get(i - 1).getEnd() <= sections.get(i).getBegin());
+    }
+  }
+
+}
@@ -0,0 +1,127 @@
+package de.datexis.sector;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.datexis.common.ObjectSerializer;
+import de.datexis.common.Resource;
+import de.datexis.model.Dataset;
+import de.datexis.model.Document;
+import de.datexis.preprocess.DocumentFactory;
+import de.datexis.sector.service.SectorAnnotationService;
+import de.datexis.sector.tagger.SectorTagger;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class SectorAnnotationPipelineTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void pipelineShouldEqualBatchAnnotation() throws IOException {
+    Resource testFile = Resource.fromJAR("testdata").resolve("en_disease_dementia.json");
+    Dataset train = SectorTestFixtures.readTestDataset();
+    SectorAnnotator annotator = SectorTestFixtures.createTinyAnnotator(train, 16, 16, 2);
+
+    String text = train.getDocument(0).get().getText();
+    Document expected = DocumentFactory.fromText(text, DocumentFactory.Newlines.KEEP);
+    annotator.annotate(Collections.singletonList(expected), SectorAnnotator.SegmentationMethod.BEMD);
+    ObjectMapper mapper = ObjectSerializer.getObjectMapper();
+    String expectedSections = getBoundaries(mapper.readTree(ObjectSerializer.getJSONRaw(SectorAnnotationService.getSections(expected))));
+
+    // JSONL input with an empty document
+    Path input = folder.newFile("input.jsonl").toPath();
+    List<String> lines = new ArrayList<>();
+    for(int i = 0; i < 5; i++) lines.add(mapper.createObjectNode().put("id", "doc" + i).put("text", i == 2 ? "" : text).toString());
+    Files.write(input, lines, StandardCharsets.UTF_8);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SectorAnnotationPipeline.Statistics stats = new SectorAnnotationPipeline(annotator)
+      .withBatching(2, 10)
+      .withQueueSize(4)
+      .withThreads(2, 2, 2, 2)
+      .run(SectorAnnotationPipeline.readInput(input), out);
+    assertThat(stats.getDocuments(), is(equalTo(5L)));
+
+    String[] results = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+    assertThat(results.length, is(equalTo(5)));
+    for(int i = 0; i < 5; i++) {
+      JsonNode result = mapper.readTree(results[i]);
+      assertThat(result.get("id").asText(), is(equalTo("doc" + i)));
+      if(i == 2) assertThat(result.get("sections").size(), is(equalTo(0)));
+      else assertThat(getBoundaries(result), is(equalTo(expectedSections)));
+    }
+
+    // a window of one Document is processed sequentially
+    out = new ByteArrayOutputStream();
+    stats = new SectorAnnotationPipeline(annotator)
+      .withBatching(2, 10)
+      .withWindowSize(1)
+      .withThreads(2, 2, 2, 2)
+      .run(SectorAnnotationPipeline.readInput(input), out);
+    assertThat(stats.getDocuments(), is(equalTo(5L)));
+    results = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+    for(int i = 0; i < 5; i++) assertThat(mapper.readTree(results[i]).get("id").asText(), is(equalTo("doc" + i)));
+
+    // WikiSection JSON input
+    out = new ByteArrayOutputStream();
+    new SectorAnnotationPipeline(annotator).run(SectorAnnotationPipeline.readInput(testFile.getPath()), out);
+    assertThat(new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n").length, is(equalTo(1)));
+  }
+
+  @Test(timeout = 60000)
+  public void failedPipelineShouldTerminate() throws IOException {
+    SectorAnnotator annotator = new SectorAnnotator(new SectorTagger());
+    ObjectMapper mapper = ObjectSerializer.getObjectMapper();
+    // records without text fail in the tokenize stage while the read stage is blocked on a full queue
+    Iterator<JsonNode> input = new Iterator<JsonNode>() {
+      int count = 0;
+      @Override
+      public boolean hasNext() {
+        return count < 100000;
+      }
+      @Override
+      public JsonNode next() {
+        return mapper.createObjectNode().put("id", "doc" + count++);
+      }
+    };
+    try {
+      new SectorAnnotationPipeline(annotator)
+        .withBatching(1, 10)
+        .withQueueSize(1)
+        .withThreads(1, 1, 1, 1)
+        .run(input, new ByteArrayOutputStream());
+      fail("pipeline should fail");
+    } catch(IllegalStateException ex) {
+      assertThat(ex.getCause(), is(instanceOf(IllegalArgumentException.class)));
+    }
+  }
+
+  private String getBoundaries(JsonNode result) {
+    StringBuilder sections = new StringBuilder();
+    for(JsonNode section : result.get("sections")) {
+      sections.append(section.get("begin")).append("-").append(section.get("end")).append(":").append(section.get("label").asText()).append(" ");
+    }
+    return sections.toString();
+  }
+
+}
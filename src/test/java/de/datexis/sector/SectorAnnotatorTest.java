@@ -6,7 +6,11 @@ import de.datexis.model.Dataset;
 import de.datexis.model.Document;
 import de.datexis.sector.model.SectionAnnotation;
 import de.datexis.sector.reader.WikiSectionReader;
+import de.datexis.sector.eval.SectorEvaluation;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -38,4 +42,25 @@ public class SectorAnnotatorTest {
     
   }
   
+  @Test
+  public void segmentationMethodsShouldEvaluateIndependently() throws IOException {
+    Dataset test = SectorTestFixtures.readTestDataset();
+    SectorAnnotator annotator = new SectorAnnotator(SectorTestFixtures.createTinyTagger(test, SectorTestFixtures.createClassEncoder(test.getDocument(0).get()), 16, 16, 2));
+
+    Document expected = test.getDocument(0).get().clone();
+    for(SectionAnnotation ann : test.getDocument(0).get().getAnnotations(Annotation.Source.GOLD, SectionAnnotation.class)) {
+      expected.addAnnotation(ann);
+    }
+    annotator.annotate(Collections.singletonList(expected), SectorAnnotator.SegmentationMethod.BEMD);
+
+    annotator.annotate(test.getDocuments(), SectorAnnotator.SegmentationMethod.NONE);
+    Map<SectorAnnotator.SegmentationMethod,SectorEvaluation> evals = annotator.evaluateSegmentationMethods(test,
+      Arrays.asList(SectorAnnotator.SegmentationMethod.BEMD, SectorAnnotator.SegmentationMethod.GOLD, SectorAnnotator.SegmentationMethod.NL));
+    assertEquals(3, evals.size());
+    assertEquals(expected.countAnnotations(Annotation.Source.PRED, SectionAnnotation.class), evals.get(SectorAnnotator.SegmentationMethod.BEMD).countPredictions(), 0.);
+    SectorEvaluation gold = evals.get(SectorAnnotator.SegmentationMethod.GOLD);
+    assertEquals(gold.countSections(), gold.countPredictions(), 0.);
+    assertEquals(0, test.getDocument(0).get().countAnnotations(Annotation.Source.PRED, SectionAnnotation.class));
+  }
+  
 }
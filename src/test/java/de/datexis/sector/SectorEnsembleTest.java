@@ -0,0 +1,87 @@
+package de.datexis.sector;
+
+import de.datexis.encoder.impl.BagOfWordsEncoder;
+import de.datexis.encoder.impl.DummyEncoder;
+import de.datexis.encoder.impl.StructureEncoder;
+import de.datexis.model.Annotation;
+import de.datexis.model.Dataset;
+import de.datexis.model.Document;
+import de.datexis.model.Sentence;
+import de.datexis.sector.encoder.ClassEncoder;
+import de.datexis.sector.encoder.HeadingEncoder;
+import de.datexis.sector.model.SectionAnnotation;
+import de.datexis.sector.tagger.SectorTagger;
+import java.io.IOException;
+import java.util.Collections;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class SectorEnsembleTest {
+
+  @Test
+  public void ensembleShouldEqualIndividualModels() throws IOException {
+    Dataset train = SectorTestFixtures.readTestDataset();
+    Document doc = train.getDocument(0).get();
+    BagOfWordsEncoder bagEncoder = new BagOfWordsEncoder();
+    bagEncoder.trainModel(train.getDocuments());
+    DummyEncoder embEncoder = new DummyEncoder();
+    StructureEncoder flagEncoder = new StructureEncoder();
+
+    HeadingEncoder headingEncoder = new HeadingEncoder();
+    headingEncoder.trainModel(train.getDocuments());
+    SectorTagger headingTagger = SectorTestFixtures.createTinyTagger(bagEncoder, embEncoder, flagEncoder, headingEncoder, 16, 16);
+    headingTagger.setTrainingParams(-1, -1, 2, 1, false);
+    SectorAnnotator headings = new SectorAnnotator(headingTagger);
+
+    SectorTagger classTagger = SectorTestFixtures.createTinyTagger(bagEncoder, embEncoder, flagEncoder, SectorTestFixtures.createClassEncoder(doc), 16, 16);
+    classTagger.setTrainingParams(-1, -1, 2, 1, false);
+    SectorAnnotator classes = new SectorAnnotator(classTagger);
+
+    Document expectedH = doc.clone();
+    headings.annotate(Collections.singletonList(expectedH), SectorAnnotator.SegmentationMethod.BEMD);
+    Document expectedT = doc.clone();
+    classes.annotate(Collections.singletonList(expectedT), SectorAnnotator.SegmentationMethod.BEMD);
+
+    Document result = doc.clone();
+    new SectorEnsemble()
+      .withModel("H", headings)
+      .withModel("T", classes)
+      .annotate(Collections.singletonList(result), SectorAnnotator.SegmentationMethod.BEMD);
+
+    for(int t = 0; t < result.countSentences(); t++) {
+      Sentence s = result.getSentence(t);
+      assertTrue(s.getVector(SectorEnsemble.getVectorKey("H", "embeddingFW")).equalsWithEps(expectedH.getSentence(t).getVector("embeddingFW"), 1e-5));
+      assertTrue(s.getVector(SectorEnsemble.getVectorKey("T", "embeddingBW")).equalsWithEps(expectedT.getSentence(t).getVector("embeddingBW"), 1e-5));
+      assertTrue(s.getVector(ClassEncoder.class).equalsWithEps(expectedT.getSentence(t).getVector(ClassEncoder.class), 1e-5));
+      assertTrue(s.getVector("embeddingFW").equalsWithEps(expectedH.getSentence(t).getVector("embeddingFW"), 1e-5));
+    }
+    assertThat(result.countAnnotations(Annotation.Source.PRED, SectionAnnotation.class),
+      is(equalTo(expectedH.countAnnotations(Annotation.Source.PRED, SectionAnnotation.class))));
+    for(SectionAnnotation ann : result.getAnnotations(Annotation.Source.PRED, SectionAnnotation.class)) {
+      assertThat(ann.getSectionHeading(), is(notNullValue()));
+      assertThat(ann.getSectionLabel(), is(notNullValue()));
+    }
+
+    // averaged embeddings
+    Document averaged = doc.clone();
+    new SectorEnsemble()
+      .withModel("H", headings)
+      .withModel("T", classes)
+      .withEmbeddingAveraging(true)
+      .annotate(Collections.singletonList(averaged), SectorAnnotator.SegmentationMethod.BEMD);
+    for(int t = 0; t < averaged.countSentences(); t++) {
+      INDArray expected = expectedH.getSentence(t).getVector("embeddingFW").add(expectedT.getSentence(t).getVector("embeddingFW")).divi(2);
+      assertTrue(averaged.getSentence(t).getVector("embeddingFW").equalsWithEps(expected, 1e-5));
+    }
+  }
+
+}
@@ -0,0 +1,48 @@
+package de.datexis.sector;
+
+import de.datexis.model.Annotation;
+import de.datexis.model.Dataset;
+import de.datexis.model.Document;
+import de.datexis.sector.model.SectionAnnotation;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class SectorInferenceEngineTest {
+
+  @Test
+  public void concurrentInferenceShouldEqualSequentialInference() throws IOException {
+    Dataset train = SectorTestFixtures.readTestDataset();
+    Document doc = train.getDocument(0).get();
+    SectorAnnotator annotator = SectorTestFixtures.createTinyAnnotator(train, 16, 16, 2);
+
+    Document expected = doc.clone();
+    annotator.annotate(Collections.singletonList(expected));
+
+    List<Document> docs = new ArrayList<>();
+    for(int i = 0; i < 8; i++) docs.add(doc.clone());
+    try(SectorInferenceEngine engine = new SectorInferenceEngine(annotator, 4)) {
+      engine.annotateParallel(docs, SectorAnnotator.SegmentationMethod.BEMD);
+    }
+
+    for(Document result : docs) {
+      for(int t = 0; t < result.countSentences(); t++) {
+        assertTrue(result.getSentence(t).getVector("embeddingFW").equalsWithEps(expected.getSentence(t).getVector("embeddingFW"), 1e-5));
+        assertTrue(result.getSentence(t).getVector("embeddingBW").equalsWithEps(expected.getSentence(t).getVector("embeddingBW"), 1e-5));
+      }
+      assertThat(result.countAnnotations(Annotation.Source.PRED, SectionAnnotation.class),
+        is(equalTo(expected.countAnnotations(Annotation.Source.PRED, SectionAnnotation.class))));
+    }
+  }
+
+}
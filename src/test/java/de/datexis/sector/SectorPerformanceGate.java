@@ -0,0 +1,226 @@
+package de.datexis.sector;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import de.datexis.common.ObjectSerializer;
+import de.datexis.encoder.impl.BagOfWordsEncoder;
+import de.datexis.encoder.impl.DummyEncoder;
+import de.datexis.encoder.impl.StructureEncoder;
+import de.datexis.model.Dataset;
+import de.datexis.model.Document;
+import de.datexis.sector.encoder.ClassEncoder;
+import de.datexis.sector.reader.SyntheticCorpusGenerator;
+import de.datexis.sector.tagger.SectorTagger;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.junit.Test;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.Assert.fail;
+
+/**
+ * Performance regression gate that is only run with "mvn test -Pperf". Runs fixed-seed synthetic workloads through
+ * training epochs and the annotation stages of SectorThroughputBenchmark, and compares the best throughput of every
+ * stage (in sentences/s) out of several repetitions against a baseline file. The build fails if a stage is slower
+ * than the baseline by more than the tolerance. Baselines depend on the machine, use -Dperf.update=true to record
+ * a new one. The gate fails before measuring if the major Java version or the number of processors differ from the
+ * environment of the baseline, unless -Dperf.ignoreEnvironment=true is set. Differences of JVM vendor and patch
+ * level, OS, CPU model and ND4J backend are only reported.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class SectorPerformanceGate {
+
+  protected final static Logger log = LoggerFactory.getLogger(SectorPerformanceGate.class);
+
+  protected static final long SEED = 42;
+  protected static final int NUM_DOCUMENTS = 64;
+  protected static final int BATCH_SIZE = 16;
+  protected static final int REPETITIONS = 3;
+
+  /** environment properties that must match the baseline */
+  protected static final List<String> REQUIRED_ENVIRONMENT = Arrays.asList("java", "processors");
+
+  @Test
+  public void throughputShouldNotRegress() throws IOException {
+    Path baselineFile = Paths.get(System.getProperty("perf.baseline", "src/test/resources/perf/baseline.json"));
+    double tolerance = Double.parseDouble(System.getProperty("perf.tolerance", "0.3"));
+    boolean update = Boolean.parseBoolean(System.getProperty("perf.update", "false"));
+    boolean ignoreEnvironment = Boolean.parseBoolean(System.getProperty("perf.ignoreEnvironment", "false"));
+
+    ObjectMapper mapper = ObjectSerializer.getObjectMapper();
+    boolean record = update || !Files.exists(baselineFile);
+    JsonNode recorded = record ? null : mapper.readTree(baselineFile.toFile());
+    if(recorded != null) {
+      List<String> differences = compareEnvironment(recorded.path("environment"), createEnvironment(mapper));
+      List<String> required = new ArrayList<>();
+      for(String difference : differences) {
+        if(REQUIRED_ENVIRONMENT.contains(difference.substring(0, difference.indexOf(' ')))) required.add(difference);
+        else log.warn("Performance baseline {} was recorded with {}", baselineFile, difference);
+      }
+      if(!required.isEmpty()) {
+        String message = "Performance baseline " + baselineFile + " was recorded in a different environment (" +
+          String.join(", ", required) + "), record a new baseline on this machine with: mvn test -Pperf -Dperf.update=true";
+        if(!ignoreEnvironment) fail(message);
+        log.warn("{}, comparing anyway", message);
+      }
+    }
+
+    Map<String,Double> current = measure();
+    ObjectNode results = createReport(mapper, current);
+    Path resultFile = Paths.get("target", "perf-results.json");
+    Files.createDirectories(resultFile.getParent());
+    mapper.writerWithDefaultPrettyPrinter().writeValue(resultFile.toFile(), results);
+
+    if(record) {
+      Files.createDirectories(baselineFile.toAbsolutePath().getParent());
+      mapper.writerWithDefaultPrettyPrinter().writeValue(baselineFile.toFile(), results);
+      log.info("Recorded performance baseline {}", baselineFile);
+      return;
+    }
+
+    JsonNode baseline = recorded.get("sentencesPerSecond");
+    StringBuilder report = new StringBuilder();
+    report.append(String.format(Locale.ROOT, "%-10s %14s %14s %9s%n", "stage", "baseline", "current", "change"));
+    List<String> regressed = new ArrayList<>();
+    Iterator<Map.Entry<String,JsonNode>> it = baseline.fields();
+    while(it.hasNext()) {
+      Map.Entry<String,JsonNode> e = it.next();
+      double expected = e.getValue().asDouble();
+      double actual = current.getOrDefault(e.getKey(), 0.);
+      double change = expected > 0 ? actual / expected - 1. : 0.;
+      boolean slow = change < -tolerance;
+      if(slow) regressed.add(e.getKey());
+      report.append(String.format(Locale.ROOT, "%-10s %14.1f %14.1f %+8.1f%%%s%n", e.getKey(), expected, actual, change * 100, slow ? "  REGRESSED" : ""));
+    }
+    log.info("Throughput in sentences/s compared to {} (tolerance {}%):\n{}", baselineFile, Math.round(tolerance * 100), report);
+    if(!regressed.isEmpty()) {
+      fail("Throughput regression in stages " + String.join(", ", regressed) + " (tolerance " + Math.round(tolerance * 100) + "%):\n" + report);
+    }
+  }
+
+  /**
+   * @return best throughput in sentences/s of one training epoch, end-to-end annotation and all annotation stages
+   */
+  protected Map<String,Double> measure() throws IOException {
+    SyntheticCorpusGenerator generator = new SyntheticCorpusGenerator()
+      .withSeed(SEED)
+      .withDocuments(NUM_DOCUMENTS);
+    Dataset train = generator.createDataset("perf");
+    long sentences = 0;
+    for(Document doc : train.getDocuments()) sentences += doc.countSentences();
+
+    Nd4j.getRandom().setSeed(SEED);
+    BagOfWordsEncoder bagEncoder = new BagOfWordsEncoder();
+    bagEncoder.trainModel(train.getDocuments());
+    ClassEncoder classEncoder = new ClassEncoder();
+    classEncoder.trainModel(generator.getLabels(), 1);
+    SectorTagger tagger = SectorTestFixtures.createTinyTagger(bagEncoder, new DummyEncoder(), new StructureEncoder(), classEncoder, 64, 32);
+    tagger.setTrainingParams(-1, -1, BATCH_SIZE, 1, false);
+
+    Map<String,Double> result = new LinkedHashMap<>();
+
+    // training: one warmup epoch, then the fastest of the measured epochs
+    tagger.trainModel(train, 1);
+    for(int i = 0; i < REPETITIONS; i++) {
+      long start = System.nanoTime();
+      tagger.trainModel(train, 1);
+      best(result, "train", sentences * 1e9 / (System.nanoTime() - start));
+    }
+
+    // annotation stages: one warmup round, then the fastest of the measured rounds per stage
+    List<JsonNode> corpus = new ArrayList<>();
+    for(long i = 0; i < NUM_DOCUMENTS; i++) corpus.add(generator.createRecord(i));
+    SectorAnnotator annotator = new SectorAnnotator(tagger);
+    new SectorThroughputBenchmark(annotator).withRounds(0, 1).run(corpus, BATCH_SIZE, 1, SectorAnnotator.SegmentationMethod.BEMD);
+    for(int i = 0; i < REPETITIONS; i++) {
+      SectorThroughputBenchmark.Result annotation = new SectorThroughputBenchmark(annotator).withRounds(0, 1)
+        .run(corpus, BATCH_SIZE, 1, SectorAnnotator.SegmentationMethod.BEMD);
+      best(result, "annotate", annotation.getSentencesPerSecond());
+      for(SectorThroughputBenchmark.Stage stage : SectorThroughputBenchmark.Stage.values()) {
+        double seconds = annotation.getStageTime(stage) / 1000.;
+        best(result, stage.toString().toLowerCase(Locale.ROOT), seconds > 0 ? annotation.getSentences() / seconds : 0.);
+      }
+    }
+    return result;
+  }
+
+  private static void best(Map<String,Double> result, String stage, double throughput) {
+    result.merge(stage, throughput, Math::max);
+  }
+
+  /**
+   * @return descriptions of all environment properties that differ from the recorded ones
+   */
+  protected static List<String> compareEnvironment(JsonNode recorded, JsonNode current) {
+    List<String> differences = new ArrayList<>();
+    Iterator<Map.Entry<String,JsonNode>> it = current.fields();
+    while(it.hasNext()) {
+      Map.Entry<String,JsonNode> e = it.next();
+      String expected = recorded.path(e.getKey()).asText("unknown");
+      String actual = e.getValue().asText();
+      if(!expected.equals(actual)) differences.add(e.getKey() + " " + expected + " -> " + actual);
+    }
+    return differences;
+  }
+
+  /**
+   * @return the major Java version, e.g. 8 or 17
+   */
+  protected static String getJavaVersion() {
+    String version = System.getProperty("java.specification.version");
+    return version.startsWith("1.") ? version.substring(2) : version;
+  }
+
+  /**
+   * @return the CPU model name on Linux, or the architecture on other systems
+   */
+  protected static String getCpuModel() {
+    Path cpuinfo = Paths.get("/proc/cpuinfo");
+    try {
+      if(Files.isReadable(cpuinfo)) {
+        for(String line : Files.readAllLines(cpuinfo, StandardCharsets.UTF_8)) {
+          if(line.startsWith("model name")) return line.substring(line.indexOf(':') + 1).trim();
+        }
+      }
+    } catch(IOException ex) {
+      log.debug("Could not read CPU model: {}", ex.toString());
+    }
+    return System.getProperty("os.arch");
+  }
+
+  /**
+   * @return Java version, JVM, OS, CPU and ND4J backend of this machine
+   */
+  protected static ObjectNode createEnvironment(ObjectMapper mapper) {
+    ObjectNode env = mapper.createObjectNode();
+    env.put("java", getJavaVersion());
+    env.put("jvm", System.getProperty("java.vendor") + " " + System.getProperty("java.version"));
+    env.put("os", System.getProperty("os.name") + " " + System.getProperty("os.arch"));
+    env.put("cpu", getCpuModel());
+    env.put("processors", Runtime.getRuntime().availableProcessors());
+    env.put("backend", Nd4j.getBackend().getClass().getSimpleName());
+    return env;
+  }
+
+  protected static ObjectNode createReport(ObjectMapper mapper, Map<String,Double> throughput) {
+    ObjectNode report = mapper.createObjectNode();
+    report.set("environment", createEnvironment(mapper));
+    ObjectNode stages = report.putObject("sentencesPerSecond");
+    for(Map.Entry<String,Double> e : throughput.entrySet()) stages.put(e.getKey(), Math.round(e.getValue() * 10) / 10.);
+    return report;
+  }
+
+}
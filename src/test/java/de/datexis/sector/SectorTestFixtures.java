@@ -0,0 +1,84 @@
+package de.datexis.sector;
+
+import de.datexis.common.Resource;
+import de.datexis.encoder.Encoder;
+import de.datexis.encoder.impl.BagOfWordsEncoder;
+import de.datexis.encoder.impl.DummyEncoder;
+import de.datexis.encoder.impl.StructureEncoder;
+import de.datexis.model.Annotation;
+import de.datexis.model.Dataset;
+import de.datexis.model.Document;
+import de.datexis.sector.encoder.ClassEncoder;
+import de.datexis.sector.encoder.HeadingEncoder;
+import de.datexis.sector.model.SectionAnnotation;
+import de.datexis.sector.reader.WikiSectionReader;
+import de.datexis.sector.tagger.SectorTagger;
+import java.io.IOException;
+import java.util.stream.Collectors;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.lossfunctions.impl.LossMCXENT;
+
+/**
+ * Tiny untrained SECTOR models on the test Dataset, which are shared by all tests that only need a working network.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class SectorTestFixtures {
+
+  private SectorTestFixtures() {}
+
+  /**
+   * @return the WikiSection test Dataset with a single Document
+   */
+  public static Dataset readTestDataset() throws IOException {
+    return WikiSectionReader.readDatasetFromJSON(Resource.fromJAR("testdata").resolve("en_disease_dementia.json"));
+  }
+
+  /**
+   * @return a ClassEncoder trained on the GOLD section labels of the given Document
+   */
+  public static ClassEncoder createClassEncoder(Document doc) {
+    ClassEncoder classEncoder = new ClassEncoder();
+    classEncoder.trainModel(doc.streamAnnotations(Annotation.Source.GOLD, SectionAnnotation.class)
+      .map(SectionAnnotation::getSectionLabel).collect(Collectors.toList()), 1);
+    return classEncoder;
+  }
+
+  /**
+   * @return a tagger with given encoders and a SECTOR network of given layer sizes, but no training parameters
+   */
+  public static SectorTagger createTinyTagger(Encoder bagEncoder, Encoder embEncoder, Encoder flagEncoder, Encoder targetEncoder, int lstmLayerSize, int embeddingLayerSize) {
+    SectorTagger tagger = new SectorTagger();
+    tagger.setInputEncoders(bagEncoder, embEncoder, flagEncoder);
+    tagger.setTargetEncoder(targetEncoder);
+    tagger.buildSECTORModel(0, lstmLayerSize, embeddingLayerSize, 1, 0.01, 0.0, new LossMCXENT(), Activation.SOFTMAX);
+    return tagger;
+  }
+
+  /**
+   * @return a tagger with Bag-of-words input and the given target encoder that annotates batches of batchSize
+   */
+  public static SectorTagger createTinyTagger(Dataset train, Encoder targetEncoder, int lstmLayerSize, int embeddingLayerSize, int batchSize) {
+    BagOfWordsEncoder bagEncoder = new BagOfWordsEncoder();
+    bagEncoder.trainModel(train.getDocuments());
+    SectorTagger tagger = createTinyTagger(bagEncoder, new DummyEncoder(), new StructureEncoder(), targetEncoder, lstmLayerSize, embeddingLayerSize);
+    tagger.setTrainingParams(-1, -1, batchSize, 1, false);
+    return tagger;
+  }
+
+  /**
+   * @return a tagger with Bag-of-words input and heading target that annotates batches of batchSize
+   */
+  public static SectorTagger createTinyTagger(Dataset train, int lstmLayerSize, int embeddingLayerSize, int batchSize) {
+    HeadingEncoder headingEncoder = new HeadingEncoder();
+    headingEncoder.trainModel(train.getDocuments());
+    return createTinyTagger(train, headingEncoder, lstmLayerSize, embeddingLayerSize, batchSize);
+  }
+
+  /**
+   * @return an annotator with Bag-of-words input and heading target that annotates batches of batchSize
+   */
+  public static SectorAnnotator createTinyAnnotator(Dataset train, int lstmLayerSize, int embeddingLayerSize, int batchSize) {
+    return new SectorAnnotator(createTinyTagger(train, lstmLayerSize, embeddingLayerSize, batchSize));
+  }
+
+}
@@ -0,0 +1,59 @@
+package de.datexis.sector;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import de.datexis.common.ObjectSerializer;
+import de.datexis.model.Dataset;
+import de.datexis.model.Document;
+import de.datexis.sector.tagger.SectorTagger;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class SectorThroughputBenchmarkTest {
+
+  @Test
+  public void benchmarkShouldMeasureAllStages() throws IOException {
+    Dataset train = SectorTestFixtures.readTestDataset();
+    Document doc = train.getDocument(0).get();
+    SectorTagger tagger = SectorTestFixtures.createTinyTagger(train, SectorTestFixtures.createClassEncoder(doc), 16, 16, 2);
+    SectorThroughputBenchmark benchmark = new SectorThroughputBenchmark(new SectorAnnotator(tagger)).withRounds(1, 2);
+
+    // GOLD sections are evaluated
+    List<JsonNode> corpus = new ArrayList<>();
+    for(int i = 0; i < 5; i++) corpus.add(ObjectSerializer.getObjectMapper().valueToTree(doc));
+    SectorThroughputBenchmark.Result result = benchmark.run(corpus, 2, 2, SectorAnnotator.SegmentationMethod.BEMD);
+    assertThat(result.getDocuments(), is(equalTo(10L)));
+    assertThat(result.getSentences(), is(equalTo(10L * doc.countSentences())));
+    assertThat(result.getDocumentsPerSecond(), is(greaterThan(0.)));
+    assertThat(result.getLatency(99), is(greaterThanOrEqualTo(result.getLatency(50))));
+    for(SectorThroughputBenchmark.Stage stage : SectorThroughputBenchmark.Stage.values()) {
+      assertThat(stage.toString(), result.getStageTime(stage), is(greaterThan(0.)));
+    }
+    assertTrue(result.toMap().containsKey("Pk"));
+
+    // generated corpus
+    List<JsonNode> generated = SectorThroughputBenchmark.generateCorpus(3, 20, 42);
+    result = benchmark.run(generated, 4, 1, SectorAnnotator.SegmentationMethod.EMD);
+    assertThat(result.getSentences(), is(equalTo(2L * 3 * 20)));
+    assertThat(result.getStageTime(SectorThroughputBenchmark.Stage.EVALUATE), is(greaterThan(0.)));
+
+    // no evaluation without segmentation
+    result = benchmark.run(generated, 4, 1, SectorAnnotator.SegmentationMethod.NONE);
+    assertThat(result.getStageTime(SectorThroughputBenchmark.Stage.EVALUATE), is(equalTo(0.)));
+    String json = SectorThroughputBenchmark.toJSON(Collections.singletonMap("test", true), Collections.singletonList(result));
+    assertTrue(json.contains("\"p95\""));
+  }
+
+}
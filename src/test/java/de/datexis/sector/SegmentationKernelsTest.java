@@ -0,0 +1,227 @@
+package de.datexis.sector;
+
+import de.datexis.common.Resource;
+import de.datexis.model.Annotation;
+import de.datexis.model.Dataset;
+import de.datexis.model.Document;
+import de.datexis.sector.eval.SegmentationEvaluation;
+import de.datexis.sector.model.SectionAnnotation;
+import de.datexis.sector.reader.WikiSectionReader;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Random;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.rng.distribution.impl.NormalDistribution;
+import org.nd4j.linalg.dimensionalityreduction.PCA;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Equivalence harness for segmentation and evaluation kernels. The Reference class contains frozen copies of the
+ * original implementations, so that optimized kernels in SectorAnnotator and SegmentationEvaluation can be checked
+ * against them within tolerance.
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class SegmentationKernelsTest {
+
+  private static final double EPS = 1e-4;
+  private static final int[] LENGTHS = { 3, 10, 100, 400 };
+  private static final int[] SIZES = { 64, 128 };
+
+  @Test
+  public void kernelsShouldEqualReference() {
+    Random random = new Random(42);
+    for(int length : LENGTHS) {
+      for(int size : SIZES) {
+        INDArray fw = randomMatrix(random, length, size);
+        INDArray bw = randomMatrix(random, length, size);
+        String params = "T=" + length + ", H=" + size;
+
+        INDArray smooth = SegmentationKernels.gaussianSmooth(fw, 1.5);
+        assertTrue("gaussianSmooth " + params, smooth.equalsWithEps(Reference.gaussianSmooth(fw, 1.5), EPS));
+        assertTrue("deviation " + params, SegmentationKernels.deviation(fw).equalsWithEps(Reference.deviation(fw), EPS));
+        INDArray dev = Reference.deviation(fw, bw);
+        assertTrue("deviation(fw,bw) " + params, SegmentationKernels.deviation(fw, bw).equalsWithEps(dev, EPS));
+        assertThat("detectEdges " + params, SegmentationKernels.detectEdges(dev), is(equalTo(Reference.detectEdges(dev))));
+        assertThat("detectEdges(count) " + params, SegmentationKernels.detectEdges(dev, 5), is(equalTo(Reference.detectEdges(dev, 5))));
+
+        if(length > 16) {
+          // principal components are only defined up to their sign
+          assertEqualsUpToSign("pca " + params, SegmentationKernels.pca(fw, 16), Reference.pca(fw, 16));
+          assertTrue("bidirectionalDeviation " + params,
+            SegmentationKernels.bidirectionalDeviation(fw, bw).equalsWithEps(Reference.bidirectionalDeviation(fw, bw), EPS));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void segmentationScoresShouldEqualReference() throws IOException {
+    Dataset test = WikiSectionReader.readDatasetFromJSON(Resource.fromJAR("testdata").resolve("en_disease_dementia.json"));
+    Document doc = test.getDocument(0).get();
+    // predict sections shifted by one sentence
+    for(SectionAnnotation gold : doc.getAnnotations(Annotation.Source.GOLD, SectionAnnotation.class)) {
+      int index = Math.min(doc.getSentenceIndexAtPosition(gold.getBegin()) + 1, doc.countSentences() - 1);
+      SectionAnnotation pred = new SectionAnnotation(Annotation.Source.PRED, gold.getType(), gold.getSectionHeading());
+      pred.setSectionLabel(gold.getSectionLabel());
+      pred.setBegin(doc.getSentence(index).getBegin());
+      pred.setEnd(gold.getEnd());
+      doc.addAnnotation(pred);
+    }
+    SegmentationEvaluation eval = new SegmentationEvaluation("test");
+    for(int k = 2; k < 10; k++) {
+      int[] reference = eval.getPositionsArray(doc, Annotation.Source.GOLD);
+      int[] hypothesis = eval.getPositionsArray(doc, Annotation.Source.PRED);
+      assertEquals("Pk k=" + k, Reference.calculatePk(reference, hypothesis, k), eval.calculatePk(doc, k), 1e-9);
+      assertEquals("WD k=" + k, Reference.calculateWD(reference, hypothesis, k), eval.calculateWD(doc, k), 1e-9);
+    }
+    eval.calculateScores(Collections.singletonList(doc));
+    assertTrue(eval.getPk() > 0.);
+  }
+
+  private static INDArray randomMatrix(Random random, int rows, int columns) {
+    float[][] data = new float[rows][columns];
+    for(int t = 0; t < rows; t++) {
+      for(int i = 0; i < columns; i++) data[t][i] = (float) random.nextGaussian();
+    }
+    return Nd4j.create(data);
+  }
+
+  private static void assertEqualsUpToSign(String message, INDArray actual, INDArray expected) {
+    assertThat(message, actual.shape(), is(equalTo(expected.shape())));
+    for(int c = 0; c < expected.columns(); c++) {
+      INDArray a = actual.getColumn(c);
+      INDArray e = expected.getColumn(c);
+      if(a.mul(e).sumNumber().doubleValue() < 0) a = a.neg();
+      assertTrue(message + " column " + c, a.equalsWithEps(e, EPS));
+    }
+  }
+
+  /**
+   * Frozen copies of the original kernel implementations. Do not optimize these.
+   */
+  static class Reference {
+
+    static INDArray pca(INDArray m, int dimensions) {
+      return m.mmul(PCA.pca_factor(m.dup(), dimensions, true));
+    }
+
+    static INDArray gaussianSmooth(INDArray target, double sd) {
+      INDArray matrix = target.dup('c');
+      INDArray kernel = Nd4j.zeros(matrix.rows(), 1, 'c');
+      INDArray smooth = Nd4j.zerosLike(target);
+      for(int t = 0; t < kernel.length(); t++) {
+        NormalDistribution dist = new NormalDistribution(t, sd);
+        for(int k = 0; k < kernel.length(); k++) {
+          kernel.putScalar(k, dist.density(k));
+        }
+        INDArray conv = matrix.mulColumnVector(kernel);
+        smooth.getRow(t).assign(conv.sum(0));
+      }
+      return smooth;
+    }
+
+    static INDArray deviation(INDArray fw, INDArray bw) {
+      INDArray dev = Nd4j.zeros(fw.rows(), 1);
+      for(int t = 1; t < dev.rows(); t++) {
+        double fwd1 = (t < dev.rows() - 1) ? Transforms.cosineDistance(fw.getRow(t), fw.getRow(t + 1)) : 0;
+        double bwd1 = (t > 2) ? Transforms.cosineDistance(bw.getRow(t - 1), bw.getRow(t - 2)) : 0;
+        double geom = Math.sqrt(fwd1 * bwd1);
+        dev.putScalar(t, 0, Double.isNaN(geom) ? 0. : geom);
+      }
+      return dev;
+    }
+
+    static INDArray deviation(INDArray target) {
+      INDArray dev = Nd4j.zeros(target.rows(), 1);
+      for(int t = 1; t < dev.rows(); t++) {
+        dev.putScalar(t, 0, Transforms.cosineDistance(target.getRow(t), target.getRow(t - 1)));
+      }
+      return dev;
+    }
+
+    static INDArray bidirectionalDeviation(INDArray docFW, INDArray docBW) {
+      INDArray docFwPCA = docFW.mmul(PCA.pca_factor(docFW.dup(), 16, false));
+      INDArray docBwPCA = docBW.mmul(PCA.pca_factor(docBW.dup(), 16, false));
+      INDArray zeros = Nd4j.zeros(docFW.rows(), 1);
+      docFwPCA.putColumn(0, zeros);
+      docBwPCA.putColumn(0, zeros);
+      docFwPCA.putColumn(1, zeros);
+      docBwPCA.putColumn(1, zeros);
+      return deviation(gaussianSmooth(docFwPCA, 1.5), gaussianSmooth(docBwPCA, 1.5));
+    }
+
+    static INDArray detectEdges(INDArray dev) {
+      INDArray result = Nd4j.zeros(dev.rows(), 1);
+      for(int t = 1; t < result.rows() - 1; t++) {
+        result.putScalar(t, 0, ((dev.getDouble(t - 1) < dev.getDouble(t)) && (dev.getDouble(t + 1) < dev.getDouble(t))) ? 1 : 0);
+      }
+      result.putScalar(0, 0, 1);
+      return result;
+    }
+
+    static INDArray detectEdges(INDArray dev, int count) {
+      INDArray peaks = Nd4j.zeros(dev.rows(), 1);
+      for(int t = 1; t < peaks.rows() - 1; t++) {
+        if((dev.getDouble(t - 1) < dev.getDouble(t)) && (dev.getDouble(t + 1) < dev.getDouble(t))) {
+          peaks.putScalar(t, 0, dev.getDouble(t));
+        }
+      }
+      INDArray result = Nd4j.zeros(dev.rows(), 1);
+      INDArray sortedPeaks = Nd4j.sortWithIndices(Nd4j.toFlattened(peaks).dup(), 1, false)[0];
+      INDArray sortedMags = Nd4j.sortWithIndices(Nd4j.toFlattened(dev).dup(), 1, false)[0];
+      for(int i = 0; i < count - 1; i++) {
+        int idx = sortedPeaks.getInt(i);
+        if(idx == 0) continue;
+        if(peaks.getDouble(idx) == 0.) break;
+        result.putScalar(idx, 0, 1);
+      }
+      int i = 0;
+      while(i < dev.rows() && result.sumNumber().intValue() < count - 1) {
+        int idx = sortedMags.getInt(i++);
+        if(idx == 0) continue;
+        if(result.getDouble(idx) == 1.) continue;
+        result.putScalar(idx, 0, 1);
+      }
+      result.putScalar(0, 0, 1);
+      return result;
+    }
+
+    static double calculatePk(int[] reference, int[] hypothesis, int k) {
+      if(reference.length == 1) return 0.;
+      if(reference.length == 2) return ((reference[0] == reference[1]) == (hypothesis[0] == hypothesis[1])) ? 0. : 1.;
+      double sum = 0, count = 0;
+      for(int t = 0; t < reference.length - k; t++) {
+        if((reference[t] == reference[t + k]) != (hypothesis[t] == hypothesis[t + k])) sum++;
+        count++;
+      }
+      return count > 0 ? sum / count : 0.;
+    }
+
+    static double calculateWD(int[] reference, int[] hypothesis, int k) {
+      double sum = 0, count = 0;
+      for(int t = 0; t < reference.length - k; t++) {
+        int sumRef = 0, sumHyp = 0;
+        for(int j = 0; j < k; j++) {
+          if(reference[t + j] == 0) return 1.;
+          if(reference[t + j] == reference[t + j + 1]) sumRef++;
+          if(hypothesis[t + j] == hypothesis[t + j + 1]) sumHyp++;
+        }
+        if(sumRef != sumHyp) sum++;
+        count++;
+      }
+      if(reference.length == 1) return 0.;
+      if(reference.length == 2) return ((reference[0] == reference[1]) == (hypothesis[0] == hypothesis[1])) ? 0. : 1.;
+      return count > 0 ? sum / count : 0.;
+    }
+
+  }
+
+}
@@ -0,0 +1,96 @@
+package de.datexis.sector.cache;
+
+import de.datexis.model.Annotation;
+import de.datexis.model.Dataset;
+import de.datexis.model.Document;
+import de.datexis.sector.SectorTestFixtures;
+import de.datexis.sector.SectorAnnotator;
+import de.datexis.sector.SectorAnnotator.SegmentationMethod;
+import de.datexis.sector.model.SectionAnnotation;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class AnnotationCacheTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Dataset train;
+  private Document doc;
+
+  @Before
+  public void setup() throws IOException {
+    train = SectorTestFixtures.readTestDataset();
+    doc = train.getDocument(0).get();
+  }
+
+  private SectorAnnotator createAnnotator() {
+    return SectorTestFixtures.createTinyAnnotator(train, 8, 4, 4);
+  }
+
+  private List<String> getSections(Document doc) {
+    return doc.streamAnnotations(Annotation.Source.PRED, SectionAnnotation.class)
+      .sorted(Comparator.comparingInt(SectionAnnotation::getBegin))
+      .map(ann -> ann.getBegin() + "-" + ann.getEnd() + ":" + ann.getSectionHeading())
+      .collect(Collectors.toList());
+  }
+
+  @Test
+  public void cachedAnnotationsShouldBeRestoredFromMemoryAndDisk() throws IOException {
+    Path dir = folder.getRoot().toPath();
+    SectorAnnotator annotator = createAnnotator();
+    Document first = doc.clone();
+    try(AnnotationCache cache = new AnnotationCache(dir).withVectors(true)) {
+      cache.annotate(annotator, Collections.singletonList(first), SegmentationMethod.NL);
+      assertThat(cache.getMisses(), is(equalTo(1L)));
+      Document second = doc.clone();
+      cache.annotate(annotator, Collections.singletonList(second), SegmentationMethod.NL);
+      assertThat(cache.getMemoryHits(), is(equalTo(1L)));
+      assertThat(getSections(second), is(equalTo(getSections(first))));
+    }
+    // reopen persistent tier
+    try(AnnotationCache cache = new AnnotationCache(dir)) {
+      Document third = doc.clone();
+      cache.annotate(annotator, Collections.singletonList(third), SegmentationMethod.NL);
+      assertThat(cache.getDiskHits(), is(equalTo(1L)));
+      assertThat(getSections(third), is(equalTo(getSections(first))));
+      assertTrue(third.getSentence(0).getVector("embeddingFW").equalsWithEps(first.getSentence(0).getVector("embeddingFW"), 1e-6));
+      // a different model must not hit the cache
+      cache.annotate(createAnnotator(), Collections.singletonList(doc.clone()), SegmentationMethod.NL);
+      assertThat(cache.getMisses(), is(equalTo(1L)));
+    }
+  }
+
+  @Test
+  public void storeShouldRecoverIndexFromLog() throws IOException {
+    Path dir = folder.getRoot().toPath();
+    byte[] key = new byte[AppendOnlyStore.KEY_LENGTH];
+    key[0] = 42;
+    try(AppendOnlyStore store = new AppendOnlyStore(dir)) {
+      store.put(key, new byte[] {1, 2, 3});
+    }
+    Files.delete(dir.resolve("data.idx"));
+    try(AppendOnlyStore store = new AppendOnlyStore(dir)) {
+      assertThat(store.size(), is(equalTo(1)));
+      assertThat(store.get(key), is(equalTo(new byte[] {1, 2, 3})));
+    }
+  }
+
+}
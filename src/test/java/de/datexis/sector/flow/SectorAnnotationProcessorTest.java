@@ -0,0 +1,128 @@
+package de.datexis.sector.flow;
+
+import de.datexis.model.Dataset;
+import de.datexis.model.Document;
+import de.datexis.sector.SectorTestFixtures;
+import de.datexis.sector.SectorAnnotator;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class SectorAnnotationProcessorTest {
+
+  private static final int NUM_DOCS = 11;
+  private static final int BUFFER_SIZE = 4;
+
+  @Test
+  public void processorShouldAnnotateInOrderWithBackpressure() throws IOException, InterruptedException {
+    Dataset train = SectorTestFixtures.readTestDataset();
+    SectorAnnotator annotator = SectorTestFixtures.createTinyAnnotator(train, 16, 16, 2);
+
+    Document expected = train.getDocument(0).get().clone();
+    annotator.annotate(Collections.singletonList(expected), SectorAnnotator.SegmentationMethod.BEMD);
+    int expectedSections = new AnnotatedDocument(expected, 0).getSections().size();
+
+    List<Document> docs = new ArrayList<>();
+    for(int i = 0; i < NUM_DOCS; i++) {
+      Document doc = train.getDocument(0).get().clone();
+      doc.setId("doc" + i);
+      docs.add(doc);
+    }
+
+    CountingPublisher publisher = new CountingPublisher(docs);
+    SectorAnnotationProcessor processor = annotator.createProcessor()
+      .withBatching(3, 5)
+      .withBufferSize(BUFFER_SIZE)
+      .withParallelism(2)
+      .withOrdering(true);
+    publisher.subscribe(processor);
+
+    List<AnnotatedDocument> results = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch done = new CountDownLatch(1);
+    AtomicInteger maxOutstanding = new AtomicInteger();
+    Throwable[] error = new Throwable[1];
+    processor.subscribe(new Flow.Subscriber<AnnotatedDocument>() {
+      Flow.Subscription subscription;
+      @Override
+      public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(1);
+      }
+      @Override
+      public void onNext(AnnotatedDocument doc) {
+        results.add(doc);
+        maxOutstanding.accumulateAndGet((int) (publisher.emitted.get() - results.size()), Math::max);
+        subscription.request(1);
+      }
+      @Override
+      public void onError(Throwable throwable) {
+        error[0] = throwable;
+        done.countDown();
+      }
+      @Override
+      public void onComplete() {
+        done.countDown();
+      }
+    });
+
+    assertTrue(done.await(60, TimeUnit.SECONDS));
+    assertThat(error[0], is(nullValue()));
+    assertThat(results.size(), is(equalTo(NUM_DOCS)));
+    for(int i = 0; i < NUM_DOCS; i++) {
+      assertThat(results.get(i).getSequence(), is(equalTo((long) i)));
+      assertThat(results.get(i).getDocument().getId(), is(equalTo("doc" + i)));
+      assertThat(results.get(i).getSections().size(), is(equalTo(expectedSections)));
+    }
+    assertThat(maxOutstanding.get(), is(lessThanOrEqualTo(BUFFER_SIZE)));
+  }
+
+  /**
+   * Emits Documents synchronously on request and counts how many were emitted.
+   */
+  private static class CountingPublisher implements Flow.Publisher<Document> {
+
+    final List<Document> docs;
+    final AtomicLong emitted = new AtomicLong();
+
+    CountingPublisher(List<Document> docs) {
+      this.docs = docs;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Document> subscriber) {
+      subscriber.onSubscribe(new Flow.Subscription() {
+        boolean completed = false;
+        @Override
+        public synchronized void request(long n) {
+          while(n-- > 0 && emitted.get() < docs.size()) {
+            subscriber.onNext(docs.get((int) emitted.getAndIncrement()));
+          }
+          if(!completed && emitted.get() == docs.size()) {
+            completed = true;
+            subscriber.onComplete();
+          }
+        }
+        @Override
+        public void cancel() {}
+      });
+    }
+
+  }
+
+}
@@ -0,0 +1,89 @@
+package de.datexis.sector.reader;
+
+import de.datexis.common.Resource;
+import de.datexis.model.Annotation;
+import de.datexis.model.Dataset;
+import de.datexis.model.Document;
+import de.datexis.sector.model.SectionAnnotation;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.isIn;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class SyntheticCorpusGeneratorTest {
+
+  @Test
+  public void documentsShouldHaveValidSections() {
+    SyntheticCorpusGenerator generator = new SyntheticCorpusGenerator()
+      .withSeed(7)
+      .withDocuments(20)
+      .withSections(2, 5)
+      .withSentencesPerSection(3, 3)
+      .withVocabulary(1000, 1.0);
+    List<Document> docs = generator.stream().collect(Collectors.toList());
+    assertThat(docs.size(), is(equalTo(20)));
+    Map<String,Integer> counts = new HashMap<>();
+    for(Document doc : docs) {
+      List<SectionAnnotation> sections = new ArrayList<>(doc.getAnnotations(Annotation.Source.GOLD, SectionAnnotation.class));
+      assertTrue(sections.size() >= 2 && sections.size() <= 5);
+      assertThat(doc.countSentences(), is(equalTo(3 * sections.size())));
+      int end = 0;
+      for(SectionAnnotation section : sections) {
+        assertThat(section.getBegin(), is(equalTo(end)));
+        assertThat(section.getSectionLabel(), isIn(generator.getLabels()));
+        assertThat(doc.getSentence(doc.getSentenceIndexAtPosition(section.getBegin())).getBegin(), is(equalTo(section.getBegin())));
+        end = section.getEnd();
+      }
+      assertThat(end, is(equalTo(doc.getEnd())));
+      doc.streamTokens().forEach(t -> counts.merge(t.getText().toLowerCase(), 1, Integer::sum));
+    }
+    // Zipf distribution: the first rank is the most frequent word
+    String top = counts.entrySet().stream().max(Map.Entry.comparingByValue()).get().getKey();
+    assertThat(top, is(equalTo(SyntheticCorpusGenerator.getWord(0))));
+    // documents are reproducible
+    assertThat(generator.createDocument(3).getText(), is(equalTo(docs.get(3).getText())));
+  }
+
+  @Test
+  public void jsonShouldBeReadableAsWikiSection() throws IOException {
+    SyntheticCorpusGenerator generator = new SyntheticCorpusGenerator().withDocuments(5);
+    Resource file = Resource.createTempFile("synthetic.json");
+    try(OutputStream out = Files.newOutputStream(file.getPath())) {
+      assertThat(generator.writeJSON(out), is(equalTo(5L)));
+    }
+    Dataset dataset = WikiSectionReader.readDatasetFromJSON(file);
+    Dataset expected = generator.createDataset("synthetic");
+    assertThat(dataset.countDocuments(), is(equalTo(5)));
+    for(int i = 0; i < 5; i++) {
+      Document doc = dataset.getDocument(i).get();
+      Document exp = expected.getDocument(i).get();
+      assertThat(doc.getId(), is(equalTo(exp.getId())));
+      assertThat(doc.countSentences(), is(equalTo(exp.countSentences())));
+      assertThat(doc.countSentences(), is(greaterThan(0)));
+      List<SectionAnnotation> sections = new ArrayList<>(doc.getAnnotations(Annotation.Source.GOLD, SectionAnnotation.class));
+      List<SectionAnnotation> expSections = new ArrayList<>(exp.getAnnotations(Annotation.Source.GOLD, SectionAnnotation.class));
+      assertThat(sections.size(), is(equalTo(expSections.size())));
+      for(int s = 0; s < sections.size(); s++) {
+        assertThat(sections.get(s).getBegin(), is(equalTo(expSections.get(s).getBegin())));
+        assertThat(sections.get(s).getEnd(), is(equalTo(expSections.get(s).getEnd())));
+        assertThat(sections.get(s).getSectionLabel(), is(equalTo(expSections.get(s).getSectionLabel())));
+      }
+    }
+  }
+
+}
@@ -0,0 +1,136 @@
+package de.datexis.sector.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import de.datexis.common.ObjectSerializer;
+import de.datexis.model.Dataset;
+import de.datexis.model.Document;
+import de.datexis.preprocess.DocumentFactory;
+import de.datexis.sector.SectorTestFixtures;
+import de.datexis.sector.SectorAnnotator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class SectorAnnotationServiceTest {
+
+  private SectorAnnotationService service;
+  private int port;
+
+  @Before
+  public void setup() throws IOException {
+    Dataset train = SectorTestFixtures.readTestDataset();
+    service = new SectorAnnotationService(SectorTestFixtures.createTinyAnnotator(train, 8, 4, 8))
+      .withSegmentation(SectorAnnotator.SegmentationMethod.NL)
+      .withBatching(8, 200);
+    port = service.start();
+  }
+
+  @After
+  public void teardown() {
+    service.close();
+  }
+
+  @Test
+  public void concurrentRequestsShouldBeBatched() throws Exception {
+    int numRequests = 8;
+    ExecutorService clients = Executors.newFixedThreadPool(numRequests);
+    List<Future<JsonNode>> responses = new ArrayList<>();
+    for(int i = 0; i < numRequests; i++) {
+      String request = ObjectSerializer.getJSONRaw(Collections.singletonMap("text", "Dementia is a disease " + i + ".\nIt has symptoms."));
+      responses.add(clients.submit(() -> post("/annotate", request)));
+    }
+    for(Future<JsonNode> response : responses) {
+      JsonNode doc = response.get().get("documents").get(0);
+      assertThat(doc.get("sentences").asInt(), is(equalTo(2)));
+      assertThat(doc.get("sections").size(), is(equalTo(2)));
+    }
+    clients.shutdown();
+
+    ServiceMetrics metrics = service.getMetrics();
+    assertThat(metrics.getRequests(), is(equalTo((long) numRequests)));
+    assertTrue(metrics.getBatches() < numRequests);
+    assertTrue(metrics.getLatencyPercentile(99) >= metrics.getLatencyPercentile(50));
+
+    JsonNode stats = ObjectSerializer.getObjectMapper().readTree(new URL("http://localhost:" + port + "/metrics").openStream());
+    assertThat(stats.get("requests").asInt(), is(equalTo(numRequests)));
+  }
+
+  @Test
+  public void invalidRequestShouldFail() throws Exception {
+    HttpURLConnection conn = open("/annotate", "{\"id\":\"x\"}");
+    assertThat(conn.getResponseCode(), is(equalTo(400)));
+  }
+
+  @Test
+  public void unexpectedErrorShouldReturnError() throws Exception {
+    service.batcher.close();
+    service.batcher = null;
+    HttpURLConnection conn = open("/annotate", "{\"text\":\"Dementia is a disease.\"}");
+    assertThat(conn.getResponseCode(), is(equalTo(500)));
+  }
+
+  @Test
+  public void submitShouldBeAllOrNothing() throws Exception {
+    ServiceMetrics metrics = new ServiceMetrics();
+    try(MicroBatcher batcher = new MicroBatcher(service.annotator, SectorAnnotator.SegmentationMethod.NL, 8, 500, 2, metrics)) {
+      List<Document> docs = new ArrayList<>();
+      for(int i = 0; i < 3; i++) docs.add(DocumentFactory.fromText("Dementia is a disease " + i + "."));
+      try {
+        batcher.submit(docs);
+        fail("request should be rejected");
+      } catch(RejectedExecutionException e) {
+        assertThat(batcher.getQueueLength(), is(equalTo(0)));
+        assertThat(metrics.getRejected(), is(equalTo(1L)));
+      }
+
+      // cancelled Documents are not annotated
+      List<CompletableFuture<Document>> results = batcher.submit(docs.subList(0, 2));
+      for(CompletableFuture<Document> result : results) result.cancel(false);
+      Thread.sleep(1000);
+      assertThat(batcher.getQueueLength(), is(equalTo(0)));
+      assertThat(metrics.getBatches(), is(equalTo(0L)));
+    }
+  }
+
+  private JsonNode post(String path, String body) throws IOException {
+    HttpURLConnection conn = open(path, body);
+    assertThat(conn.getResponseCode(), is(equalTo(200)));
+    try(InputStream in = conn.getInputStream()) {
+      return ObjectSerializer.getObjectMapper().readTree(in);
+    }
+  }
+
+  private HttpURLConnection open(String path, String body) throws IOException {
+    HttpURLConnection conn = (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+    conn.setRequestMethod("POST");
+    conn.setDoOutput(true);
+    try(OutputStream out = conn.getOutputStream()) {
+      out.write(body.getBytes(StandardCharsets.UTF_8));
+    }
+    return conn;
+  }
+
+}
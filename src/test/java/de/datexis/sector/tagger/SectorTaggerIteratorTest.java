@@ -2,6 +2,7 @@ package de.datexis.sector.tagger;
 
 import com.google.common.collect.Lists;
 import de.datexis.common.Resource;
+import de.datexis.common.WordHelpers;
 import de.datexis.encoder.EncodingHelpers;
 import de.datexis.encoder.impl.BagOfWordsEncoder;
 import de.datexis.encoder.impl.DummyEncoder;
@@ -9,19 +10,26 @@ import de.datexis.encoder.impl.StructureEncoder;
 import de.datexis.model.Annotation;
 import de.datexis.model.Dataset;
 import de.datexis.model.Document;
+import de.datexis.model.DocumentWindow;
 import de.datexis.model.Sentence;
 import de.datexis.sector.encoder.HeadingEncoder;
 import de.datexis.sector.encoder.HeadingTag;
 import de.datexis.sector.reader.WikiSectionReader;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.api.MultiDataSet;
 import org.nd4j.linalg.factory.Nd4j;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.is;
@@ -31,6 +39,9 @@ import static org.mockito.Mockito.mock;
 
 public class SectorTaggerIteratorTest {
 
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
   private SectorTagger sectorTagger;
   private List<Document> documents;
   private Dataset train;
@@ -98,6 +109,129 @@ public class SectorTaggerIteratorTest {
     assertThat(actualFlagEncoding, is(equalTo(expectedFlagEncoding)));
   }
 
+  @Test
+  public void windowTargetsShouldBeAlignedWithDocument() {
+    Document doc = documents.get(0);
+    int windowLength = 5;
+    SectorTaggerIterator it = new SectorTaggerIterator(DocumentSentenceIterator.Stage.TRAIN, train, sectorTagger, 1, false, false);
+    INDArray expected = it.encodeTarget(Lists.newArrayList(doc), doc.countSentences(), Sentence.class);
+    for(int offset = 0; offset + windowLength <= doc.countSentences(); offset++) {
+      DocumentWindow window = new DocumentWindow(doc, offset, windowLength);
+      INDArray actual = it.encodeTarget(Lists.newArrayList(window), windowLength, Sentence.class);
+      for(int t = 0; t < windowLength; t++) {
+        assertThat(EncodingHelpers.getTimeStep(actual, 0, t), is(equalTo(EncodingHelpers.getTimeStep(expected, 0, offset + t))));
+      }
+    }
+  }
+
+  @Test
+  public void windowIteratorShouldRespectTimestepBudget() {
+    int windowLength = 8;
+    long budget = 100;
+    SectorTaggerWindowIterator it = new SectorTaggerWindowIterator(DocumentSentenceIterator.Stage.TRAIN, documents, sectorTagger, windowLength, budget, 4, true, false);
+    long timesteps = 0;
+    while(it.hasNext()) {
+      DocumentSentenceIterator.DocumentBatch batch = it.nextDocumentBatch();
+      assertThat(batch.maxDocLength <= windowLength, is(true));
+      for(Document d : batch.docs) timesteps += d.countSentences();
+    }
+    assertThat(timesteps, is(equalTo(it.getEpochTimesteps())));
+    assertThat(timesteps >= budget && timesteps < budget + windowLength, is(true));
+  }
+
+  @Test
+  public void budgetBatchesShouldFitIntoTimestepBudget() {
+    List<Document> docs = createWindows(20);
+    long budget = 40;
+    SectorTaggerIterator it = new SectorTaggerIterator(DocumentSentenceIterator.Stage.TRAIN, docs, sectorTagger, 4, true, false);
+    it.withTimestepBudget(budget);
+    int count = 0;
+    while(it.hasNext()) {
+      DocumentSentenceIterator.DocumentBatch batch = it.nextDocumentBatch();
+      assertThat(batch.size, is(equalTo(batch.docs.size())));
+      assertThat((long) batch.size * batch.maxDocLength <= budget, is(true));
+      count += batch.size;
+    }
+    assertThat(count, is(equalTo(docs.size())));
+    assertThat(it.getBatchStatistics().getFillRatio() > 0.5, is(true));
+  }
+
+  @Test
+  public void replayedBatchesShouldEqualGeneratedBatches() throws IOException {
+    Path dir = folder.getRoot().toPath();
+    SectorTaggerIterator source = new SectorTaggerIterator(DocumentSentenceIterator.Stage.TRAIN, documents, sectorTagger, 4, false, false);
+    List<MultiDataSet> expected = new ArrayList<>();
+    try(ReplayMultiDataSetIterator it = new ReplayMultiDataSetIterator(source, dir, "train", source.getReplayKey())) {
+      while(it.hasNext()) expected.add(it.next());
+      assertThat(it.isReplaying(), is(true));
+      it.reset();
+      int i = 0;
+      while(it.hasNext()) {
+        MultiDataSet actual = it.next();
+        assertThat(actual.getFeatures(0), is(equalTo(expected.get(i).getFeatures(0))));
+        assertThat(actual.getLabels(0), is(equalTo(expected.get(i).getLabels(0))));
+        assertThat(actual.getFeaturesMaskArray(2), is(equalTo(expected.get(i).getFeaturesMaskArray(2))));
+        i++;
+      }
+      assertThat(i, is(equalTo(expected.size())));
+    }
+    // a different encoder must invalidate the shard
+    BagOfWordsEncoder bagEncoder = new BagOfWordsEncoder();
+    bagEncoder.trainModel(documents, 2, WordHelpers.Language.EN);
+    sectorTagger.setInputEncoders(bagEncoder, sectorTagger.embEncoder, sectorTagger.flagEncoder);
+    SectorTaggerIterator changed = new SectorTaggerIterator(DocumentSentenceIterator.Stage.TRAIN, documents, sectorTagger, 4, false, false);
+    try(ReplayMultiDataSetIterator it = new ReplayMultiDataSetIterator(changed, dir, "train", changed.getReplayKey())) {
+      assertThat(it.isReplaying(), is(false));
+      while(it.hasNext()) it.next();
+      assertThat(it.isReplaying(), is(true));
+    }
+    // the stale shard is removed without a disk budget
+    try(Stream<Path> files = Files.list(dir)) {
+      assertThat(files.filter(file -> file.toString().endsWith(".bin")).count(), is(equalTo(1L)));
+    }
+    // shards that exceed the disk budget are not recorded
+    changed.reset();
+    try(ReplayMultiDataSetIterator it = new ReplayMultiDataSetIterator(changed, folder.newFolder().toPath(), "train", changed.getReplayKey()).withDiskBudget(1024)) {
+      int count = 0;
+      while(it.hasNext()) {
+        it.next();
+        count++;
+      }
+      assertThat(count, is(equalTo(expected.size())));
+      assertThat(it.isReplaying(), is(false));
+    }
+  }
+
+  @Test
+  public void replayKeyShouldNotDependOnShuffling() {
+    List<Document> docs = createWindows(20);
+    String key = new SectorTaggerIterator(DocumentSentenceIterator.Stage.TRAIN, docs, sectorTagger, 4, true, false).getReplayKey();
+    for(int i = 0; i < 5; i++) {
+      SectorTaggerIterator it = new SectorTaggerIterator(DocumentSentenceIterator.Stage.TRAIN, docs, sectorTagger, 4, true, false);
+      it.reset();
+      assertThat(it.getReplayKey(), is(equalTo(key)));
+    }
+  }
+
+  @Test
+  public void randomizedSubsetsShouldNotBeReplayed() {
+    List<Document> documents = createWindows(4);
+    assertThat(new SectorTaggerIterator(DocumentSentenceIterator.Stage.TRAIN, documents, sectorTagger, -1, 4, true, false).isReplayable(), is(true));
+    assertThat(new SectorTaggerIterator(DocumentSentenceIterator.Stage.TRAIN, documents, sectorTagger, 1, 4, false, false).isReplayable(), is(true));
+    assertThat(new SectorTaggerIterator(DocumentSentenceIterator.Stage.TRAIN, documents, sectorTagger, 1, 4, true, false).isReplayable(), is(false));
+    assertThat(new SectorTaggerIterator(DocumentSentenceIterator.Stage.TRAIN, documents, sectorTagger, -1, 4, true, true).isReplayable(), is(false));
+    assertThat(new SectorTaggerWindowIterator(DocumentSentenceIterator.Stage.TRAIN, documents, sectorTagger, 4, -1, 4, false, false).isReplayable(), is(false));
+  }
+
+  /**
+   * @return windows of increasing length from the start of the test Document
+   */
+  private List<Document> createWindows(int count) {
+    List<Document> docs = new ArrayList<>();
+    for(int length = 1; length <= count; length++) docs.add(new DocumentWindow(documents.get(0), 0, length));
+    return docs;
+  }
+
   private MultiDataSet generateActualEncoding(DocumentSentenceIterator.DocumentBatch documentBatch) {
     SectorTaggerIterator sectorTaggerIterator = new SectorTaggerIterator(DocumentSentenceIterator.Stage.TRAIN, train, sectorTagger, 1, false, false);
     return sectorTaggerIterator.generateDataSet(documentBatch);
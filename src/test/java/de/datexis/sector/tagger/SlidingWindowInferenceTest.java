@@ -0,0 +1,76 @@
+package de.datexis.sector.tagger;
+
+import de.datexis.model.Dataset;
+import de.datexis.model.Document;
+import de.datexis.model.DocumentWindow;
+import de.datexis.model.Sentence;
+import de.datexis.sector.SectorTestFixtures;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class SlidingWindowInferenceTest {
+
+  private SectorTagger tagger;
+  private Document doc;
+
+  @Before
+  public void setup() throws IOException {
+    Dataset train = SectorTestFixtures.readTestDataset();
+    doc = train.getDocument(0).get();
+    tagger = SectorTestFixtures.createTinyTagger(train, 8, 4, 4);
+  }
+
+  @Test
+  public void windowsShouldCoverDocument() {
+    SlidingWindowInference inference = new SlidingWindowInference(tagger, 7, 3);
+    List<Document> windows = inference.createWindows(doc);
+    int covered = 0;
+    for(Document window : windows) {
+      DocumentWindow w = (DocumentWindow) window;
+      assertTrue(w.getOffset() <= covered);
+      assertTrue(w.countSentences() <= 7);
+      covered = w.getOffset() + w.countSentences();
+    }
+    assertThat(covered, is(equalTo(doc.countSentences())));
+  }
+
+  @Test
+  public void singleWindowShouldEqualFullInference() {
+    tagger.attachVectors(Collections.singletonList(doc), DocumentSentenceIterator.Stage.ENCODE, tagger.getTargetEncoder().getClass());
+    List<INDArray> expected = new ArrayList<>();
+    for(Sentence s : doc.getSentences()) expected.add(s.getVector("embeddingFW"));
+    new SlidingWindowInference(tagger, doc.countSentences(), 0).attachVectors(Collections.singletonList(doc), DocumentSentenceIterator.Stage.ENCODE, tagger.getTargetEncoder().getClass());
+    int t = 0;
+    for(Sentence s : doc.getSentences()) {
+      assertTrue(s.getVector("embeddingFW").equalsWithEps(expected.get(t++), 1e-5));
+    }
+  }
+
+  @Test
+  public void overlappingWindowsShouldAttachAllVectors() {
+    tagger.setInferenceWindowParams(8, 4);
+    tagger.attachVectors(Collections.singletonList(doc), DocumentSentenceIterator.Stage.ENCODE, tagger.getTargetEncoder().getClass());
+    for(Sentence s : doc.getSentences()) {
+      INDArray target = s.getVector(tagger.getTargetEncoder().getClass());
+      assertThat(target.length(), is(equalTo(tagger.getTargetEncoder().getEmbeddingVectorSize())));
+      assertThat(s.getVector(SectorEncoder.class).length(), is(equalTo(4L)));
+      assertTrue(Double.isFinite(target.sumNumber().doubleValue()));
+      // softmax outputs remain normalized after weighted averaging
+      assertThat(Math.abs(target.sumNumber().doubleValue() - 1.) < 1e-4, is(true));
+    }
+  }
+
+}
@@ -0,0 +1,75 @@
+package de.datexis.sector.tagger;
+
+import de.datexis.common.MetricsRegistry;
+import de.datexis.common.Resource;
+import de.datexis.model.Dataset;
+import de.datexis.sector.SectorTestFixtures;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class TrainingMetricsListenerTest {
+
+  private SectorTagger tagger;
+  private Dataset train;
+
+  @Before
+  public void setup() throws IOException {
+    train = SectorTestFixtures.readTestDataset();
+    tagger = SectorTestFixtures.createTinyTagger(train, 8, 4, 4);
+  }
+
+  @Test
+  public void testHistogram() {
+    MetricsRegistry metrics = new MetricsRegistry();
+    for(int i = 1; i <= 100; i++) metrics.histogram("time").record(i);
+    assertThat(metrics.histogram("time").getCount(), is(equalTo(100L)));
+    assertThat(metrics.histogram("time").getMean(), is(closeTo(50.5, 1e-9)));
+    assertThat(metrics.histogram("time").getPercentile(50), is(closeTo(50., 1e-9)));
+    assertThat(metrics.histogram("time").getPercentile(95), is(closeTo(95., 1e-9)));
+    assertThat(metrics.snapshot().get("time.max").doubleValue(), is(closeTo(100., 1e-9)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMetricTypeMismatch() {
+    MetricsRegistry metrics = new MetricsRegistry();
+    metrics.counter("train.examples");
+    metrics.gauge("train.examples");
+  }
+
+  @Test
+  public void testTrainingMetrics() throws IOException {
+    Resource dir = Resource.createTempDirectory();
+    tagger.setMetricsDirectory(dir);
+    tagger.trainModel(train, 2);
+
+    MetricsRegistry metrics = tagger.getMetrics();
+    int sentences = train.getDocument(0).get().countSentences();
+    assertThat(metrics.counter(TrainingMetricsListener.EPOCHS).get(), is(equalTo(2L)));
+    assertThat(metrics.counter(TrainingMetricsListener.ITERATIONS).get(), is(equalTo(2L)));
+    assertThat(metrics.counter(TrainingMetricsListener.EXAMPLES).get(), is(equalTo(2L)));
+    assertThat(metrics.counter(TrainingMetricsListener.TIMESTEPS).get(), is(equalTo(2L * sentences)));
+    assertThat(metrics.histogram(TrainingMetricsListener.BATCH_TIME).getCount(), is(greaterThan(0L)));
+    assertThat(metrics.gauge(TrainingMetricsListener.EXAMPLES_PER_SECOND).get(), is(greaterThan(0.)));
+
+    assertTrue(dir.resolve("metrics-epoch.csv").exists());
+    List<String> epochs = Files.readAllLines(dir.resolve("metrics-epoch.csv").getPath());
+    assertThat(epochs.size(), is(equalTo(3)));
+    assertTrue(epochs.get(0).startsWith("timestamp,epoch,iteration,"));
+    List<String> iterations = Files.readAllLines(dir.resolve("metrics-iteration.jsonl").getPath());
+    assertThat(iterations.size(), is(equalTo(2)));
+  }
+
+}
@@ -0,0 +1,201 @@
+package de.datexis.sector.tagger.distributed;
+
+import de.datexis.common.Resource;
+import de.datexis.encoder.impl.BagOfWordsEncoder;
+import de.datexis.encoder.impl.DummyEncoder;
+import de.datexis.encoder.impl.StructureEncoder;
+import de.datexis.model.Dataset;
+import de.datexis.model.Document;
+import de.datexis.sector.SectorTestFixtures;
+import de.datexis.sector.encoder.HeadingEncoder;
+import de.datexis.sector.reader.WikiSectionReader;
+import de.datexis.sector.tagger.SectorTagger;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
+ */
+public class ParameterServerTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Dataset train;
+  private BagOfWordsEncoder bagEncoder;
+  private StructureEncoder flagEncoder;
+  private HeadingEncoder headingEncoder;
+
+  @Before
+  public void setup() throws IOException {
+    Resource testDataPath = Resource.fromJAR("testdata").resolve("en_disease_dementia.json");
+    train = WikiSectionReader.readDatasetFromJSON(testDataPath);
+    train.addDocument(WikiSectionReader.readDatasetFromJSON(Resource.fromJAR("testdata").resolve("en_disease_higashi.json")).getDocument(0).get());
+    bagEncoder = new BagOfWordsEncoder();
+    bagEncoder.trainModel(train.getDocuments());
+    headingEncoder = new HeadingEncoder();
+    headingEncoder.trainModel(train.getDocuments());
+    flagEncoder = new StructureEncoder();
+    flagEncoder.trainModel(train.getDocuments());
+  }
+
+  private SectorTagger createTagger() {
+    SectorTagger tagger = SectorTestFixtures.createTinyTagger(bagEncoder, new DummyEncoder(), flagEncoder, headingEncoder, 8, 4);
+    tagger.setTrainingParams(-1, 32, 1, 2, true);
+    return tagger;
+  }
+
+  @Test
+  public void testTrainingWithRestartedWorker() throws Exception {
+    SectorTagger coordinator = createTagger();
+    INDArray initialParams = coordinator.getNN().params().dup();
+    int numWorkers = 2;
+    try(ParameterServer server = new ParameterServer(coordinator, numWorkers).withSchedule(1, 1, 2).withRoundTimeout(60000)) {
+      int port = server.start();
+
+      // worker 1 fails during the second round and is restarted
+      final AtomicBoolean failed = new AtomicBoolean(false);
+      List<Document> shard0 = ParameterServerWorker.createShard(train.getDocuments(), 0, numWorkers);
+      List<Document> shard1 = ParameterServerWorker.createShard(train.getDocuments(), 1, numWorkers);
+      ParameterServerWorker worker0 = new ParameterServerWorker(createTagger(), shard0, 0, port);
+      ParameterServerWorker worker1 = new ParameterServerWorker(createTagger(), shard1, 1, port) {
+        @Override
+        protected double trainRound(TrainingState state) {
+          if(state.round == 1 && !failed.getAndSet(true)) throw new IllegalStateException("simulated crash");
+          return super.trainRound(state);
+        }
+      };
+      ParameterServerWorker restarted = new ParameterServerWorker(createTagger(), shard1, 1, port);
+
+      Thread t0 = new Thread(() -> runWorker(worker0));
+      Thread t1 = new Thread(() -> {
+        try {
+          worker1.run();
+        } catch(Exception ex) {
+          runWorker(restarted);
+        }
+      });
+      t0.start();
+      t1.start();
+      server.awaitCompletion();
+      t0.join();
+      t1.join();
+
+      assertThat(failed.get(), is(true));
+      assertThat(server.snapshot().isFinished(), is(true));
+      assertThat(coordinator.getNN().params(), is(not(equalTo(initialParams))));
+      assertThat(coordinator.getNN().params(), is(equalTo(worker0.tagger.getNN().params())));
+      assertThat(coordinator.getNN().params(), is(equalTo(restarted.tagger.getNN().params())));
+    }
+  }
+
+  @Test(timeout = 600000)
+  public void testTrainingWithKilledWorkerProcess() throws Exception {
+    SectorTagger coordinator = createTagger();
+    INDArray initialParams = coordinator.getNN().params().dup();
+    int numWorkers = 2;
+    Path dir = folder.newFolder().toPath();
+    Path portFile = dir.resolve("parameterserver.port");
+    Path crashMarker = dir.resolve("worker1.crashed");
+
+    // a stale port file of a previous run points to a closed port
+    try(ServerSocket stale = new ServerSocket(0)) {
+      Files.write(portFile, String.valueOf(stale.getLocalPort()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    // worker 0 is started before the server and retries until the port file is replaced
+    List<Document> shard0 = ParameterServerWorker.createShard(train.getDocuments(), 0, numWorkers);
+    ParameterServerWorker worker0 = new ParameterServerWorker(createTagger(), shard0, 0, portFile).withConnectRetries(600, 100);
+    Thread t0 = new Thread(() -> runWorker(worker0));
+    t0.start();
+    Thread.sleep(500);
+
+    // worker 1 runs in a separate JVM and is killed during the second round, then restarted
+    Process worker1 = startWorkerProcess(portFile, 1, numWorkers, crashMarker);
+    try(ParameterServer server = new ParameterServer(coordinator, numWorkers, 42).withSchedule(1, 1, 2).withRoundTimeout(300000)) {
+      server.start();
+      server.writePortFile(portFile);
+
+      while(!Files.exists(crashMarker)) {
+        assertThat("worker process exited before the crash", worker1.isAlive(), is(true));
+        Thread.sleep(100);
+      }
+      worker1.destroyForcibly().waitFor();
+      Process restarted = startWorkerProcess(portFile, 1, numWorkers, null);
+
+      server.awaitCompletion();
+      t0.join();
+      assertThat(restarted.waitFor(), is(equalTo(0)));
+      assertThat(server.snapshot().isFinished(), is(true));
+      assertThat(coordinator.getNN().params(), is(not(equalTo(initialParams))));
+      assertThat(coordinator.getNN().params(), is(equalTo(worker0.tagger.getNN().params())));
+    } finally {
+      worker1.destroyForcibly();
+    }
+  }
+
+  private Process startWorkerProcess(Path portFile, int workerId, int numWorkers, Path crashMarker) throws IOException {
+    List<String> cmd = new ArrayList<>(Arrays.asList(
+      Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+      "-cp", System.getProperty("java.class.path"),
+      ParameterServerTest.class.getName(),
+      portFile.toString(), String.valueOf(workerId), String.valueOf(numWorkers)));
+    if(crashMarker != null) cmd.add(crashMarker.toString());
+    return new ProcessBuilder(cmd).inheritIO().start();
+  }
+
+  /**
+   * Run a single worker process with arguments: portFile workerId numWorkers [crashMarker]. If a crash marker is
+   * given, the worker creates the file in its second round and then blocks until it is killed.
+   */
+  public static void main(String[] args) throws Exception {
+    ParameterServerTest test = new ParameterServerTest();
+    test.setup();
+    int workerId = Integer.parseInt(args[1]);
+    int numWorkers = Integer.parseInt(args[2]);
+    Path crashMarker = args.length > 3 ? Paths.get(args[3]) : null;
+    List<Document> shard = ParameterServerWorker.createShard(test.train.getDocuments(), workerId, numWorkers);
+    new ParameterServerWorker(test.createTagger(), shard, workerId, Paths.get(args[0])) {
+      @Override
+      protected double trainRound(TrainingState state) {
+        if(crashMarker != null && state.round == 1) {
+          try {
+            Files.createFile(crashMarker);
+            Thread.sleep(Long.MAX_VALUE);
+          } catch(IOException | InterruptedException ex) {
+            throw new IllegalStateException(ex);
+          }
+        }
+        return super.trainRound(state);
+      }
+    }.run();
+    System.exit(0);
+  }
+
+  private void runWorker(ParameterServerWorker worker) {
+    try {
+      worker.run();
+    } catch(Exception ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+}